@@ -312,9 +312,11 @@ public class EclipseLauncherParser {
 
 		//only write the file if we actually have content
 		if (newlines.size() > 0) {
+			// the file may be linked to other installs, so replace it rather than write it in place
+			File temp = File.createTempFile(launcherConfigFile.getName(), ".tmp", launcherConfigFile.getParentFile()); //$NON-NLS-1$
 			BufferedWriter bw = null;
 			try {
-				bw = new BufferedWriter(new FileWriter(launcherConfigFile));
+				bw = new BufferedWriter(new FileWriter(temp));
 				for (int j = 0; j < newlines.size(); j++) {
 					String arg = (String) newlines.get(j);
 					if (arg == null)
@@ -322,11 +324,15 @@ public class EclipseLauncherParser {
 					bw.write(arg);
 					bw.newLine();
 				}
-				bw.flush();
+				bw.close();
+				bw = null;
+				if (!Utils.replaceFile(temp, launcherConfigFile))
+					throw new IOException(NLS.bind(Messages.exception_failedToRename, temp, launcherConfigFile));
 				Log.log(LogService.LOG_INFO, NLS.bind(Messages.log_launcherConfigSave, launcherConfigFile));
 			} finally {
 				if (bw != null)
 					bw.close();
+				temp.delete();
 			}
 		}
 		File previousLauncherIni = launcherData.getPreviousLauncherIni();
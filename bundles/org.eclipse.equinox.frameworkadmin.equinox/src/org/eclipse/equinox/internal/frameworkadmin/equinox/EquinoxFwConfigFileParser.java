@@ -459,21 +459,28 @@ public class EquinoxFwConfigFileParser {
 				Log.log(LogService.LOG_INFO, this, "saveFwConfig()", NLS.bind(Messages.log_renameSuccessful, outputFile, dest)); //$NON-NLS-1$
 			}
 
+		// the file may be linked to other installs, so replace it rather than write it in place
+		File temp = File.createTempFile(outputFile.getName(), ".tmp", outputFile.getParentFile()); //$NON-NLS-1$
 		FileOutputStream out = null;
 		try {
-			out = new FileOutputStream(outputFile);
+			out = new FileOutputStream(temp);
 			//			configProps = makeRelative(configProps, launcherData.getLauncher().getParentFile().toURI(), fwJar, outputFile.getParentFile(), getOSGiInstallArea(manipulator.getLauncherData()));
 			filterPropertiesFromSharedArea(configProps, manipulator);
 			configProps.store(out, header);
+			out.close();
+			out = null;
+			if (!Utils.replaceFile(temp, outputFile))
+				throw new IOException(NLS.bind(Messages.exception_failedToRename, temp, outputFile));
 			Log.log(LogService.LOG_INFO, NLS.bind(Messages.log_fwConfigSave, outputFile));
 		} finally {
 			try {
-				out.flush();
-				out.close();
+				if (out != null)
+					out.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 			out = null;
+			temp.delete();
 		}
 	}
 
@@ -179,6 +179,22 @@ public class Utils {
 		return parent.mkdirs();
 	}
 
+	/**
+	 * Replaces the given file by the given new file. A file that is written in place shares
+	 * the new content with every hard link to it, so a file that may be installed as a link
+	 * is replaced instead.
+	 *
+	 * @param newFile the file with the new content, in the folder of the file to replace
+	 * @param file the file to replace
+	 * @return <code>true</code> if the file was replaced
+	 */
+	public static boolean replaceFile(File newFile, File file) {
+		if (newFile.renameTo(file))
+			return true;
+		// renaming over an existing file fails on some platforms
+		return file.delete() && newFile.renameTo(file);
+	}
+
 	public static BundleInfo[] getBundleInfosFromList(List list) {
 		if (list == null)
 			return new BundleInfo[0];
@@ -39,6 +39,11 @@ public abstract class AbstractBufferingStep extends ProcessingStep {
 		stream.write(b);
 	}
 
+	public void write(byte[] b, int off, int len) throws IOException {
+		OutputStream stream = getOutputStream();
+		stream.write(b, off, len);
+	}
+
 	protected OutputStream getOutputStream() throws IOException {
 		if (incomingStream != null)
 			return incomingStream;
@@ -68,6 +68,11 @@ public class MD5Verifier extends ProcessingStep {
 		getDestination().write(b);
 	}
 
+	public void write(byte[] b, int off, int len) throws IOException {
+		md5.update(b, off, len);
+		getDestination().write(b, off, len);
+	}
+
 	public void close() throws IOException {
 		byte[] digest = md5.digest();
 		StringBuffer buf = new StringBuffer();
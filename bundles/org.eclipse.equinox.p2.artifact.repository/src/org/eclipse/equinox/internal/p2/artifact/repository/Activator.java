@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.core.runtime.URIUtil;
 import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
+import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.ProcessingStepHandler;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -43,6 +44,7 @@ public class Activator implements BundleActivator {
 	}
 
 	public void stop(BundleContext aContext) throws Exception {
+		ProcessingStepHandler.clearFactories();
 		Activator.context = null;
 		Activator.instance = null;
 		this.locationCache = null;
@@ -21,6 +21,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryIO;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -88,11 +89,8 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 	CompositeArtifactRepository(IArtifactRepositoryManager manager, CompositeRepositoryState state, IProgressMonitor monitor) throws ProvisionException {
 		super(manager.getAgent(), state.getName(), state.getType(), state.getVersion(), state.getLocation(), state.getDescription(), state.getProvider(), state.getProperties());
 		this.manager = manager;
-		SubMonitor sub = SubMonitor.convert(monitor, 100 * state.getChildren().length);
-		List<URI> repositoriesToBeRemovedOnFailure = new ArrayList<URI>();
 		boolean failOnChildFailure = shouldFailOnChildFailure(state);
-		for (URI child : state.getChildren())
-			addChild(child, false, sub.newChild(100), failOnChildFailure, repositoriesToBeRemovedOnFailure);
+		addChildren(Arrays.asList(state.getChildren()), false, monitor, failOnChildFailure);
 	}
 
 	/**
@@ -149,38 +147,63 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 
 	public void addChild(URI childURI) {
 		try {
-			addChild(childURI, true, null, false, null);
+			addChildren(Collections.singletonList(childURI), true, null, false);
 		} catch (ProvisionException e) {
 			//already logged
 		}
 	}
 
-	//successfully loaded repo will be added to the list repositoriesToBeRemovedOnFailure if the list is not null and the repo wasn't previously loaded
-	private void addChild(URI childURI, boolean save, IProgressMonitor monitor, boolean propagateException, List<URI> repositoriesToBeRemovedOnFailure) throws ProvisionException {
-		SubMonitor sub = SubMonitor.convert(monitor);
-		URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
-		if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute)) {
-			sub.done();
-			return;
+	/*
+	 * Adds the given children and loads them, several at a time. The loaded repositories are
+	 * remembered in the order of the children. If propagateException is true, loading stops
+	 * at the first child that fails and the children that this method loaded into the manager
+	 * are removed from it again.
+	 */
+	private void addChildren(List<URI> children, boolean save, IProgressMonitor monitor, boolean propagateException) throws ProvisionException {
+		List<URI> toLoad = new ArrayList<URI>(children.size());
+		for (URI childURI : children) {
+			URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
+			if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute))
+				continue;
+			childrenURIs.add(childURI);
+			toLoad.add(absolute);
 		}
-		childrenURIs.add(childURI);
-		if (save)
+		if (save && !toLoad.isEmpty())
 			save();
-		try {
-			boolean currentLoaded = getManager().contains(absolute);
-			IArtifactRepository repo = load(childURI, sub);
-			if (!currentLoaded && propagateException)
-				repositoriesToBeRemovedOnFailure.add(absolute);
-			loadedRepos.add(new ChildInfo(repo));
-		} catch (ProvisionException e) {
-			//repository failed to load. fall through
-			LogHelper.log(e);
-			if (propagateException) {
-				removeFromRepoManager(repositoriesToBeRemovedOnFailure);
-				String msg = NLS.bind(Messages.io_failedRead, getLocation());
-				throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, e));
+
+		final List<URI> addedToManager = Collections.synchronizedList(new ArrayList<URI>());
+		CompositeChildRunner<URI, IArtifactRepository> loader = new CompositeChildRunner<URI, IArtifactRepository>(propagateException) {
+			protected IArtifactRepository run(URI absolute, IProgressMonitor childMonitor) throws ProvisionException {
+				return load(absolute, childMonitor, addedToManager);
+			}
+		};
+		loader.run(toLoad, monitor);
+
+		ProvisionException failure = null;
+		for (int i = 0; i < toLoad.size(); i++) {
+			Exception e = loader.getException(i);
+			if (e instanceof ProvisionException) {
+				//repository failed to load. fall through
+				LogHelper.log((ProvisionException) e);
+				if (failure == null)
+					failure = (ProvisionException) e;
 			}
 		}
+		if (failure != null && propagateException) {
+			removeFromRepoManager(addedToManager);
+			String msg = NLS.bind(Messages.io_failedRead, getLocation());
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, failure));
+		}
+		for (int i = 0; i < toLoad.size(); i++) {
+			Exception e = loader.getException(i);
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			if (!loader.isCompleted(i))
+				throw new OperationCanceledException();
+			IArtifactRepository repo = loader.getResult(i);
+			if (repo != null)
+				loadedRepos.add(new ChildInfo(repo));
+		}
 	}
 
 	//	public boolean addChild(URI childURI, String comparatorID) {
@@ -467,7 +490,11 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 		}
 	}
 
-	private IArtifactRepository load(URI repoURI, IProgressMonitor monitor) throws ProvisionException {
+	/*
+	 * Loads a child repository, and adds its location to the given list if it was not
+	 * known to the manager. This is called from several threads at the same time.
+	 */
+	IArtifactRepository load(URI repoURI, IProgressMonitor monitor, List<URI> addedToManager) throws ProvisionException {
 		// make sure we are dealing with an absolute location
 		repoURI = URIUtil.makeAbsolute(repoURI, getLocation());
 		boolean loaded = getManager().contains(repoURI);
@@ -477,6 +504,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 			getManager().setEnabled(repoURI, false);
 			//set repository to system to hide from users
 			getManager().setRepositoryProperty(repoURI, IRepository.PROP_SYSTEM, String.valueOf(true));
+			addedToManager.add(repoURI);
 		}
 		return repo;
 	}
@@ -573,8 +601,7 @@ public class CompositeArtifactRepository extends AbstractArtifactRepository impl
 			if (info.isGood())
 				repos.add(info.repo);
 		}
-		IQueryable<IArtifactKey> queryable = QueryUtil.compoundQueryable(repos);
-		return queryable.query(query, monitor);
+		return CompositeChildRunner.query(repos, query, monitor);
 	}
 
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+
+/**
+ * Maps artifact keys to the descriptors of a repository. The map is split into stripes,
+ * each guarded by its own lock, so that readers of different keys rarely contend and a
+ * write only locks the stripe of the key it changes. The lists of descriptors are never
+ * modified once published and can be handed out without copying.
+ */
+class DescriptorMap {
+	private static final int STRIPES = 64;
+
+	private final Map<IArtifactKey, List<IArtifactDescriptor>>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	DescriptorMap() {
+		stripes = new Map[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
+	}
+
+	private static int stripeOf(IArtifactKey key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % STRIPES;
+	}
+
+	/**
+	 * Returns the descriptors of the given key, or <code>null</code>. The returned list must not be modified.
+	 */
+	List<IArtifactDescriptor> get(IArtifactKey key) {
+		Map<IArtifactKey, List<IArtifactDescriptor>> stripe = stripes[stripeOf(key)];
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	boolean containsKey(IArtifactKey key) {
+		Map<IArtifactKey, List<IArtifactDescriptor>> stripe = stripes[stripeOf(key)];
+		synchronized (stripe) {
+			return stripe.containsKey(key);
+		}
+	}
+
+	void add(IArtifactDescriptor descriptor) {
+		IArtifactKey key = descriptor.getArtifactKey();
+		Map<IArtifactKey, List<IArtifactDescriptor>> stripe = stripes[stripeOf(key)];
+		synchronized (stripe) {
+			List<IArtifactDescriptor> current = stripe.get(key);
+			List<IArtifactDescriptor> updated;
+			if (current == null) {
+				updated = Collections.singletonList(descriptor);
+			} else {
+				updated = new ArrayList<IArtifactDescriptor>(current.size() + 1);
+				updated.addAll(current);
+				updated.add(descriptor);
+			}
+			stripe.put(key, updated);
+		}
+	}
+
+	void addAll(Collection<? extends IArtifactDescriptor> descriptors) {
+		for (IArtifactDescriptor descriptor : descriptors)
+			add(descriptor);
+	}
+
+	/**
+	 * Removes the given descriptor. Returns <code>true</code> if it was in the map.
+	 */
+	boolean remove(IArtifactDescriptor descriptor) {
+		IArtifactKey key = descriptor.getArtifactKey();
+		Map<IArtifactKey, List<IArtifactDescriptor>> stripe = stripes[stripeOf(key)];
+		synchronized (stripe) {
+			List<IArtifactDescriptor> current = stripe.get(key);
+			if (current == null || !current.contains(descriptor))
+				return false;
+			if (current.size() == 1) {
+				stripe.remove(key);
+			} else {
+				List<IArtifactDescriptor> updated = new ArrayList<IArtifactDescriptor>(current);
+				updated.remove(descriptor);
+				stripe.put(key, updated);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the keys of the map at the time of the call.
+	 */
+	Iterator<IArtifactKey> keys() {
+		List<IArtifactKey> keys = new ArrayList<IArtifactKey>();
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (stripes[i]) {
+				keys.addAll(stripes[i].keySet());
+			}
+		}
+		return Collections.unmodifiableList(keys).iterator();
+	}
+
+	/**
+	 * Returns the descriptors of the map at the time of the call.
+	 */
+	Iterator<IArtifactDescriptor> descriptors() {
+		List<List<IArtifactDescriptor>> descriptors = new ArrayList<List<IArtifactDescriptor>>();
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (stripes[i]) {
+				descriptors.addAll(stripes[i].values());
+			}
+		}
+		return new CompoundIterator<IArtifactDescriptor>(Collections.unmodifiableList(descriptors).iterator());
+	}
+
+	/**
+	 * Returns the number of keys in the map.
+	 */
+	int size() {
+		int size = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (stripes[i]) {
+				size += stripes[i].size();
+			}
+		}
+		return size;
+	}
+}
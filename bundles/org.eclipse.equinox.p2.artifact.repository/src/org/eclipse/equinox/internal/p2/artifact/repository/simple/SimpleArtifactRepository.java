@@ -28,7 +28,6 @@ import org.eclipse.equinox.internal.p2.artifact.repository.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
-import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
 import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.internal.p2.repository.Transport;
 import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.*;
@@ -83,9 +82,14 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	/**
 	 * Does this instance of the repository currently hold a lock
 	 */
-	private boolean holdsLock = false;
+	private volatile boolean holdsLock = false;
 
-	private long cacheTimestamp = 0l;
+	private volatile long cacheTimestamp = 0l;
+
+	/**
+	 * The location of the repository, kept here so that reading it does not need the repository monitor.
+	 */
+	private volatile URI repositoryLocation;
 
 	public class ArtifactOutputStream extends OutputStream implements IStateful {
 		private boolean closed;
@@ -230,21 +234,21 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 	protected Set<SimpleArtifactDescriptor> artifactDescriptors = new HashSet<SimpleArtifactDescriptor>();
 	/**
-	 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+	 * The index of artifacts in the repository. Lookups in this map do not need the repository monitor,
+	 * writers hold it.
 	 */
-	private Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
-	private transient BlobStore blobStore;
-	transient private Mapper mapper = new Mapper();
-	private KeyIndex keyIndex;
-	private boolean snapshotNeeded = false;
+	private volatile DescriptorMap artifactMap = new DescriptorMap();
+	private transient volatile BlobStore blobStore;
+	transient private volatile Mapper mapper = new Mapper();
+	private volatile KeyIndex keyIndex;
 
 	static final private String PUBLISH_PACK_FILES_AS_SIBLINGS = "publishPackFilesAsSiblings"; //$NON-NLS-1$
 
 	private static final int DEFAULT_MAX_THREADS = 4;
 
-	protected String[][] mappingRules = DEFAULT_MAPPING_RULES;
+	protected volatile String[][] mappingRules = DEFAULT_MAPPING_RULES;
 
-	private MirrorSelector mirrors;
+	private volatile MirrorSelector mirrors;
 
 	private boolean disableSave = false;
 
@@ -279,51 +283,27 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		super(agent, name, type, version, null, description, provider, properties);
 		this.artifactDescriptors.addAll(artifacts);
 		this.mappingRules = mappingRules;
-		for (SimpleArtifactDescriptor desc : artifactDescriptors)
-			mapDescriptor(desc);
+		artifactMap.addAll(artifactDescriptors);
 	}
 
 	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
-		IArtifactKey key = descriptor.getArtifactKey();
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null) {
-			descriptors = new ArrayList<IArtifactDescriptor>();
-			artifactMap.put(key, descriptors);
-		}
-		descriptors.add(descriptor);
+		artifactMap.add(descriptor);
 		keyIndex = null;
 	}
 
-	private synchronized void unmapDescriptor(IArtifactDescriptor descriptor) {
-		IArtifactKey key = descriptor.getArtifactKey();
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null)
-			return;
-
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-			descriptors = artifactMap.get(key);
-		}
-		descriptors.remove(descriptor);
-		if (descriptors.isEmpty())
-			artifactMap.remove(key);
+	private synchronized void mapDescriptors(Collection<? extends IArtifactDescriptor> descriptors) {
+		artifactMap.addAll(descriptors);
 		keyIndex = null;
 	}
 
-	private void cloneAritfactMap() {
-		HashMap<IArtifactKey, List<IArtifactDescriptor>> clone = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(artifactMap.size());
-		for (Entry<IArtifactKey, List<IArtifactDescriptor>> entry : artifactMap.entrySet())
-			clone.put(entry.getKey(), new ArrayList<IArtifactDescriptor>(entry.getValue()));
-		artifactMap = clone;
+	private synchronized void unmapDescriptor(IArtifactDescriptor descriptor) {
+		if (artifactMap.remove(descriptor))
+			keyIndex = null;
 	}
 
 	public SimpleArtifactRepository(IProvisioningAgent agent, String repositoryName, URI location, Map<String, String> properties) {
 		super(agent, repositoryName, REPOSITORY_TYPE, REPOSITORY_VERSION.toString(), location, null, null, properties);
+		this.repositoryLocation = location;
 
 		boolean lockAcquired = false;
 		try {
@@ -410,13 +390,15 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					return;
 			}
 
+			List<SimpleArtifactDescriptor> added = new ArrayList<SimpleArtifactDescriptor>(descriptors.length);
 			for (int i = 0; i < descriptors.length; i++) {
 				if (artifactDescriptors.contains(descriptors[i]))
 					continue;
 				SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(descriptors[i]);
-				artifactDescriptors.add(internalDescriptor);
-				mapDescriptor(internalDescriptor);
+				if (artifactDescriptors.add(internalDescriptor))
+					added.add(internalDescriptor);
 			}
+			mapDescriptors(added);
 			save();
 		} finally {
 			if (lockAcquired)
@@ -474,22 +456,24 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return buffer.toString();
 	}
 
-	public synchronized boolean contains(IArtifactDescriptor descriptor) {
+	public boolean contains(IArtifactDescriptor descriptor) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
+		// equal descriptors have equal keys, so the map answers this without the descriptor set
 		SimpleArtifactDescriptor simpleDescriptor = createInternalDescriptor(descriptor);
-		return artifactDescriptors.contains(simpleDescriptor);
+		List<IArtifactDescriptor> descriptors = artifactMap.get(simpleDescriptor.getArtifactKey());
+		return descriptors != null && descriptors.contains(simpleDescriptor);
 	}
 
-	public synchronized boolean contains(IArtifactKey key) {
+	public boolean contains(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
 		return artifactMap.containsKey(key);
 	}
 
-	public synchronized URI createLocation(ArtifactDescriptor descriptor) {
+	public URI createLocation(ArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
@@ -647,12 +631,18 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 * @param baseLocation The location of the artifact in this repository
 	 * @return the Location of the artifact in this repository, or an equivalent mirror
 	 */
-	private synchronized URI getMirror(URI baseLocation, IProgressMonitor monitor) {
+	private URI getMirror(URI baseLocation, IProgressMonitor monitor) {
 		if (!MIRRORS_ENABLED || (!isForceThreading() && isLocal()))
 			return baseLocation;
-		if (mirrors == null)
-			mirrors = new MirrorSelector(this, getTransport());
-		return mirrors.getMirrorLocation(baseLocation, monitor);
+		MirrorSelector selector = mirrors;
+		if (selector == null) {
+			synchronized (this) {
+				if (mirrors == null)
+					mirrors = new MirrorSelector(this, getTransport());
+				selector = mirrors;
+			}
+		}
+		return selector.getMirrorLocation(baseLocation, monitor);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -693,7 +683,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return downloadArtifact(descriptor, destination, monitor);
 	}
 
-	public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -766,7 +756,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return (monitor.isCanceled() ? Status.CANCEL_STATUS : overallStatus);
 	}
 
-	public synchronized IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
+	public IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -796,7 +786,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 * this arrangement "flat but packed".
 	 */
 	private boolean flatButPackedEnabled(IArtifactDescriptor descriptor) {
-		return Boolean.TRUE.toString().equals(getProperties().get(PUBLISH_PACK_FILES_AS_SIBLINGS)) && IArtifactDescriptor.FORMAT_PACKED.equals(descriptor.getProperty(IArtifactDescriptor.FORMAT));
+		return Boolean.TRUE.toString().equals(getProperty(PUBLISH_PACK_FILES_AS_SIBLINGS)) && IArtifactDescriptor.FORMAT_PACKED.equals(descriptor.getProperty(IArtifactDescriptor.FORMAT));
 	}
 
 	/**
@@ -807,7 +797,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
 	}
 
-	public synchronized URI getLocation(IArtifactDescriptor descriptor) {
+	public URI getLocation(IArtifactDescriptor descriptor) {
 		// if the artifact has a uuid then use it
 		String uuid = descriptor.getProperty(ARTIFACT_UUID);
 		if (uuid != null)
@@ -948,7 +938,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, msg, e));
 	}
 
-	public synchronized String[][] getRules() {
+	public String[][] getRules() {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -984,8 +974,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private synchronized void initializeMapper() {
-		mapper = new Mapper();
-		mapper.initialize(Activator.getContext(), mappingRules);
+		// readers use the mapper without the monitor, only publish it once it is initialized
+		Mapper newMapper = new Mapper();
+		newMapper.initialize(Activator.getContext(), mappingRules);
+		mapper = newMapper;
 	}
 
 	private boolean isFolderBased(IArtifactDescriptor descriptor) {
@@ -1004,7 +996,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private boolean isForceThreading() {
-		return "true".equals(getProperties().get(PROP_FORCE_THREADING)); //$NON-NLS-1$
+		return "true".equals(getProperty(PROP_FORCE_THREADING)); //$NON-NLS-1$
 	}
 
 	private boolean isLocal() {
@@ -1261,11 +1253,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
 		return new IQueryable<IArtifactDescriptor>() {
 			public IQueryResult<IArtifactDescriptor> query(IQuery<IArtifactDescriptor> query, IProgressMonitor monitor) {
-				synchronized (SimpleArtifactRepository.this) {
-					snapshotNeeded = true;
-					Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
-					return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
-				}
+				return query.perform(SimpleArtifactRepository.this.artifactMap.descriptors());
 			}
 		};
 	}
@@ -1274,12 +1262,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return IndexProvider.query(this, query, monitor);
 	}
 
-	public synchronized Iterator<IArtifactKey> everything() {
+	public Iterator<IArtifactKey> everything() {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
-		snapshotNeeded = true;
-		return artifactMap.keySet().iterator();
+		return artifactMap.keys();
 	}
 
 	public IStatus executeBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
@@ -1320,15 +1307,24 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
-	public synchronized IIndex<IArtifactKey> getIndex(String memberName) {
+	public IIndex<IArtifactKey> getIndex(String memberName) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
 		if (ArtifactKey.MEMBER_ID.equals(memberName)) {
-			snapshotNeeded = true;
-			if (keyIndex == null)
-				keyIndex = new KeyIndex(artifactMap.keySet());
-			return keyIndex;
+			KeyIndex index = keyIndex;
+			if (index != null)
+				return index;
+			// built under the monitor so that a concurrent write cannot leave a stale index behind
+			synchronized (this) {
+				if (keyIndex == null) {
+					List<IArtifactKey> keys = new ArrayList<IArtifactKey>(artifactMap.size());
+					for (Iterator<IArtifactKey> iter = artifactMap.keys(); iter.hasNext();)
+						keys.add(iter.next());
+					keyIndex = new KeyIndex(keys);
+				}
+				return keyIndex;
+			}
 		}
 		return null;
 	}
@@ -1455,10 +1451,39 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 * @param monitor
 	 */
 	private void load(IProgressMonitor monitor) {
-		if (!holdsLock())
-			doLoad(monitor);
-		else
+		if (holdsLock() || !isModifiedOnDisk()) {
 			monitor.done();
+			return;
+		}
+		synchronized (this) {
+			if (!holdsLock())
+				doLoad(monitor);
+			else
+				monitor.done();
+		}
+	}
+
+	/**
+	 * Returns true if the repository file is newer than the content loaded in memory.
+	 * This check does not need the repository monitor.
+	 */
+	private boolean isModifiedOnDisk() {
+		try {
+			File localFile = new SimpleArtifactRepositoryFactory().getLocalFile(getLocation(), new NullProgressMonitor());
+			return localFile.lastModified() > cacheTimestamp;
+		} catch (Exception e) {
+			// let doLoad decide
+			return true;
+		}
+	}
+
+	public URI getLocation() {
+		return repositoryLocation;
+	}
+
+	protected synchronized void setLocation(URI location) {
+		super.setLocation(location);
+		this.repositoryLocation = location;
 	}
 
 	private void updateTimestamp() {
@@ -1526,6 +1551,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				//
 				this.artifactDescriptors = ((SimpleArtifactRepository) repositoryOnDisk).artifactDescriptors;
 				this.artifactMap = ((SimpleArtifactRepository) repositoryOnDisk).artifactMap;
+				this.keyIndex = null;
 			}
 		} finally {
 			monitor.done();
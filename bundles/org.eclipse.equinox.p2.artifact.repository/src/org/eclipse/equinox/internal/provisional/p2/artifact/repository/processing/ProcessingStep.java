@@ -23,6 +23,11 @@ import org.eclipse.equinox.p2.repository.artifact.IProcessingStepDescriptor;
  * ProcessingSteps process the data written to them and pass the resultant data on
  * to a configured destination stream.  Steps may monitor (e.g., count) the data, compute information 
  * about the data (e.g., checksum or hash) or transform the data (e.g., unpack200).
+ * <p>
+ * Data is typically written to a step in blocks, see {@link #write(byte[], int, int)}.
+ * Steps that can process a block at once should override that method and pass the
+ * block on to their destination as a block, rather than one byte at a time.
+ * </p>
  */
 public abstract class ProcessingStep extends OutputStream implements IStateful {
 
@@ -64,6 +69,19 @@ public abstract class ProcessingStep extends OutputStream implements IStateful {
 		// nothing to do here!
 	}
 
+	/**
+	 * Process the given block of bytes and pass the result on to the configured destination stream.
+	 * The default implementation processes the block one byte at a time using {@link #write(int)}. 
+	 * Implementors may pass the given array on to the destination, they must not keep a reference 
+	 * to it after this method returns.
+	 * @param b the bytes being written
+	 * @param off the offset of the first byte to write
+	 * @param len the number of bytes to write
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		super.write(b, off, len);
+	}
+
 	/** 
 	 * Flush any unwritten data from this stream.
 	 */
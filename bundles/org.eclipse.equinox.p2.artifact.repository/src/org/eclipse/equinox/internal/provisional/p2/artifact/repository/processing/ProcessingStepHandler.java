@@ -12,7 +12,8 @@
 package org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing;
 
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.lang.reflect.Modifier;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Activator;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository.ArtifactOutputStream;
@@ -24,11 +25,27 @@ import org.eclipse.osgi.util.NLS;
 
 /**
  * Creates processing step instances from extensions and executes them.
+ * <p>
+ * The extension of each processor id is looked up once and kept in a factory that is shared
+ * by all handlers. Steps that are plain classes with a public no-argument constructor are then 
+ * created without going through the extension registry. The factories are discarded when the
+ * processing steps extension point changes.
+ * </p>
  */
 public class ProcessingStepHandler {
 
 	private static final String PROCESSING_STEPS_EXTENSION_ID = "org.eclipse.equinox.p2.artifact.repository.processingSteps"; //$NON-NLS-1$
 
+	private static final Object factoryLock = new Object();
+	// all guarded by factoryLock
+	private static Map<String, StepFactory> factories = new HashMap<String, StepFactory>();
+	private static IExtensionRegistry factoryRegistry;
+	private static IRegistryEventListener registryListener;
+	private static int factoryGeneration = 0;
+	private static long creationCount = 0;
+	private static long failureCount = 0;
+	private static long creationTime = 0;
+
 	//TODO This method can go
 	public static IStatus checkStatus(OutputStream output) {
 		return getStatus(output, true);
@@ -40,18 +57,136 @@ public class ProcessingStepHandler {
 	 * @return whether or not processors for all the descriptor's steps are installed
 	 */
 	public static boolean canProcess(IArtifactDescriptor descriptor) {
-		IExtensionRegistry registry = RegistryFactory.getRegistry();
-		IExtensionPoint point = registry.getExtensionPoint(PROCESSING_STEPS_EXTENSION_ID);
-		if (point == null)
-			return false;
 		IProcessingStepDescriptor[] steps = descriptor.getProcessingSteps();
 		for (int i = 0; i < steps.length; i++) {
-			if (point.getExtension(steps[i].getProcessorId()) == null)
+			if (getFactory(steps[i].getProcessorId()) == null)
 				return false;
 		}
 		return true;
 	}
 
+	/**
+	 * Returns the number of processing steps created so far, including the ones that could not be created.
+	 */
+	public static long getCreationCount() {
+		synchronized (factoryLock) {
+			return creationCount;
+		}
+	}
+
+	/**
+	 * Returns the number of processing steps that could not be created, because the step is not installed or failed to instantiate.
+	 */
+	public static long getFailureCount() {
+		synchronized (factoryLock) {
+			return failureCount;
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds spent creating and initializing processing steps.
+	 */
+	public static long getCreationTime() {
+		synchronized (factoryLock) {
+			return creationTime;
+		}
+	}
+
+	/**
+	 * Discards the cached step factories and stops listening to the extension registry.
+	 */
+	public static void clearFactories() {
+		IExtensionRegistry registry;
+		IRegistryEventListener listener;
+		synchronized (factoryLock) {
+			registry = factoryRegistry;
+			listener = registryListener;
+			factoryRegistry = null;
+			registryListener = null;
+			factories = new HashMap<String, StepFactory>();
+			factoryGeneration++;
+		}
+		// the registry is not called while holding the lock, it may notify the listener at the same time
+		if (registry != null && listener != null)
+			registry.removeListener(listener);
+	}
+
+	/**
+	 * Returns the factory of the steps with the given processor id, or <code>null</code>
+	 * if no such step is installed.
+	 */
+	private static StepFactory getFactory(String processorId) {
+		IExtensionRegistry registry = RegistryFactory.getRegistry();
+		if (registry == null)
+			return null;
+		IExtensionRegistry oldRegistry = null;
+		IRegistryEventListener oldListener = null;
+		IRegistryEventListener newListener = null;
+		int generation;
+		synchronized (factoryLock) {
+			if (registry != factoryRegistry) {
+				oldRegistry = factoryRegistry;
+				oldListener = registryListener;
+				newListener = new IRegistryEventListener() {
+					public void added(IExtension[] extensions) {
+						registryChanged();
+					}
+
+					public void removed(IExtension[] extensions) {
+						registryChanged();
+					}
+
+					public void added(IExtensionPoint[] extensionPoints) {
+						registryChanged();
+					}
+
+					public void removed(IExtensionPoint[] extensionPoints) {
+						registryChanged();
+					}
+				};
+				factoryRegistry = registry;
+				registryListener = newListener;
+				factories = new HashMap<String, StepFactory>();
+				factoryGeneration++;
+			}
+			StepFactory factory = factories.get(processorId);
+			if (factory != null)
+				return factory;
+			generation = factoryGeneration;
+		}
+		if (oldRegistry != null && oldListener != null)
+			oldRegistry.removeListener(oldListener);
+		if (newListener != null)
+			registry.addListener(newListener, PROCESSING_STEPS_EXTENSION_ID);
+		IExtension extension = registry.getExtension(PROCESSING_STEPS_EXTENSION_ID, processorId);
+		if (extension == null)
+			return null;
+		StepFactory factory = new StepFactory(extension.getConfigurationElements()[0]);
+		synchronized (factoryLock) {
+			// do not cache a factory that was looked up before the registry changed
+			if (generation == factoryGeneration)
+				factories.put(processorId, factory);
+		}
+		return factory;
+	}
+
+	static void registryChanged() {
+		synchronized (factoryLock) {
+			factories = new HashMap<String, StepFactory>();
+			factoryGeneration++;
+		}
+	}
+
+	private static void created(long start, boolean failed) {
+		long time = System.currentTimeMillis() - start;
+		synchronized (factoryLock) {
+			creationCount++;
+			if (failed)
+				failureCount++;
+			creationTime += time;
+		}
+	}
+
 	/**
 	 * Return the status of this step.  The status will be <code>null</code> if the
 	 * step has not yet executed. If the step has executed the returned status
@@ -135,15 +270,14 @@ public class ProcessingStepHandler {
 	}
 
 	public ProcessingStep create(IProvisioningAgent agent, IProcessingStepDescriptor descriptor, IArtifactDescriptor context) {
-		IExtensionRegistry registry = RegistryFactory.getRegistry();
-		IExtension extension = registry.getExtension(PROCESSING_STEPS_EXTENSION_ID, descriptor.getProcessorId());
+		long start = System.currentTimeMillis();
+		StepFactory factory = getFactory(descriptor.getProcessorId());
 		Exception error;
-		if (extension != null) {
-			IConfigurationElement[] config = extension.getConfigurationElements();
+		if (factory != null) {
 			try {
-				Object object = config[0].createExecutableExtension("class"); //$NON-NLS-1$
-				ProcessingStep step = (ProcessingStep) object;
+				ProcessingStep step = factory.create();
 				step.initialize(agent, descriptor, context);
+				created(start, false);
 				return step;
 			} catch (Exception e) {
 				error = e;
@@ -151,6 +285,7 @@ public class ProcessingStepHandler {
 		} else
 			error = new ProcessingStepHandlerException(NLS.bind(Messages.cannot_get_extension, PROCESSING_STEPS_EXTENSION_ID, descriptor.getProcessorId()));
 
+		created(start, true);
 		int severity = descriptor.isRequired() ? IStatus.ERROR : IStatus.INFO;
 		ProcessingStep result = new EmptyProcessingStep();
 		result.setStatus(new Status(severity, Activator.ID, Messages.cannot_instantiate_step + descriptor.getProcessorId(), error));
@@ -191,8 +326,52 @@ public class ProcessingStepHandler {
 		return null;
 	}
 
+	/**
+	 * Creates the steps of one processing steps extension. The first step is created by the
+	 * extension registry. When that step turns out to be a plain public class with a public 
+	 * no-argument constructor, the following steps are created from its class directly.
+	 */
+	private static final class StepFactory {
+		private final IConfigurationElement element;
+		private volatile Class<?> stepClass;
+		private volatile boolean resolved = false;
+
+		StepFactory(IConfigurationElement element) {
+			this.element = element;
+		}
+
+		ProcessingStep create() throws Exception {
+			Class<?> clazz = stepClass;
+			if (clazz != null)
+				return (ProcessingStep) clazz.newInstance();
+			ProcessingStep step = (ProcessingStep) element.createExecutableExtension("class"); //$NON-NLS-1$
+			if (!resolved)
+				resolve(step.getClass());
+			return step;
+		}
+
+		private void resolve(Class<?> clazz) {
+			resolved = true;
+			// steps created by an extension factory or given initialization data need the registry
+			if (IExecutableExtension.class.isAssignableFrom(clazz) || !clazz.getName().equals(element.getAttribute("class"))) //$NON-NLS-1$
+				return;
+			if (!Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers()))
+				return;
+			try {
+				clazz.getConstructor(new Class[0]);
+				stepClass = clazz;
+			} catch (NoSuchMethodException e) {
+				// keep creating the steps through the registry
+			}
+		}
+	}
+
 	protected static final class EmptyProcessingStep extends ProcessingStep {
 		// Just to hold the status
+
+		public void write(byte[] b, int off, int len) {
+			// the data is discarded, no need to look at each byte
+		}
 	}
 
 	protected static final class ProcessingStepHandlerException extends Exception {
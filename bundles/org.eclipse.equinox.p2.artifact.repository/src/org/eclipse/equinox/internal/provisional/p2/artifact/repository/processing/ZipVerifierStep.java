@@ -20,6 +20,17 @@ public class ZipVerifierStep extends ProcessingStep {
 
 	public void write(int b) throws IOException {
 		getDestination().write(b);
+		verify(b);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		getDestination().write(b, off, len);
+		// only the first bytes of the stream are verified
+		for (int i = 0; i < len && valid >= 0 && valid <= 3; i++)
+			verify(b[off + i] & 0xFF);
+	}
+
+	private void verify(int b) {
 		if (valid > 3)
 			return;
 		if (valid == -1) {
@@ -43,6 +43,7 @@ public class Messages extends NLS {
 	public static String Console_help_provlp_description;
 	public static String Console_help_provlgp_description;
 	public static String Console_help_provlpts_description;
+	public static String Console_help_provcompactprofile_description;
 	public static String Console_help_provlpquery_description;
 	public static String Console_help_install_header;
 	public static String Console_help_provinstall_description;
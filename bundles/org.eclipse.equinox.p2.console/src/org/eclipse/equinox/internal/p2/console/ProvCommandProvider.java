@@ -469,6 +469,31 @@ public class ProvCommandProvider implements CommandProvider {
 		}
 	}
 
+	/**
+	 * Rewrites the saved timestamps of a given profile id as checkpoints and deltas. If no
+	 * profile id is given, the default profile is used.
+	 */
+	public void _provcompactprofile(CommandInterpreter interpreter) {
+		String profileId = processArgument(interpreter.nextArgument());
+		if (profileId == null || profileId.equals("this")) { //$NON-NLS-1$
+			profileId = IProfileRegistry.SELF;
+		}
+		IStatus s = null;
+		try {
+			s = ProvisioningHelper.compactProfileStates(agent, profileId);
+		} catch (ProvisionException e) {
+			interpreter.println("compaction failed ");
+			interpreter.printStackTrace(e);
+			return;
+		}
+		if (s.isOK())
+			interpreter.println("compaction completed");
+		else {
+			interpreter.println("compaction failed ");
+			printErrorStatus(interpreter, s);
+		}
+	}
+
 	/**
 	 * Revert a profile to a given timestamp
 	 */
@@ -749,6 +774,7 @@ public class ProvCommandProvider implements CommandProvider {
 		commandsHelp.put("provlp", Messages.Console_help_provlp_description); //$NON-NLS-1$
 		commandsHelp.put("provlgp", Messages.Console_help_provlgp_description); //$NON-NLS-1$
 		commandsHelp.put("provlpts", Messages.Console_help_provlpts_description); //$NON-NLS-1$
+		commandsHelp.put("provcompactprofile", Messages.Console_help_provcompactprofile_description); //$NON-NLS-1$
 		commandsHelp.put("provlpquery", Messages.Console_help_provlpquery_description); //$NON-NLS-1$
 
 		// add commands for install/uninstall
@@ -765,7 +791,7 @@ public class ProvCommandProvider implements CommandProvider {
 				"provliu", "provlquery"}); //$NON-NLS-1$ //$NON-NLS-2$
 
 		commandGroups.put(Messages.Console_help_profile_registry_header, new String[] {"provaddprofile", "provdelprofile", //$NON-NLS-1$ //$NON-NLS-2$
-				"provlp", "provlgp", "provlpts", "provlpquery"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				"provlp", "provlgp", "provlpts", "provcompactprofile", "provlpquery"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
 
 		commandGroups.put(Messages.Console_help_install_header, new String[] {"provinstall", "provremove", "provrevert"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
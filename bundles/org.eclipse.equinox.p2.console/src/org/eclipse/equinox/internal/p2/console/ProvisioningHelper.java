@@ -16,6 +16,7 @@ import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
+import org.eclipse.equinox.internal.p2.engine.SimpleProfileRegistry;
 import org.eclipse.equinox.internal.provisional.p2.director.PlanExecutionHelper;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -237,6 +238,16 @@ public class ProvisioningHelper {
 		return profileRegistry.listProfileTimestamps(profileId);
 	}
 
+	static IStatus compactProfileStates(IProvisioningAgent agent, String profileId) throws ProvisionException {
+		if (profileId == null) {
+			profileId = IProfileRegistry.SELF;
+		}
+		IProfileRegistry profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		if (!(profileRegistry instanceof SimpleProfileRegistry))
+			throw new ProvisionException("No simple profile registry found.");
+		return ((SimpleProfileRegistry) profileRegistry).compactProfileStates(profileId);
+	}
+
 	static IStatus revertToPreviousState(IProvisioningAgent agent, IProfile profile, long revertToPreviousState) throws ProvisionException {
 		IEngine engine = (IEngine) agent.getService(IEngine.SERVICE_NAME);
 		if (engine == null)
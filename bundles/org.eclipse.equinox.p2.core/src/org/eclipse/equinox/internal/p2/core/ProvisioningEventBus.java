@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,21 +10,48 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.core;
 
-import java.util.EventObject;
+import java.util.*;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
-import org.eclipse.osgi.framework.eventmgr.*;
+import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
+import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
+import org.osgi.framework.BundleContext;
 
 /**
  * Default implementation of the {@link IProvisioningEventBus} service.
+ * <p>
+ * Synchronous listeners are notified in the thread that publishes the event. Every asynchronous
+ * listener has its own queue of events and its own dispatch thread, so that a slow listener
+ * does not delay the others. The thread ends when the queue has been empty for a while.
+ * Events that implement {@link ICoalescingEvent} replace obsolete queued events, and
+ * {@link BatchProvisioningListener}s receive all of their queued events at once.
+ * </p><p>
+ * A queue holds at most {@link #PROP_QUEUE_SIZE} events. A thread that publishes an event for
+ * a full queue waits until the listener has taken an event. If the listener does not take any
+ * event in time, for example because it waits for a lock held by the publisher, the queue grows
+ * beyond its size until the listener catches up.
+ * </p>
  */
 public class ProvisioningEventBus implements EventDispatcher<ProvisioningListener, ProvisioningListener, EventObject>, IProvisioningEventBus, IAgentService {
+	/**
+	 * The maximum number of events queued for an asynchronous listener.
+	 */
+	public static final String PROP_QUEUE_SIZE = "eclipse.p2.eventBus.queueSize"; //$NON-NLS-1$
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	// the time a publisher waits for room in a full queue
+	private static final long FULL_WAIT = 1000;
+	// the time a dispatch thread waits for new events before it ends
+	private static final long IDLE_TIME = 1000;
+
 	private final CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener> syncListeners = new CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener>();
-	private final CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener> asyncListeners = new CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener>();
-	private EventManager eventManager = new EventManager("Provisioning Event Dispatcher"); //$NON-NLS-1$
+	private final CopyOnWriteIdentityMap<ProvisioningListener, EventQueue> asyncListeners = new CopyOnWriteIdentityMap<ProvisioningListener, EventQueue>();
+	private final int queueSize = getConfiguredQueueSize();
+
+	// serializes the notification of synchronous listeners
+	private Object syncDispatchLock = new Object();
 
 	private Object dispatchEventLock = new Object();
 	/* @GuardedBy("dispatchEventLock") */
@@ -32,6 +59,164 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 	/* @GuardedBy("dispatchEventLock") */
 	private int dispatchingEvents = 0;
 
+	private Object statsLock = new Object();
+	/* @GuardedBy("statsLock") */
+	private int queuedEvents = 0;
+	/* @GuardedBy("statsLock") */
+	private int maxQueueDepth = 0;
+	/* @GuardedBy("statsLock") */
+	private long deliveredEvents = 0;
+	/* @GuardedBy("statsLock") */
+	private long coalescedEvents = 0;
+	/* @GuardedBy("statsLock") */
+	private long totalLatency = 0;
+	/* @GuardedBy("statsLock") */
+	private long maxLatency = 0;
+
+	/**
+	 * An event waiting in a queue, with the time it was published.
+	 */
+	private static class QueuedEvent {
+		final EventObject event;
+		final long published;
+
+		QueuedEvent(EventObject event, long published) {
+			this.event = event;
+			this.published = published;
+		}
+	}
+
+	/**
+	 * The queue of events for an asynchronous listener, which is drained by its own thread.
+	 */
+	private class EventQueue implements Runnable {
+		final ProvisioningListener listener;
+		/* @GuardedBy("this") */
+		private final LinkedList<QueuedEvent> events = new LinkedList<QueuedEvent>();
+		/* @GuardedBy("this") */
+		private Thread dispatcher = null;
+		/* @GuardedBy("this") */
+		private boolean stalled = false;
+		/* @GuardedBy("this") */
+		private boolean stopped = false;
+
+		EventQueue(ProvisioningListener listener) {
+			this.listener = listener;
+		}
+
+		synchronized void add(EventObject event) {
+			if (stopped)
+				return;
+			if (event instanceof ICoalescingEvent && coalesce((ICoalescingEvent) event))
+				return;
+			if (events.size() >= queueSize && !stalled && dispatcher != Thread.currentThread()) {
+				long end = System.currentTimeMillis() + FULL_WAIT;
+				boolean interrupted = false;
+				while (events.size() >= queueSize && !stopped) {
+					long remaining = end - System.currentTimeMillis();
+					if (remaining <= 0) {
+						// the listener is stuck, stop waiting for it until it takes an event
+						stalled = true;
+						break;
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						interrupted = true;
+						break;
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+				if (stopped)
+					return;
+			}
+			events.add(new QueuedEvent(event, System.currentTimeMillis()));
+			queued(1, events.size());
+			if (dispatcher == null) {
+				dispatcher = new Thread(this, "Provisioning Event Dispatcher"); //$NON-NLS-1$
+				dispatcher.setDaemon(true);
+				dispatcher.start();
+			} else
+				notifyAll();
+		}
+
+		/**
+		 * Replaces a queued event that the given event makes obsolete.
+		 * @return <code>true</code> if an event was replaced
+		 */
+		private boolean coalesce(ICoalescingEvent event) {
+			Object source = ((EventObject) event).getSource();
+			for (ListIterator<QueuedEvent> it = events.listIterator(events.size()); it.hasPrevious();) {
+				QueuedEvent queued = it.previous();
+				if (event.replaces(queued.event)) {
+					it.set(new QueuedEvent((EventObject) event, queued.published));
+					synchronized (statsLock) {
+						coalescedEvents++;
+					}
+					return true;
+				}
+				if (source != null && source.equals(queued.event.getSource()))
+					return false;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the next events to deliver, or <code>null</code> if the thread should end.
+		 */
+		private synchronized QueuedEvent[] take() {
+			long idleEnd = System.currentTimeMillis() + IDLE_TIME;
+			while (events.isEmpty() && !stopped) {
+				long remaining = idleEnd - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			if (events.isEmpty() || stopped) {
+				dispatcher = null;
+				return null;
+			}
+			QueuedEvent[] result;
+			if (listener instanceof BatchProvisioningListener) {
+				result = events.toArray(new QueuedEvent[events.size()]);
+				events.clear();
+			} else
+				result = new QueuedEvent[] {events.removeFirst()};
+			queued(-result.length, 0);
+			stalled = false;
+			notifyAll();
+			return result;
+		}
+
+		synchronized void stop() {
+			stopped = true;
+			queued(-events.size(), 0);
+			events.clear();
+			notifyAll();
+		}
+
+		public void run() {
+			QueuedEvent[] batch;
+			while ((batch = take()) != null) {
+				long now = System.currentTimeMillis();
+				EventObject[] toDeliver = new EventObject[batch.length];
+				for (int i = 0; i < batch.length; i++) {
+					toDeliver[i] = batch[i].event;
+					delivered(now - batch[i].published);
+				}
+				if (toDeliver.length == 1 && !(listener instanceof BatchProvisioningListener))
+					dispatchEvent(listener, listener, 0, toDeliver[0]);
+				else
+					dispatchBatch((BatchProvisioningListener) listener, toDeliver);
+			}
+		}
+	}
+
 	public ProvisioningEventBus() {
 		super();
 	}
@@ -46,7 +231,8 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 			}
 		} else {
 			synchronized (asyncListeners) {
-				asyncListeners.put(toAdd, toAdd);
+				if (!asyncListeners.containsKey(toAdd))
+					asyncListeners.put(toAdd, new EventQueue(toAdd));
 			}
 		}
 	}
@@ -60,9 +246,12 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 				syncListeners.remove(toRemove);
 			}
 		} else {
+			EventQueue queue;
 			synchronized (asyncListeners) {
-				asyncListeners.remove(toRemove);
+				queue = asyncListeners.remove(toRemove);
 			}
+			if (queue != null)
+				queue.stop();
 		}
 	}
 
@@ -74,46 +263,137 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 			if (closed)
 				return;
 		}
-		/* queue to hold set of listeners */
-		ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> listeners = new ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject>(eventManager);
-
-		/* synchronize while building the listener list */
-		synchronized (syncListeners) {
-			/* add set of BundleContexts w/ listeners to queue */
-			listeners.queueListeners(syncListeners.entrySet(), this);
-			/* synchronously dispatch to populate listeners queue */
-			listeners.dispatchEventSynchronous(0, event);
-		}
-
-		listeners = new ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject>(eventManager);
-		synchronized (asyncListeners) {
-			listeners.queueListeners(asyncListeners.entrySet(), this);
-			synchronized (dispatchEventLock) {
-				if (!closed)
-					listeners.dispatchEventAsynchronous(0, event);
+		// the maps return snapshots, so listeners can be added and removed during dispatch
+		Set<ProvisioningListener> listeners = syncListeners.keySet();
+		if (!listeners.isEmpty()) {
+			synchronized (syncDispatchLock) {
+				for (Iterator<ProvisioningListener> it = listeners.iterator(); it.hasNext();) {
+					ProvisioningListener listener = it.next();
+					dispatchEvent(listener, listener, 0, event);
+				}
 			}
 		}
+
+		for (Iterator<EventQueue> it = asyncListeners.values().iterator(); it.hasNext();)
+			it.next().add(event);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus#dispatchEvent(java.lang.Object, java.lang.Object, int, java.lang.Object)
 	 */
 	public void dispatchEvent(ProvisioningListener eventListener, ProvisioningListener listenerObject, int eventAction, EventObject eventObject) {
-		synchronized (dispatchEventLock) {
-			if (closed)
-				return;
-			dispatchingEvents++;
-		}
+		if (!beginDispatch())
+			return;
 		try {
 			eventListener.notify(eventObject);
 		} catch (Exception e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Exception during event notification", e)); //$NON-NLS-1$
 		} finally {
-			synchronized (dispatchEventLock) {
-				dispatchingEvents--;
-				if (dispatchingEvents == 0)
-					dispatchEventLock.notifyAll();
-			}
+			endDispatch();
+		}
+	}
+
+	private void dispatchBatch(BatchProvisioningListener eventListener, EventObject[] events) {
+		if (!beginDispatch())
+			return;
+		try {
+			eventListener.notify(events);
+		} catch (Exception e) {
+			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Exception during event notification", e)); //$NON-NLS-1$
+		} finally {
+			endDispatch();
+		}
+	}
+
+	private boolean beginDispatch() {
+		synchronized (dispatchEventLock) {
+			if (closed)
+				return false;
+			dispatchingEvents++;
+			return true;
+		}
+	}
+
+	private void endDispatch() {
+		synchronized (dispatchEventLock) {
+			dispatchingEvents--;
+			if (dispatchingEvents == 0)
+				dispatchEventLock.notifyAll();
+		}
+	}
+
+	void queued(int count, int depth) {
+		synchronized (statsLock) {
+			queuedEvents += count;
+			if (depth > maxQueueDepth)
+				maxQueueDepth = depth;
+		}
+	}
+
+	void delivered(long latency) {
+		synchronized (statsLock) {
+			deliveredEvents++;
+			totalLatency += latency;
+			if (latency > maxLatency)
+				maxLatency = latency;
+		}
+	}
+
+	/**
+	 * Returns the number of events waiting in the queues of asynchronous listeners.
+	 */
+	public int getQueueDepth() {
+		synchronized (statsLock) {
+			return queuedEvents;
+		}
+	}
+
+	/**
+	 * Returns the largest number of events that have been waiting in the queue of an
+	 * asynchronous listener.
+	 */
+	public int getMaxQueueDepth() {
+		synchronized (statsLock) {
+			return maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Returns the number of events that have been taken from the queues of asynchronous
+	 * listeners for delivery. An event counts once for every listener.
+	 */
+	public long getDeliveredCount() {
+		synchronized (statsLock) {
+			return deliveredEvents;
+		}
+	}
+
+	/**
+	 * Returns the number of queued events that were replaced by a newer {@link ICoalescingEvent}.
+	 */
+	public long getCoalescedCount() {
+		synchronized (statsLock) {
+			return coalescedEvents;
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds that delivered events have spent in the queues of
+	 * asynchronous listeners, in total.
+	 */
+	public long getTotalLatency() {
+		synchronized (statsLock) {
+			return totalLatency;
+		}
+	}
+
+	/**
+	 * Returns the longest time in milliseconds that a delivered event has spent in the queue
+	 * of an asynchronous listener.
+	 */
+	public long getMaxLatency() {
+		synchronized (statsLock) {
+			return maxLatency;
 		}
 	}
 
@@ -123,8 +403,11 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 	public void close() {
 		boolean interrupted = false;
 		synchronized (dispatchEventLock) {
-			eventManager.close();
 			closed = true;
+		}
+		for (Iterator<EventQueue> it = asyncListeners.values().iterator(); it.hasNext();)
+			it.next().stop();
+		synchronized (dispatchEventLock) {
 			while (dispatchingEvents != 0) {
 				try {
 					dispatchEventLock.wait(30000); // we're going to cap waiting time at 30s
@@ -152,4 +435,19 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 	public void stop() {
 		close();
 	}
+
+	private static int getConfiguredQueueSize() {
+		String sizeString = null;
+		try {
+			BundleContext context = Activator.getContext();
+			sizeString = context == null ? System.getProperty(PROP_QUEUE_SIZE) : context.getProperty(PROP_QUEUE_SIZE);
+			if (sizeString != null)
+				return Math.max(1, Integer.parseInt(sizeString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (sizeString != null)
+				System.err.println("Ignoring user-specified '" + PROP_QUEUE_SIZE + "' value of: " + sizeString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_QUEUE_SIZE;
+	}
 }
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.provisional.p2.core.eventbus;
+
+import java.util.EventObject;
+
+/**
+ * An asynchronous listener that is notified about all events that are queued for it at once,
+ * for example all events fired by the engine for a phase while the listener was busy.
+ * A listener that is also a {@link SynchronousProvisioningListener} is notified of one
+ * event at a time.
+ */
+public interface BatchProvisioningListener extends ProvisioningListener {
+	/**
+	 * Notifies the listener about provisioning events, in the order they were published.
+	 */
+	public void notify(EventObject[] events);
+}
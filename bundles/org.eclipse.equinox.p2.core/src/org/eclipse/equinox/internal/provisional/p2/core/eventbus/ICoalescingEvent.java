@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.provisional.p2.core.eventbus;
+
+import java.util.EventObject;
+
+/**
+ * An event that can replace an earlier event that has not yet been delivered to an
+ * asynchronous listener, because the listener only needs the most recent one.
+ * <p>
+ * The event bus looks for the event to replace from the end of a listener's queue, and stops
+ * at the first queued event that has the same source but is not replaced, so that events
+ * about the same source keep their order.
+ * </p>
+ * @see IProvisioningEventBus
+ */
+public interface ICoalescingEvent {
+	/**
+	 * Returns whether this event makes the given queued event obsolete.
+	 */
+	public boolean replaces(EventObject queued);
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.p2.engine.IProvisioningPlan;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * Computes successive provisioning plans with a {@link SimplePlanner}, keeping the
+ * encoding of the problems that were solved. When a request leads to the same slice
+ * of installable units as a previous one, the constraints derived from the slice are
+ * reused and only the entry point of the request and the optimization function are
+ * encoded before invoking the solver again.
+ * <p>
+ * Sessions are meant for evaluating several closely related requests against the same
+ * profile, for example when checking for updates. A request that cannot be satisfied
+ * is solved again from scratch so that the explanation of the failure is the same as
+ * without a session.
+ * </p>
+ */
+public class PlannerSession {
+	//Number of encodings kept, a plan usually solves the request and the current state of the profile
+	private static final int MAX_ENCODINGS = 4;
+
+	private static class Encoding {
+		final List<IInstallableUnit> units;
+		final Set<IInstallableUnit> unitSet;
+		final Map<String, String> selectionContext;
+		final Set<IInstallableUnit> nonGreedyIUs;
+		final boolean considerMetaRequirements;
+		final Projector projector;
+
+		Encoding(List<IInstallableUnit> units, Map<String, String> selectionContext, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements) {
+			this.units = units;
+			this.unitSet = new HashSet<IInstallableUnit>(units);
+			this.selectionContext = selectionContext;
+			this.nonGreedyIUs = nonGreedyIUs;
+			this.considerMetaRequirements = considerMetaRequirements;
+			this.projector = new Projector(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), selectionContext, nonGreedyIUs, considerMetaRequirements, true);
+		}
+
+		boolean isFor(Set<IInstallableUnit> otherUnits, Map<String, String> otherSelectionContext, Set<IInstallableUnit> otherNonGreedyIUs, boolean otherConsiderMetaRequirements) {
+			return considerMetaRequirements == otherConsiderMetaRequirements && unitSet.equals(otherUnits) && selectionContext.equals(otherSelectionContext) && nonGreedyIUs.equals(otherNonGreedyIUs);
+		}
+	}
+
+	private final SimplePlanner planner;
+	private final LinkedList<Encoding> encodings = new LinkedList<Encoding>();
+	private final Map<Projector, Encoding> pending = new HashMap<Projector, Encoding>();
+	private final List<Projector> projectors = new ArrayList<Projector>();
+	private int reuseCount;
+
+	public PlannerSession(SimplePlanner planner) {
+		this.planner = planner;
+	}
+
+	/**
+	 * Computes a provisioning plan like {@link SimplePlanner#getProvisioningPlan(IProfileChangeRequest, ProvisioningContext, IProgressMonitor)},
+	 * reusing the encodings kept by this session where possible.
+	 */
+	public synchronized IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, IProgressMonitor monitor) {
+		projectors.clear();
+		reuseCount = 0;
+		try {
+			return planner.getProvisioningPlan(request, context, this, monitor);
+		} finally {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds spent encoding the problems of the last plan.
+	 */
+	public synchronized long getEncodingTime() {
+		long time = 0;
+		for (Projector projector : projectors)
+			time += projector.getEncodingTime();
+		return time;
+	}
+
+	/**
+	 * Returns the time in milliseconds spent solving the problems of the last plan.
+	 */
+	public synchronized long getSolvingTime() {
+		long time = 0;
+		for (Projector projector : projectors)
+			time += projector.getSolvingTime();
+		return time;
+	}
+
+	/**
+	 * Returns the time in milliseconds spent extracting the solutions of the last plan.
+	 */
+	public synchronized long getExtractionTime() {
+		long time = 0;
+		for (Projector projector : projectors)
+			time += projector.getExtractionTime();
+		return time;
+	}
+
+	/**
+	 * Returns the number of problems of the last plan that were solved on a kept encoding.
+	 */
+	public synchronized int getReuseCount() {
+		return reuseCount;
+	}
+
+	/**
+	 * Discards the encodings kept by this session.
+	 */
+	public synchronized void clear() {
+		encodings.clear();
+	}
+
+	/**
+	 * Returns the projector to use for the given slice. The entry point must be part of
+	 * the slice and is excluded from the encoding that is kept.
+	 */
+	Projector getProjector(IQueryable<IInstallableUnit> slice, IInstallableUnit entryPoint, Map<String, String> selectionContext, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements) {
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>(slice.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		units.remove(entryPoint);
+		Set<IInstallableUnit> unitSet = new HashSet<IInstallableUnit>(units);
+		for (Iterator<Encoding> iter = encodings.iterator(); iter.hasNext();) {
+			Encoding encoding = iter.next();
+			if (!encoding.isFor(unitSet, selectionContext, nonGreedyIUs, considerMetaRequirements))
+				continue;
+			//The encoding is given back once the problem is solved
+			iter.remove();
+			pending.put(encoding.projector, encoding);
+			reuseCount++;
+			return encoding.projector;
+		}
+		Encoding encoding = new Encoding(units, new HashMap<String, String>(selectionContext), new HashSet<IInstallableUnit>(nonGreedyIUs), considerMetaRequirements);
+		pending.put(encoding.projector, encoding);
+		return encoding.projector;
+	}
+
+	/**
+	 * Notifies the session that the solver has been invoked on a projector. The encoding
+	 * of an incremental projector is kept unless the problem could not be encoded or solved.
+	 */
+	void solved(Projector projector, IStatus status) {
+		projectors.add(projector);
+		Encoding encoding = pending.remove(projector);
+		if (encoding == null)
+			return;
+		if (status.getSeverity() == IStatus.ERROR && status.getCode() != SimplePlanner.UNSATISFIABLE)
+			return;
+		encodings.addFirst(encoding);
+		if (encodings.size() > MAX_ENCODINGS)
+			encodings.removeLast();
+	}
+}
@@ -27,6 +27,8 @@ import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
+import org.sat4j.core.Vec;
+import org.sat4j.core.VecInt;
 import org.sat4j.pb.*;
 import org.sat4j.pb.tools.DependencyHelper;
 import org.sat4j.pb.tools.WeightedObject;
@@ -70,6 +72,19 @@ public class Projector {
 	private Map<IInstallableUnit, AbstractVariable> nonGreedyVariables = new HashMap<IInstallableUnit, AbstractVariable>();
 	private Map<AbstractVariable, List<Object>> nonGreedyProvider = new HashMap<AbstractVariable, List<Object>>(); //Keeps track of all the "object" that provide an IU that is non greedly requested  
 
+	//Incremental encoding, the IUs of the slice are encoded once and each request only adds its entry point
+	private final boolean incremental;
+	private RetractableSolver retractableSolver;
+	private IStatus[] baseStatus;
+	private int baseAbstractVariables;
+	private Map<AbstractVariable, Integer> baseNonGreedyProviders; //key non greedy variable, value number of providers coming from the slice
+	private Map<AbstractVariable, AbstractVariable> requestNonGreedyProviders = new HashMap<AbstractVariable, AbstractVariable>(); //Stands for the providers coming from the entry point
+
+	//Duration in ms of the phases of the last resolution
+	private long encodingTime;
+	private long solvingTime;
+	private long extractionTime;
+
 	static class AbstractVariable {
 		//		private String name;
 
@@ -87,6 +102,34 @@ public class Projector {
 		}
 	}
 
+	/**
+	 * A dependency helper whose objective function can be replaced.
+	 */
+	static class IncrementalDependencyHelper extends DependencyHelper<Object, Explanation> {
+		IncrementalDependencyHelper(IPBSolver solver) {
+			super(solver);
+		}
+
+		void replaceObjectiveFunction(WeightedObject<Object>[] weightedObjects) {
+			//Same canonical form as DependencyHelper.setObjectiveFunction, the weights of a variable appearing twice are summed
+			IVecInt literals = new VecInt(weightedObjects.length);
+			IVec<BigInteger> coefficients = new Vec<BigInteger>(weightedObjects.length);
+			Map<Integer, BigInteger> weights = new LinkedHashMap<Integer, BigInteger>(weightedObjects.length);
+			for (int i = 0; i < weightedObjects.length; i++) {
+				Integer literal = new Integer(getIntValue(weightedObjects[i].thing));
+				BigInteger weight = weights.get(literal);
+				weights.put(literal, weight == null ? weightedObjects[i].getWeight() : weight.add(weightedObjects[i].getWeight()));
+			}
+			for (Entry<Integer, BigInteger> entry : weights.entrySet()) {
+				if (entry.getValue().signum() == 0)
+					continue;
+				literals.push(entry.getKey().intValue());
+				coefficients.push(entry.getValue());
+			}
+			getSolver().setObjectiveFunction(new ObjectiveFunction(literals, coefficients));
+		}
+	}
+
 	/**
 	 * Job for computing SAT failure explanation in the background.
 	 */
@@ -145,6 +188,17 @@ public class Projector {
 	}
 
 	public Projector(IQueryable<IInstallableUnit> q, Map<String, String> context, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements) {
+		this(q, context, nonGreedyIUs, considerMetaRequirements, false);
+	}
+
+	/**
+	 * Creates a projector that, when <code>incremental</code> is true, can encode and solve
+	 * several requests against the IUs of the queryable. The IUs are encoded by the first
+	 * call to {@link #encode}, subsequent calls only encode their entry point and the
+	 * optimization function. The entry points must not be part of the queryable.
+	 * @see PlannerSession
+	 */
+	Projector(IQueryable<IInstallableUnit> q, Map<String, String> context, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements, boolean incremental) {
 		picker = q;
 		noopVariables = new HashMap<IInstallableUnit, AbstractVariable>();
 		slice = new HashMap<String, Map<Version, IInstallableUnit>>();
@@ -154,6 +208,7 @@ public class Projector {
 		assumptions = new ArrayList<Object>();
 		this.nonGreedyIUs = nonGreedyIUs;
 		this.considerMetaRequirements = considerMetaRequirements;
+		this.incremental = incremental && !DEBUG_ENCODING;
 	}
 
 	protected boolean isInstalled(IInstallableUnit iu) {
@@ -162,82 +217,168 @@ public class Projector {
 
 	@SuppressWarnings("unchecked")
 	public void encode(IInstallableUnit entryPointIU, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots, IProgressMonitor monitor) {
-		alreadyInstalledIUs = Arrays.asList(alreadyExistingRoots);
-		numberOfInstalledIUs = sizeOf(installedIUs);
-		lastState = installedIUs;
-		this.entryPoint = entryPointIU;
+		long start = System.currentTimeMillis();
+		if (DEBUG)
+			Tracing.debug("Start projection: " + start); //$NON-NLS-1$
 		try {
-			long start = 0;
-			if (DEBUG) {
-				start = System.currentTimeMillis();
-				Tracing.debug("Start projection: " + start); //$NON-NLS-1$
-			}
-			IPBSolver solver;
-			if (DEBUG_ENCODING) {
-				solver = new UserFriendlyPBStringSolver<Object>();
-			} else {
-				solver = SolverFactory.newEclipseP2();
-			}
-			int timeout = 1000;
-			String timeoutString = null;
-			try {
-				// allow the user to specify a longer timeout. 
-				// only set the value if it is a positive integer larger than the default.
-				// see https://bugs.eclipse.org/336967
-				timeoutString = DirectorActivator.context.getProperty("eclipse.p2.projector.timeout"); //$NON-NLS-1$
-				if (timeoutString != null)
-					timeout = Math.max(timeout, Integer.parseInt(timeoutString));
-			} catch (Exception e) {
-				// intentionally catch all errors (npe, number format, etc)
-				// print out to syserr and fall through
-				System.err.println("Ignoring user-specified 'eclipse.p2.projector.timeout' value of: " + timeoutString); //$NON-NLS-1$
-				e.printStackTrace();
-			}
-			solver.setTimeoutOnConflicts(timeout);
-			IQueryResult<IInstallableUnit> queryResult = picker.query(QueryUtil.createIUAnyQuery(), null);
-			if (DEBUG_ENCODING) {
-				dependencyHelper = new DependencyHelper<Object, Explanation>(solver, false);
-				((UserFriendlyPBStringSolver<Object>) solver).setMapping(dependencyHelper.getMappingToDomain());
-			} else {
-				dependencyHelper = new DependencyHelper<Object, Explanation>(solver);
-			}
-			List<IInstallableUnit> iusToOrder = new ArrayList<IInstallableUnit>(queryResult.toSet());
-			Collections.sort(iusToOrder);
-			for (Iterator<IInstallableUnit> iusToEncode = iusToOrder.iterator(); iusToEncode.hasNext();) {
-				if (monitor.isCanceled()) {
-					result.merge(Status.CANCEL_STATUS);
-					throw new OperationCanceledException();
+			if (incremental && entryPoint != null)
+				retireEntryPoint();
+			alreadyInstalledIUs = Arrays.asList(alreadyExistingRoots);
+			numberOfInstalledIUs = sizeOf(installedIUs);
+			lastState = installedIUs;
+			this.entryPoint = entryPointIU;
+			if (dependencyHelper == null) {
+				IPBSolver solver;
+				if (DEBUG_ENCODING) {
+					solver = new UserFriendlyPBStringSolver<Object>();
+				} else if (incremental) {
+					solver = retractableSolver = RetractableSolver.newEclipseP2();
+				} else {
+					solver = SolverFactory.newEclipseP2();
+				}
+				int timeout = 1000;
+				String timeoutString = null;
+				try {
+					// allow the user to specify a longer timeout. 
+					// only set the value if it is a positive integer larger than the default.
+					// see https://bugs.eclipse.org/336967
+					timeoutString = DirectorActivator.context.getProperty("eclipse.p2.projector.timeout"); //$NON-NLS-1$
+					if (timeoutString != null)
+						timeout = Math.max(timeout, Integer.parseInt(timeoutString));
+				} catch (Exception e) {
+					// intentionally catch all errors (npe, number format, etc)
+					// print out to syserr and fall through
+					System.err.println("Ignoring user-specified 'eclipse.p2.projector.timeout' value of: " + timeoutString); //$NON-NLS-1$
+					e.printStackTrace();
+				}
+				solver.setTimeoutOnConflicts(timeout);
+				if (DEBUG_ENCODING) {
+					dependencyHelper = new DependencyHelper<Object, Explanation>(solver, false);
+					((UserFriendlyPBStringSolver<Object>) solver).setMapping(dependencyHelper.getMappingToDomain());
+				} else if (incremental) {
+					dependencyHelper = new IncrementalDependencyHelper(solver);
+				} else {
+					dependencyHelper = new DependencyHelper<Object, Explanation>(solver);
+				}
+				IQueryResult<IInstallableUnit> queryResult = picker.query(QueryUtil.createIUAnyQuery(), null);
+				List<IInstallableUnit> iusToOrder = new ArrayList<IInstallableUnit>(queryResult.toSet());
+				Collections.sort(iusToOrder);
+				for (Iterator<IInstallableUnit> iusToEncode = iusToOrder.iterator(); iusToEncode.hasNext();) {
+					if (monitor.isCanceled()) {
+						result.merge(Status.CANCEL_STATUS);
+						throw new OperationCanceledException();
+					}
+					IInstallableUnit iuToEncode = iusToEncode.next();
+					if (iuToEncode != entryPointIU) {
+						processIU(iuToEncode, false);
+					}
 				}
-				IInstallableUnit iuToEncode = iusToEncode.next();
-				if (iuToEncode != entryPointIU) {
-					processIU(iuToEncode, false);
+				if (incremental) {
+					//The constraints below only depend on the slice, remember what belongs to it
+					createConstraintsForSingleton();
+					createConstraintsForNonGreedy();
+					baseStatus = result.getChildren();
+					baseAbstractVariables = abstractVariables.size();
 				}
 			}
+			//The constraints of the request are removed from an incremental encoding once it is solved
+			if (incremental)
+				retractableSolver.startRequest();
 			createMustHave(entryPointIU, alreadyExistingRoots);
 
-			createConstraintsForSingleton();
+			if (incremental) {
+				createConstraintsForRequest();
+			} else {
+				createConstraintsForSingleton();
 
-			createConstraintsForNonGreedy();
+				createConstraintsForNonGreedy();
+			}
 
 			createOptimizationFunction(entryPointIU, newRoots);
-			if (DEBUG) {
-				long stop = System.currentTimeMillis();
-				Tracing.debug("Projection complete: " + (stop - start)); //$NON-NLS-1$
-			}
 			if (DEBUG_ENCODING) {
-				System.out.println(solver.toString());
+				System.out.println(dependencyHelper.getSolver().toString());
 			}
 		} catch (IllegalStateException e) {
 			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, e.getMessage(), e));
 		} catch (ContradictionException e) {
 			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unsatisfiable_problem));
 		}
+		encodingTime = System.currentTimeMillis() - start;
+		if (DEBUG)
+			Tracing.debug("Projection complete: " + encodingTime); //$NON-NLS-1$
+	}
+
+	/**
+	 * Removes the entry point of the previous request from an incremental encoding. The
+	 * constraints created for the request are removed from the solver.
+	 */
+	private void retireEntryPoint() {
+		retractableSolver.endRequest();
+		Map<Version, IInstallableUnit> iuSlice = slice.get(entryPoint.getId());
+		iuSlice.remove(entryPoint.getVersion());
+		if (iuSlice.isEmpty())
+			slice.remove(entryPoint.getId());
+		noopVariables.remove(entryPoint);
+		abstractVariables.subList(baseAbstractVariables, abstractVariables.size()).clear();
+		for (Entry<AbstractVariable, Integer> entry : baseNonGreedyProviders.entrySet()) {
+			List<Object> providers = nonGreedyProvider.get(entry.getKey());
+			providers.subList(entry.getValue().intValue(), providers.size()).clear();
+		}
+		assumptions.clear();
+		solution = null;
+		entryPoint = null;
+		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, baseStatus, Messages.Planner_Problems_resolving_plan, null);
+	}
+
+	/**
+	 * Returns whether this projector encodes the IUs once and the requests incrementally.
+	 */
+	boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Returns the time in milliseconds spent encoding the last request.
+	 */
+	public long getEncodingTime() {
+		return encodingTime;
+	}
+
+	/**
+	 * Returns the time in milliseconds spent by the solver on the last request.
+	 */
+	public long getSolvingTime() {
+		return solvingTime;
+	}
+
+	/**
+	 * Returns the time in milliseconds spent converting the solution of the solver into
+	 * installable units and fragment attachments.
+	 */
+	public long getExtractionTime() {
+		return extractionTime;
 	}
 
 	private void createConstraintsForNonGreedy() throws ContradictionException {
+		if (incremental)
+			baseNonGreedyProviders = new HashMap<AbstractVariable, Integer>();
 		for (IInstallableUnit iu : nonGreedyIUs) {
 			AbstractVariable var = getNonGreedyVariable(iu);
 			List<Object> providers = nonGreedyProvider.get(var);
+			if (incremental) {
+				//The entry points encoded later on may provide the IU as well
+				if (providers == null) {
+					providers = new ArrayList<Object>();
+					nonGreedyProvider.put(var, providers);
+				}
+				baseNonGreedyProviders.put(var, new Integer(providers.size()));
+				AbstractVariable requestProvider = DEBUG_ENCODING ? new AbstractVariable("NGR_" + iu.toString()) : new AbstractVariable(); //$NON-NLS-1$
+				requestNonGreedyProviders.put(var, requestProvider);
+				List<Object> allProviders = new ArrayList<Object>(providers);
+				allProviders.add(requestProvider);
+				createImplication(var, allProviders, Explanation.OPTIONAL_REQUIREMENT);
+				continue;
+			}
 			if (providers == null || providers.size() == 0) {
 				dependencyHelper.setFalse(var, new Explanation.MissingGreedyIU(iu));
 			} else {
@@ -247,6 +388,19 @@ public class Projector {
 
 	}
 
+	//Ties the providers coming from the entry point to the non greedy IUs of an incremental encoding
+	private void createConstraintsForRequest() throws ContradictionException {
+		for (Entry<AbstractVariable, AbstractVariable> entry : requestNonGreedyProviders.entrySet()) {
+			List<Object> providers = nonGreedyProvider.get(entry.getKey());
+			List<Object> requestProviders = new ArrayList<Object>(providers.subList(baseNonGreedyProviders.get(entry.getKey()).intValue(), providers.size()));
+			if (requestProviders.isEmpty()) {
+				createNegationImplication(entryPoint, Collections.singletonList(entry.getValue()), Explanation.OPTIONAL_REQUIREMENT);
+			} else {
+				createImplication(new Object[] {entry.getValue(), entryPoint}, requestProviders, Explanation.OPTIONAL_REQUIREMENT);
+			}
+		}
+	}
+
 	/**
 	 * Efficiently compute the size of a queryable
 	 */
@@ -368,7 +522,13 @@ public class Projector {
 		}
 		@SuppressWarnings("unchecked")
 		WeightedObject<Object>[] array = (WeightedObject<Object>[]) weightedObjects.toArray(new WeightedObject<?>[weightedObjects.size()]);
-		dependencyHelper.setObjectiveFunction(array);
+		if (incremental) {
+			//The objective of the previous request is replaced. Every IU of the slice is weighted so
+			//the function is only ever empty when the slice is, in which case it was never set.
+			((IncrementalDependencyHelper) dependencyHelper).replaceObjectiveFunction(array);
+		} else {
+			dependencyHelper.setObjectiveFunction(array);
+		}
 	}
 
 	private void createMustHave(IInstallableUnit iu, IInstallableUnit[] alreadyExistingRoots) throws ContradictionException {
@@ -1097,12 +1257,16 @@ public class Projector {
 				if (DEBUG) {
 					Tracing.debug("Satisfiable !"); //$NON-NLS-1$
 				}
-				backToIU();
 				long stop = System.currentTimeMillis();
+				solvingTime = stop - start;
+				backToIU();
+				extractionTime = System.currentTimeMillis() - stop;
 				if (DEBUG)
-					Tracing.debug("Solver solution found: " + (stop - start)); //$NON-NLS-1$
+					Tracing.debug("Solver solution found: " + solvingTime); //$NON-NLS-1$
 			} else {
 				long stop = System.currentTimeMillis();
+				solvingTime = stop - start;
+				extractionTime = 0;
 				if (DEBUG) {
 					Tracing.debug("Unsatisfiable !"); //$NON-NLS-1$
 					Tracing.debug("Solver solution NOT found: " + (stop - start)); //$NON-NLS-1$
@@ -1179,6 +1343,7 @@ public class Projector {
 	}
 
 	public Map<IInstallableUnitFragment, List<IInstallableUnit>> getFragmentAssociation() {
+		long start = System.currentTimeMillis();
 		Map<IInstallableUnitFragment, List<IInstallableUnit>> resolvedFragments = new HashMap<IInstallableUnitFragment, List<IInstallableUnit>>(fragments.size());
 		for (Entry<IInstallableUnitFragment, Set<IInstallableUnit>> fragment : fragments.entrySet()) {
 			if (!dependencyHelper.getBooleanValueFor(fragment.getKey()))
@@ -1192,6 +1357,7 @@ public class Projector {
 			if (resolvedHost.size() != 0)
 				resolvedFragments.put(fragment.getKey(), resolvedHost);
 		}
+		extractionTime += System.currentTimeMillis() - start;
 		return resolvedFragments;
 	}
 
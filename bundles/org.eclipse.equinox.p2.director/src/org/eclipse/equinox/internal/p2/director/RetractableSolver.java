@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import org.sat4j.core.Vec;
+import org.sat4j.core.VecInt;
+import org.sat4j.pb.*;
+import org.sat4j.specs.*;
+
+/**
+ * A pseudo boolean solver that can be asked for an optimal solution several times,
+ * with different constraints, a different objective function and different assumptions
+ * each time.
+ * <p>
+ * The constraints of a request are added between {@link #startRequest()} and
+ * {@link #endRequest()}. They are guarded by a selector variable that is assumed by every
+ * solve of the request, and they are removed from the solver when the request ends, so
+ * the next request starts from the constraints that were added outside of any request.
+ * </p><p>
+ * The optimization decorators of SAT4J narrow the problem by adding a constraint
+ * bounding the objective function each time a better solution is found, and leave
+ * the last of these constraints in the solver. Removing it is not enough since it
+ * may already have fixed variables at the root level. This solver runs each optimization
+ * in a fresh set of decorators and guards the bounding constraints with a selector that
+ * is only assumed during that optimization, and removes them once the optimal solution
+ * is known.
+ * </p><p>
+ * The clauses learned from guarded constraints contain the negation of their selector,
+ * so each selector is falsified once its constraints are removed.
+ * </p>
+ */
+class RetractableSolver extends PBSolverDecorator {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Guards the constraints of a request and the constraints added while optimizing.
+	 */
+	private static class Guard extends PBSolverDecorator {
+		private static final long serialVersionUID = 1L;
+		private final Selector request = new Selector();
+		private final Selector optimization = new Selector();
+		private boolean optimizing;
+
+		Guard(IPBSolver solver) {
+			super(solver);
+		}
+
+		private Selector current() {
+			if (optimizing)
+				return optimization;
+			return request.variable == 0 ? null : request;
+		}
+
+		public IConstr addClause(IVecInt literals) throws ContradictionException {
+			Selector selector = current();
+			if (selector == null)
+				return super.addClause(literals);
+			//The clause holds whenever the selector is true
+			IVecInt guardedLits = new VecInt(literals.size() + 1);
+			literals.copyTo(guardedLits);
+			guardedLits.push(-selector.variable);
+			return selector.add(super.addClause(guardedLits));
+		}
+
+		public IConstr addAtMost(IVecInt literals, int degree) throws ContradictionException {
+			if (current() == null)
+				return super.addAtMost(literals, degree);
+			return addPseudoBoolean(literals, ones(literals.size()), false, BigInteger.valueOf(degree));
+		}
+
+		public IConstr addAtLeast(IVecInt literals, int degree) throws ContradictionException {
+			if (current() == null)
+				return super.addAtLeast(literals, degree);
+			return addPseudoBoolean(literals, ones(literals.size()), true, BigInteger.valueOf(degree));
+		}
+
+		public IConstr addPseudoBoolean(IVecInt lits, IVec<BigInteger> coeffs, boolean moreThan, BigInteger d) throws ContradictionException {
+			Selector selector = current();
+			if (selector == null)
+				return super.addPseudoBoolean(lits, coeffs, moreThan, d);
+			//The selector weighs more than all the other literals together, the constraint holds whenever it is true
+			BigInteger weight = d.abs().add(BigInteger.ONE);
+			for (int i = 0; i < coeffs.size(); i++)
+				weight = weight.add(coeffs.get(i).abs());
+			IVecInt guardedLits = new VecInt(lits.size() + 1);
+			lits.copyTo(guardedLits);
+			guardedLits.push(selector.variable);
+			IVec<BigInteger> guardedCoeffs = new Vec<BigInteger>(coeffs.size() + 1);
+			coeffs.copyTo(guardedCoeffs);
+			guardedCoeffs.push(moreThan ? weight.negate() : weight);
+			return selector.add(super.addPseudoBoolean(guardedLits, guardedCoeffs, moreThan, moreThan ? d.subtract(weight) : d.add(weight)));
+		}
+
+		private static IVec<BigInteger> ones(int size) {
+			IVec<BigInteger> coeffs = new Vec<BigInteger>(size);
+			for (int i = 0; i < size; i++)
+				coeffs.push(BigInteger.ONE);
+			return coeffs;
+		}
+
+		public boolean isSatisfiable(IVecInt assumps) throws TimeoutException {
+			return super.isSatisfiable(guard(assumps));
+		}
+
+		public boolean isSatisfiable(IVecInt assumps, boolean global) throws TimeoutException {
+			return super.isSatisfiable(guard(assumps), global);
+		}
+
+		private IVecInt guard(IVecInt assumps) {
+			if (request.variable == 0 && optimization.variable == 0)
+				return assumps;
+			IVecInt guarded = new VecInt(assumps.size() + 2);
+			assumps.copyTo(guarded);
+			if (request.variable != 0)
+				guarded.push(request.variable);
+			if (optimization.variable != 0)
+				guarded.push(optimization.variable);
+			return guarded;
+		}
+
+		void startRequest() {
+			request.start(nextFreeVarId(true));
+		}
+
+		void endRequest() {
+			request.end(decorated());
+		}
+
+		void startOptimizing() {
+			optimizing = true;
+			optimization.start(nextFreeVarId(true));
+		}
+
+		void stopOptimizing() {
+			optimizing = false;
+			optimization.end(decorated());
+		}
+	}
+
+	/**
+	 * A selector variable and the constraints that it guards.
+	 */
+	private static class Selector {
+		int variable;
+		private final List<IConstr> constraints = new ArrayList<IConstr>();
+
+		IConstr add(IConstr constraint) {
+			//Constraints that are satisfied when they are added are not stored by the solver
+			if (constraint != null)
+				constraints.add(constraint);
+			return constraint;
+		}
+
+		void start(int selector) {
+			variable = selector;
+		}
+
+		void end(ISolver solver) {
+			if (variable == 0)
+				return;
+			for (IConstr constraint : constraints)
+				solver.removeConstr(constraint);
+			constraints.clear();
+			try {
+				solver.addClause(new VecInt(new int[] {-variable}));
+			} catch (ContradictionException e) {
+				//cannot happen, the selector is never set at the root level
+			}
+			variable = 0;
+		}
+	}
+
+	private final Guard guard;
+	private PseudoOptDecorator optimizer;
+
+	/**
+	 * Creates a solver configured like {@link SolverFactory#newEclipseP2()}.
+	 */
+	static RetractableSolver newEclipseP2() {
+		// newEclipseP2() wraps the solver into an OptToPBSATAdapter around a PseudoOptDecorator
+		PBSolverDecorator adapter = (PBSolverDecorator) SolverFactory.newEclipseP2();
+		return new RetractableSolver(new Guard(((PBSolverDecorator) adapter.decorated()).decorated()));
+	}
+
+	private RetractableSolver(Guard guard) {
+		super(guard);
+		this.guard = guard;
+	}
+
+	/**
+	 * Starts a request. The constraints added until {@link #endRequest()} only hold
+	 * while the request is solved.
+	 */
+	void startRequest() {
+		guard.endRequest();
+		guard.startRequest();
+	}
+
+	/**
+	 * Ends the current request and removes its constraints.
+	 */
+	void endRequest() {
+		guard.endRequest();
+	}
+
+	public boolean isSatisfiable(IVecInt assumps) throws TimeoutException {
+		return isSatisfiable(assumps, false);
+	}
+
+	public boolean isSatisfiable(IVecInt assumps, boolean global) throws TimeoutException {
+		optimizer = null;
+		if (getObjectiveFunction() == null)
+			return super.isSatisfiable(assumps, global);
+		PseudoOptDecorator problem = new PseudoOptDecorator(guard);
+		OptToPBSATAdapter adapter = new OptToPBSATAdapter(problem);
+		guard.startOptimizing();
+		try {
+			boolean satisfiable = adapter.isSatisfiable(assumps);
+			if (satisfiable)
+				optimizer = problem;
+			return satisfiable;
+		} finally {
+			guard.stopOptimizing();
+		}
+	}
+
+	public boolean isSatisfiable() throws TimeoutException {
+		return isSatisfiable(VecInt.EMPTY, false);
+	}
+
+	public boolean isSatisfiable(boolean global) throws TimeoutException {
+		return isSatisfiable(VecInt.EMPTY, global);
+	}
+
+	public int[] model() {
+		return optimizer == null ? super.model() : optimizer.model();
+	}
+
+	public boolean model(int var) {
+		return optimizer == null ? super.model(var) : optimizer.model(var);
+	}
+
+	public int[] modelWithInternalVariables() {
+		return optimizer == null ? super.modelWithInternalVariables() : optimizer.modelWithInternalVariables();
+	}
+}
@@ -44,6 +44,7 @@ public class SimplePlanner implements IPlanner {
 	private static final String CONSIDER_METAREQUIREMENTS = "org.eclipse.equinox.p2.planner.resolveMetaRequirements"; //$NON-NLS-1$
 
 	static final int UNSATISFIABLE = 1; //status code indicating that the problem is not satisfiable
+	private static int entryPointCount;
 
 	private final IProvisioningAgent agent;
 	private final IProfileRegistry profileRegistry;
@@ -303,6 +304,10 @@ public class SimplePlanner implements IPlanner {
 	// Return the set of IUs representing the complete future state of the profile to satisfy the request or return a 
 	// ProvisioningPlan when the request can not be satisfied
 	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, IProgressMonitor monitor) {
+		return getSolutionFor(profileChangeRequest, context, null, monitor);
+	}
+
+	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, PlannerSession session, IProgressMonitor monitor) {
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
 		try {
@@ -332,9 +337,23 @@ public class SimplePlanner implements IPlanner {
 			@SuppressWarnings("unchecked")
 			final IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {slice, new QueryableArray(profileChangeRequest.getAdditions().toArray(new IInstallableUnit[profileChangeRequest.getAdditions().size()]))};
 			slice = new CompoundQueryable<IInstallableUnit>(queryables);
-			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+			Projector projector;
+			if (session == null)
+				projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+			else
+				projector = session.getProjector(slice, (IInstallableUnit) updatedPlan[0], newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
 			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
 			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			if (session != null) {
+				session.solved(projector, s);
+				if (projector.isIncremental() && s.getSeverity() == IStatus.ERROR) {
+					//Solve again from scratch to report the problems and explain the failure as usual
+					projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+					projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(0));
+					s = projector.invokeSolver(sub.newChild(0));
+					session.solved(projector, s);
+				}
+			}
 			if (s.getSeverity() == IStatus.CANCEL) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(s);
@@ -373,12 +392,20 @@ public class SimplePlanner implements IPlanner {
 	}
 
 	public IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, IProgressMonitor monitor) {
+		return getProvisioningPlan(request, context, null, monitor);
+	}
+
+	/**
+	 * Computes a provisioning plan, reusing the encodings kept by the given session if any.
+	 * @see PlannerSession
+	 */
+	IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, PlannerSession session, IProgressMonitor monitor) {
 		ProfileChangeRequest pcr = (ProfileChangeRequest) request;
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
 		try {
 			//Get the solution for the initial request
-			Object resolutionResult = getSolutionFor(pcr, context, sub.newChild(ExpandWork / 2));
+			Object resolutionResult = getSolutionFor(pcr, context, session, sub.newChild(ExpandWork / 2));
 			// a return value of a plan indicates failure when resolving so return.
 			if (resolutionResult instanceof IProvisioningPlan)
 				return (IProvisioningPlan) resolutionResult;
@@ -388,7 +415,7 @@ public class SimplePlanner implements IPlanner {
 			fullState.addAll(newState);
 			newState = AttachmentHelper.attachFragments(newState.iterator(), ((Projector) resolutionResult).getFragmentAssociation());
 
-			IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context);
+			IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context, session);
 
 			//Create a plan for installing necessary pieces to complete the installation (e.g touchpoint actions)
 			return createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
@@ -620,6 +647,10 @@ public class SimplePlanner implements IPlanner {
 
 	//Compute the set of operands based on the solution obtained previously
 	private IProvisioningPlan generatePlan(Projector newSolution, Collection<IInstallableUnit> newState, ProfileChangeRequest request, ProvisioningContext context) {
+		return generatePlan(newSolution, newState, request, context, null);
+	}
+
+	private IProvisioningPlan generatePlan(Projector newSolution, Collection<IInstallableUnit> newState, ProfileChangeRequest request, ProvisioningContext context, PlannerSession session) {
 		//Compute the attachment of the new state if not provided
 		if (newState == null) {
 			newState = newSolution.extractSolution();
@@ -628,7 +659,7 @@ public class SimplePlanner implements IPlanner {
 		ProvisioningContext noRepoContext = createNoRepoContext(request);
 
 		//Compute the attachment of the previous state
-		Object initialSolution = getSolutionFor(new ProfileChangeRequest(new EverythingOptionalProfile(request.getProfile())), noRepoContext, new NullProgressMonitor());
+		Object initialSolution = getSolutionFor(new ProfileChangeRequest(new EverythingOptionalProfile(request.getProfile())), noRepoContext, session, new NullProgressMonitor());
 		if (initialSolution instanceof IProvisioningPlan) {
 			LogHelper.log(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, "The resolution of the previous state contained in profile " + request.getProfile().getProfileId() + " version " + request.getProfile().getTimestamp() + " failed.")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
 			return (IProvisioningPlan) initialSolution;
@@ -677,11 +708,16 @@ public class SimplePlanner implements IPlanner {
 		return actionsIU;
 	}
 
+	//The entry points of two requests must never be equal, a planner session solves them with the same encoding
+	private static synchronized int nextEntryPointId() {
+		return ++entryPointCount;
+	}
+
 	private IInstallableUnit createIURepresentingTheProfile(Set<IRequirement> allRequirements) {
 		InstallableUnitDescription iud = new MetadataFactory.InstallableUnitDescription();
-		String time = Long.toString(System.currentTimeMillis());
-		iud.setId(time);
-		iud.setVersion(Version.createOSGi(0, 0, 0, time));
+		String id = Integer.toString(nextEntryPointId());
+		iud.setId(id);
+		iud.setVersion(Version.createOSGi(0, 0, 0, id));
 		iud.setRequirements(allRequirements.toArray(new IRequirement[allRequirements.size()]));
 		return MetadataFactory.createInstallableUnit(iud);
 	}
@@ -24,15 +24,98 @@ import org.eclipse.osgi.util.NLS;
 
 public class Slicer {
 	private static boolean DEBUG = false;
+
+	/**
+	 * Frontiers smaller than this are processed on the calling thread since
+	 * handing them to the workers costs more than it gains.
+	 */
+	private static final int MIN_PARALLEL_FRONTIER = 8;
+
 	private final IQueryable<IInstallableUnit> possibilites;
 	private final boolean considerMetaRequirements;
 	protected final IInstallableUnit selectionContext;
 	private final Map<String, Map<Version, IInstallableUnit>> slice; //The IUs that have been considered to be part of the problem
 	private final MultiStatus result;
 
-	private LinkedList<IInstallableUnit> toProcess;
 	private Set<IInstallableUnit> considered; //IUs to add to the slice
 	private Set<IInstallableUnit> nonGreedyIUs = new HashSet<IInstallableUnit>(); //IUs that are brought in by non greedy dependencies
+	private int parallelism;
+
+	/**
+	 * The units and warnings found while processing one unit of the frontier. They are
+	 * collected rather than added to the slice so that they can be merged in the same
+	 * order as a serial walk would produce them.
+	 */
+	private static class Expansion {
+		final List<IInstallableUnit> matches = new ArrayList<IInstallableUnit>();
+		final List<IStatus> problems = new ArrayList<IStatus>(0);
+	}
+
+	/**
+	 * The expansion of the unit that the current thread is processing.
+	 */
+	private final ThreadLocal<Expansion> currentExpansion = new ThreadLocal<Expansion>();
+
+	/*
+	 * Expands the units of a frontier on several threads. Each thread takes the next unit
+	 * that was not processed yet, until all of them are processed or the monitor is canceled.
+	 */
+	private class FrontierExpansion implements Runnable {
+		private final List<IInstallableUnit> frontier;
+		private final Expansion[] expansions;
+		private final IProgressMonitor monitor;
+		private int next = 0;
+		private Throwable failure;
+
+		FrontierExpansion(List<IInstallableUnit> frontier, IProgressMonitor monitor) {
+			this.frontier = frontier;
+			this.expansions = new Expansion[frontier.size()];
+			this.monitor = monitor;
+		}
+
+		Expansion[] expandAll(int threads) {
+			Thread[] workers = new Thread[Math.min(threads, expansions.length) - 1];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new Thread(this, "Slicer worker"); //$NON-NLS-1$
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+			// the calling thread does its share of the work
+			run();
+			try {
+				for (int i = 0; i < workers.length; i++)
+					workers[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			}
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			return expansions;
+		}
+
+		public void run() {
+			while (true) {
+				int index;
+				synchronized (this) {
+					if (next >= expansions.length || failure != null || monitor.isCanceled())
+						return;
+					index = next++;
+				}
+				try {
+					expansions[index] = expand(frontier.get(index));
+				} catch (Throwable e) {
+					// rethrown by the calling thread
+					synchronized (this) {
+						if (failure == null)
+							failure = e;
+					}
+				}
+			}
+		}
+	}
 
 	public Slicer(IQueryable<IInstallableUnit> input, Map<String, String> context, boolean considerMetaRequirements) {
 		this(input, InstallableUnit.contextIU(context), considerMetaRequirements);
@@ -42,8 +125,36 @@ public class Slicer {
 		this.possibilites = possibilites;
 		this.selectionContext = selectionContext;
 		this.considerMetaRequirements = considerMetaRequirements;
-		slice = new HashMap<String, Map<Version, IInstallableUnit>>();
+		slice = Collections.synchronizedMap(new HashMap<String, Map<Version, IInstallableUnit>>());
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
+		parallelism = getDefaultParallelism();
+	}
+
+	/**
+	 * Sets the number of threads used to expand the dependency closure. A value of
+	 * <code>1</code> or less slices on the calling thread. The resulting slice is the
+	 * same regardless of this setting, but the {@link #possibilites} and the overrides
+	 * of {@link #processIU(IInstallableUnit)} must permit concurrent calls when it is
+	 * larger than <code>1</code>.
+	 * @param parallelism the maximum number of threads to use
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	private static int getDefaultParallelism() {
+		String parallelismString = null;
+		try {
+			// allow the user to enable the parallel slicing.
+			parallelismString = DirectorActivator.context.getProperty("eclipse.p2.slicer.parallelism"); //$NON-NLS-1$
+			if (parallelismString != null)
+				return Math.max(1, Integer.parseInt(parallelismString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (parallelismString != null)
+				System.err.println("Ignoring user-specified 'eclipse.p2.slicer.parallelism' value of: " + parallelismString); //$NON-NLS-1$
+		}
+		return 1;
 	}
 
 	public IQueryable<IInstallableUnit> slice(IInstallableUnit[] ius, IProgressMonitor monitor) {
@@ -56,13 +167,19 @@ public class Slicer {
 
 			validateInput(ius);
 			considered = new HashSet<IInstallableUnit>(Arrays.asList(ius));
-			toProcess = new LinkedList<IInstallableUnit>(considered);
-			while (!toProcess.isEmpty()) {
+			// The frontier is processed one level at a time and merged in order. This
+			// yields the same breadth first walk regardless of the parallelism.
+			List<IInstallableUnit> frontier = new ArrayList<IInstallableUnit>(considered);
+			while (!frontier.isEmpty()) {
 				if (monitor.isCanceled()) {
 					result.merge(Status.CANCEL_STATUS);
 					throw new OperationCanceledException();
 				}
-				processIU(toProcess.removeFirst());
+				frontier = processFrontier(frontier, monitor);
+			}
+			if (monitor.isCanceled()) {
+				result.merge(Status.CANCEL_STATUS);
+				throw new OperationCanceledException();
 			}
 			computeNonGreedyIUs();
 			if (DEBUG) {
@@ -79,6 +196,43 @@ public class Slicer {
 		return new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
 	}
 
+	/**
+	 * Expands the given frontier and returns the units that were considered for
+	 * the first time, in the order a serial breadth first walk would find them.
+	 */
+	private List<IInstallableUnit> processFrontier(List<IInstallableUnit> frontier, IProgressMonitor monitor) {
+		Expansion[] expansions;
+		if (parallelism <= 1 || frontier.size() < MIN_PARALLEL_FRONTIER) {
+			expansions = new Expansion[frontier.size()];
+			for (int i = 0; i < expansions.length && !monitor.isCanceled(); i++)
+				expansions[i] = expand(frontier.get(i));
+		} else
+			expansions = new FrontierExpansion(frontier, monitor).expandAll(parallelism);
+
+		List<IInstallableUnit> nextFrontier = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < expansions.length; i++) {
+			if (expansions[i] == null)
+				continue;
+			for (IStatus problem : expansions[i].problems)
+				result.add(problem);
+			for (IInstallableUnit match : expansions[i].matches)
+				if (considered.add(match))
+					nextFrontier.add(match);
+		}
+		return nextFrontier;
+	}
+
+	private Expansion expand(IInstallableUnit iu) {
+		Expansion expansion = new Expansion();
+		currentExpansion.set(expansion);
+		try {
+			processIU(iu);
+		} finally {
+			currentExpansion.set(null);
+		}
+		return expansion;
+	}
+
 	private void computeNonGreedyIUs() {
 		IQueryable<IInstallableUnit> queryable = new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
 		Iterator<IInstallableUnit> it = queryable.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).iterator();
@@ -121,11 +275,13 @@ public class Slicer {
 	protected void processIU(IInstallableUnit iu) {
 		iu = iu.unresolved();
 
-		Map<Version, IInstallableUnit> iuSlice = slice.get(iu.getId());
-		if (iuSlice == null) {
-
-			iuSlice = new HashMap<Version, IInstallableUnit>();
-			slice.put(iu.getId(), iuSlice);
+		Map<Version, IInstallableUnit> iuSlice;
+		synchronized (slice) {
+			iuSlice = slice.get(iu.getId());
+			if (iuSlice == null) {
+				iuSlice = Collections.synchronizedMap(new HashMap<Version, IInstallableUnit>());
+				slice.put(iu.getId(), iuSlice);
+			}
 		}
 		iuSlice.put(iu.getVersion(), iu);
 		if (!isApplicable(iu)) {
@@ -189,7 +345,7 @@ public class Slicer {
 			validMatches++;
 			Map<Version, IInstallableUnit> iuSlice = slice.get(match.getId());
 			if (iuSlice == null || !iuSlice.containsKey(match.getVersion()))
-				consider(match);
+				currentExpansion.get().matches.add(match);
 		}
 
 		if (validMatches == 0) {
@@ -197,16 +353,11 @@ public class Slicer {
 				if (DEBUG)
 					System.out.println("No IU found to satisfy optional dependency of " + iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
 			} else {
-				result.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
+				currentExpansion.get().problems.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
 			}
 		}
 	}
 
-	private void consider(IInstallableUnit match) {
-		if (considered.add(match))
-			toProcess.addLast(match);
-	}
-
 	Set<IInstallableUnit> getNonGreedyIUs() {
 		return nonGreedyIUs;
 	}
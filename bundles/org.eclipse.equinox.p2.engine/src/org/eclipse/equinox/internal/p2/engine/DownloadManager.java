@@ -13,15 +13,19 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.engine.phases.Collect;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 
 public class DownloadManager {
+	private static final int DEFAULT_MAX_DOWNLOADS = 4;
+
 	private ProvisioningContext provContext = null;
 	ArrayList<IArtifactRequest> requestsToProcess = new ArrayList<IArtifactRequest>();
 	private IProvisioningAgent agent = null;
@@ -104,24 +108,249 @@ public class DownloadManager {
 	}
 
 	private void fetch(IArtifactRepository[] repositories, IProgressMonitor mon) {
-		SubMonitor monitor = SubMonitor.convert(mon, requestsToProcess.size());
-		for (int i = 0; i < repositories.length && !requestsToProcess.isEmpty() && !monitor.isCanceled(); i++) {
-			IArtifactRequest[] requests = getRequestsForRepository(repositories[i]);
-			IStatus dlStatus = repositories[i].getArtifacts(requests, monitor.newChild(requests.length));
-			if (dlStatus.getSeverity() == IStatus.CANCEL)
-				return;
-			filterUnfetched();
-			monitor.setWorkRemaining(requestsToProcess.size());
+		FetchScheduler scheduler = new FetchScheduler(repositories, requestsToProcess, mon);
+		int numberOfJobs = Math.min(scheduler.size(), getMaximumDownloads());
+		try {
+			if (numberOfJobs <= 1) {
+				scheduler.fetch();
+			} else {
+				for (int i = 0; i < numberOfJobs; i++)
+					new FetchJob(scheduler).schedule();
+				// wait for all the jobs to complete
+				try {
+					Job.getJobManager().join(scheduler, null);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		} finally {
+			scheduler.done();
 		}
+		filterUnfetched();
 	}
 
-	private IArtifactRequest[] getRequestsForRepository(IArtifactRepository repository) {
-		ArrayList<IArtifactRequest> applicable = new ArrayList<IArtifactRequest>();
-		for (IArtifactRequest request : requestsToProcess) {
-			if (repository.contains(request.getArtifactKey()))
-				applicable.add(request);
+	private int getMaximumDownloads() {
+		String maxDownloadsString = null;
+		try {
+			maxDownloadsString = EngineActivator.getContext().getProperty(EngineActivator.PROP_MAX_DOWNLOADS);
+			if (maxDownloadsString != null)
+				return Math.max(1, Integer.parseInt(maxDownloadsString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (maxDownloadsString != null)
+				System.err.println("Ignoring user-specified '" + EngineActivator.PROP_MAX_DOWNLOADS + "' value of: " + maxDownloadsString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_MAX_DOWNLOADS;
+	}
+
+	/**
+	 * A request together with the index of the repository that it's currently
+	 * assigned to.
+	 */
+	private static class PendingRequest {
+		final IArtifactRequest request;
+		int repositoryIndex = -1;
+
+		PendingRequest(IArtifactRequest request) {
+			this.request = request;
+		}
+	}
+
+	/**
+	 * Forwards to a progress monitor that is shared by the fetching threads. Progress
+	 * monitors are not thread safe, so the calls are serialized.
+	 */
+	private static class SynchronizedMonitor extends ProgressMonitorWrapper {
+		SynchronizedMonitor(IProgressMonitor monitor) {
+			super(monitor);
+		}
+
+		public synchronized void beginTask(String name, int totalWork) {
+			super.beginTask(name, totalWork);
+		}
+
+		public synchronized void clearBlocked() {
+			super.clearBlocked();
+		}
+
+		public synchronized void done() {
+			super.done();
+		}
+
+		public synchronized void internalWorked(double work) {
+			super.internalWorked(work);
+		}
+
+		public synchronized boolean isCanceled() {
+			return super.isCanceled();
+		}
+
+		public synchronized void setBlocked(IStatus reason) {
+			super.setBlocked(reason);
+		}
+
+		public synchronized void setCanceled(boolean value) {
+			super.setCanceled(value);
+		}
+
+		public synchronized void setTaskName(String name) {
+			super.setTaskName(name);
+		}
+
+		public synchronized void subTask(String name) {
+			super.subTask(name);
+		}
+
+		public synchronized void worked(int work) {
+			super.worked(work);
+		}
+	}
+
+	/**
+	 * Plans the fetch of all requests and hands them out to the fetching threads.
+	 * <p>
+	 * Each request is assigned to the first repository (local repositories are first)
+	 * that contains the requested artifact. The requests are queued so that the
+	 * repositories take turns, which keeps all of them busy at the same time. A request
+	 * that fails is queued again for the next repository that contains the artifact
+	 * as soon as it fails.
+	 */
+	private static class FetchScheduler {
+		private final IArtifactRepository[] repositories;
+		private final LinkedList<PendingRequest> pending = new LinkedList<PendingRequest>();
+		private final IProgressMonitor monitor;
+		private int active = 0;
+		private boolean canceled = false;
+
+		FetchScheduler(IArtifactRepository[] repositories, List<IArtifactRequest> requests, IProgressMonitor monitor) {
+			this.repositories = repositories;
+			// each request is given its own sub monitor of the shared one
+			this.monitor = new SynchronizedMonitor(monitor == null ? new NullProgressMonitor() : monitor);
+
+			ArrayList<LinkedList<PendingRequest>> perRepository = new ArrayList<LinkedList<PendingRequest>>(repositories.length);
+			for (int i = 0; i < repositories.length; i++)
+				perRepository.add(new LinkedList<PendingRequest>());
+			for (IArtifactRequest request : requests) {
+				PendingRequest pendingRequest = new PendingRequest(request);
+				if (assignNextRepository(pendingRequest))
+					perRepository.get(pendingRequest.repositoryIndex).add(pendingRequest);
+			}
+			boolean added;
+			do {
+				added = false;
+				for (LinkedList<PendingRequest> queue : perRepository) {
+					if (!queue.isEmpty()) {
+						pending.add(queue.removeFirst());
+						added = true;
+					}
+				}
+			} while (added);
+			this.monitor.beginTask(Messages.download_artifact, pending.size());
+		}
+
+		/**
+		 * Assigns the next repository that contains the requested artifact.
+		 * @return <code>false</code> if no more repositories contain the artifact
+		 */
+		private boolean assignNextRepository(PendingRequest pendingRequest) {
+			IArtifactKey key = pendingRequest.request.getArtifactKey();
+			for (int i = pendingRequest.repositoryIndex + 1; i < repositories.length; i++) {
+				if (repositories[i].contains(key)) {
+					pendingRequest.repositoryIndex = i;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		synchronized int size() {
+			return pending.size();
+		}
+
+		/**
+		 * Returns the next request to fetch, waiting for the requests being fetched
+		 * to finish if they may be queued again. Returns <code>null</code> when there
+		 * is nothing left to do.
+		 */
+		private synchronized PendingRequest next() {
+			while (pending.isEmpty() && active > 0 && !isCanceled()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					canceled = true;
+				}
+			}
+			if (pending.isEmpty() || isCanceled())
+				return null;
+			active++;
+			return pending.removeFirst();
+		}
+
+		private synchronized void fetched(PendingRequest pendingRequest, boolean retry) {
+			active--;
+			if (retry)
+				pending.addFirst(pendingRequest);
+			else
+				monitor.worked(1);
+			notifyAll();
+		}
+
+		private synchronized boolean isCanceled() {
+			return canceled || monitor.isCanceled();
+		}
+
+		private synchronized void cancel() {
+			canceled = true;
+			notifyAll();
+		}
+
+		/**
+		 * Fetches requests until there are no more requests to fetch.
+		 */
+		void fetch() {
+			PendingRequest pendingRequest;
+			while ((pendingRequest = next()) != null) {
+				boolean retry = false;
+				try {
+					IArtifactRepository repository = repositories[pendingRequest.repositoryIndex];
+					IStatus status = repository.getArtifacts(new IArtifactRequest[] {pendingRequest.request}, new SubProgressMonitor(monitor, 0));
+					if (status.getSeverity() == IStatus.CANCEL) {
+						cancel();
+					} else {
+						IStatus result = pendingRequest.request.getResult();
+						retry = (result == null || !result.isOK()) && assignNextRepository(pendingRequest);
+					}
+				} finally {
+					fetched(pendingRequest, retry);
+				}
+			}
+		}
+
+		void done() {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * A job that fetches requests handed out by a {@link FetchScheduler}.
+	 */
+	private static class FetchJob extends Job {
+		private final FetchScheduler scheduler;
+
+		FetchJob(FetchScheduler scheduler) {
+			super(Messages.download_artifact);
+			this.scheduler = scheduler;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == scheduler;
+		}
+
+		protected IStatus run(IProgressMonitor jobMonitor) {
+			scheduler.fetch();
+			return Status.OK_STATUS;
 		}
-		return applicable.toArray(new IArtifactRequest[applicable.size()]);
 	}
 
 	//	private void notifyFetched() {
@@ -52,6 +52,29 @@ public class EngineActivator implements BundleActivator {
 	 */
 	public static final String UNSIGNED_ALLOW = "allow"; //$NON-NLS-1$
 
+	/**
+	 * System property specifying the maximum number of artifacts that the engine
+	 * fetches concurrently across all artifact repositories. If this property is
+	 * undefined, the default value is assumed to be 4.
+	 */
+	public static final String PROP_MAX_DOWNLOADS = "eclipse.p2.max.downloads"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the maximum number of artifacts whose signatures the
+	 * engine verifies concurrently. If this property is undefined, the default value is
+	 * assumed to be the number of available processors.
+	 */
+	public static final String PROP_MAX_VERIFICATIONS = "eclipse.p2.max.verifications"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying the number of profile states that are saved between two
+	 * full checkpoints of a profile. The states in between are saved as deltas against the
+	 * previous state. A value of 1 saves every state as a checkpoint. If this property is
+	 * undefined, the default value is assumed to be 16. Engines before 2.2 do not read
+	 * delta files, so profiles that contain such an engine are always saved in full.
+	 */
+	public static final String PROP_PROFILE_CHECKPOINT_INTERVAL = "eclipse.p2.profileCheckpointInterval"; //$NON-NLS-1$
+
 	public static BundleContext getContext() {
 		return context;
 	}
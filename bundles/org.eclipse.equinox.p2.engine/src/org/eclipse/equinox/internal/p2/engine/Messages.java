@@ -31,6 +31,7 @@ public class Messages extends NLS {
 	public static String CertificateChecker_SignedContentError;
 	public static String CertificateChecker_SignedContentIOError;
 	public static String CertificateChecker_UnsignedNotAllowed;
+	public static String CertificateChecker_Verifying;
 
 	public static String committing;
 	public static String download_artifact;
@@ -96,6 +97,7 @@ public class Messages extends NLS {
 
 	public static String SimpleProfileRegistry_Bad_profile_location;
 	public static String SimpleProfileRegistry_CannotRemoveCurrentSnapshot;
+	public static String SimpleProfileRegistry_Delta_Does_Not_Follow;
 	public static String SimpleProfileRegistry_Parser_Error_Parsing_Registry;
 	public static String SimpleProfileRegistry_Parser_Has_Incompatible_Version;
 	public static String SimpleProfileRegistry_Profile_in_use;
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * The difference between two consecutive states of a profile. A delta records the
+ * installable units that were added and removed, the installable unit properties that
+ * changed and the complete set of local profile properties (which are few). A unit whose
+ * metadata changed without a change of its id and version is recorded as removed and
+ * added again. Applying the delta to the state with the previous timestamp yields the
+ * state with the timestamp of the delta.
+ */
+public class ProfileDelta {
+	private final String profileId;
+	private final long previousTimestamp;
+	private long timestamp;
+	private final Map<String, String> properties;
+	private final List<IInstallableUnit> addedUnits;
+	private final List<IVersionedId> removedUnits;
+	private final Map<IVersionedId, Map<String, String>> iuProperties;
+
+	public ProfileDelta(String profileId, long previousTimestamp, long timestamp, Map<String, String> properties, List<IInstallableUnit> addedUnits, List<IVersionedId> removedUnits, Map<IVersionedId, Map<String, String>> iuProperties) {
+		this.profileId = profileId;
+		this.previousTimestamp = previousTimestamp;
+		this.timestamp = timestamp;
+		this.properties = properties;
+		this.addedUnits = addedUnits;
+		this.removedUnits = removedUnits;
+		this.iuProperties = iuProperties;
+	}
+
+	/**
+	 * Computes the delta that turns the <code>before</code> profile into the <code>after</code>
+	 * profile. The timestamp of the delta is assigned when it is saved.
+	 */
+	public static ProfileDelta compute(IProfile before, IProfile after) {
+		Map<IInstallableUnit, IInstallableUnit> beforeUnits = new HashMap<IInstallableUnit, IInstallableUnit>();
+		for (IInstallableUnit iu : before.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet())
+			beforeUnits.put(iu, iu);
+		Set<IInstallableUnit> afterUnits = after.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+
+		List<IInstallableUnit> added = new ArrayList<IInstallableUnit>();
+		List<IVersionedId> removed = new ArrayList<IVersionedId>();
+		Map<IVersionedId, Map<String, String>> changedProperties = new LinkedHashMap<IVersionedId, Map<String, String>>();
+		for (IInstallableUnit iu : afterUnits) {
+			Map<String, String> iuProperties = new LinkedHashMap<String, String>(after.getInstallableUnitProperties(iu));
+			IInstallableUnit beforeUnit = beforeUnits.get(iu);
+			if (beforeUnit == null || !isSameUnit(beforeUnit, iu)) {
+				if (beforeUnit != null)
+					removed.add(new VersionedId(iu.getId(), iu.getVersion()));
+				added.add(iu);
+				if (!iuProperties.isEmpty())
+					changedProperties.put(new VersionedId(iu.getId(), iu.getVersion()), iuProperties);
+			} else if (!iuProperties.equals(before.getInstallableUnitProperties(iu)))
+				changedProperties.put(new VersionedId(iu.getId(), iu.getVersion()), iuProperties);
+		}
+
+		for (IInstallableUnit iu : beforeUnits.keySet()) {
+			if (!afterUnits.contains(iu))
+				removed.add(new VersionedId(iu.getId(), iu.getVersion()));
+		}
+
+		Map<String, String> properties = after instanceof Profile ? ((Profile) after).getLocalProperties() : after.getProperties();
+		return new ProfileDelta(after.getProfileId(), before.getTimestamp(), 0, new LinkedHashMap<String, String>(properties), added, removed, changedProperties);
+	}
+
+	/**
+	 * Returns whether two units with the same id and version also have the same metadata.
+	 * Units are the same object unless one of them was loaded again, in which case their
+	 * serialized forms are compared.
+	 */
+	private static boolean isSameUnit(IInstallableUnit first, IInstallableUnit second) {
+		return first == second || Arrays.equals(serialize(first), serialize(second));
+	}
+
+	private static byte[] serialize(IInstallableUnit iu) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			new UnitWriter(output).write(iu);
+		} catch (UnsupportedEncodingException e) {
+			// cannot happen, UTF-8 is always supported
+		}
+		return output.toByteArray();
+	}
+
+	private static class UnitWriter extends MetadataWriter {
+		UnitWriter(OutputStream output) throws UnsupportedEncodingException {
+			super(output, null);
+		}
+
+		void write(IInstallableUnit iu) {
+			writeInstallableUnit(iu);
+			flush();
+		}
+	}
+
+	/**
+	 * Applies this delta to the given profile which must be in the state this delta
+	 * was computed against.
+	 */
+	public void applyTo(Profile profile) {
+		for (IVersionedId removed : removedUnits) {
+			IInstallableUnit iu = findUnit(profile, removed);
+			if (iu != null) {
+				profile.removeInstallableUnit(iu);
+				profile.clearInstallableUnitProperties(iu);
+			}
+		}
+		for (IInstallableUnit iu : addedUnits)
+			profile.addInstallableUnit(iu);
+		for (Entry<IVersionedId, Map<String, String>> entry : iuProperties.entrySet()) {
+			IInstallableUnit iu = findUnit(profile, entry.getKey());
+			if (iu == null)
+				continue;
+			profile.clearInstallableUnitProperties(iu);
+			profile.addInstallableUnitProperties(iu, entry.getValue());
+		}
+		profile.clearLocalProperties();
+		profile.addProperties(properties);
+		profile.setTimestamp(timestamp);
+	}
+
+	private static IInstallableUnit findUnit(Profile profile, IVersionedId versionedId) {
+		IQueryResult<IInstallableUnit> result = profile.query(QueryUtil.createIUQuery(versionedId), null);
+		return result.isEmpty() ? null : result.iterator().next();
+	}
+
+	/**
+	 * Returns the number of units that are added, removed or have changed properties.
+	 */
+	public int size() {
+		return addedUnits.size() + removedUnits.size() + iuProperties.size();
+	}
+
+	public String getProfileId() {
+		return profileId;
+	}
+
+	public long getPreviousTimestamp() {
+		return previousTimestamp;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public List<IInstallableUnit> getAddedUnits() {
+		return addedUnits;
+	}
+
+	public List<IVersionedId> getRemovedUnits() {
+		return removedUnits;
+	}
+
+	public Map<IVersionedId, Map<String, String>> getInstallableUnitProperties() {
+		return iuProperties;
+	}
+
+	public String toString() {
+		return "ProfileDelta(" + profileId + ' ' + previousTimestamp + "->" + timestamp + ')'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -11,13 +11,14 @@
 package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.EventObject;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.ICoalescingEvent;
 import org.eclipse.equinox.p2.engine.IProfileEvent;
 
 /**
  * @noextend This class is not intended to be subclassed by clients.
  * @since 2.0
  */
-public class ProfileEvent extends EventObject implements IProfileEvent {
+public class ProfileEvent extends EventObject implements IProfileEvent, ICoalescingEvent {
 	private static final long serialVersionUID = 3082402920617281765L;
 
 	private int reason;
@@ -41,6 +42,14 @@ public class ProfileEvent extends EventObject implements IProfileEvent {
 		return (String) getSource();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.ICoalescingEvent#replaces(java.util.EventObject)
+	 */
+	public boolean replaces(EventObject queued) {
+		// a pending change notification already tells that the profile has changed
+		return reason == IProfileEvent.CHANGED && queued instanceof ProfileEvent && ((ProfileEvent) queued).reason == IProfileEvent.CHANGED && getSource().equals(queued.getSource());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.util.EventObject#toString()
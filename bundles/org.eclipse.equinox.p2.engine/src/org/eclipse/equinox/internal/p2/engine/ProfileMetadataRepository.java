@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2009, 2010 IBM Corporation and others.
+ *  Copyright (c) 2009, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -175,7 +175,7 @@ public class ProfileMetadataRepository extends AbstractMetadataRepository {
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 
 		long timestamp = -1;
-		int index = target.getName().lastIndexOf(DOT_PROFILE);
+		int index = target.getName().endsWith(SimpleProfileRegistry.PROFILE_DELTA_EXT) ? target.getName().lastIndexOf(SimpleProfileRegistry.PROFILE_DELTA_EXT) : target.getName().lastIndexOf(DOT_PROFILE);
 		if (index == -1)
 			fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 		String profileId = target.getName().substring(0, index);
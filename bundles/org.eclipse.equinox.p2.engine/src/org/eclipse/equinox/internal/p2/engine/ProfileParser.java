@@ -10,11 +10,10 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.*;
 import org.osgi.framework.BundleContext;
 import org.xml.sax.Attributes;
 
@@ -112,12 +111,109 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 			if (iusPropertiesHandler == null)
 				return null;
 
-			Map<String, Map<String, String>> iusPropertiesMap = iusPropertiesHandler.getIUsPropertiesMap();
+			Map<IVersionedId, Map<String, String>> iusPropertiesMap = iusPropertiesHandler.getIUsPropertiesMap();
 			if (iusPropertiesMap == null)
 				return null;
 
-			String iuIdentity = iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
-			return iusPropertiesMap.get(iuIdentity);
+			return iusPropertiesMap.get(new VersionedId(iu.getId(), iu.getVersion()));
+		}
+	}
+
+	protected class ProfileDeltaHandler extends RootHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, TIMESTAMP_ATTRIBUTE, PREVIOUS_TIMESTAMP_ATTRIBUTE};
+
+		private String profileId;
+		private long timestamp;
+		private long previousTimestamp;
+		private PropertiesHandler propertiesHandler;
+		private InstallableUnitsHandler unitsHandler;
+		private RemovedUnitsHandler removedUnitsHandler;
+		private IUsPropertiesHandler iusPropertiesHandler;
+
+		protected void handleRootAttributes(Attributes attributes) {
+			String[] values = parseRequiredAttributes(attributes, required);
+			profileId = values[0];
+			timestamp = parseTimestamp(values[1]);
+			previousTimestamp = parseTimestamp(values[2]);
+		}
+
+		private long parseTimestamp(String value) {
+			if (value != null) {
+				try {
+					return Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					invalidAttributeValue(PROFILE_DELTA_ELEMENT, TIMESTAMP_ATTRIBUTE, value);
+				}
+			}
+			return 0;
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (PROPERTIES_ELEMENT.equals(name)) {
+				if (propertiesHandler == null) {
+					propertiesHandler = new PropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
+				if (unitsHandler == null) {
+					unitsHandler = new InstallableUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (REMOVED_UNITS_ELEMENT.equals(name)) {
+				if (removedUnitsHandler == null) {
+					removedUnitsHandler = new RemovedUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (IUS_PROPERTIES_ELEMENT.equals(name)) {
+				if (iusPropertiesHandler == null) {
+					iusPropertiesHandler = new IUsPropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+
+		public ProfileDelta getProfileDelta() {
+			Map<String, String> properties = propertiesHandler == null ? new OrderedProperties() : propertiesHandler.getProperties();
+			List<IInstallableUnit> added = unitsHandler == null ? new ArrayList<IInstallableUnit>() : Arrays.asList(unitsHandler.getUnits());
+			List<IVersionedId> removed = removedUnitsHandler == null ? new ArrayList<IVersionedId>() : removedUnitsHandler.getRemovedUnits();
+			Map<IVersionedId, Map<String, String>> iuProperties = iusPropertiesHandler == null ? new LinkedHashMap<IVersionedId, Map<String, String>>() : iusPropertiesHandler.getIUsPropertiesMap();
+			return new ProfileDelta(profileId, previousTimestamp, timestamp, properties, added, removed, iuProperties);
+		}
+	}
+
+	protected class RemovedUnitsHandler extends AbstractHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+
+		private List<IVersionedId> removedUnits;
+
+		public RemovedUnitsHandler(AbstractHandler parentHandler, Attributes attributes) {
+			super(parentHandler, REMOVED_UNITS_ELEMENT);
+			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+			removedUnits = new ArrayList<IVersionedId>(sizeStr != null ? new Integer(sizeStr).intValue() : 4);
+		}
+
+		public List<IVersionedId> getRemovedUnits() {
+			return removedUnits;
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+				String values[] = parseRequiredAttributes(attributes, required);
+				Version version = checkVersion(INSTALLABLE_UNIT_ELEMENT, VERSION_ATTRIBUTE, values[1]);
+				if (values[0] != null)
+					removedUnits.add(new VersionedId(values[0], version));
+				noSubElements(name, attributes);
+			} else {
+				invalidElement(name, attributes);
+			}
 		}
 	}
 
@@ -125,23 +221,25 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
 
-		private String iuIdentity;
-		private Map<String, Map<String, String>> iusPropertiesMap;
+		private IVersionedId iuIdentity;
+		private Map<IVersionedId, Map<String, String>> iusPropertiesMap;
 		private PropertiesHandler propertiesHandler;
 
-		public IUPropertiesHandler(AbstractHandler parentHandler, Attributes attributes, Map<String, Map<String, String>> iusPropertiesMap) {
+		public IUPropertiesHandler(AbstractHandler parentHandler, Attributes attributes, Map<IVersionedId, Map<String, String>> iusPropertiesMap) {
 			super(parentHandler, IU_PROPERTIES_ELEMENT);
 			this.iusPropertiesMap = iusPropertiesMap;
 
 			String values[] = parseRequiredAttributes(attributes, required);
 			String id = values[0];
 			Version version = checkVersion(IU_PROPERTIES_ELEMENT, VERSION_ATTRIBUTE, values[1]);
-			iuIdentity = id + "_" + version.toString(); //$NON-NLS-1$
+			if (id != null)
+				iuIdentity = new VersionedId(id, version);
 		}
 
 		protected void finished() {
-			if (isValidXML() && iuIdentity != null && propertiesHandler != null) {
-				iusPropertiesMap.put(iuIdentity, propertiesHandler.getProperties());
+			// An element without properties is only written in a delta, for a unit whose properties were removed
+			if (isValidXML() && iuIdentity != null) {
+				iusPropertiesMap.put(iuIdentity, propertiesHandler != null ? propertiesHandler.getProperties() : new OrderedProperties());
 			}
 		}
 
@@ -156,16 +254,16 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 	protected class IUsPropertiesHandler extends AbstractHandler {
 
-		private Map<String, Map<String, String>> iusPropertiesMap;
+		private Map<IVersionedId, Map<String, String>> iusPropertiesMap;
 
 		public IUsPropertiesHandler(AbstractHandler parentHandler, Attributes attributes) {
 			super(parentHandler, IUS_PROPERTIES_ELEMENT);
 			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
 			int size = (sizeStr != null ? new Integer(sizeStr).intValue() : 4);
-			iusPropertiesMap = new LinkedHashMap<String, Map<String, String>>(size);
+			iusPropertiesMap = new LinkedHashMap<IVersionedId, Map<String, String>>(size);
 		}
 
-		public Map<String, Map<String, String>> getIUsPropertiesMap() {
+		public Map<IVersionedId, Map<String, String>> getIUsPropertiesMap() {
 			return iusPropertiesMap;
 		}
 
@@ -18,6 +18,7 @@ import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IVersionedId;
 
 public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants {
 
@@ -46,6 +47,49 @@ public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants
 		flush();
 	}
 
+	/**
+	 * Writes a delta between two states of a profile. Units whose properties were all
+	 * removed are written with an empty <code>iuProperties</code> element.
+	 */
+	public void writeProfileDelta(ProfileDelta delta) {
+		start(PROFILE_DELTA_ELEMENT);
+		attribute(ID_ATTRIBUTE, delta.getProfileId());
+		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(delta.getTimestamp()));
+		attribute(PREVIOUS_TIMESTAMP_ATTRIBUTE, Long.toString(delta.getPreviousTimestamp()));
+		writeProperties(delta.getProperties());
+		List<IInstallableUnit> added = delta.getAddedUnits();
+		writeInstallableUnits(added.iterator(), added.size());
+
+		List<IVersionedId> removed = delta.getRemovedUnits();
+		if (!removed.isEmpty()) {
+			start(REMOVED_UNITS_ELEMENT);
+			attribute(COLLECTION_SIZE_ATTRIBUTE, removed.size());
+			for (IVersionedId versionedId : removed) {
+				start(INSTALLABLE_UNIT_ELEMENT);
+				attribute(ID_ATTRIBUTE, versionedId.getId());
+				attribute(VERSION_ATTRIBUTE, versionedId.getVersion().toString());
+				end(INSTALLABLE_UNIT_ELEMENT);
+			}
+			end(REMOVED_UNITS_ELEMENT);
+		}
+
+		Map<IVersionedId, Map<String, String>> iuProperties = delta.getInstallableUnitProperties();
+		if (!iuProperties.isEmpty()) {
+			start(IUS_PROPERTIES_ELEMENT);
+			attribute(COLLECTION_SIZE_ATTRIBUTE, iuProperties.size());
+			for (Map.Entry<IVersionedId, Map<String, String>> entry : iuProperties.entrySet()) {
+				start(IU_PROPERTIES_ELEMENT);
+				attribute(ID_ATTRIBUTE, entry.getKey().getId());
+				attribute(VERSION_ATTRIBUTE, entry.getKey().getVersion().toString());
+				writeProperties(entry.getValue());
+				end(IU_PROPERTIES_ELEMENT);
+			}
+			end(IUS_PROPERTIES_ELEMENT);
+		}
+		end(PROFILE_DELTA_ELEMENT);
+		flush();
+	}
+
 	private void writeInstallableUnitsProperties(Iterator<IInstallableUnit> it, int size, IProfile profile) {
 		if (size == 0)
 			return;
@@ -41,6 +41,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private static final String PROFILE_EXT = ".profile"; //$NON-NLS-1$
 	private static final String PROFILE_GZ_EXT = ".profile.gz"; //$NON-NLS-1$
+	static final String PROFILE_DELTA_EXT = ".delta.gz"; //$NON-NLS-1$
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
 	public static final String DEFAULT_STORAGE_DIR = "profileRegistry"; //$NON-NLS-1$
 	private static final String DATA_EXT = ".data"; //$NON-NLS-1$
 
@@ -185,19 +187,13 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return null;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return null;
-		}
+		ProfileStateFile[] states = listProfileStates(profileDirectory);
+		int index = indexOf(states, timestamp);
+		if (index == -1)
+			return null;
 
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
-		try {
-			parser.parse(profileFile);
-		} catch (IOException e) {
-			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
-		}
+		parseProfileState(parser, id, states, index);
 		return parser.getProfileMap().get(id);
 	}
 
@@ -214,21 +210,33 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
-				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
+				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_DELTA_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
 			}
 		});
 
 		long[] timestamps = new long[profileFiles.length];
 		for (int i = 0; i < profileFiles.length; i++) {
 			String filename = profileFiles[i].getName();
-			int extensionIndex = filename.lastIndexOf(PROFILE_EXT);
+			int extensionIndex = filename.endsWith(PROFILE_DELTA_EXT) ? filename.lastIndexOf(PROFILE_DELTA_EXT) : filename.lastIndexOf(PROFILE_EXT);
 			try {
 				timestamps[i] = Long.parseLong(filename.substring(0, extensionIndex));
 			} catch (NumberFormatException e) {
-				throw new IllegalStateException("Incompatible profile file name. Expected format is {timestamp}" + PROFILE_GZ_EXT + " (or {timestamp}" + PROFILE_EXT + ") but was " + filename + "."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				throw new IllegalStateException("Incompatible profile file name. Expected format is {timestamp}" + PROFILE_GZ_EXT + " (or {timestamp}" + PROFILE_EXT + " or {timestamp}" + PROFILE_DELTA_EXT + ") but was " + filename + "."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
 			}
 		}
 		Arrays.sort(timestamps);
+
+		// A state that is being converted between a checkpoint and a delta may briefly be stored twice
+		int count = 0;
+		for (int i = 0; i < timestamps.length; i++) {
+			if (count == 0 || timestamps[count - 1] != timestamps[i])
+				timestamps[count++] = timestamps[i];
+		}
+		if (count < timestamps.length) {
+			long[] unique = new long[count];
+			System.arraycopy(timestamps, 0, unique, 0, count);
+			timestamps = unique;
+		}
 		return timestamps;
 	}
 
@@ -294,6 +302,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		ProfileLock lock = profileLocks.get(id);
 		lock.checkLocked();
 
+		// Compute the delta before the current state is replaced
+		ProfileDelta delta = ProfileDelta.compute(current, profile);
 		current.clearLocalProperties();
 		current.clearInstallableUnits();
 
@@ -306,7 +316,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			if (iuProperties != null)
 				current.addInstallableUnitProperties(iu, iuProperties);
 		}
-		saveProfile(current);
+		saveProfile(current, delta);
 		profile.clearOrphanedInstallableUnitProperties();
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
@@ -392,13 +402,22 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return;
+		ProfileStateFile[] states = listProfileStates(profileDirectory);
+		int index = indexOf(states, timestamp);
+		if (index == -1)
+			return;
+
+		// The state that follows may be a delta against the state that is removed. It
+		// must then be saved as a checkpoint first.
+		int next = index + 1;
+		if (next < states.length && states[next].isDelta()) {
+			Profile nextProfile = readProfileState(id, states, next);
+			File checkpointFile = new File(profileDirectory, Long.toString(states[next].timestamp) + PROFILE_GZ_EXT);
+			if (nextProfile == null || !writeProfileState(checkpointFile, nextProfile, null))
+				throw new ProvisionException(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id)));
+			states[next].file.delete();
 		}
-		FileUtils.deleteAll(profileFile);
+		FileUtils.deleteAll(states[index].file);
 		// Ignore the return value here. If there was a problem removing the profile state
 		// properties we don't want to fail the whole operation since the profile state itself 
 		// was removed successfully
@@ -440,14 +459,9 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			boolean locked = false;
 			if (lock.processHoldsLock() || (locked = lock.lock())) {
 				try {
-					File profileFile = findLatestProfileFile(profileDirectories[i]);
-					if (profileFile != null) {
-						try {
-							parser.parse(profileFile);
-						} catch (IOException e) {
-							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
-						}
-					}
+					ProfileStateFile[] states = listProfileStates(profileDirectories[i]);
+					if (states.length > 0)
+						parseProfileState(parser, profileId, states, states.length - 1);
 				} finally {
 					if (locked)
 						lock.unlock();
@@ -460,34 +474,107 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return parser.getProfileMap();
 	}
 
-	private File findLatestProfileFile(File profileDirectory) {
-		File latest = null;
-		long latestTimestamp = 0;
+	/**
+	 * Returns the stored states of the profile in the given directory, sorted by timestamp.
+	 * Each state is either a checkpoint that holds the complete profile or a delta against
+	 * the state before it.
+	 */
+	private ProfileStateFile[] listProfileStates(File profileDirectory) {
 		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
-				return (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT)) && !pathname.isDirectory();
+				String name = pathname.getName();
+				return (name.endsWith(PROFILE_GZ_EXT) || name.endsWith(PROFILE_EXT) || name.endsWith(PROFILE_DELTA_EXT)) && !pathname.isDirectory();
 			}
 		});
 		// protect against NPE
 		if (profileFiles == null)
-			return null;
+			return new ProfileStateFile[0];
+
+		List<ProfileStateFile> states = new ArrayList<ProfileStateFile>(profileFiles.length);
 		for (int i = 0; i < profileFiles.length; i++) {
 			File profileFile = profileFiles[i];
 			String fileName = profileFile.getName();
+			boolean isDelta = fileName.endsWith(PROFILE_DELTA_EXT);
 			try {
-				long timestamp = Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
-				if (timestamp > latestTimestamp) {
-					latestTimestamp = timestamp;
-					latest = profileFile;
-				}
+				long timestamp = Long.parseLong(fileName.substring(0, fileName.indexOf(isDelta ? PROFILE_DELTA_EXT : PROFILE_EXT)));
+				states.add(new ProfileStateFile(profileFile, timestamp, isDelta));
 			} catch (NumberFormatException e) {
 				// ignore
 			}
 		}
-		return latest;
+		Collections.sort(states);
+
+		// When a state is stored both ways the checkpoint wins, it is sorted first
+		for (int i = states.size() - 1; i > 0; i--) {
+			if (states.get(i).timestamp == states.get(i - 1).timestamp)
+				states.remove(i);
+		}
+		return states.toArray(new ProfileStateFile[states.size()]);
+	}
+
+	private static int indexOf(ProfileStateFile[] states, long timestamp) {
+		for (int i = 0; i < states.length; i++) {
+			if (states[i].timestamp == timestamp)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses the profile state at the given index into the parser. A delta is reconstructed
+	 * by parsing the closest checkpoint before it and replaying the deltas in between.
+	 * Returns <code>false</code> if the state could not be read.
+	 */
+	private boolean parseProfileState(Parser parser, String id, ProfileStateFile[] states, int index) {
+		int checkpoint = index;
+		while (checkpoint >= 0 && states[checkpoint].isDelta())
+			checkpoint--;
+		File profileFile = states[index].file;
+		try {
+			if (checkpoint < 0)
+				throw new IOException(NLS.bind(Messages.SimpleProfileRegistry_Delta_Does_Not_Follow, profileFile, null));
+
+			// Read the deltas first so that nothing is added to the parser when one of them is broken
+			List<ProfileDelta> deltas = new ArrayList<ProfileDelta>(index - checkpoint);
+			long previousTimestamp = states[checkpoint].timestamp;
+			for (int i = checkpoint + 1; i <= index; i++) {
+				profileFile = states[i].file;
+				ProfileDelta delta = parser.parseDelta(profileFile);
+				if (delta.getPreviousTimestamp() != previousTimestamp || delta.getTimestamp() != states[i].timestamp || !id.equals(delta.getProfileId()))
+					throw new IOException(NLS.bind(Messages.SimpleProfileRegistry_Delta_Does_Not_Follow, profileFile, Long.toString(previousTimestamp)));
+				previousTimestamp = delta.getTimestamp();
+				deltas.add(delta);
+			}
+			profileFile = states[checkpoint].file;
+			parser.parse(profileFile);
+			parser.addProfileDeltas(id, deltas);
+			return true;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the profile state at the given index into a new profile. Returns <code>null</code>
+	 * if the state could not be read.
+	 */
+	private Profile readProfileState(String id, ProfileStateFile[] states, int index) {
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		if (!parseProfileState(parser, id, states, index))
+			return null;
+		return parser.getProfileMap().get(id);
 	}
 
 	private void saveProfile(Profile profile) {
+		saveProfile(profile, null);
+	}
+
+	/**
+	 * Saves the profile as a new state. The state is saved as the given delta against the
+	 * previous state when possible and as a full checkpoint otherwise.
+	 */
+	private void saveProfile(Profile profile, ProfileDelta delta) {
 		File profileDirectory = getProfileFolder(profile.getProfileId());
 		profileDirectory.mkdir();
 
@@ -496,7 +583,9 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (currentTimestamp <= previousTimestamp)
 			currentTimestamp = previousTimestamp + 1;
 		boolean shouldGzipFile = shouldGzipFile(profile);
-		File profileFile = new File(profileDirectory, Long.toString(currentTimestamp) + (shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT));
+		if (delta != null && !(shouldGzipFile && shouldWriteDeltaFile(profile) && shouldWriteDelta(profileDirectory, profile, delta)))
+			delta = null;
+		File profileFile = new File(profileDirectory, Long.toString(currentTimestamp) + (delta != null ? PROFILE_DELTA_EXT : (shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT)));
 
 		// Log a stack trace to see who is writing the profile.
 		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
@@ -504,18 +593,39 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		profile.setTimestamp(currentTimestamp);
 		profile.setChanged(false);
+		if (delta != null)
+			delta.setTimestamp(currentTimestamp);
+		if (!writeProfileState(profileFile, profile, delta))
+			profile.setTimestamp(previousTimestamp);
+	}
+
+	/**
+	 * Writes the given delta, or the complete profile when the delta is <code>null</code>, to
+	 * the given file. The file is compressed when its name ends with <code>.gz</code>.
+	 */
+	private boolean writeProfileState(File profileFile, Profile profile, ProfileDelta delta) {
 		OutputStream os = null;
 		try {
-			if (shouldGzipFile)
+			if (profileFile.getName().endsWith(".gz")) //$NON-NLS-1$
 				os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(profileFile)));
 			else
 				os = new BufferedOutputStream(new FileOutputStream(profileFile));
 			Writer writer = new Writer(os);
-			writer.writeProfile(profile);
+			if (delta != null)
+				writer.writeProfileDelta(delta);
+			else
+				writer.writeProfile(profile);
 		} catch (IOException e) {
-			profile.setTimestamp(previousTimestamp);
+			try {
+				if (os != null)
+					os.close();
+			} catch (IOException e2) {
+				// ignore
+			}
+			os = null;
 			profileFile.delete();
 			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			return false;
 		} finally {
 			try {
 				if (os != null)
@@ -524,6 +634,113 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				// ignore
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Returns whether a new state can be saved as the given delta. This is the case when the
+	 * delta follows the latest saved state, when less than the configured number of deltas
+	 * follow the last checkpoint, and when the delta is small compared to the profile.
+	 */
+	private boolean shouldWriteDelta(File profileDirectory, Profile profile, ProfileDelta delta) {
+		int interval = getCheckpointInterval();
+		if (interval <= 1)
+			return false;
+
+		ProfileStateFile[] states = listProfileStates(profileDirectory);
+		if (states.length == 0 || states[states.length - 1].timestamp != delta.getPreviousTimestamp())
+			return false;
+		int deltaCount = 0;
+		for (int i = states.length - 1; i >= 0 && states[i].isDelta(); i--)
+			deltaCount++;
+		if (deltaCount + 1 >= interval)
+			return false;
+
+		int unitCount = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size();
+		return delta.size() * 2 <= unitCount;
+	}
+
+	private int getCheckpointInterval() {
+		String intervalString = null;
+		try {
+			intervalString = EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+			if (intervalString != null)
+				return Integer.parseInt(intervalString);
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (intervalString != null)
+				System.err.println("Ignoring user-specified '" + EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL + "' value of: " + intervalString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_CHECKPOINT_INTERVAL;
+	}
+
+	/**
+	 * Rewrites the saved states of the given profile so that a checkpoint is followed by at
+	 * most the configured number of deltas, each state stored as a delta against the state
+	 * before it. This converts the full snapshots written by earlier versions and bounds
+	 * the number of deltas that have to be replayed to read a state. The content and the
+	 * timestamps of the states do not change.
+	 */
+	public synchronized IStatus compactProfileStates(String id) {
+		if (SELF.equals(id))
+			id = self;
+		if (id == null)
+			return Status.OK_STATUS;
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return Status.OK_STATUS;
+
+		ProfileLock lock = profileLocks.get(id);
+		if (lock == null) {
+			lock = new ProfileLock(this, profileDirectory);
+			profileLocks.put(id, lock);
+		}
+		boolean locked = false;
+		if (!lock.processHoldsLock() && !(locked = lock.lock()))
+			return new Status(IStatus.ERROR, EngineActivator.ID, Messages.SimpleProfileRegistry_Profile_in_use);
+		try {
+			int interval = Math.max(1, getCheckpointInterval());
+			ProfileStateFile[] states = listProfileStates(profileDirectory);
+			Profile previous = null;
+			int deltaCount = 0;
+			for (int i = 0; i < states.length; i++) {
+				ProfileStateFile state = states[i];
+				Profile current;
+				ProfileDelta delta = null;
+				if (state.isDelta() && previous != null) {
+					// The chain is intact up to here so the delta can be replayed on the previous state
+					delta = new Parser(EngineActivator.getContext(), EngineActivator.ID).parseDelta(state.file);
+					if (delta.getPreviousTimestamp() != previous.getTimestamp() || delta.getTimestamp() != state.timestamp)
+						throw new IOException(NLS.bind(Messages.SimpleProfileRegistry_Delta_Does_Not_Follow, state.file, Long.toString(previous.getTimestamp())));
+					current = previous;
+					delta.applyTo(current);
+				} else {
+					current = readProfileState(id, states, i);
+					if (current == null)
+						return new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, state.file));
+					if (previous != null) {
+						delta = ProfileDelta.compute(previous, current);
+						delta.setTimestamp(state.timestamp);
+					}
+				}
+
+				boolean checkpoint = delta == null || deltaCount + 1 >= interval || !shouldGzipFile(current) || !shouldWriteDeltaFile(current) || delta.size() * 2 > current.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size();
+				if (checkpoint != !state.isDelta()) {
+					File newFile = new File(profileDirectory, Long.toString(state.timestamp) + (checkpoint ? PROFILE_GZ_EXT : PROFILE_DELTA_EXT));
+					if (!writeProfileState(newFile, current, checkpoint ? null : delta))
+						return new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id));
+					state.file.delete();
+				}
+				deltaCount = checkpoint ? 0 : deltaCount + 1;
+				previous = current;
+			}
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileDirectory), e);
+		} finally {
+			if (locked)
+				lock.unlock();
+		}
+		return Status.OK_STATUS;
 	}
 
 	public void setEventBus(IProvisioningEventBus bus) {
@@ -543,6 +760,15 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return profile.available(QueryUtil.createIUQuery("org.eclipse.equinox.p2.engine", new VersionRange("[0.0.0, 1.0.101)")), null).isEmpty(); //$NON-NLS-1$//$NON-NLS-2$
 	}
 
+	/**
+	 * Returns whether states of the given profile may be saved as delta files. Engines
+	 * before 2.2 only read the latest full profile file and would silently see a stale
+	 * state, so profiles that contain such an engine are always saved in full.
+	 */
+	private boolean shouldWriteDeltaFile(Profile profile) {
+		return profile.available(QueryUtil.createIUQuery("org.eclipse.equinox.p2.engine", new VersionRange("[0.0.0, 2.2.0)")), null).isEmpty(); //$NON-NLS-1$//$NON-NLS-2$
+	}
+
 	private void deleteProfile(String profileId) {
 		File profileDirectory = getProfileFolder(profileId);
 		FileUtils.deleteAll(profileDirectory);
@@ -596,6 +822,32 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return buffer.toString();
 	}
 
+	/**
+	 * A saved state of a profile, either a checkpoint or a delta.
+	 */
+	static class ProfileStateFile implements Comparable<ProfileStateFile> {
+		final File file;
+		final long timestamp;
+		private final boolean delta;
+
+		ProfileStateFile(File file, long timestamp, boolean delta) {
+			this.file = file;
+			this.timestamp = timestamp;
+			this.delta = delta;
+		}
+
+		boolean isDelta() {
+			return delta;
+		}
+
+		public int compareTo(ProfileStateFile other) {
+			if (timestamp != other.timestamp)
+				return timestamp < other.timestamp ? -1 : 1;
+			// checkpoints first
+			return delta == other.delta ? 0 : (delta ? 1 : -1);
+		}
+	}
+
 	static class Writer extends ProfileWriter {
 
 		public Writer(OutputStream output) throws IOException {
@@ -609,6 +861,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 */
 	class Parser extends ProfileParser {
 		private final Map<String, ProfileHandler> profileHandlers = new HashMap<String, ProfileHandler>();
+		private final Map<String, List<ProfileDelta>> profileDeltas = new HashMap<String, List<ProfileDelta>>();
 
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
@@ -647,6 +900,36 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 
+		/**
+		 * Adds deltas that are applied, in order, to the profile with the given id when
+		 * the profile map is created.
+		 */
+		public void addProfileDeltas(String profileId, List<ProfileDelta> deltas) {
+			if (!deltas.isEmpty())
+				profileDeltas.put(profileId, deltas);
+		}
+
+		public ProfileDelta parseDelta(File file) throws IOException {
+			return parseDelta(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		}
+
+		public synchronized ProfileDelta parseDelta(InputStream stream) throws IOException {
+			this.status = null;
+			try {
+				getParser();
+				ProfileDeltaHandler deltaHandler = new ProfileDeltaHandler();
+				xmlReader.setContentHandler(new ProfileDocHandler(PROFILE_DELTA_ELEMENT, deltaHandler));
+				xmlReader.parse(new InputSource(stream));
+				return deltaHandler.getProfileDelta();
+			} catch (SAXException e) {
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} finally {
+				stream.close();
+			}
+		}
+
 		protected Object getRootObject() {
 			return this;
 		}
@@ -691,6 +974,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 					}
 				}
 			}
+			List<ProfileDelta> deltas = profileDeltas.get(profileId);
+			if (deltas != null) {
+				for (ProfileDelta delta : deltas)
+					delta.applyTo(profile);
+			}
 			profile.setChanged(false);
 			profileMap.put(profileId, profile);
 		}
@@ -815,7 +1103,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return false;
 		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
-				return (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT)) && pathname.isFile();
+				return (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_DELTA_EXT)) && pathname.isFile();
 			}
 		});
 		return profileFiles.length > 0;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,20 +15,25 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.cert.Certificate;
 import java.util.*;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.core.UIServices.TrustInfo;
 import org.eclipse.osgi.service.security.TrustEngine;
 import org.eclipse.osgi.signedcontent.*;
 import org.eclipse.osgi.util.NLS;
-import org.osgi.framework.BundleContext;
-import org.osgi.framework.ServiceReference;
+import org.osgi.framework.*;
 import org.osgi.util.tracker.ServiceTracker;
 
 public class CertificateChecker {
 	private static final String CC = "certificate checker";
+	/**
+	 * The framework property that restricts the trust engines which decide whether a
+	 * signer is trusted.
+	 */
+	private static final String PROP_TRUST_ENGINE = "osgi.signedcontent.trust.engine"; //$NON-NLS-1$
 
 	private ArrayList<File> artifacts;
 	private final IProvisioningAgent agent;
@@ -53,10 +58,186 @@ public class CertificateChecker {
 		}
 	}
 
+	/**
+	 * The signers of an artifact, or the error that occurred while verifying it.
+	 */
+	private static class Verification {
+		Certificate[][] chains;
+		boolean[] trusted;
+		IStatus error;
+	}
+
+	/**
+	 * Hands out the artifacts to verify to the verifying threads.
+	 */
+	private class Verifier {
+		private final SignedContentFactory verifierFactory;
+		private final SignedContentCache cache;
+		private final TrustEngine[] trustEngines;
+		final Verification[] results = new Verification[artifacts.size()];
+		private int next = 0;
+
+		Verifier(SignedContentFactory verifierFactory, SignedContentCache cache, TrustEngine[] trustEngines) {
+			this.verifierFactory = verifierFactory;
+			this.cache = cache;
+			this.trustEngines = trustEngines;
+		}
+
+		private synchronized int next() {
+			return next < results.length ? next++ : -1;
+		}
+
+		/**
+		 * Verifies artifacts until all of them have been verified.
+		 */
+		void verify() {
+			int index;
+			while ((index = next()) != -1)
+				results[index] = verifyArtifact(artifacts.get(index), verifierFactory, cache, trustEngines);
+		}
+	}
+
+	/**
+	 * A job that verifies artifacts handed out by a {@link Verifier}.
+	 */
+	private static class VerifyJob extends Job {
+		private final Verifier verifier;
+
+		VerifyJob(Verifier verifier) {
+			super(Messages.CertificateChecker_Verifying);
+			this.verifier = verifier;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == verifier;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			verifier.verify();
+			return Status.OK_STATUS;
+		}
+	}
+
+	private Verification[] verify(SignedContentFactory verifierFactory) {
+		SignedContentCache cache = SignedContentCache.getCache(agent);
+		ServiceTracker<TrustEngine, TrustEngine> trustEngineTracker = getSignerTrustEngineTracker();
+		trustEngineTracker.open();
+		try {
+			Object[] services = trustEngineTracker.getServices();
+			TrustEngine[] trustEngines = new TrustEngine[services == null ? 0 : services.length];
+			for (int i = 0; i < trustEngines.length; i++)
+				trustEngines[i] = (TrustEngine) services[i];
+			Verifier verifier = new Verifier(verifierFactory, cache, trustEngines);
+			int numberOfJobs = Math.min(artifacts.size(), getMaximumVerifications());
+			if (numberOfJobs <= 1) {
+				verifier.verify();
+			} else {
+				for (int i = 0; i < numberOfJobs; i++)
+					new VerifyJob(verifier).schedule();
+				// wait for all the jobs to complete
+				try {
+					Job.getJobManager().join(verifier, null);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+			return verifier.results;
+		} finally {
+			trustEngineTracker.close();
+			try {
+				cache.save();
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, e.getMessage(), e));
+			}
+		}
+	}
+
+	/**
+	 * Verifies the signatures of the given artifact, unless the result of an earlier
+	 * verification of the same content is cached.
+	 */
+	private Verification verifyArtifact(File artifact, SignedContentFactory verifierFactory, SignedContentCache cache, TrustEngine[] trustEngines) {
+		long start = System.currentTimeMillis();
+		Verification result = new Verification();
+		boolean cached = false;
+		try {
+			String key = SignedContentCache.getKey(artifact);
+			Certificate[][] chains = cache.get(key);
+			if (chains != null) {
+				cached = true;
+				result.chains = chains;
+				result.trusted = new boolean[chains.length];
+				for (int i = 0; i < chains.length; i++)
+					result.trusted[i] = isTrusted(chains[i], trustEngines);
+			} else {
+				SignedContent content = verifierFactory.getSignedContent(artifact);
+				SignerInfo[] signerInfo = content.isSigned() ? content.getSignerInfos() : new SignerInfo[0];
+				result.chains = new Certificate[signerInfo.length][];
+				result.trusted = new boolean[signerInfo.length];
+				for (int i = 0; i < signerInfo.length; i++) {
+					result.chains[i] = signerInfo[i].getCertificateChain();
+					result.trusted[i] = signerInfo[i].isTrusted();
+				}
+				cache.put(key, result.chains);
+			}
+		} catch (GeneralSecurityException e) {
+			result.error = new Status(IStatus.ERROR, EngineActivator.ID, Messages.CertificateChecker_SignedContentError, e);
+		} catch (IOException e) {
+			result.error = new Status(IStatus.ERROR, EngineActivator.ID, Messages.CertificateChecker_SignedContentIOError, e);
+		}
+		if (DebugHelper.DEBUG_CERTIFICATE_CHECKER_TIMING)
+			DebugHelper.debug(CC, NLS.bind("{0} verified in {1} ms{2}", new Object[] {artifact.getPath(), Long.toString(System.currentTimeMillis() - start), cached ? " (cached)" : ""})); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return result;
+	}
+
+	/**
+	 * Returns a tracker of the trust engines that the signed content factory consults for
+	 * {@link SignerInfo#isTrusted()}, so that cached certificate chains are trusted exactly
+	 * when the same chains read from the artifact would be.
+	 */
+	private static ServiceTracker<TrustEngine, TrustEngine> getSignerTrustEngineTracker() {
+		BundleContext context = EngineActivator.getContext();
+		String trustEngine = context.getProperty(PROP_TRUST_ENGINE);
+		if (trustEngine != null) {
+			try {
+				Filter filter = FrameworkUtil.createFilter("(&(" + Constants.OBJECTCLASS + '=' + TrustEngine.class.getName() + ")(" + PROP_TRUST_ENGINE + '=' + trustEngine + "))"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				return new ServiceTracker<TrustEngine, TrustEngine>(context, filter, null);
+			} catch (InvalidSyntaxException e) {
+				// the framework ignores an invalid value as well
+			}
+		}
+		return new ServiceTracker<TrustEngine, TrustEngine>(context, TrustEngine.class, null);
+	}
+
+	private static boolean isTrusted(Certificate[] chain, TrustEngine[] trustEngines) {
+		for (int i = 0; i < trustEngines.length; i++) {
+			try {
+				if (trustEngines[i].findTrustAnchor(chain) != null)
+					return true;
+			} catch (IOException e) {
+				// try the next trust engine
+			}
+		}
+		return false;
+	}
+
+	private int getMaximumVerifications() {
+		String maxVerificationsString = null;
+		try {
+			maxVerificationsString = EngineActivator.getContext().getProperty(EngineActivator.PROP_MAX_VERIFICATIONS);
+			if (maxVerificationsString != null)
+				return Math.max(1, Integer.parseInt(maxVerificationsString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (maxVerificationsString != null)
+				System.err.println("Ignoring user-specified '" + EngineActivator.PROP_MAX_VERIFICATIONS + "' value of: " + maxVerificationsString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	private IStatus checkCertificates(SignedContentFactory verifierFactory) {
 		UIServices serviceUI = (UIServices) agent.getService(UIServices.SERVICE_NAME);
-		SignedContent content = null;
-		SignerInfo[] signerInfo = null;
 		ArrayList<Certificate> untrusted = new ArrayList<Certificate>();
 		ArrayList<File> unsigned = new ArrayList<File>();
 		ArrayList<Certificate[]> untrustedChain = new ArrayList<Certificate[]>();
@@ -64,22 +245,21 @@ public class CertificateChecker {
 		IStatus status = Status.OK_STATUS;
 		if (artifacts.size() == 0 || serviceUI == null)
 			return status;
-		for (File artifact : artifacts) {
-			try {
-				content = verifierFactory.getSignedContent(artifact);
-				if (!content.isSigned()) {
-					unsigned.add(artifact);
-					continue;
-				}
-				signerInfo = content.getSignerInfos();
-			} catch (GeneralSecurityException e) {
-				return new Status(IStatus.ERROR, EngineActivator.ID, Messages.CertificateChecker_SignedContentError, e);
-			} catch (IOException e) {
-				return new Status(IStatus.ERROR, EngineActivator.ID, Messages.CertificateChecker_SignedContentIOError, e);
+		Verification[] verifications = verify(verifierFactory);
+		for (int index = 0; index < verifications.length; index++) {
+			File artifact = artifacts.get(index);
+			Verification verification = verifications[index];
+			if (verification == null)
+				return new Status(IStatus.ERROR, EngineActivator.ID, Messages.CertificateChecker_SignedContentError);
+			if (verification.error != null)
+				return verification.error;
+			if (verification.chains.length == 0) {
+				unsigned.add(artifact);
+				continue;
 			}
-			for (int i = 0; i < signerInfo.length; i++) {
-				if (!signerInfo[i].isTrusted()) {
-					Certificate[] certificateChain = signerInfo[i].getCertificateChain();
+			for (int i = 0; i < verification.chains.length; i++) {
+				if (!verification.trusted[i]) {
+					Certificate[] certificateChain = verification.chains[i];
 					if (!untrusted.contains(certificateChain[0])) {
 						untrusted.add(certificateChain[0]);
 						untrustedChain.add(certificateChain);
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine.phases;
+
+import java.io.*;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.*;
+import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.equinox.internal.p2.engine.EngineActivator;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+
+/**
+ * The results of verifying the signatures of artifact files, keyed by a digest of the
+ * content of the files, so that files that have already been verified are not verified again.
+ * <p>
+ * The cache records the certificate chains of the signers of each file, and an empty list for
+ * unsigned files. It does not record whether the chains are trusted, because that changes
+ * when certificates are added to the trust engines. The cache holds a bounded number of
+ * files, the files that were least recently verified are dropped first. The access order is
+ * only saved along with a change to the entries.
+ * </p>
+ */
+public class SignedContentCache {
+	private static final String CACHE_FILE = "signedContent.cache"; //$NON-NLS-1$
+	private static final int VERSION = 1;
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private static final Certificate[][] UNSIGNED = new Certificate[0][];
+	private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private final File file;
+	// maps a content key to the signer certificate chains in access order, guarded by this
+	private final Map<String, Certificate[][]> entries;
+	private boolean dirty = false;
+
+	/**
+	 * Returns the cache in the data area of the given agent, or a cache that is not saved
+	 * if the agent has no location.
+	 */
+	public static SignedContentCache getCache(IProvisioningAgent agent) {
+		IAgentLocation location = agent == null ? null : (IAgentLocation) agent.getService(IAgentLocation.SERVICE_NAME);
+		if (location == null)
+			return new SignedContentCache(null);
+		URI dataArea = location.getDataArea(EngineActivator.ID);
+		return new SignedContentCache(URIUtil.toFile(URIUtil.append(dataArea, CACHE_FILE)));
+	}
+
+	/**
+	 * Creates a cache that is read from and saved to the given file, which may be <code>null</code>.
+	 */
+	public SignedContentCache(File file) {
+		this(file, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a cache that is read from and saved to the given file, which may be <code>null</code>,
+	 * and that holds at most the given number of files.
+	 */
+	public SignedContentCache(File file, final int maxEntries) {
+		this.file = file;
+		this.entries = new LinkedHashMap<String, Certificate[][]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Certificate[][]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		if (file != null && file.exists())
+			load();
+	}
+
+	/**
+	 * Returns the key of the content of the given file. The signers of a file only depend on its
+	 * content, so equal files share the key whatever the artifact they are the content of.
+	 */
+	public static String getKey(File artifact) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			IOException failure = new IOException(e.getMessage());
+			failure.initCause(e);
+			throw failure;
+		}
+		InputStream in = new FileInputStream(artifact);
+		try {
+			byte[] buffer = new byte[16 * 1024];
+			int len;
+			while ((len = in.read(buffer)) != -1)
+				md.update(buffer, 0, len);
+		} finally {
+			in.close();
+		}
+		byte[] digest = md.digest();
+		StringBuffer key = new StringBuffer(digest.length * 2 + 12);
+		for (int i = 0; i < digest.length; i++)
+			key.append(HEX[(digest[i] >> 4) & 0xF]).append(HEX[digest[i] & 0xF]);
+		return key.append('-').append(artifact.length()).toString();
+	}
+
+	/**
+	 * Returns the signer certificate chains recorded for the given content, an empty
+	 * array if the content is unsigned, or <code>null</code> if it has not been verified.
+	 */
+	public synchronized Certificate[][] get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Records the signer certificate chains of the given content. A <code>null</code> or
+	 * empty array records unsigned content.
+	 */
+	public synchronized void put(String key, Certificate[][] chains) {
+		// an insert may evict the eldest entry as well
+		entries.put(key, chains == null || chains.length == 0 ? UNSIGNED : chains);
+		dirty = true;
+	}
+
+	/**
+	 * Returns the number of recorded files.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Saves the cache to its file if it has changed.
+	 * @throws IOException if the file could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null || !dirty)
+			return;
+		// the certificates are written once and referred to by their index
+		List<Certificate> certificates = new ArrayList<Certificate>();
+		Map<Certificate, Integer> indexes = new HashMap<Certificate, Integer>();
+		for (Certificate[][] chains : entries.values()) {
+			for (int i = 0; i < chains.length; i++) {
+				for (int j = 0; j < chains[i].length; j++) {
+					if (!indexes.containsKey(chains[i][j])) {
+						indexes.put(chains[i][j], new Integer(certificates.size()));
+						certificates.add(chains[i][j]);
+					}
+				}
+			}
+		}
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(certificates.size());
+			for (Certificate certificate : certificates) {
+				byte[] encoded;
+				try {
+					encoded = certificate.getEncoded();
+				} catch (GeneralSecurityException e) {
+					IOException failure = new IOException(e.getMessage());
+					failure.initCause(e);
+					throw failure;
+				}
+				out.writeUTF(certificate.getType());
+				out.writeInt(encoded.length);
+				out.write(encoded);
+			}
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Certificate[][]> entry : entries.entrySet()) {
+				Certificate[][] chains = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(chains.length);
+				for (int i = 0; i < chains.length; i++) {
+					out.writeInt(chains[i].length);
+					for (int j = 0; j < chains[i].length; j++)
+						out.writeInt(indexes.get(chains[i][j]).intValue());
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Could not write " + file); //$NON-NLS-1$
+			}
+		}
+		dirty = false;
+	}
+
+	private void load() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION)
+				return;
+			Map<String, CertificateFactory> factories = new HashMap<String, CertificateFactory>();
+			Certificate[] certificates = new Certificate[in.readInt()];
+			for (int i = 0; i < certificates.length; i++) {
+				String type = in.readUTF();
+				byte[] encoded = new byte[in.readInt()];
+				in.readFully(encoded);
+				CertificateFactory factory = factories.get(type);
+				if (factory == null) {
+					factory = CertificateFactory.getInstance(type);
+					factories.put(type, factory);
+				}
+				certificates[i] = factory.generateCertificate(new ByteArrayInputStream(encoded));
+			}
+			// the entries are saved in access order, so reading them in order restores it
+			Map<String, Certificate[][]> loaded = new LinkedHashMap<String, Certificate[][]>();
+			for (int count = in.readInt(); count > 0; count--) {
+				String key = in.readUTF();
+				Certificate[][] chains = new Certificate[in.readInt()][];
+				for (int i = 0; i < chains.length; i++) {
+					chains[i] = new Certificate[in.readInt()];
+					for (int j = 0; j < chains[i].length; j++)
+						chains[i][j] = certificates[in.readInt()];
+				}
+				loaded.put(key, chains.length == 0 ? UNSIGNED : chains);
+			}
+			entries.putAll(loaded);
+		} catch (Exception e) {
+			// a damaged cache is ignored, the artifacts are verified again
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+		}
+	}
+}
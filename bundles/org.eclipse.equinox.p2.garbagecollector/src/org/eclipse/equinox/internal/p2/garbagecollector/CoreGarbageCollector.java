@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -52,6 +52,22 @@ public class CoreGarbageCollector {
 		}, new NullProgressMonitor());
 	}
 
+	/**
+	 * Removes the artifacts with the given keys from aRepository
+	 */
+	public synchronized void remove(final IArtifactKey[] keys, final IArtifactRepository aRepository) {
+		aRepository.executeBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) {
+				for (int i = 0; i < keys.length; i++) {
+					aRepository.removeDescriptor(keys[i]);
+					if (debugMode) {
+						Tracing.debug("Key removed:" + keys[i]); //$NON-NLS-1$
+					}
+				}
+			}
+		}, new NullProgressMonitor());
+	}
+
 	/*
 	 * If set to true, debug mode will log information about each artifact deleted by the CoreGarbageCollector
 	 * @param inDebugMode
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -16,6 +16,9 @@ import org.osgi.framework.*;
 public class GCActivator implements BundleActivator {
 	public static final String ID = "org.eclipse.equinox.p2.garbagecollector"; //$NON-NLS-1$
 	public static final String GC_ENABLED = "gc_enabled"; //$NON-NLS-1$
+	public static final String GC_INCREMENTAL = "gc_incremental"; //$NON-NLS-1$
+	public static final String GC_VERIFY = "gc_verify"; //$NON-NLS-1$
+	public static final String GC_FULL_INTERVAL = "gc_full_interval"; //$NON-NLS-1$
 	private static final String DEBUG_STRING = GCActivator.ID + "/debug"; //$NON-NLS-1$
 	private static final boolean DEFAULT_DEBUG = false;
 
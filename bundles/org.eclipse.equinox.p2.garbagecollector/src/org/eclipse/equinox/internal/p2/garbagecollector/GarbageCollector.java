@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.garbagecollector;
 
+import java.io.File;
+import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.preferences.*;
@@ -17,12 +19,16 @@ import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
+import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.osgi.util.NLS;
 import org.osgi.service.prefs.Preferences;
 
 /**
@@ -35,6 +41,12 @@ import org.osgi.service.prefs.Preferences;
  * Then, the MarkSets are obtained for every other registered Profile in a similar fashion.  Each MarkSet is
  * checked to see if its artifact repository is already a key in markSet.  If so, that MarkSet's artifact keys 
  * are added to the list that is mapped to by the artifact repository. 
+ * 
+ * When a profile is committed, the garbage collector is incremental by default.  Instead of marking the keys
+ * of every profile, it keeps the number of profiles that use each artifact in {@link ReferenceCounts}, updates them
+ * for the profiles that changed since they were last counted, and only removes the artifacts whose count dropped to zero.
+ * Artifacts that no profile ever used are left to a full mark and sweep, which is run after an operation was rolled back
+ * and every {@link #DEFAULT_FULL_INTERVAL} commits by default.
  */
 public class GarbageCollector implements SynchronousProvisioningListener, IAgentService {
 	/**
@@ -72,6 +84,11 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 
 	private static final String ATTRIBUTE_CLASS = "class"; //$NON-NLS-1$
 
+	/**
+	 * The default number of incremental collections between two full mark and sweeps.
+	 */
+	public static final int DEFAULT_FULL_INTERVAL = 20;
+
 	private static final String PT_MARKSET = GCActivator.ID + ".marksetproviders"; //$NON-NLS-1$
 	final IProvisioningAgent agent;
 
@@ -83,6 +100,11 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 	 */
 	private Map<IArtifactRepository, Collection<IArtifactKey>> markSet;
 
+	/**
+	 * The number of profiles that use each artifact, or null if they were not read yet
+	 */
+	private ReferenceCounts references;
+
 	public GarbageCollector(IProvisioningAgent agent) {
 		this.agent = agent;
 	}
@@ -127,6 +149,23 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		return Boolean.valueOf(prefService.get(key, Boolean.toString(defaultValue), nodes.toArray(new Preferences[nodes.size()]))).booleanValue();
 	}
 
+	protected int getIntPreference(String key, int defaultValue) {
+		IPreferencesService prefService = GCActivator.getService(IPreferencesService.class);
+		if (prefService == null)
+			return defaultValue;
+		List<IEclipsePreferences> nodes = new ArrayList<IEclipsePreferences>();
+		nodes.add(new ConfigurationScope().getNode(GCActivator.ID));
+		nodes.add(new DefaultScope().getNode(GCActivator.ID));
+		String value = prefService.get(key, null, nodes.toArray(new Preferences[nodes.size()]));
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	private void invokeCoreGC() {
 		for (IArtifactRepository nextRepo : markSet.keySet()) {
 			IArtifactKey[] keys = markSet.get(nextRepo).toArray(new IArtifactKey[0]);
@@ -144,13 +183,19 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		} else if (o instanceof CommitOperationEvent) {
 			if (uninstallEventProfileId != null) {
 				CommitOperationEvent event = (CommitOperationEvent) o;
-				if (uninstallEventProfileId.equals(event.getProfile().getProfileId()) && getBooleanPreference(GCActivator.GC_ENABLED, true))
-					runGC(event.getProfile());
+				if (uninstallEventProfileId.equals(event.getProfile().getProfileId()) && getBooleanPreference(GCActivator.GC_ENABLED, true)) {
+					if (getBooleanPreference(GCActivator.GC_INCREMENTAL, true))
+						runIncrementalGC(event.getProfile());
+					else
+						runGC(event.getProfile());
+				}
 				uninstallEventProfileId = null;
 			}
 		} else if (o instanceof RollbackOperationEvent) {
 			if (uninstallEventProfileId != null && uninstallEventProfileId.equals(((RollbackOperationEvent) o).getProfile().getProfileId()))
 				uninstallEventProfileId = null;
+			// the artifacts that were collected for the operation are not used by any profile
+			requestFullSweep();
 		}
 	}
 
@@ -166,6 +211,171 @@ public class GarbageCollector implements SynchronousProvisioningListener, IAgent
 		invokeCoreGC();
 	}
 
+	/**
+	 * Removes the artifacts that are no longer used by any profile, after the given profile
+	 * was changed. Only the profiles that changed since they were last counted are marked,
+	 * and only the artifacts whose count dropped to zero are removed. The first time, after
+	 * an operation was rolled back and periodically, a full mark and sweep is run instead.
+	 */
+	public synchronized void runIncrementalGC(IProfile profile) {
+		ReferenceCounts counts = getReferenceCounts();
+		if (counts == null) {
+			// there is no place to keep the counts
+			runGC(profile);
+			return;
+		}
+		boolean initialized = counts.isInitialized();
+		Map<URI, IArtifactRepository> repositories = new HashMap<URI, IArtifactRepository>();
+		Map<URI, Set<String>> unreferenced = new HashMap<URI, Set<String>>();
+
+		Set<String> profileIds = new HashSet<String>();
+		profileIds.add(profile.getProfileId());
+		updateReferences(counts, profile, repositories, unreferenced);
+		IProfileRegistry profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		if (profileRegistry != null) {
+			IProfile[] registeredProfiles = profileRegistry.getProfiles();
+			for (int i = 0; i < registeredProfiles.length; i++)
+				if (profileIds.add(registeredProfiles[i].getProfileId()))
+					updateReferences(counts, registeredProfiles[i], repositories, unreferenced);
+			// the artifacts of the profiles that were removed are no longer used by them
+			for (String profileId : counts.getProfileIds())
+				if (!profileIds.contains(profileId))
+					addKeys(unreferenced, counts.remove(profileId));
+		}
+
+		boolean full = !initialized || counts.isFullSweepDue(getIntPreference(GCActivator.GC_FULL_INTERVAL, DEFAULT_FULL_INTERVAL));
+		if (full)
+			// the artifacts that no profile used since they were counted are only found by a full mark and sweep
+			runGC(profile);
+		else
+			removeUnreferenced(counts, profile, repositories, unreferenced);
+		counts.swept(full);
+		counts.save();
+	}
+
+	/*
+	 * Makes the next incremental collection a full mark and sweep.
+	 */
+	private synchronized void requestFullSweep() {
+		ReferenceCounts counts = getReferenceCounts();
+		// counts that were never saved start with a full mark and sweep anyway
+		if (counts == null || !counts.isInitialized() || counts.isFullSweepDue(0))
+			return;
+		counts.requestFullSweep();
+		counts.save();
+	}
+
+	private ReferenceCounts getReferenceCounts() {
+		if (references == null) {
+			IAgentLocation location = (IAgentLocation) agent.getService(IAgentLocation.SERVICE_NAME);
+			URI dataArea = location == null ? null : location.getDataArea(GCActivator.ID);
+			File folder = dataArea == null ? null : URIUtil.toFile(dataArea);
+			if (folder == null)
+				return null;
+			references = new ReferenceCounts(new File(folder, ReferenceCounts.FILE));
+		}
+		return references;
+	}
+
+	/*
+	 * Counts the keys that the given profile uses, unless it did not change since it was last counted.
+	 */
+	private void updateReferences(ReferenceCounts counts, IProfile profile, Map<URI, IArtifactRepository> repositories, Map<URI, Set<String>> unreferenced) {
+		if (counts.isCurrent(profile.getProfileId(), profile.getTimestamp()))
+			return;
+		markSet = new HashMap<IArtifactRepository, Collection<IArtifactKey>>();
+		traverseMainProfile(profile);
+		Map<URI, Set<String>> keys = new HashMap<URI, Set<String>>();
+		for (IArtifactRepository repository : markSet.keySet()) {
+			repositories.put(repository.getLocation(), repository);
+			Set<String> repositoryKeys = new HashSet<String>();
+			for (IArtifactKey key : markSet.get(repository))
+				repositoryKeys.add(key.toExternalForm());
+			keys.put(repository.getLocation(), repositoryKeys);
+		}
+		addKeys(unreferenced, counts.update(profile.getProfileId(), profile.getTimestamp(), keys));
+	}
+
+	private static void addKeys(Map<URI, Set<String>> keys, Map<URI, Set<String>> added) {
+		for (Map.Entry<URI, Set<String>> entry : added.entrySet())
+			for (String key : entry.getValue())
+				ReferenceCounts.addKey(keys, entry.getKey(), key);
+	}
+
+	/*
+	 * Removes the artifacts whose count dropped to zero. In verification mode, the artifacts
+	 * are checked against a full mark of all profiles first, and a full sweep is run after.
+	 */
+	private void removeUnreferenced(ReferenceCounts counts, IProfile profile, Map<URI, IArtifactRepository> repositories, Map<URI, Set<String>> unreferenced) {
+		Map<URI, Collection<IArtifactKey>> marked = null;
+		if (getBooleanPreference(GCActivator.GC_VERIFY, false)) {
+			markSet = new HashMap<IArtifactRepository, Collection<IArtifactKey>>();
+			traverseMainProfile(profile);
+			for (IArtifactRepository repository : repositories.values())
+				if (!markSet.containsKey(repository))
+					markSet.put(repository, new HashSet<IArtifactKey>());
+			traverseRegisteredProfiles();
+			marked = new HashMap<URI, Collection<IArtifactKey>>();
+			for (IArtifactRepository repository : markSet.keySet())
+				marked.put(repository.getLocation(), markSet.get(repository));
+		}
+
+		for (Map.Entry<URI, Set<String>> entry : unreferenced.entrySet()) {
+			IArtifactRepository repository = repositories.get(entry.getKey());
+			if (repository == null)
+				continue;
+			List<IArtifactKey> keys = new ArrayList<IArtifactKey>();
+			for (String key : entry.getValue()) {
+				// the artifact may be used by a profile that was counted after its count dropped to zero
+				if (counts.getCount(entry.getKey(), key) > 0)
+					continue;
+				IArtifactKey artifactKey = createArtifactKey(repository, key);
+				if (artifactKey != null && repository.contains(artifactKey))
+					keys.add(artifactKey);
+			}
+			if (marked != null && marked.containsKey(entry.getKey())) {
+				List<IArtifactKey> used = new ArrayList<IArtifactKey>(keys);
+				used.retainAll(marked.get(entry.getKey()));
+				if (!used.isEmpty()) {
+					LogHelper.log(new Status(IStatus.ERROR, GCActivator.ID, NLS.bind(Messages.Verify_kept_artifacts, new Object[] {Integer.toString(used.size()), entry.getKey(), used})));
+					keys.removeAll(used);
+				}
+			}
+			if (!keys.isEmpty())
+				new CoreGarbageCollector().remove(keys.toArray(new IArtifactKey[keys.size()]), repository);
+		}
+
+		if (marked != null) {
+			for (IArtifactRepository repository : markSet.keySet()) {
+				Collection<IArtifactKey> keys = markSet.get(repository);
+				List<IArtifactKey> unused = new ArrayList<IArtifactKey>();
+				for (Iterator<IArtifactKey> iterator = repository.query(ArtifactKeyQuery.ALL_KEYS, null).iterator(); iterator.hasNext();) {
+					IArtifactKey key = iterator.next();
+					if (!keys.contains(key))
+						unused.add(key);
+				}
+				if (!unused.isEmpty())
+					LogHelper.log(new Status(IStatus.INFO, GCActivator.ID, NLS.bind(Messages.Verify_unreferenced_artifacts, new Object[] {Integer.toString(unused.size()), repository.getLocation(), unused})));
+			}
+			invokeCoreGC();
+		}
+	}
+
+	/*
+	 * Returns the key of the given external form, or null if it cannot be parsed.
+	 */
+	private static IArtifactKey createArtifactKey(IArtifactRepository repository, String key) {
+		int first = key.indexOf(',');
+		int last = key.lastIndexOf(',');
+		if (first == -1 || first == last)
+			return null;
+		try {
+			return repository.createArtifactKey(key.substring(0, first), key.substring(first + 1, last), Version.create(key.substring(last + 1)));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	/*(non-Javadoc)
 	 * @see org.eclipse.equinox.p2.core.spi.IAgentService#start()
 	 */
@@ -16,6 +16,10 @@ public class Messages extends NLS {
 	private static final String BUNDLE_NAME = "org.eclipse.equinox.internal.p2.garbagecollector.messages"; //$NON-NLS-1$
 
 	public static String Error_in_extension;
+	public static String References_ignored;
+	public static String References_notSaved;
+	public static String Verify_kept_artifacts;
+	public static String Verify_unreferenced_artifacts;
 
 	static {
 		// load message values from bundle file
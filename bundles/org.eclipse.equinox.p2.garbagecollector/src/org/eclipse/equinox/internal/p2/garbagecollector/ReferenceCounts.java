@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.garbagecollector;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The number of profiles that keep each artifact of the artifact repositories they use, as
+ * given by the mark sets of the profiles. Artifacts are identified by the location of their
+ * repository and the external form of their key.
+ * <p>
+ * The counts are updated one profile at a time, from the difference between the keys the
+ * profile kept when it was last counted and the keys it keeps now. The artifacts whose count
+ * drops to zero are not kept by any profile anymore, so they can be removed without marking
+ * the keys of every profile again.
+ * </p>
+ * <p>
+ * The counts are kept in the {@link #FILE} of the data area of the garbage collector. Counts
+ * that were not read from the file have no history: the artifacts that were left unreferenced
+ * before they were counted are only found by a full mark and sweep.
+ * </p>
+ * <p>
+ * Artifacts that no profile ever kept, such as those of an operation that was rolled back,
+ * never get a count. The counts therefore also record when a full mark and sweep is due:
+ * when one was requested, and after a number of incremental ones.
+ * </p>
+ */
+public class ReferenceCounts {
+	public static final String FILE = "references"; //$NON-NLS-1$
+
+	private static final int FORMAT = 2;
+
+	/**
+	 * The keys a profile kept when it was last counted.
+	 */
+	private static class CountedProfile {
+		final long timestamp;
+		final Map<URI, Set<String>> keys;
+
+		CountedProfile(long timestamp, Map<URI, Set<String>> keys) {
+			this.timestamp = timestamp;
+			this.keys = keys;
+		}
+	}
+
+	private final File file;
+	private final Map<URI, Map<String, Integer>> counts = new HashMap<URI, Map<String, Integer>>();
+	private final Map<String, CountedProfile> profiles = new HashMap<String, CountedProfile>();
+	private boolean initialized = false;
+	private boolean fullSweepRequested = false;
+	private int incrementalSweeps = 0;
+
+	public ReferenceCounts(File file) {
+		this.file = file;
+		load();
+	}
+
+	/**
+	 * Returns whether the counts were read from or written to their file. Counts that were
+	 * started from scratch do not know the artifacts that were unreferenced before.
+	 */
+	public synchronized boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * Requests a full mark and sweep the next time the garbage collector runs.
+	 */
+	public synchronized void requestFullSweep() {
+		fullSweepRequested = true;
+	}
+
+	/**
+	 * Returns whether a full mark and sweep was requested, or the given number of incremental
+	 * ones ran since the last full one. An interval that is not positive disables the latter.
+	 */
+	public synchronized boolean isFullSweepDue(int interval) {
+		return fullSweepRequested || (interval > 0 && incrementalSweeps >= interval);
+	}
+
+	/**
+	 * Records that an incremental sweep, or a full mark and sweep, was run.
+	 */
+	public synchronized void swept(boolean full) {
+		if (full) {
+			fullSweepRequested = false;
+			incrementalSweeps = 0;
+		} else
+			incrementalSweeps++;
+	}
+
+	/**
+	 * Returns the number of profiles that keep the given artifact.
+	 */
+	public synchronized int getCount(URI repository, String key) {
+		Map<String, Integer> repositoryCounts = counts.get(repository);
+		Integer count = repositoryCounts == null ? null : repositoryCounts.get(key);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/**
+	 * Returns the identifiers of the profiles that were counted.
+	 */
+	public synchronized Set<String> getProfileIds() {
+		return new HashSet<String>(profiles.keySet());
+	}
+
+	/**
+	 * Returns whether the given profile was counted when it had the given time stamp.
+	 */
+	public synchronized boolean isCurrent(String profileId, long timestamp) {
+		CountedProfile profile = profiles.get(profileId);
+		return profile != null && profile.timestamp == timestamp;
+	}
+
+	/**
+	 * Sets the keys that the given profile keeps, by repository location, and returns the
+	 * keys whose count dropped to zero.
+	 */
+	public synchronized Map<URI, Set<String>> update(String profileId, long timestamp, Map<URI, Set<String>> keys) {
+		CountedProfile previous = profiles.put(profileId, new CountedProfile(timestamp, keys));
+		for (Map.Entry<URI, Set<String>> entry : keys.entrySet()) {
+			Set<String> previousKeys = previous == null ? null : previous.keys.get(entry.getKey());
+			for (String key : entry.getValue())
+				if (previousKeys == null || !previousKeys.contains(key))
+					add(entry.getKey(), key, 1);
+		}
+		Map<URI, Set<String>> result = new HashMap<URI, Set<String>>();
+		if (previous != null) {
+			for (Map.Entry<URI, Set<String>> entry : previous.keys.entrySet()) {
+				Set<String> currentKeys = keys.get(entry.getKey());
+				for (String key : entry.getValue())
+					if ((currentKeys == null || !currentKeys.contains(key)) && add(entry.getKey(), key, -1) == 0)
+						addKey(result, entry.getKey(), key);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the keys of the given profile, and returns the keys whose count dropped to zero.
+	 */
+	public synchronized Map<URI, Set<String>> remove(String profileId) {
+		CountedProfile previous = profiles.remove(profileId);
+		Map<URI, Set<String>> result = new HashMap<URI, Set<String>>();
+		if (previous == null)
+			return result;
+		for (Map.Entry<URI, Set<String>> entry : previous.keys.entrySet())
+			for (String key : entry.getValue())
+				if (add(entry.getKey(), key, -1) == 0)
+					addKey(result, entry.getKey(), key);
+		return result;
+	}
+
+	static void addKey(Map<URI, Set<String>> keys, URI repository, String key) {
+		Set<String> repositoryKeys = keys.get(repository);
+		if (repositoryKeys == null) {
+			repositoryKeys = new HashSet<String>();
+			keys.put(repository, repositoryKeys);
+		}
+		repositoryKeys.add(key);
+	}
+
+	private int add(URI repository, String key, int delta) {
+		Map<String, Integer> repositoryCounts = counts.get(repository);
+		if (repositoryCounts == null) {
+			repositoryCounts = new HashMap<String, Integer>();
+			counts.put(repository, repositoryCounts);
+		}
+		Integer count = repositoryCounts.get(key);
+		int result = Math.max(0, (count == null ? 0 : count.intValue()) + delta);
+		if (result == 0) {
+			repositoryCounts.remove(key);
+			if (repositoryCounts.isEmpty())
+				counts.remove(repository);
+		} else
+			repositoryCounts.put(key, new Integer(result));
+		return result;
+	}
+
+	private void load() {
+		if (file == null || !file.isFile())
+			return;
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != FORMAT)
+					return;
+				fullSweepRequested = input.readBoolean();
+				incrementalSweeps = input.readInt();
+				// the counts are derived from the keys of the profiles
+				for (int i = input.readInt(); i > 0; i--) {
+					String profileId = input.readUTF();
+					long timestamp = input.readLong();
+					Map<URI, Set<String>> keys = new HashMap<URI, Set<String>>();
+					for (int j = input.readInt(); j > 0; j--) {
+						URI repository = new URI(input.readUTF());
+						Set<String> repositoryKeys = new HashSet<String>();
+						for (int k = input.readInt(); k > 0; k--)
+							repositoryKeys.add(input.readUTF());
+						keys.put(repository, repositoryKeys);
+					}
+					update(profileId, timestamp, keys);
+				}
+				initialized = true;
+			} finally {
+				input.close();
+			}
+		} catch (Exception e) {
+			// intentionally catch all errors, the counts are started from scratch
+			counts.clear();
+			profiles.clear();
+			fullSweepRequested = false;
+			incrementalSweeps = 0;
+			LogHelper.log(new Status(IStatus.WARNING, GCActivator.ID, NLS.bind(Messages.References_ignored, file), e));
+		}
+	}
+
+	/**
+	 * Writes the counts to their file.
+	 */
+	public synchronized void save() {
+		if (file == null)
+			return;
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp"); //$NON-NLS-1$
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				output.writeInt(FORMAT);
+				output.writeBoolean(fullSweepRequested);
+				output.writeInt(incrementalSweeps);
+				output.writeInt(profiles.size());
+				for (Map.Entry<String, CountedProfile> profile : profiles.entrySet()) {
+					output.writeUTF(profile.getKey());
+					output.writeLong(profile.getValue().timestamp);
+					output.writeInt(profile.getValue().keys.size());
+					for (Map.Entry<URI, Set<String>> entry : profile.getValue().keys.entrySet()) {
+						output.writeUTF(entry.getKey().toString());
+						output.writeInt(entry.getValue().size());
+						for (String key : entry.getValue())
+							output.writeUTF(key);
+					}
+				}
+			} finally {
+				output.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to rename " + temp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+			initialized = true;
+		} catch (IOException e) {
+			temp.delete();
+			LogHelper.log(new Status(IStatus.WARNING, GCActivator.ID, NLS.bind(Messages.References_notSaved, file), e));
+		}
+	}
+}
@@ -0,0 +1,515 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import javax.xml.parsers.*;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.CompactProperties;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.io.IUDeserializer;
+import org.eclipse.equinox.p2.metadata.io.IUSerializer;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository.RepositoryState;
+import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
+import org.xml.sax.*;
+
+/**
+ * Reads and writes a binary image of a {@link LocalMetadataRepository}. The image
+ * is written next to the <code>content.xml</code> or <code>content.jar</code> file
+ * when the repository is saved, and is only used as long as that file is unchanged.
+ * The header of the image records the size and time stamp of the content file that
+ * it was written for.
+ * <p>
+ * All strings are kept in a string table and all versions in a version table so that
+ * each distinct value is decoded at most once. Each installable unit is stored as a
+ * record that contains its properties and provided capabilities and the location of
+ * the serialized unit, which is stored after all records. When read, only the records
+ * are loaded and an installable unit is read from the image and parsed the first time
+ * something other than its id, version, properties or provided capabilities is requested.
+ * </p>
+ * The layout of the file is:
+ * <pre>
+ * header:     magic, format version, content file length, content file time stamp
+ * strings:    count, strings as length + UTF-8 bytes
+ * versions:   count, string index of each version
+ * repository: name, type, version, provider, description, properties, references
+ * units:      count, length of all serialized units, for each unit: kind, id string index,
+ *             version index, properties, provided capabilities, offset and length of the
+ *             serialized unit
+ * serialized: the serialized units
+ * </pre>
+ * All indexes, offsets and lengths are 32 bit integers. Offsets are relative to the
+ * start of the serialized units. A string index of -1 denotes <code>null</code>.
+ */
+public class BinaryMetadataRepositoryIO {
+	public static final String BINARY_EXTENSION = ".p2bin"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x70326269; // "p2bi"
+	private static final int FORMAT_VERSION = 3;
+
+	private static final int KIND_UNIT = 0;
+	private static final int KIND_FRAGMENT = 1;
+	private static final int KIND_PATCH = 2;
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * The tables of a binary repository file. Installable units that have not yet
+	 * been parsed keep a reference to this content to read and parse their record.
+	 */
+	static final class Content {
+		// at most this many parsers are kept for reuse
+		private static final int MAX_IDLE_PARSERS = 4;
+
+		private final File file;
+		private final long fileLength;
+		private final long fileModified;
+		private long unitsOffset;
+		private final String[] strings;
+		private final int[] versionStrings;
+		private final Version[] versions;
+		// parsers that are not in use, guarded by itself
+		private final List<UnitParser> parsers = new ArrayList<UnitParser>();
+
+		Content(File file, long fileLength, long fileModified, DataInputStream input) throws IOException {
+			this.file = file;
+			this.fileLength = fileLength;
+			this.fileModified = fileModified;
+			strings = new String[input.readInt()];
+			for (int idx = 0; idx < strings.length; ++idx) {
+				byte[] bytes = new byte[input.readInt()];
+				input.readFully(bytes);
+				strings[idx] = new String(bytes, UTF_8);
+			}
+			versionStrings = new int[input.readInt()];
+			for (int idx = 0; idx < versionStrings.length; ++idx)
+				versionStrings[idx] = input.readInt();
+			versions = new Version[versionStrings.length];
+		}
+
+		String readString(DataInputStream input) throws IOException {
+			int index = input.readInt();
+			return index < 0 ? null : strings[index];
+		}
+
+		/**
+		 * Returns the version with the given index. Versions are created the first time
+		 * they are used since many of them are only referenced by units that are never parsed.
+		 */
+		synchronized Version getVersion(int index) {
+			Version result = versions[index];
+			if (result == null) {
+				result = Version.create(strings[versionStrings[index]]);
+				versions[index] = result;
+			}
+			return result;
+		}
+
+		OrderedProperties readProperties(DataInputStream input) throws IOException {
+			int count = input.readInt();
+			OrderedProperties properties = new OrderedProperties(count);
+			for (int idx = 0; idx < count; ++idx)
+				properties.put(readString(input), readString(input));
+			return properties;
+		}
+
+		CompactProperties readUnitProperties(DataInputStream input) throws IOException {
+			int count = input.readInt();
+			CompactProperties.Builder properties = new CompactProperties.Builder();
+			for (int idx = 0; idx < count; ++idx)
+				properties.put(readString(input), readString(input));
+			return properties.build();
+		}
+
+		IProvidedCapability[] readProvidedCapabilities(DataInputStream input) throws IOException {
+			IProvidedCapability[] capabilities = new IProvidedCapability[input.readInt()];
+			for (int idx = 0; idx < capabilities.length; ++idx)
+				capabilities[idx] = MetadataFactory.createProvidedCapability(readString(input), readString(input), getVersion(input.readInt()));
+			return capabilities;
+		}
+
+		/**
+		 * Sets the file offset of the serialized units, which follow the records.
+		 */
+		void setUnitsOffset(long unitsOffset) throws IOException {
+			if (unitsOffset < 0)
+				throw new IOException("Corrupt binary image " + file); //$NON-NLS-1$
+			this.unitsOffset = unitsOffset;
+		}
+
+		/**
+		 * Reads the serialized unit at the given offset from the image. The image is replaced
+		 * rather than modified when it is written, so an image with a different length or
+		 * time stamp is not the image that the offsets were read from.
+		 */
+		byte[] readUnit(RandomAccessFile input, int offset, int length) throws IOException {
+			if (input.length() != fileLength || file.lastModified() != fileModified || offset < 0 || unitsOffset + offset + length > fileLength)
+				throw new IOException("Binary image " + file + " has changed"); //$NON-NLS-1$ //$NON-NLS-2$
+			byte[] serialized = new byte[length];
+			input.seek(unitsOffset + offset);
+			input.readFully(serialized);
+			return serialized;
+		}
+
+		/**
+		 * Reads and parses the serialized unit at the given offset.
+		 */
+		IInstallableUnit parseUnit(int offset, int length) {
+			byte[] serialized;
+			try {
+				RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+				try {
+					serialized = readUnit(input, offset, length);
+				} finally {
+					input.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e.getMessage());
+			}
+			return parseUnit(serialized);
+		}
+
+		/**
+		 * Parses a serialized unit. Each thread uses its own parser, so units can be parsed
+		 * concurrently.
+		 */
+		IInstallableUnit parseUnit(byte[] serialized) {
+			UnitParser parser = null;
+			synchronized (parsers) {
+				if (!parsers.isEmpty())
+					parser = parsers.remove(parsers.size() - 1);
+			}
+			if (parser == null)
+				parser = new UnitParser();
+			IInstallableUnit unit;
+			try {
+				unit = parser.parse(new ByteArrayInputStream(serialized));
+			} catch (IOException e) {
+				throw new IllegalStateException(e.getMessage());
+			} finally {
+				synchronized (parsers) {
+					if (parsers.size() < MAX_IDLE_PARSERS)
+						parsers.add(parser);
+				}
+			}
+			if (unit == null)
+				throw new IllegalStateException("Corrupt installable unit record"); //$NON-NLS-1$
+			return unit;
+		}
+	}
+
+	/**
+	 * Parses the serialized installable unit of a record. In contrast to the
+	 * {@link IUDeserializer} the XML reader is reused, which matters when many
+	 * small documents are parsed.
+	 */
+	private static final class UnitParser extends MetadataParser {
+		private InstallableUnitsHandler unitsHandler;
+
+		UnitParser() {
+			super(null, null);
+		}
+
+		IInstallableUnit parse(InputStream stream) throws IOException {
+			try {
+				if (xmlReader == null)
+					getParser();
+				status = null;
+				unitsHandler = null;
+				xmlReader.setContentHandler(new UnitsHandler());
+				xmlReader.parse(new InputSource(stream));
+				if (!isValidXML() || unitsHandler == null)
+					throw new IOException(getStatus().toString());
+				IInstallableUnit[] units = unitsHandler.getUnits();
+				return units.length == 1 ? units[0] : null;
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} catch (SAXException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		protected SAXParser getParser() throws ParserConfigurationException, SAXException {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setValidating(false);
+			try {
+				factory.setFeature("http://xml.org/sax/features/string-interning", true); //$NON-NLS-1$
+			} catch (SAXException se) {
+				// some parsers may not support string interning
+			}
+			SAXParser theParser = factory.newSAXParser();
+			xmlReader = theParser.getXMLReader();
+			return theParser;
+		}
+
+		private final class UnitsHandler extends RootHandler {
+			UnitsHandler() {
+				// default
+			}
+
+			protected void handleRootAttributes(Attributes attributes) {
+				// nothing to do
+			}
+
+			public void startElement(String name, Attributes attributes) {
+				if (INSTALLABLE_UNITS_ELEMENT.equals(name) && unitsHandler == null)
+					unitsHandler = new InstallableUnitsHandler(this, attributes);
+				else
+					invalidElement(name, attributes);
+			}
+		}
+
+		protected Object getRootObject() {
+			return null;
+		}
+
+		protected String getErrorMessage() {
+			return Messages.io_parseError;
+		}
+	}
+
+	protected final IProvisioningAgent agent;
+
+	public BinaryMetadataRepositoryIO(IProvisioningAgent agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * Returns the binary file that belongs to the given content file.
+	 */
+	public static File getBinaryFile(File contentFile) {
+		String name = contentFile.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		return new File(contentFile.getParentFile(), name + BINARY_EXTENSION);
+	}
+
+	/**
+	 * Reads the binary image of the repository whose content is stored in <code>contentFile</code>.
+	 *
+	 * @return the repository or <code>null</code> if there is no binary image or if it is
+	 * out of date with respect to the content file.
+	 */
+	public LocalMetadataRepository read(File contentFile) throws IOException {
+		File binaryFile = getBinaryFile(contentFile);
+		if (!binaryFile.isFile())
+			return null;
+
+		RandomAccessFile file = new RandomAccessFile(binaryFile, "r"); //$NON-NLS-1$
+		try {
+			// the records are read sequentially, the serialized units are read on demand
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD())));
+			if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+				return null;
+			if (input.readLong() != contentFile.length() || input.readLong() != contentFile.lastModified())
+				return null;
+
+			Content content = new Content(binaryFile, file.length(), binaryFile.lastModified(), input);
+			RepositoryState state = new RepositoryState();
+			state.Name = content.readString(input);
+			state.Type = content.readString(input);
+			state.Version = Version.create(content.readString(input));
+			state.Provider = content.readString(input);
+			state.Description = content.readString(input);
+			state.Properties = content.readProperties(input);
+
+			state.Repositories = new IRepositoryReference[input.readInt()];
+			for (int idx = 0; idx < state.Repositories.length; ++idx) {
+				try {
+					URI location = new URI(content.readString(input));
+					state.Repositories[idx] = new RepositoryReference(location, content.readString(input), input.readInt(), input.readInt());
+				} catch (URISyntaxException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
+
+			IInstallableUnit[] units = new IInstallableUnit[input.readInt()];
+			content.setUnitsOffset(file.length() - input.readInt());
+			int[] offsets = new int[units.length];
+			int[] lengths = new int[units.length];
+			for (int idx = 0; idx < units.length; ++idx) {
+				int kind = input.readInt();
+				String id = content.readString(input);
+				Version version = content.getVersion(input.readInt());
+				CompactProperties properties = content.readUnitProperties(input);
+				IProvidedCapability[] capabilities = content.readProvidedCapabilities(input);
+				int offset = input.readInt();
+				int length = input.readInt();
+				if (kind == KIND_UNIT)
+					units[idx] = new LazyInstallableUnit(content, offset, length, id, version, properties, capabilities);
+				else {
+					// Fragments and patches are rare and must keep their type so there is
+					// no point in deferring them. They are parsed once all records are read.
+					offsets[idx] = offset;
+					lengths[idx] = length;
+				}
+			}
+			for (int idx = 0; idx < units.length; ++idx) {
+				if (units[idx] == null)
+					units[idx] = content.parseUnit(content.readUnit(file, offsets[idx], lengths[idx]));
+			}
+			state.Units = units;
+
+			LocalMetadataRepository repository = new LocalMetadataRepository(agent);
+			repository.initialize(state);
+			return repository;
+		} catch (EOFException e) {
+			// a truncated image is ignored like a stale one
+			return null;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes the binary image of <code>repository</code>. The <code>contentFile</code> must
+	 * be the file that the repository was just saved to. The image is written to a new
+	 * file that then replaces the previous image, so that a partially written image is
+	 * never read. Units that were not parsed before the image was replaced can no longer
+	 * be read from it.
+	 */
+	public void write(LocalMetadataRepository repository, File contentFile) throws IOException {
+		File binaryFile = getBinaryFile(contentFile);
+		File tempFile = File.createTempFile(binaryFile.getName(), ".tmp", binaryFile.getParentFile()); //$NON-NLS-1$
+		try {
+			new Writer().write(repository, contentFile, tempFile);
+			// renaming over an existing file fails on some platforms
+			if (!tempFile.renameTo(binaryFile) && !(binaryFile.delete() && tempFile.renameTo(binaryFile)))
+				throw new IOException("Unable to rename " + tempFile + " to " + binaryFile); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes the binary image that belongs to the given content file.
+	 */
+	public static void delete(File contentFile) {
+		getBinaryFile(contentFile).delete();
+	}
+
+	private static final class Writer {
+		private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		private final List<String> strings = new ArrayList<String>();
+		private final Map<Version, Integer> versionIndexes = new HashMap<Version, Integer>();
+		private final List<Version> versions = new ArrayList<Version>();
+
+		private int stringIndex(String value) {
+			if (value == null)
+				return -1;
+			Integer index = stringIndexes.get(value);
+			if (index == null) {
+				index = new Integer(strings.size());
+				strings.add(value);
+				stringIndexes.put(value, index);
+			}
+			return index.intValue();
+		}
+
+		private int versionIndex(Version value) {
+			Integer index = versionIndexes.get(value);
+			if (index == null) {
+				stringIndex(value.toString());
+				index = new Integer(versions.size());
+				versions.add(value);
+				versionIndexes.put(value, index);
+			}
+			return index.intValue();
+		}
+
+		private void writeProperties(DataOutputStream output, Map<String, String> properties) throws IOException {
+			output.writeInt(properties.size());
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				output.writeInt(stringIndex(property.getKey()));
+				output.writeInt(stringIndex(property.getValue()));
+			}
+		}
+
+		void write(LocalMetadataRepository repository, File contentFile, File file) throws IOException {
+			// the tables are written first, so the records are collected in memory until they are complete
+			ByteArrayOutputStream records = new ByteArrayOutputStream();
+			DataOutputStream recordOutput = new DataOutputStream(records);
+			recordOutput.writeInt(stringIndex(repository.getName()));
+			recordOutput.writeInt(stringIndex(repository.getType()));
+			recordOutput.writeInt(stringIndex(repository.getVersion()));
+			recordOutput.writeInt(stringIndex(repository.getProvider()));
+			recordOutput.writeInt(stringIndex(repository.getDescription()));
+			writeProperties(recordOutput, repository.getProperties());
+			recordOutput.writeInt(repository.repositories.size());
+			for (IRepositoryReference reference : repository.repositories) {
+				recordOutput.writeInt(stringIndex(reference.getLocation().toString()));
+				recordOutput.writeInt(stringIndex(reference.getNickname()));
+				recordOutput.writeInt(reference.getType());
+				recordOutput.writeInt(reference.getOptions());
+			}
+
+			Set<IInstallableUnit> units = repository.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ByteArrayOutputStream unitRecords = new ByteArrayOutputStream();
+			DataOutputStream unitOutput = new DataOutputStream(unitRecords);
+			for (IInstallableUnit iu : units) {
+				int offset = serialized.size();
+				new IUSerializer(serialized).write(Collections.singletonList(iu));
+
+				unitOutput.writeInt(iu instanceof IInstallableUnitPatch ? KIND_PATCH : iu instanceof IInstallableUnitFragment ? KIND_FRAGMENT : KIND_UNIT);
+				unitOutput.writeInt(stringIndex(iu.getId()));
+				unitOutput.writeInt(versionIndex(iu.getVersion()));
+				writeProperties(unitOutput, iu.getProperties());
+				Collection<IProvidedCapability> capabilities = iu.getProvidedCapabilities();
+				unitOutput.writeInt(capabilities.size());
+				for (IProvidedCapability capability : capabilities) {
+					unitOutput.writeInt(stringIndex(capability.getNamespace()));
+					unitOutput.writeInt(stringIndex(capability.getName()));
+					unitOutput.writeInt(versionIndex(capability.getVersion()));
+				}
+				unitOutput.writeInt(offset);
+				unitOutput.writeInt(serialized.size() - offset);
+			}
+			unitOutput.flush();
+			recordOutput.writeInt(units.size());
+			recordOutput.writeInt(serialized.size());
+			unitRecords.writeTo(recordOutput);
+			recordOutput.flush();
+
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(FORMAT_VERSION);
+				output.writeLong(contentFile.length());
+				output.writeLong(contentFile.lastModified());
+
+				output.writeInt(strings.size());
+				for (String string : strings) {
+					byte[] encoded = string.getBytes(UTF_8);
+					output.writeInt(encoded.length);
+					output.write(encoded);
+				}
+				output.writeInt(versions.size());
+				for (Version version : versions)
+					output.writeInt(stringIndex(version.toString()));
+
+				records.writeTo(output);
+				serialized.writeTo(output);
+			} finally {
+				output.close();
+			}
+		}
+	}
+}
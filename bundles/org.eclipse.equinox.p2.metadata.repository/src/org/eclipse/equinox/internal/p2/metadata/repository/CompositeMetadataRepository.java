@@ -21,6 +21,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryIO;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
+import org.eclipse.equinox.internal.p2.repository.helpers.CompositeChildRunner;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.index.IIndex;
@@ -98,12 +99,8 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	CompositeMetadataRepository(IMetadataRepositoryManager manager, CompositeRepositoryState state, IProgressMonitor monitor) throws ProvisionException {
 		super(manager.getAgent(), state.getName(), state.getType(), state.getVersion(), state.getLocation(), state.getDescription(), state.getProvider(), state.getProperties());
 		this.manager = manager;
-		SubMonitor sub = SubMonitor.convert(monitor, 100 * state.getChildren().length);
-		List<URI> repositoriesToBeRemovedOnFailure = new ArrayList<URI>();
 		boolean failOnChildFailure = shouldFailOnChildFailure(state);
-		for (URI child : state.getChildren())
-			addChild(child, false, sub.newChild(100), failOnChildFailure, repositoriesToBeRemovedOnFailure);
-
+		addChildren(Arrays.asList(state.getChildren()), false, monitor, failOnChildFailure);
 	}
 
 	CompositeMetadataRepository(IMetadataRepositoryManager manager, URI location, String name, Map<String, String> properties) {
@@ -139,51 +136,85 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 			monitor = new NullProgressMonitor();
 		try {
 			// Query all the all the repositories this composite repo contains
-			IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-			return queryable.query(query, monitor);
+			return CompositeChildRunner.query(loadedRepos, query, monitor);
 		} finally {
 			if (monitor != null)
 				monitor.done();
 		}
 	}
 
-	//successfully loaded repo will be added to the list repositoriesToBeRemovedOnFailure if the list is not null and the repo wasn't previously loaded
-	private void addChild(URI childURI, boolean save, IProgressMonitor monitor, boolean propagateException, List<URI> repositoriesToBeRemovedOnFailure) throws ProvisionException {
-		SubMonitor sub = SubMonitor.convert(monitor);
-		URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
-		if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute)) {
-			sub.done();
-			return;
-
+	/*
+	 * Adds the given children and loads them, several at a time. The loaded repositories are
+	 * remembered in the order of the children. If propagateException is true, loading stops
+	 * at the first child that fails and the children that this method loaded into the manager
+	 * are removed from it again.
+	 */
+	private void addChildren(List<URI> children, boolean save, IProgressMonitor monitor, boolean propagateException) throws ProvisionException {
+		List<URI> toLoad = new ArrayList<URI>(children.size());
+		for (URI childURI : children) {
+			URI absolute = URIUtil.makeAbsolute(childURI, getLocation());
+			if (childrenURIs.contains(childURI) || childrenURIs.contains(absolute))
+				continue;
+			// always add the URI to the list of child URIs (even if we can't load it later)
+			childrenURIs.add(childURI);
+			toLoad.add(absolute);
 		}
-		// always add the URI to the list of child URIs (even if we can't load it later)
-		childrenURIs.add(childURI);
-		if (save)
+		if (save && !toLoad.isEmpty())
 			save();
-		try {
-			boolean currentLoaded = getManager().contains(absolute);
-			IMetadataRepository currentRepo = getManager().loadRepository(absolute, sub);
-			if (!currentLoaded) {
-				//set enabled to false so repositories do not polled twice
-				getManager().setEnabled(absolute, false);
-				//set repository to system to hide from users
-				getManager().setRepositoryProperty(absolute, IRepository.PROP_SYSTEM, String.valueOf(true));
-				if (propagateException)
-					repositoriesToBeRemovedOnFailure.add(absolute);
-			}
-			currentRepo.compress(iuPool); // Share IUs across this CompositeMetadataRepository
-			// we successfully loaded the repo so remember it
-			loadedRepos.add(currentRepo);
 
-		} catch (ProvisionException e) {
-			//repository failed to load. fall through
-			LogHelper.log(e);
-			if (propagateException) {
-				removeFromRepoManager(repositoriesToBeRemovedOnFailure);
-				String msg = NLS.bind(Messages.io_failedRead, getLocation());
-				throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, e));
+		final List<URI> addedToManager = Collections.synchronizedList(new ArrayList<URI>());
+		CompositeChildRunner<URI, IMetadataRepository> loader = new CompositeChildRunner<URI, IMetadataRepository>(propagateException) {
+			protected IMetadataRepository run(URI absolute, IProgressMonitor childMonitor) throws ProvisionException {
+				return loadChild(absolute, childMonitor, addedToManager);
 			}
+		};
+		loader.run(toLoad, monitor);
+
+		ProvisionException failure = null;
+		for (int i = 0; i < toLoad.size(); i++) {
+			Exception e = loader.getException(i);
+			if (e instanceof ProvisionException) {
+				//repository failed to load. fall through
+				LogHelper.log((ProvisionException) e);
+				if (failure == null)
+					failure = (ProvisionException) e;
+			}
+		}
+		if (failure != null && propagateException) {
+			removeFromRepoManager(addedToManager);
+			String msg = NLS.bind(Messages.io_failedRead, getLocation());
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, failure));
+		}
+		for (int i = 0; i < toLoad.size(); i++) {
+			Exception e = loader.getException(i);
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			if (!loader.isCompleted(i))
+				throw new OperationCanceledException();
+			IMetadataRepository currentRepo = loader.getResult(i);
+			if (currentRepo != null) {
+				currentRepo.compress(iuPool); // Share IUs across this CompositeMetadataRepository
+				// we successfully loaded the repo so remember it
+				loadedRepos.add(currentRepo);
+			}
+		}
+	}
+
+	/*
+	 * Loads a child repository, and adds its location to the given list if it was not
+	 * known to the manager. This is called from several threads at the same time.
+	 */
+	IMetadataRepository loadChild(URI absolute, IProgressMonitor monitor, List<URI> addedToManager) throws ProvisionException {
+		boolean currentLoaded = getManager().contains(absolute);
+		IMetadataRepository currentRepo = getManager().loadRepository(absolute, monitor);
+		if (!currentLoaded) {
+			//set enabled to false so repositories do not polled twice
+			getManager().setEnabled(absolute, false);
+			//set repository to system to hide from users
+			getManager().setRepositoryProperty(absolute, IRepository.PROP_SYSTEM, String.valueOf(true));
+			addedToManager.add(absolute);
 		}
+		return currentRepo;
 	}
 
 	/* (non-Javadoc)
@@ -191,7 +222,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	 */
 	public void addChild(URI childURI) {
 		try {
-			addChild(childURI, true, null, false, null);
+			addChildren(Collections.singletonList(childURI), true, null, false);
 		} catch (ProvisionException e) {
 			//already logged
 		}
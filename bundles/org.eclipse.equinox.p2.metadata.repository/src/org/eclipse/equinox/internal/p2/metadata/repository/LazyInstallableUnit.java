@@ -0,0 +1,150 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.util.Collection;
+import java.util.List;
+import org.eclipse.equinox.internal.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * An installable unit that is backed by a record in a binary metadata repository
+ * file. The id, version, properties and provided capabilities are read directly from
+ * the record. Everything else is set from an installable unit that is read from the
+ * file and parsed the first time it is needed.
+ * <p>
+ * The unit is an {@link InstallableUnit}, so it is compacted by a {@link MetadataPool}
+ * and caches its translated properties like any other unit. Compacting a unit that
+ * has not been parsed only shares the parts that were read from the record.
+ * </p>
+ * @see BinaryMetadataRepositoryIO
+ */
+final class LazyInstallableUnit extends InstallableUnit {
+	private final BinaryMetadataRepositoryIO.Content content;
+	// The location of the serialized unit in the file
+	private final int offset;
+	private final int length;
+	private volatile boolean parsed;
+
+	LazyInstallableUnit(BinaryMetadataRepositoryIO.Content content, int offset, int length, String id, Version version, CompactProperties properties, IProvidedCapability[] providedCapabilities) {
+		this.content = content;
+		this.offset = offset;
+		this.length = length;
+		setId(id);
+		setVersion(version);
+		setProperties(properties);
+		setCapabilities(providedCapabilities);
+	}
+
+	/**
+	 * Sets the parts of this unit that are not part of the record, parsing the unit if needed.
+	 */
+	private void parse() {
+		if (parsed)
+			return;
+		synchronized (this) {
+			if (parsed)
+				return;
+			IInstallableUnit unit = content.parseUnit(offset, length);
+			Collection<IArtifactKey> artifacts = unit.getArtifacts();
+			setArtifacts(artifacts.toArray(new IArtifactKey[artifacts.size()]));
+			setFilter(unit.getFilter());
+			Collection<IRequirement> requirements = unit.getRequirements();
+			setRequiredCapabilities(requirements.toArray(new IRequirement[requirements.size()]));
+			Collection<IRequirement> metaRequirements = unit.getMetaRequirements();
+			setMetaRequiredCapabilities(metaRequirements.toArray(new IRequirement[metaRequirements.size()]));
+			for (ITouchpointData data : unit.getTouchpointData())
+				addTouchpointData(data);
+			setTouchpointType(unit.getTouchpointType());
+			setSingleton(unit.isSingleton());
+			setUpdateDescriptor(unit.getUpdateDescriptor());
+			Collection<ILicense> licenses = unit.getLicenses();
+			setLicenses(licenses.toArray(new ILicense[licenses.size()]));
+			setCopyright(unit.getCopyright());
+			parsed = true;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the unit has been parsed.
+	 */
+	boolean isParsed() {
+		return parsed;
+	}
+
+	public Collection<IArtifactKey> getArtifacts() {
+		parse();
+		return super.getArtifacts();
+	}
+
+	public IMatchExpression<IInstallableUnit> getFilter() {
+		parse();
+		return super.getFilter();
+	}
+
+	public List<IRequirement> getRequirements() {
+		parse();
+		return super.getRequirements();
+	}
+
+	public Collection<IRequirement> getMetaRequirements() {
+		parse();
+		return super.getMetaRequirements();
+	}
+
+	public Collection<ITouchpointData> getTouchpointData() {
+		parse();
+		return super.getTouchpointData();
+	}
+
+	public ITouchpointType getTouchpointType() {
+		parse();
+		return super.getTouchpointType();
+	}
+
+	public boolean isSingleton() {
+		parse();
+		return super.isSingleton();
+	}
+
+	public IUpdateDescriptor getUpdateDescriptor() {
+		parse();
+		return super.getUpdateDescriptor();
+	}
+
+	public Collection<ILicense> getLicenses() {
+		parse();
+		return super.getLicenses();
+	}
+
+	public ICopyright getCopyright() {
+		parse();
+		return super.getCopyright();
+	}
+
+	protected void compact(MetadataPool pool) {
+		// the parts that are set by parsing must not be compacted at the same time
+		synchronized (this) {
+			super.compact(pool);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.metadata.expression.IMemberProvider#getMember(java.lang.String)
+	 */
+	public Object getMember(String memberName) {
+		// Identity comparisons are OK since member names are always interned
+		if (MEMBER_PROVIDED_CAPABILITIES != memberName && MEMBER_ID != memberName && MEMBER_VERSION != memberName && MEMBER_PROPERTIES != memberName)
+			parse();
+		return super.getMember(memberName);
+	}
+}
@@ -19,6 +19,7 @@ import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
@@ -106,6 +107,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			idIndex = null; // Backed by units
 			snapshotNeeded = false;
 		}
+		// the units belong to the caller, they are not compacted until the repository is loaded again
 		units.addAll(installableUnits);
 		capabilityIndex = null; // Generated, not backed by units
 		save();
@@ -174,6 +176,10 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			setDescription(state.Description);
 			setLocation(state.Location);
 			setProperties(state.Properties);
+			// large repositories repeat the same ids, versions and capabilities many times
+			MetadataPool pool = new MetadataPool();
+			for (int i = 0; i < state.Units.length; i++)
+				pool.compact(state.Units[i]);
 			this.units.addAll(state.Units);
 			this.repositories.addAll(Arrays.asList(state.Repositories));
 		}
@@ -307,6 +313,18 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			new MetadataRepositoryIO(getProvisioningAgent()).write(this, output);
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, "Error saving metadata repository: " + getLocation(), e)); //$NON-NLS-1$
+			return;
+		}
+		// subclasses might have state that the binary image doesn't know about
+		if (getClass() == LocalMetadataRepository.class) {
+			try {
+				new BinaryMetadataRepositoryIO(getProvisioningAgent()).write(this, compress ? jarFile : file);
+			} catch (IOException e) {
+				// Not fatal since the content file will be read instead
+				BinaryMetadataRepositoryIO.delete(compress ? jarFile : file);
+				if (Tracing.DEBUG_METADATA_PARSING)
+					Tracing.debug("Unable to write binary image of " + getLocation() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 		}
 	}
 
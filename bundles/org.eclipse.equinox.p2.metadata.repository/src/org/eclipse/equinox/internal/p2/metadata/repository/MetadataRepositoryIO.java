@@ -60,7 +60,7 @@ public class MetadataRepositoryIO {
 
 				Parser repositoryParser = new Parser(Activator.getContext(), Activator.ID);
 				repositoryParser.setErrorContext(location.toExternalForm());
-				repositoryParser.parse(input, monitor);
+				repositoryParser.parse(bufferedInput, monitor);
 				IStatus result = repositoryParser.getStatus();
 				switch (result.getSeverity()) {
 					case IStatus.CANCEL :
@@ -11,8 +11,6 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata.repository;
 
-import org.eclipse.equinox.internal.p2.repository.CacheManager;
-
 import java.io.*;
 import java.net.URI;
 import java.util.Map;
@@ -20,11 +18,14 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.repository.CacheInputStream;
+import org.eclipse.equinox.internal.p2.repository.CacheManager;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.repository.IRepositoryManager;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory;
 import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
 
 public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 
@@ -32,6 +33,11 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 	private static final String PROTOCOL_FILE = "file"; //$NON-NLS-1$
 
+	/**
+	 * Whether remote repositories are parsed while they are downloaded, <code>true</code> by default.
+	 */
+	public static final String PROP_STREAMING = "eclipse.p2.metadata.streaming"; //$NON-NLS-1$
+
 	public IMetadataRepository create(URI location, String name, String type, Map<String, String> properties) {
 		if (location.getScheme().equals("file")) //$NON-NLS-1$
 			return new LocalMetadataRepository(getAgent(), location, name, properties);
@@ -73,6 +79,37 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 		return localFile;
 	}
 
+	/**
+	 * Returns a stream on the contents of the remote repository at the given location,
+	 * which are downloaded to the cache while they are read.
+	 */
+	private CacheInputStream getCacheStream(URI location, IProgressMonitor monitor) throws IOException, ProvisionException {
+		CacheManager cache = (CacheManager) getAgent().getService(CacheManager.SERVICE_NAME);
+		if (cache == null)
+			throw new IllegalArgumentException("Cache manager service not available"); //$NON-NLS-1$
+		return cache.streamCache(location, URLMetadataRepository.CONTENT_FILENAME, monitor);
+	}
+
+	private static boolean isStreaming(URI location) {
+		URI xmlLocation = URLMetadataRepository.getActualLocation(location, XML_EXTENSION);
+		if (PROTOCOL_FILE.equals(xmlLocation.getScheme()))
+			return false;
+		BundleContext context = Activator.getContext();
+		String streaming = context == null ? null : context.getProperty(PROP_STREAMING);
+		return streaming == null || Boolean.valueOf(streaming).booleanValue();
+	}
+
+	/**
+	 * Returns the exception to throw when reading a repository from the given stream failed
+	 * with the given exception. A failed download is reported rather than the read error it caused.
+	 */
+	private static ProvisionException getReadFailure(CacheInputStream cacheStream, ProvisionException failure) {
+		IStatus status = cacheStream == null ? Status.OK_STATUS : cacheStream.getStatus();
+		if (status.getSeverity() == IStatus.CANCEL)
+			throw new OperationCanceledException();
+		return status.isOK() ? failure : new ProvisionException(status);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory#load(java.net.URL, org.eclipse.core.runtime.IProgressMonitor)
 	 */
@@ -84,10 +121,32 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 			time = -System.currentTimeMillis();
 		}
 		SubMonitor sub = SubMonitor.convert(monitor, 400);
+		CacheInputStream cacheStream = null;
 		try {
-			File localFile = getLocalFile(location, sub.newChild(300));
-			InputStream inStream = new BufferedInputStream(new FileInputStream(localFile));
+			File localFile;
+			InputStream inStream;
+			if (isStreaming(location)) {
+				// parse the contents while they are downloaded
+				cacheStream = getCacheStream(location, sub.newChild(300));
+				localFile = cacheStream.getCacheFile();
+				inStream = cacheStream;
+			} else {
+				localFile = getLocalFile(location, sub.newChild(300));
+				if (PROTOCOL_FILE.equals(location.getScheme())) {
+					LocalMetadataRepository binaryResult = loadBinary(localFile);
+					if (binaryResult != null) {
+						binaryResult.initializeAfterLoad(location);
+						if (Tracing.DEBUG_METADATA_PARSING) {
+							time += System.currentTimeMillis();
+							Tracing.debug(debugMsg + "from binary image, time (ms): " + time); //$NON-NLS-1$
+						}
+						return binaryResult;
+					}
+				}
+				inStream = new BufferedInputStream(new FileInputStream(localFile));
+			}
 			JarInputStream jarStream = null;
+			boolean loaded = false;
 			try {
 				//if reading from a jar, obtain a stream on the entry with the actual contents
 				if (localFile.getAbsolutePath().endsWith(JAR_EXTENSION)) {
@@ -105,6 +164,7 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 				sub.setWorkRemaining(100);
 				InputStream descriptorStream = jarStream != null ? jarStream : inStream;
 				IMetadataRepository result = new MetadataRepositoryIO(getAgent()).read(localFile.toURL(), descriptorStream, sub.newChild(100));
+				loaded = true;
 				if (result != null && (flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !result.isModifiable())
 					return null;
 				if (result instanceof LocalMetadataRepository)
@@ -117,6 +177,9 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 				}
 				return result;
 			} finally {
+				// do not complete the download of a cache that could not be read
+				if (!loaded && cacheStream != null)
+					cacheStream.abort();
 				safeClose(jarStream);
 				safeClose(inStream);
 			}
@@ -125,13 +188,31 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, e));
 		} catch (IOException e) {
 			String msg = NLS.bind(Messages.io_failedRead, location);
-			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, e));
+			throw getReadFailure(cacheStream, new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, e)));
+		} catch (ProvisionException e) {
+			throw getReadFailure(cacheStream, e);
 		} finally {
 			if (monitor != null)
 				monitor.done();
 		}
 	}
 
+	/**
+	 * Loads the repository from the binary image that is kept next to the given
+	 * content file.
+	 * @return the repository, or <code>null</code> if there is no usable binary image.
+	 */
+	private LocalMetadataRepository loadBinary(File localFile) {
+		try {
+			return new BinaryMetadataRepositoryIO(getAgent()).read(localFile);
+		} catch (Exception e) {
+			// Not fatal since the content file will be used instead
+			if (Tracing.DEBUG_METADATA_PARSING)
+				Tracing.debug("Unable to read binary image of " + localFile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
 	/**
 	 * Closes a stream, ignoring any secondary exceptions
 	 */
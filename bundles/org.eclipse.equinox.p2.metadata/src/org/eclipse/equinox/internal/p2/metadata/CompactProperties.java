@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata;
+
+import java.util.*;
+
+/**
+ * An unmodifiable map of properties that keeps its keys and values in a single array,
+ * in the order in which they were added, and takes a fraction of the memory of a
+ * {@link LinkedHashMap}. Lookups scan the array while there are few properties, as for
+ * most installable units, and use a hash index of the array above {@link #HASH_THRESHOLD}
+ * properties.
+ * <p>
+ * Instances are never modified: {@link #with(String, String)} and {@link #without(String)}
+ * return new instances, so a map that has been handed out is an unmodifiable copy. Each of
+ * them copies the array, so properties that are set one at a time are collected with a
+ * {@link Builder} instead.
+ * </p>
+ */
+public final class CompactProperties extends AbstractMap<String, String> {
+	public static final CompactProperties EMPTY = new CompactProperties(new String[0]);
+
+	/**
+	 * The number of properties above which lookups use a hash index.
+	 */
+	static final int HASH_THRESHOLD = 8;
+
+	// the keys are at even indexes, each followed by its value
+	private final String[] keysAndValues;
+	// open addressing table of the indexes of the keys plus one, or null for few properties
+	private final int[] hashIndex;
+
+	private CompactProperties(String[] keysAndValues) {
+		this.keysAndValues = keysAndValues;
+		this.hashIndex = keysAndValues.length / 2 > HASH_THRESHOLD ? createHashIndex(keysAndValues) : null;
+	}
+
+	private static int[] createHashIndex(String[] keysAndValues) {
+		// keep the table at most half full
+		int capacity = 1;
+		while (capacity < keysAndValues.length)
+			capacity <<= 1;
+		int[] table = new int[capacity];
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			int slot = hash(keysAndValues[i]) & (capacity - 1);
+			while (table[slot] != 0)
+				slot = (slot + 1) & (capacity - 1);
+			table[slot] = i + 1;
+		}
+		return table;
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private int indexOf(Object key) {
+		if (hashIndex == null) {
+			for (int i = 0; i < keysAndValues.length; i += 2)
+				if (keysAndValues[i].equals(key))
+					return i;
+			return -1;
+		}
+		if (key == null)
+			return -1;
+		int mask = hashIndex.length - 1;
+		for (int slot = hash(key) & mask; hashIndex[slot] != 0; slot = (slot + 1) & mask) {
+			int index = hashIndex[slot] - 1;
+			if (keysAndValues[index].equals(key))
+				return index;
+		}
+		return -1;
+	}
+
+	public String get(Object key) {
+		int index = indexOf(key);
+		return index == -1 ? null : keysAndValues[index + 1];
+	}
+
+	public boolean containsKey(Object key) {
+		return indexOf(key) != -1;
+	}
+
+	public int size() {
+		return keysAndValues.length / 2;
+	}
+
+	public boolean isEmpty() {
+		return keysAndValues.length == 0;
+	}
+
+	/**
+	 * Returns properties that map the given key to the given value, and are otherwise
+	 * equal to these properties.
+	 */
+	public CompactProperties with(String key, String value) {
+		int index = indexOf(key);
+		String[] result;
+		if (index == -1) {
+			result = new String[keysAndValues.length + 2];
+			System.arraycopy(keysAndValues, 0, result, 0, keysAndValues.length);
+			result[keysAndValues.length] = key;
+			index = keysAndValues.length;
+		} else
+			result = keysAndValues.clone();
+		result[index + 1] = value;
+		return new CompactProperties(result);
+	}
+
+	/**
+	 * Returns properties that do not contain the given key, and are otherwise
+	 * equal to these properties.
+	 */
+	public CompactProperties without(String key) {
+		int index = indexOf(key);
+		if (index == -1)
+			return this;
+		if (keysAndValues.length == 2)
+			return EMPTY;
+		String[] result = new String[keysAndValues.length - 2];
+		System.arraycopy(keysAndValues, 0, result, 0, index);
+		System.arraycopy(keysAndValues, index + 2, result, index, result.length - index);
+		return new CompactProperties(result);
+	}
+
+	/**
+	 * Returns properties whose keys and values are shared through the given pool.
+	 */
+	CompactProperties intern(MetadataPool pool) {
+		if (keysAndValues.length == 0)
+			return EMPTY;
+		String[] result = new String[keysAndValues.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = pool.intern(keysAndValues[i]);
+		return new CompactProperties(result);
+	}
+
+	/**
+	 * Collects properties that are set one at a time, in constant time per property, and
+	 * builds the resulting {@link CompactProperties} once.
+	 */
+	public static final class Builder {
+		private String[] keysAndValues = new String[16];
+		private int length = 0;
+		// maps each key to its index in the array
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		public Builder() {
+			// start empty
+		}
+
+		/**
+		 * Creates a builder that starts with the given properties.
+		 */
+		public Builder(Map<String, String> properties) {
+			for (Map.Entry<String, String> entry : properties.entrySet())
+				put(entry.getKey(), entry.getValue());
+		}
+
+		public String get(String key) {
+			Integer index = indexes.get(key);
+			return index == null ? null : keysAndValues[index.intValue() + 1];
+		}
+
+		/**
+		 * Maps the given key to the given value, or removes the key if the value is <code>null</code>.
+		 * @return the previous value of the key, or <code>null</code>
+		 */
+		public String put(String key, String value) {
+			if (value == null)
+				return remove(key);
+			Integer index = indexes.get(key);
+			if (index != null) {
+				String previous = keysAndValues[index.intValue() + 1];
+				keysAndValues[index.intValue() + 1] = value;
+				return previous;
+			}
+			if (length == keysAndValues.length) {
+				String[] grown = new String[length * 2];
+				System.arraycopy(keysAndValues, 0, grown, 0, length);
+				keysAndValues = grown;
+			}
+			keysAndValues[length] = key;
+			keysAndValues[length + 1] = value;
+			indexes.put(key, new Integer(length));
+			length += 2;
+			return null;
+		}
+
+		/**
+		 * Removes the given key.
+		 * @return the previous value of the key, or <code>null</code>
+		 */
+		public String remove(String key) {
+			Integer index = indexes.remove(key);
+			if (index == null)
+				return null;
+			int removed = index.intValue();
+			String previous = keysAndValues[removed + 1];
+			System.arraycopy(keysAndValues, removed + 2, keysAndValues, removed, length - removed - 2);
+			length -= 2;
+			keysAndValues[length] = null;
+			keysAndValues[length + 1] = null;
+			for (int i = removed; i < length; i += 2)
+				indexes.put(keysAndValues[i], new Integer(i));
+			return previous;
+		}
+
+		public CompactProperties build() {
+			if (length == 0)
+				return EMPTY;
+			String[] result = new String[length];
+			System.arraycopy(keysAndValues, 0, result, 0, length);
+			return new CompactProperties(result);
+		}
+	}
+
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int index = 0;
+
+					public boolean hasNext() {
+						return index < keysAndValues.length;
+					}
+
+					public Map.Entry<String, String> next() {
+						if (index >= keysAndValues.length)
+							throw new NoSuchElementException();
+						Map.Entry<String, String> entry = new Entry(keysAndValues[index], keysAndValues[index + 1]);
+						index += 2;
+						return entry;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			public int size() {
+				return keysAndValues.length / 2;
+			}
+		};
+	}
+
+	private static final class Entry implements Map.Entry<String, String> {
+		private final String key;
+		private final String value;
+
+		Entry(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public String setValue(String newValue) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry<?, ?>))
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return key.equals(other.getKey()) && value.equals(other.getValue());
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		public String toString() {
+			return key + '=' + value;
+		}
+	}
+}
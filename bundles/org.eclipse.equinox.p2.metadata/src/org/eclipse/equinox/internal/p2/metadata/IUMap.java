@@ -252,5 +252,18 @@ public class IUMap implements Cloneable {
 				entry.setValue(iuPool.add((IInstallableUnit) value));
 			}
 		}
+		// the pooled units share their parts as well
+		compact(new MetadataPool());
+	}
+
+	/**
+	 * Shares the equal parts of the IInstallableUnits in the receiver,
+	 * such as their ids, versions, properties and capabilities, through the provided pool.
+	 * 
+	 * @param pool the pool of the shared parts
+	 */
+	public void compact(MetadataPool pool) {
+		for (Iterator<IInstallableUnit> iter = iterator(); iter.hasNext();)
+			pool.compact(iter.next());
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,18 +14,13 @@ package org.eclipse.equinox.internal.p2.metadata;
 import java.util.*;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.expression.ExpressionCache;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 
 public class InstallableUnit implements IInstallableUnit, IMemberProvider {
-	@SuppressWarnings("serial")
-	private static final Map<IFilterExpression, IMatchExpression<IInstallableUnit>> filterCache = new LinkedHashMap<IFilterExpression, IMatchExpression<IInstallableUnit>>() {
-		public boolean removeEldestEntry(Map.Entry<IFilterExpression, IMatchExpression<IInstallableUnit>> expr) {
-			return size() > 64;
-		}
-	};
+	private static final ExpressionCache<IFilterExpression, IMatchExpression<IInstallableUnit>> filterCache = new ExpressionCache<IFilterExpression, IMatchExpression<IInstallableUnit>>();
 
-	private static final OrderedProperties NO_PROPERTIES = new OrderedProperties();
 	private static final IProvidedCapability[] NO_PROVIDES = new IProvidedCapability[0];
 	private static final IRequirement[] NO_REQUIRES = new IRequirement[0];
 	private static final IArtifactKey[] NO_ARTIFACTS = new IArtifactKey[0];
@@ -58,7 +53,7 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 
 	private String id;
 
-	private OrderedProperties properties;
+	private CompactProperties properties;
 	private OrderedProperties localizedProperties;
 	IProvidedCapability[] providedCapabilities = NO_PROVIDES;
 	private IRequirement[] requires = NO_REQUIRES;
@@ -145,7 +140,8 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 	 * @return an <i>unmodifiable copy</i> of the IU properties.
 	 */
 	public Map<String, String> getProperties() {
-		return OrderedProperties.unmodifiableProperties(properties());
+		// the properties are never modified, a new map is set when a property changes
+		return properties();
 	}
 
 	/*
@@ -159,7 +155,7 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 	}
 
 	public String getProperty(String key) {
-		return properties().getProperty(key);
+		return properties().get(key);
 	}
 
 	public Collection<IProvidedCapability> getProvidedCapabilities() {
@@ -203,8 +199,8 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		return singleton;
 	}
 
-	private OrderedProperties properties() {
-		return (properties != null ? properties : NO_PROPERTIES);
+	private CompactProperties properties() {
+		return (properties != null ? properties : CompactProperties.EMPTY);
 	}
 
 	public void setArtifacts(IArtifactKey[] value) {
@@ -238,15 +234,20 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		if (filter == null)
 			return null;
 
-		synchronized (filterCache) {
-			IMatchExpression<IInstallableUnit> matchExpr = filterCache.get(filter);
-			if (matchExpr != null)
-				return matchExpr;
-
-			matchExpr = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(filterWrap, filter);
-			filterCache.put(filter, matchExpr);
+		IMatchExpression<IInstallableUnit> matchExpr = filterCache.get(filter);
+		if (matchExpr != null)
 			return matchExpr;
-		}
+
+		matchExpr = ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(filterWrap, filter);
+		filterCache.put(filter, matchExpr);
+		return matchExpr;
+	}
+
+	/**
+	 * Returns the cache of the match expressions created by {@link #parseFilter(String)}.
+	 */
+	public static ExpressionCache<IFilterExpression, IMatchExpression<IInstallableUnit>> getFilterCache() {
+		return filterCache;
 	}
 
 	/*
@@ -259,11 +260,18 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 	}
 
 	public String setProperty(String key, String value) {
-		if (value == null)
-			return (properties != null ? (String) properties.remove(key) : null);
-		if (properties == null)
-			properties = new OrderedProperties();
-		return (String) properties.setProperty(key, value);
+		if (value == null && properties == null)
+			return null;
+		String previous = properties().get(key);
+		properties = value == null ? properties.without(key) : properties().with(key, value);
+		return previous;
+	}
+
+	/**
+	 * Replaces all properties of this unit.
+	 */
+	public void setProperties(CompactProperties properties) {
+		this.properties = properties.isEmpty() ? null : properties;
 	}
 
 	public void setRequiredCapabilities(IRequirement[] capabilities) {
@@ -344,6 +352,54 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		}
 	}
 
+	/**
+	 * Replaces the parts of this unit with the equal parts in the given pool. The arrays
+	 * are copied rather than modified, as they may be shared with the caller that set them
+	 * or read by queries while the unit is compacted.
+	 */
+	protected void compact(MetadataPool pool) {
+		id = pool.intern(id);
+		version = pool.intern(version);
+		if (properties != null)
+			properties = properties.intern(pool);
+		if (providedCapabilities.length > 0) {
+			IProvidedCapability[] compacted = new IProvidedCapability[providedCapabilities.length];
+			for (int i = 0; i < compacted.length; i++)
+				compacted[i] = pool.intern(providedCapabilities[i]);
+			providedCapabilities = compacted;
+		}
+		requires = compact(requires, pool);
+		metaRequires = compact(metaRequires, pool);
+		if (artifacts.length > 0) {
+			IArtifactKey[] compacted = new IArtifactKey[artifacts.length];
+			for (int i = 0; i < compacted.length; i++)
+				compacted[i] = pool.intern(artifacts[i]);
+			artifacts = compacted;
+		}
+		if (touchpointData.length > 0) {
+			ITouchpointData[] compacted = new ITouchpointData[touchpointData.length];
+			for (int i = 0; i < compacted.length; i++)
+				compacted[i] = pool.intern(touchpointData[i]);
+			touchpointData = compacted;
+		}
+		if (licenses.length > 0) {
+			ILicense[] compacted = new ILicense[licenses.length];
+			for (int i = 0; i < compacted.length; i++)
+				compacted[i] = pool.intern(licenses[i]);
+			licenses = compacted;
+		}
+		touchpointType = pool.intern(touchpointType);
+	}
+
+	private static IRequirement[] compact(IRequirement[] requirements, MetadataPool pool) {
+		if (requirements.length == 0)
+			return requirements;
+		IRequirement[] compacted = new IRequirement[requirements.length];
+		for (int i = 0; i < compacted.length; i++)
+			compacted[i] = pool.intern(requirements[i]);
+		return compacted;
+	}
+
 	public Object getMember(String memberName) {
 		// It is OK to use identity comparisons here since
 		// a) All constant valued strings are always interned
@@ -390,8 +446,7 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 	public static IInstallableUnit contextIU(Map<String, String> environment) {
 		InstallableUnit ctxIU = new InstallableUnit();
 		ctxIU.setId("org.eclipse.equinox.p2.context.iu"); //$NON-NLS-1$
-		for (Map.Entry<String, String> entry : environment.entrySet())
-			ctxIU.setProperty(entry.getKey(), entry.getValue());
+		ctxIU.setProperties(new CompactProperties.Builder(environment).build());
 		return ctxIU;
 	}
 }
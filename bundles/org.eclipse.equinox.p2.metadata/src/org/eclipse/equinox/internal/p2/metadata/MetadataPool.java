@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * A pool of the parts of installable units, used to share equal strings, versions,
+ * capabilities, requirements, artifact keys, touchpoint data and licenses between
+ * the units of a repository.
+ * <p>
+ * Only parts that are interchangeable are shared. Several parts are equal to parts of
+ * other classes, or to parts that differ in ways that do not take part in the equality,
+ * such as the description of a requirement or the format of a version. Those parts are
+ * kept as they are.
+ * </p>
+ * <p>
+ * The pool holds strong references to its contents. It is meant to be used while a set of
+ * units is compacted, and then dropped.
+ * </p>
+ */
+public class MetadataPool {
+	private final Map<Object, Object> pool = new HashMap<Object, Object>();
+
+	/**
+	 * Shares the parts of the given unit with the units that were compacted before.
+	 * Units that are not instances of {@link InstallableUnit} are left unchanged.
+	 */
+	public synchronized void compact(IInstallableUnit unit) {
+		if (unit instanceof InstallableUnit)
+			((InstallableUnit) unit).compact(this);
+	}
+
+	/**
+	 * Returns the number of distinct parts in the pool.
+	 */
+	public synchronized int size() {
+		return pool.size();
+	}
+
+	private Object get(Object part) {
+		Object shared = pool.get(part);
+		if (shared == null)
+			pool.put(part, part);
+		return shared;
+	}
+
+	synchronized String intern(String string) {
+		if (string == null)
+			return null;
+		Object shared = get(string);
+		return shared == null ? string : (String) shared;
+	}
+
+	synchronized Version intern(Version version) {
+		if (version == null)
+			return null;
+		Object shared = get(version);
+		// equal versions may have different formats
+		if (shared != null && shared.getClass() == version.getClass() && shared.toString().equals(version.toString()))
+			return (Version) shared;
+		return version;
+	}
+
+	synchronized IProvidedCapability intern(IProvidedCapability capability) {
+		if (capability.getClass() != ProvidedCapability.class)
+			return capability;
+		Object shared = pool.get(capability);
+		if (shared != null && shared.getClass() == ProvidedCapability.class && ((IProvidedCapability) shared).getVersion() == intern(capability.getVersion()))
+			return (IProvidedCapability) shared;
+		if (shared != null)
+			return capability;
+		capability = new ProvidedCapability(intern(capability.getNamespace()), intern(capability.getName()), intern(capability.getVersion()));
+		pool.put(capability, capability);
+		return capability;
+	}
+
+	synchronized IRequirement intern(IRequirement requirement) {
+		if (requirement.getClass() != RequiredCapability.class)
+			return requirement;
+		Object shared = get(requirement);
+		if (shared == null || shared.getClass() != RequiredCapability.class)
+			return requirement;
+		// the description and the parameter classes do not take part in the equality
+		IRequirement other = (IRequirement) shared;
+		if (!equals(requirement.getDescription(), other.getDescription()) || !sameParameters(requirement.getMatches(), other.getMatches()) || !sameParameters(requirement.getFilter(), other.getFilter()))
+			return requirement;
+		return other;
+	}
+
+	synchronized IArtifactKey intern(IArtifactKey key) {
+		if (key.getClass() != ArtifactKey.class)
+			return key;
+		Object shared = pool.get(key);
+		if (shared != null && shared.getClass() == ArtifactKey.class && ((IArtifactKey) shared).getVersion() == intern(key.getVersion()))
+			return (IArtifactKey) shared;
+		if (shared != null)
+			return key;
+		key = new ArtifactKey(intern(key.getClassifier()), intern(key.getId()), intern(key.getVersion()));
+		pool.put(key, key);
+		return key;
+	}
+
+	synchronized ITouchpointData intern(ITouchpointData data) {
+		if (data.getClass() != TouchpointData.class)
+			return data;
+		Object shared = get(data);
+		return shared != null && shared.getClass() == TouchpointData.class ? (ITouchpointData) shared : data;
+	}
+
+	synchronized ILicense intern(ILicense license) {
+		if (license.getClass() != License.class)
+			return license;
+		// licenses are equal when their normalized bodies are
+		Object shared = get(license);
+		if (shared == null || shared.getClass() != License.class)
+			return license;
+		ILicense other = (ILicense) shared;
+		return license.getBody().equals(other.getBody()) && equals(license.getLocation(), other.getLocation()) ? other : license;
+	}
+
+	synchronized ITouchpointType intern(ITouchpointType type) {
+		if (type == null || type.getClass() != TouchpointType.class)
+			return type;
+		Object shared = get(type);
+		return shared != null && shared.getClass() == TouchpointType.class && type.getVersion().toString().equals(((ITouchpointType) shared).getVersion().toString()) ? (ITouchpointType) shared : type;
+	}
+
+	private static boolean sameParameters(IMatchExpression<IInstallableUnit> expression, IMatchExpression<IInstallableUnit> other) {
+		if (expression == null || other == null)
+			return expression == other;
+		Object[] parameters = expression.getParameters();
+		Object[] otherParameters = other.getParameters();
+		if (parameters.length != otherParameters.length)
+			return false;
+		for (int i = 0; i < parameters.length; i++) {
+			Object parameter = parameters[i];
+			Object otherParameter = otherParameters[i];
+			if (parameter == otherParameter)
+				continue;
+			if (parameter == null || otherParameter == null || parameter.getClass() != otherParameter.getClass())
+				return false;
+			if (parameter instanceof Version && !parameter.toString().equals(otherParameter.toString()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+}
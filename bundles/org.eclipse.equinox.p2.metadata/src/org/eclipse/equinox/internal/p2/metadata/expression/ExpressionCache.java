@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.expression;
+
+import org.eclipse.equinox.internal.p2.metadata.MetadataActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A bounded cache of parsed expressions that can be read and written by several threads
+ * without locking.
+ * <p>
+ * The cache is a table of sets of two entries. A key can only be stored in the set that its
+ * hash code selects. A new entry takes the first place of its set and moves the entry that
+ * was there to the second place, which drops the oldest entry of the set. Entries are immutable,
+ * so a thread always sees a complete entry. Two threads that put at the same time may lose one
+ * of the entries, which only costs another parse later.
+ * </p><p>
+ * The hit and miss counts are not synchronized either and are therefore approximate when
+ * the cache is used by several threads.
+ * </p>
+ */
+public final class ExpressionCache<K, V> {
+	/**
+	 * The number of entries of the caches of parsed filters. The value is rounded up to a power of two.
+	 */
+	public static final String PROP_CACHE_SIZE = "eclipse.p2.filter.cache.size"; //$NON-NLS-1$
+	private static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private static final class Entry<K, V> {
+		final K key;
+		final V value;
+
+		Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final Entry<K, V>[] entries;
+	private final int mask;
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Creates a cache with the size given by the {@link #PROP_CACHE_SIZE} property.
+	 */
+	public ExpressionCache() {
+		this(getConfiguredSize());
+	}
+
+	@SuppressWarnings("unchecked")
+	public ExpressionCache(int size) {
+		int capacity = 2;
+		while (capacity < size && capacity < (1 << 30))
+			capacity <<= 1;
+		entries = new Entry[capacity];
+		// the index of the first entry of a set is always even
+		mask = capacity - 2;
+	}
+
+	/**
+	 * Returns the value cached for the given key, or <code>null</code>.
+	 */
+	public V get(K key) {
+		int index = indexOf(key);
+		Entry<K, V> entry = entries[index];
+		if (entry == null || !entry.key.equals(key)) {
+			entry = entries[index + 1];
+			if (entry == null || !entry.key.equals(key)) {
+				misses++;
+				return null;
+			}
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Caches the given value for the given key, possibly dropping another entry.
+	 */
+	public void put(K key, V value) {
+		int index = indexOf(key);
+		Entry<K, V> first = entries[index];
+		if (first != null && !first.key.equals(key))
+			entries[index + 1] = first;
+		entries[index] = new Entry<K, V>(key, value);
+	}
+
+	/**
+	 * Returns the maximum number of entries in this cache.
+	 */
+	public int getCapacity() {
+		return entries.length;
+	}
+
+	/**
+	 * Returns the number of successful calls to {@link #get(Object)}.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #get(Object)} that did not find a value.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Discards all entries and resets the statistics.
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = null;
+		hits = 0;
+		misses = 0;
+	}
+
+	private int indexOf(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return h & mask;
+	}
+
+	private static int getConfiguredSize() {
+		String sizeString = null;
+		try {
+			BundleContext context = MetadataActivator.getContext();
+			sizeString = context == null ? System.getProperty(PROP_CACHE_SIZE) : context.getProperty(PROP_CACHE_SIZE);
+			if (sizeString != null)
+				return Math.max(2, Integer.parseInt(sizeString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (sizeString != null)
+				System.err.println("Ignoring user-specified '" + PROP_CACHE_SIZE + "' value of: " + sizeString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_CACHE_SIZE;
+	}
+}
@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.expression;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.MetadataActivator;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Compiles a boolean expression into a tree of specialized nodes that evaluate it
+ * without an evaluation context.
+ * <p>
+ * The variables of the expression are kept in the slots of an array that is allocated
+ * for each evaluation, so lambdas do not create contexts and a compiled expression can be
+ * evaluated by several threads at the same time. The parameters of a match expression are
+ * constants, and members of objects that are not member providers are read through methods
+ * that are looked up once for each class.
+ * </p><p>
+ * Only the operators used by requirements, filters and simple queries are compiled. An
+ * expression that uses any other operator, or a variable that is not the root variable
+ * or a lambda variable, is not compiled and is evaluated by the interpreter.
+ * </p>
+ */
+public final class ExpressionCompiler {
+	/**
+	 * Set this property to <code>false</code> to evaluate all expressions with the interpreter.
+	 */
+	public static final String PROP_COMPILE = "eclipse.p2.expression.compile"; //$NON-NLS-1$
+
+	/**
+	 * A compiled expression with a root variable.
+	 */
+	static final class CompiledExpression {
+		private final Node root;
+		private final int slotCount;
+
+		CompiledExpression(Node root, int slotCount) {
+			this.root = root;
+			this.slotCount = slotCount;
+		}
+
+		/**
+		 * Returns whether the expression yields <code>true</code> for the given value of the root
+		 * variable. The context is only used for parameters that were not known when the
+		 * expression was compiled, and may be <code>null</code> otherwise.
+		 */
+		boolean isMatch(IEvaluationContext context, Object value) {
+			Object[] slots = new Object[slotCount];
+			slots[0] = value;
+			return root.isTrue(context, slots);
+		}
+	}
+
+	private static abstract class Node {
+		abstract Object evaluate(IEvaluationContext context, Object[] slots);
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			return evaluate(context, slots) == Boolean.TRUE;
+		}
+	}
+
+	private static abstract class BooleanNode extends Node {
+		final Object evaluate(IEvaluationContext context, Object[] slots) {
+			return Boolean.valueOf(isTrue(context, slots));
+		}
+
+		abstract boolean isTrue(IEvaluationContext context, Object[] slots);
+	}
+
+	private static final class Constant extends Node {
+		private final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		Object evaluate(IEvaluationContext context, Object[] slots) {
+			return value;
+		}
+	}
+
+	private static final class ContextParameter extends Node {
+		private final int position;
+
+		ContextParameter(int position) {
+			this.position = position;
+		}
+
+		Object evaluate(IEvaluationContext context, Object[] slots) {
+			return context.getParameter(position);
+		}
+	}
+
+	private static final class Slot extends Node {
+		private final int slot;
+
+		Slot(int slot) {
+			this.slot = slot;
+		}
+
+		Object evaluate(IEvaluationContext context, Object[] slots) {
+			return slots[slot];
+		}
+	}
+
+	private static final class MemberNode extends Node {
+		/**
+		 * The method that yields the member in instances of a class. Bindings are immutable
+		 * so that threads see either the previous or the new binding.
+		 */
+		private static final class Binding {
+			final Class<?> type;
+			final Method method;
+
+			Binding(Class<?> type, Method method) {
+				this.type = type;
+				this.method = method;
+			}
+		}
+
+		private final Node operand;
+		private final String name;
+		private volatile Binding binding;
+
+		MemberNode(Node operand, String name) {
+			this.operand = operand;
+			this.name = name;
+		}
+
+		Object evaluate(IEvaluationContext context, Object[] slots) {
+			Object self = operand.evaluate(context, slots);
+			if (self instanceof IMemberProvider)
+				return ((IMemberProvider) self).getMember(name);
+			if (self == null)
+				throw new IllegalArgumentException("Cannot access member \'" + name + "\' in null"); //$NON-NLS-1$//$NON-NLS-2$
+			Binding b = binding;
+			if (b == null || b.type != self.getClass()) {
+				b = new Binding(self.getClass(), Member.DynamicMember.findMethod(self.getClass(), name));
+				binding = b;
+			}
+			return Member.DynamicMember.invoke(b.method, self);
+		}
+	}
+
+	private static final class LengthNode extends Node {
+		private final Member.LengthMember member;
+		private final Node operand;
+
+		LengthNode(Member.LengthMember member, Node operand) {
+			this.member = member;
+			this.operand = operand;
+		}
+
+		Object evaluate(IEvaluationContext context, Object[] slots) {
+			Object val = operand.evaluate(context, slots);
+			if (member instanceof Member.EmptyMember)
+				return Boolean.valueOf((val instanceof Iterator<?>) ? !((Iterator<?>) val).hasNext() : member.getLength(val) == 0);
+			return new Integer(member.getLength(val));
+		}
+	}
+
+	private static final class EqualsNode extends BooleanNode {
+		private final Node lhs;
+		private final Node rhs;
+		private final boolean negate;
+
+		EqualsNode(Node lhs, Node rhs, boolean negate) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.negate = negate;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			return CoercingComparator.coerceAndEquals(lhs.evaluate(context, slots), rhs.evaluate(context, slots)) != negate;
+		}
+	}
+
+	private static final class CompareNode extends BooleanNode {
+		private final Node lhs;
+		private final Node rhs;
+		private final boolean compareLess;
+		private final boolean equalOK;
+
+		CompareNode(Node lhs, Node rhs, boolean compareLess, boolean equalOK) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.compareLess = compareLess;
+			this.equalOK = equalOK;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			int cmpResult = CoercingComparator.coerceAndCompare(lhs.evaluate(context, slots), rhs.evaluate(context, slots));
+			return cmpResult == 0 ? equalOK : (cmpResult < 0 ? compareLess : !compareLess);
+		}
+	}
+
+	private static final class MatchesNode extends BooleanNode {
+		private final Matches matches;
+		private final Node lhs;
+		private final Node rhs;
+
+		MatchesNode(Matches matches, Node lhs, Node rhs) {
+			this.matches = matches;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			return matches.match(lhs.evaluate(context, slots), rhs.evaluate(context, slots));
+		}
+	}
+
+	private static final class AndNode extends BooleanNode {
+		private final Node[] operands;
+
+		AndNode(Node[] operands) {
+			this.operands = operands;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (!operands[idx].isTrue(context, slots))
+					return false;
+			return true;
+		}
+	}
+
+	private static final class OrNode extends BooleanNode {
+		private final Node[] operands;
+
+		OrNode(Node[] operands) {
+			this.operands = operands;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (operands[idx].isTrue(context, slots))
+					return true;
+			return false;
+		}
+	}
+
+	private static final class NotNode extends BooleanNode {
+		private final Node operand;
+
+		NotNode(Node operand) {
+			this.operand = operand;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			return !operand.isTrue(context, slots);
+		}
+	}
+
+	/**
+	 * The <code>exists</code> and <code>all</code> collection filters. Arrays and collections
+	 * are iterated directly, other values are iterated as by the interpreter.
+	 */
+	private static final class CollectionNode extends BooleanNode {
+		private final Node collection;
+		private final int slot;
+		private final Node body;
+		// the result when the body yields it for an element, the opposite is the result otherwise
+		private final boolean exists;
+
+		CollectionNode(Node collection, int slot, Node body, boolean exists) {
+			this.collection = collection;
+			this.slot = slot;
+			this.body = body;
+			this.exists = exists;
+		}
+
+		boolean isTrue(IEvaluationContext context, Object[] slots) {
+			Object value = collection.evaluate(context, slots);
+			if (value instanceof Object[]) {
+				Object[] array = (Object[]) value;
+				for (int idx = 0; idx < array.length; ++idx) {
+					slots[slot] = array[idx];
+					if (body.isTrue(context, slots) == exists)
+						return exists;
+				}
+				return !exists;
+			}
+			Iterator<?> itor = value instanceof Collection<?> ? ((Collection<?>) value).iterator() : RepeatableIterator.create(value);
+			while (itor.hasNext()) {
+				slots[slot] = itor.next();
+				if (body.isTrue(context, slots) == exists)
+					return exists;
+			}
+			return !exists;
+		}
+	}
+
+	private static final class NotCompilable extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static final NotCompilable NOT_COMPILABLE = new NotCompilable();
+
+	private final Object[] parameters;
+	// the variables in scope and their slots, the innermost last
+	private final List<Variable> variables = new ArrayList<Variable>();
+	private final List<Integer> variableSlots = new ArrayList<Integer>();
+	private int slotCount = 0;
+
+	private ExpressionCompiler(Object[] parameters) {
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Compiles the given boolean expression.
+	 * @param root the variable whose value is given to {@link CompiledExpression#isMatch(IEvaluationContext, Object)}
+	 * @param expression the expression to compile
+	 * @param parameters the values of the parameters of the expression, or <code>null</code>
+	 * if the parameters are to be read from the evaluation context
+	 * @return the compiled expression, or <code>null</code> if the expression must be interpreted
+	 */
+	static CompiledExpression compile(Variable root, Expression expression, Object[] parameters) {
+		if (!isEnabled())
+			return null;
+		ExpressionCompiler compiler = new ExpressionCompiler(parameters);
+		try {
+			compiler.push(root);
+			Node node = compiler.compile(expression);
+			return new CompiledExpression(node, compiler.slotCount);
+		} catch (NotCompilable e) {
+			return null;
+		}
+	}
+
+	private void push(Variable variable) {
+		variables.add(variable);
+		variableSlots.add(new Integer(slotCount++));
+	}
+
+	private void pop() {
+		variables.remove(variables.size() - 1);
+		variableSlots.remove(variableSlots.size() - 1);
+	}
+
+	private Node[] compile(Expression[] expressions) throws NotCompilable {
+		Node[] nodes = new Node[expressions.length];
+		for (int idx = 0; idx < expressions.length; ++idx)
+			nodes[idx] = compile(expressions[idx]);
+		return nodes;
+	}
+
+	private Node compile(Expression expression) throws NotCompilable {
+		Class<?> c = expression.getClass();
+		if (c == Literal.class)
+			return new Constant(((Literal) expression).value);
+		if (c == Parameter.class) {
+			int position = ((Parameter) expression).position;
+			if (parameters == null)
+				return new ContextParameter(position);
+			if (position < parameters.length)
+				return new Constant(parameters[position]);
+			throw NOT_COMPILABLE;
+		}
+		if (c == Variable.class) {
+			// variables are identified by identity, as in the evaluation contexts
+			for (int idx = variables.size() - 1; idx >= 0; --idx)
+				if (variables.get(idx) == expression)
+					return new Slot(variableSlots.get(idx).intValue());
+			throw NOT_COMPILABLE;
+		}
+		if (c == Member.DynamicMember.class) {
+			Member member = (Member) expression;
+			return new MemberNode(compile(member.operand), member.name);
+		}
+		if (c == Member.LengthMember.class || c == Member.EmptyMember.class) {
+			Member.LengthMember member = (Member.LengthMember) expression;
+			return new LengthNode(member, compile(member.operand));
+		}
+		if (c == Equals.class) {
+			Equals equals = (Equals) expression;
+			return new EqualsNode(compile(equals.lhs), compile(equals.rhs), equals.negate);
+		}
+		if (c == Compare.class) {
+			Compare compare = (Compare) expression;
+			return new CompareNode(compile(compare.lhs), compile(compare.rhs), compare.compareLess, compare.equalOK);
+		}
+		if (c == Matches.class) {
+			Matches matches = (Matches) expression;
+			return new MatchesNode(matches, compile(matches.lhs), compile(matches.rhs));
+		}
+		if (c == And.class)
+			return new AndNode(compile(((And) expression).operands));
+		if (c == Or.class)
+			return new OrNode(compile(((Or) expression).operands));
+		if (c == Not.class)
+			return new NotNode(compile(((Not) expression).operand));
+		if (c == Exists.class || c == All.class) {
+			CollectionFilter filter = (CollectionFilter) expression;
+			if (filter.lambda.getClass() != LambdaExpression.class)
+				throw NOT_COMPILABLE;
+			Node collection = compile(filter.operand);
+			int slot = slotCount;
+			push(filter.lambda.getItemVariable());
+			Node body = compile(filter.lambda.operand);
+			pop();
+			return new CollectionNode(collection, slot, body, c == Exists.class);
+		}
+		throw NOT_COMPILABLE;
+	}
+
+	private static boolean isEnabled() {
+		String compileString = null;
+		try {
+			BundleContext context = MetadataActivator.getContext();
+			compileString = context == null ? System.getProperty(PROP_COMPILE) : context.getProperty(PROP_COMPILE);
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, security, etc)
+		}
+		return !"false".equalsIgnoreCase(compileString); //$NON-NLS-1$
+	}
+}
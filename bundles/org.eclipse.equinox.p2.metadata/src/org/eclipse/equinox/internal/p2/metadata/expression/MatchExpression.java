@@ -22,6 +22,9 @@ import org.eclipse.equinox.p2.metadata.expression.*;
 public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	private static final Object[] noParams = new Object[0];
 	private final Object[] parameters;
+	// compiled on the first match, see getCompiled()
+	private transient volatile ExpressionCompiler.CompiledExpression compiled;
+	private transient volatile boolean compileAttempted;
 
 	MatchExpression(Expression expression, Object[] parameters) {
 		super(expression);
@@ -73,14 +76,34 @@ public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	}
 
 	public boolean isMatch(IEvaluationContext context, T value) {
+		ExpressionCompiler.CompiledExpression predicate = getCompiled();
+		if (predicate != null)
+			return predicate.isMatch(context, value);
 		ExpressionFactory.THIS.setValue(context, value);
 		return Boolean.TRUE == operand.evaluate(context);
 	}
 
 	public boolean isMatch(T value) {
+		ExpressionCompiler.CompiledExpression predicate = getCompiled();
+		if (predicate != null)
+			return predicate.isMatch(null, value);
 		return isMatch(createContext(), value);
 	}
 
+	/**
+	 * Returns the compiled form of the predicate, or <code>null</code> if it is interpreted.
+	 * The parameters are compiled as constants, since a match expression is always evaluated
+	 * with its own parameters. Two threads may both compile the predicate, and then use
+	 * equivalent compiled forms.
+	 */
+	private ExpressionCompiler.CompiledExpression getCompiled() {
+		if (!compileAttempted) {
+			compiled = ExpressionCompiler.compile(ExpressionFactory.THIS, operand, parameters);
+			compileAttempted = true;
+		}
+		return compiled;
+	}
+
 	public void toLDAPString(StringBuffer bld) {
 		operand.toLDAPString(bld);
 	}
@@ -32,7 +32,6 @@ public abstract class Member extends Unary {
 		private Class<?> lastClass;
 
 		private transient Method method;
-		private transient String methodName;
 
 		DynamicMember(Expression operand, String name) {
 			super(operand, name, Expression.emptyArray);
@@ -51,56 +50,60 @@ public abstract class Member extends Unary {
 
 			Class<?> c = self.getClass();
 			synchronized (this) {
-				if (methodName == null) {
-					String n = name;
-					if (!(n.startsWith(GET_PREFIX) || n.startsWith(IS_PREFIX)))
-						n = GET_PREFIX + Character.toUpperCase(n.charAt(0)) + n.substring(1);
-					methodName = n;
-				}
 				if (lastClass == null || !lastClass.isAssignableFrom(c)) {
-					Method m;
-					for (;;) {
-						try {
-							m = c.getMethod(methodName, NO_ARG_TYPES);
-							if (!Modifier.isPublic(m.getModifiers()))
-								throw new NoSuchMethodException();
-							break;
-						} catch (NoSuchMethodException e) {
-							if (methodName.startsWith(GET_PREFIX))
-								// Switch from using getXxx() to isXxx()
-								methodName = IS_PREFIX + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-							else if (methodName.startsWith(IS_PREFIX))
-								// Switch from using isXxx() to xxx()
-								methodName = name;
-							else
-								throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + self.getClass().getName()); //$NON-NLS-1$//$NON-NLS-2$
-						}
-					}
-
-					// Since we already checked that it's public. This will speed
-					// up the calls a bit.
-					m.setAccessible(true);
+					method = findMethod(c, name);
 					lastClass = c;
-					method = m;
 				}
+				return invoke(method, self);
+			}
+		}
 
-				Exception checked;
+		/**
+		 * Returns the public method of the given class that yields the given member, using
+		 * the same bean semantics as the evaluation of a dynamic member.
+		 */
+		static Method findMethod(Class<?> c, String name) {
+			String[] methodNames;
+			if (name.startsWith(GET_PREFIX) || name.startsWith(IS_PREFIX))
+				methodNames = new String[] {name};
+			else {
+				// Try getXxx(), then isXxx(), then xxx()
+				String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+				methodNames = new String[] {GET_PREFIX + suffix, IS_PREFIX + suffix, name};
+			}
+			for (int idx = 0; idx < methodNames.length; ++idx) {
 				try {
-					return method.invoke(self, NO_ARGS);
-				} catch (IllegalArgumentException e) {
-					throw e;
-				} catch (IllegalAccessException e) {
-					checked = e;
-				} catch (InvocationTargetException e) {
-					Throwable cause = e.getTargetException();
-					if (cause instanceof RuntimeException)
-						throw (RuntimeException) cause;
-					if (cause instanceof Error)
-						throw (Error) cause;
-					checked = (Exception) cause;
+					Method m = c.getMethod(methodNames[idx], NO_ARG_TYPES);
+					if (Modifier.isPublic(m.getModifiers())) {
+						// Since we already checked that it's public. This will speed
+						// up the calls a bit.
+						m.setAccessible(true);
+						return m;
+					}
+				} catch (NoSuchMethodException e) {
+					// try the next name
 				}
-				throw new RuntimeException("Problem invoking " + methodName + " on a " + self.getClass().getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
 			}
+			throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + c.getName()); //$NON-NLS-1$//$NON-NLS-2$
+		}
+
+		static Object invoke(Method method, Object self) {
+			Exception checked;
+			try {
+				return method.invoke(self, NO_ARGS);
+			} catch (IllegalArgumentException e) {
+				throw e;
+			} catch (IllegalAccessException e) {
+				checked = e;
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getTargetException();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				checked = (Exception) cause;
+			}
+			throw new RuntimeException("Problem invoking " + method.getName() + " on a " + self.getClass().getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 	}
 
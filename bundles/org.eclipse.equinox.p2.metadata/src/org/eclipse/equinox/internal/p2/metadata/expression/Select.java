@@ -18,6 +18,10 @@ import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
  * <code>collection</code> for which the <code>filter</code> yields <code>true</code>.
  */
 final class Select extends CollectionFilter {
+	// the compiled lambda, see getCompiled()
+	private transient volatile ExpressionCompiler.CompiledExpression compiled;
+	private transient volatile boolean compileAttempted;
+
 	Select(Expression collection, LambdaExpression lambda) {
 		super(collection, lambda);
 	}
@@ -27,6 +31,13 @@ final class Select extends CollectionFilter {
 	}
 
 	protected Iterator<?> evaluateAsIterator(final IEvaluationContext context, Iterator<?> itor) {
+		final ExpressionCompiler.CompiledExpression predicate = getCompiled();
+		if (predicate != null)
+			return new MatchIteratorFilter<Object>(itor) {
+				protected boolean isMatch(Object val) {
+					return predicate.isMatch(context, val);
+				}
+			};
 		return new MatchIteratorFilter<Object>(itor) {
 			protected boolean isMatch(Object val) {
 				lambda.getItemVariable().setValue(context, val);
@@ -35,6 +46,19 @@ final class Select extends CollectionFilter {
 		};
 	}
 
+	/**
+	 * Returns the compiled form of the lambda, or <code>null</code> if it is interpreted.
+	 * The parameters are read from the evaluation context.
+	 */
+	private ExpressionCompiler.CompiledExpression getCompiled() {
+		if (!compileAttempted) {
+			if (lambda.getClass() == LambdaExpression.class)
+				compiled = ExpressionCompiler.compile(lambda.getItemVariable(), lambda.operand, null);
+			compileAttempted = true;
+		}
+		return compiled;
+	}
+
 	public int getExpressionType() {
 		return TYPE_SELECT;
 	}
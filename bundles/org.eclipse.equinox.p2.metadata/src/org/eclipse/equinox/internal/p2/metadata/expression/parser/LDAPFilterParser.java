@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.metadata.expression.parser;
 
 import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.Messages;
+import org.eclipse.equinox.internal.p2.metadata.expression.ExpressionCache;
 import org.eclipse.equinox.internal.p2.metadata.expression.IExpressionConstants;
 import org.eclipse.equinox.internal.p2.metadata.expression.LDAPApproximation;
 import org.eclipse.equinox.p2.metadata.expression.*;
@@ -22,12 +23,7 @@ import org.eclipse.osgi.util.NLS;
  * objects rooted at the parent.
  */
 public class LDAPFilterParser {
-	@SuppressWarnings("serial")
-	private static final Map<String, IFilterExpression> filterCache = Collections.<String, IFilterExpression> synchronizedMap(new LinkedHashMap<String, IFilterExpression>() {
-		public boolean removeEldestEntry(Map.Entry<String, IFilterExpression> expr) {
-			return size() > 64;
-		}
-	});
+	private static final ExpressionCache<String, IFilterExpression> filterCache = new ExpressionCache<String, IFilterExpression>();
 
 	private final IExpressionFactory factory;
 
@@ -45,6 +41,13 @@ public class LDAPFilterParser {
 		position = 0;
 	}
 
+	/**
+	 * Returns the cache of the filters parsed by all parsers.
+	 */
+	public static ExpressionCache<String, IFilterExpression> getFilterCache() {
+		return filterCache;
+	}
+
 	public IFilterExpression parse(String filterStr) {
 		IFilterExpression filter = filterCache.get(filterStr);
 		if (filter != null)
@@ -18,37 +18,249 @@ import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 
 /**
- * An in-memory implementation of a CapabilityIndex based on a Map.
+ * An in-memory implementation of a CapabilityIndex based on a Map. The
+ * capabilities are keyed by namespace and name and the providers of each
+ * capability are kept sorted by the provided version so that a simple
+ * requirement can be resolved to a contiguous range of candidates.
+ * <p>
+ * Units can be added to the index after it has been built. The providers of a
+ * capability are never changed once they are created, they are replaced when a
+ * unit is added, so the candidates returned before are not affected.
+ * </p>
  */
 @SuppressWarnings("unchecked")
 public class CapabilityIndex extends Index<IInstallableUnit> {
 
-	private final Map<String, Object> capabilityMap;
+	/**
+	 * The units that provide a capability with a given namespace and name,
+	 * sorted on the version of the provided capability.
+	 */
+	private static final class Providers {
+		final Version[] versions;
+		final IInstallableUnit[] units;
+
+		/**
+		 * <code>true</code> when some unit provides the capability more than once
+		 * (using different versions).
+		 */
+		final boolean hasDuplicates;
+
+		Providers(List<ProvidedEntry> entries, boolean hasDuplicates) {
+			int top = entries.size();
+			if (top > 1)
+				Collections.sort(entries);
+			versions = new Version[top];
+			units = new IInstallableUnit[top];
+			for (int idx = 0; idx < top; ++idx) {
+				ProvidedEntry entry = entries.get(idx);
+				versions[idx] = entry.version;
+				units[idx] = entry.unit;
+			}
+			this.hasDuplicates = hasDuplicates;
+		}
+
+		private Providers(Version[] versions, IInstallableUnit[] units, boolean hasDuplicates) {
+			this.versions = versions;
+			this.units = units;
+			this.hasDuplicates = hasDuplicates;
+		}
+
+		/**
+		 * Returns providers that also contain the given unit. The unit is inserted after the
+		 * units that provide the same version, as if all the units had been sorted at once.
+		 */
+		Providers add(Version version, IInstallableUnit unit) {
+			int top = units.length;
+			boolean duplicates = hasDuplicates;
+			for (int idx = 0; idx < top && !duplicates; ++idx)
+				if (units[idx] == unit)
+					duplicates = true;
+			int pos = firstAbove(version, false);
+			Version[] newVersions = new Version[top + 1];
+			IInstallableUnit[] newUnits = new IInstallableUnit[top + 1];
+			System.arraycopy(versions, 0, newVersions, 0, pos);
+			System.arraycopy(units, 0, newUnits, 0, pos);
+			newVersions[pos] = version;
+			newUnits[pos] = unit;
+			System.arraycopy(versions, pos, newVersions, pos + 1, top - pos);
+			System.arraycopy(units, pos, newUnits, pos + 1, top - pos);
+			return new Providers(newVersions, newUnits, duplicates);
+		}
+
+		void collect(VersionRange range, Collection<IInstallableUnit> collector) {
+			int high = getHigh(range);
+			for (int idx = getLow(range); idx < high; ++idx)
+				collector.add(units[idx]);
+		}
+
+		Collection<IInstallableUnit> getUnits(VersionRange range) {
+			if (hasDuplicates) {
+				Collection<IInstallableUnit> result = new LinkedHashSet<IInstallableUnit>();
+				collect(range, result);
+				return result;
+			}
+
+			int low = getLow(range);
+			int high = getHigh(range);
+			switch (high - low) {
+				case 0 :
+					return CollectionUtils.<IInstallableUnit> emptySet();
+				case 1 :
+					return Collections.singleton(units[low]);
+				default :
+					return Arrays.asList(units).subList(low, high);
+			}
+		}
+
+		private int getLow(VersionRange range) {
+			return range == null ? 0 : firstAbove(range.getMinimum(), range.getIncludeMinimum());
+		}
+
+		private int getHigh(VersionRange range) {
+			return range == null ? units.length : firstAbove(range.getMaximum(), !range.getIncludeMaximum());
+		}
+
+		/**
+		 * Returns the index of the first version that is greater than (or equal to
+		 * when <code>orEqual</code> is <code>true</code>) the given <code>version</code>.
+		 */
+		private int firstAbove(Version version, boolean orEqual) {
+			int low = 0;
+			int high = versions.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				int cmp = versions[mid].compareTo(version);
+				if (cmp < 0 || (cmp == 0 && !orEqual))
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	private static final class ProvidedEntry implements Comparable<ProvidedEntry> {
+		final Version version;
+		final IInstallableUnit unit;
+
+		ProvidedEntry(Version version, IInstallableUnit unit) {
+			this.version = version;
+			this.unit = unit;
+		}
+
+		public int compareTo(ProvidedEntry o) {
+			return version.compareTo(o.version);
+		}
+	}
+
+	/**
+	 * Collects the entries for one capability while the index is built.
+	 */
+	private static final class ProvidedEntries {
+		final ArrayList<ProvidedEntry> entries = new ArrayList<ProvidedEntry>(1);
+		boolean hasDuplicates;
+
+		void add(Version version, IInstallableUnit unit) {
+			// All capabilities of one unit are added in sequence so a unit
+			// that provides the same capability twice is always found last.
+			int top = entries.size();
+			if (top > 0 && entries.get(top - 1).unit == unit)
+				hasDuplicates = true;
+			entries.add(new ProvidedEntry(version, unit));
+		}
+	}
+
+	/**
+	 * Key used when a requirement appoints a capability in a specific namespace. The
+	 * <code>range</code> is <code>null</code> when all versions are accepted.
+	 */
+	private static final class CapabilityKey {
+		final String namespace;
+		final String name;
+		final VersionRange range;
+
+		CapabilityKey(String namespace, String name, VersionRange range) {
+			this.namespace = namespace;
+			this.name = name;
+			this.range = range;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof CapabilityKey))
+				return false;
+			CapabilityKey other = (CapabilityKey) o;
+			return namespace.equals(other.namespace) && name.equals(other.name) && (range == null ? other.range == null : range.equals(other.range));
+		}
+
+		public int hashCode() {
+			int result = namespace.hashCode() * 31 + name.hashCode();
+			return range == null ? result : result * 31 + range.hashCode();
+		}
+	}
+
+	private final Map<String, Map<String, Providers>> capabilityMap;
 
 	public CapabilityIndex(Iterator<IInstallableUnit> itor) {
-		HashMap<String, Object> index = new HashMap<String, Object>(300);
+		HashMap<String, HashMap<String, ProvidedEntries>> entryMap = new HashMap<String, HashMap<String, ProvidedEntries>>();
 		while (itor.hasNext()) {
 			IInstallableUnit iu = itor.next();
 			Collection<IProvidedCapability> pcs = iu.getProvidedCapabilities();
 			for (IProvidedCapability pc : pcs) {
+				String namespace = pc.getNamespace();
+				HashMap<String, ProvidedEntries> nameMap = entryMap.get(namespace);
+				if (nameMap == null) {
+					nameMap = new HashMap<String, ProvidedEntries>(300);
+					entryMap.put(namespace, nameMap);
+				}
 				String name = pc.getName();
-				Object prev = index.put(name, iu);
-				if (prev == null || prev == iu)
-					continue;
-
-				ArrayList<IInstallableUnit> list;
-				if (prev instanceof IInstallableUnit) {
-					list = new ArrayList<IInstallableUnit>();
-					list.add((IInstallableUnit) prev);
-				} else
-					list = (ArrayList<IInstallableUnit>) prev;
-				list.add(iu);
-				index.put(name, list);
+				ProvidedEntries entries = nameMap.get(name);
+				if (entries == null) {
+					entries = new ProvidedEntries();
+					nameMap.put(name, entries);
+				}
+				entries.add(pc.getVersion(), iu);
+			}
+		}
+
+		HashMap<String, Map<String, Providers>> index = new HashMap<String, Map<String, Providers>>(entryMap.size());
+		for (Map.Entry<String, HashMap<String, ProvidedEntries>> nsEntry : entryMap.entrySet()) {
+			HashMap<String, ProvidedEntries> nameMap = nsEntry.getValue();
+			HashMap<String, Providers> providersMap = new HashMap<String, Providers>(nameMap.size());
+			for (Map.Entry<String, ProvidedEntries> nameEntry : nameMap.entrySet()) {
+				ProvidedEntries entries = nameEntry.getValue();
+				providersMap.put(nameEntry.getKey(), new Providers(entries.entries, entries.hasDuplicates));
 			}
+			index.put(nsEntry.getKey(), providersMap);
 		}
 		this.capabilityMap = index;
 	}
 
+	/**
+	 * Adds the capabilities of the given unit to this index.
+	 */
+	public synchronized void addUnit(IInstallableUnit iu) {
+		for (IProvidedCapability pc : iu.getProvidedCapabilities()) {
+			String namespace = pc.getNamespace();
+			Map<String, Providers> nameMap = capabilityMap.get(namespace);
+			if (nameMap == null) {
+				nameMap = new HashMap<String, Providers>();
+				capabilityMap.put(namespace, nameMap);
+			}
+			String name = pc.getName();
+			Providers providers = nameMap.get(name);
+			if (providers == null) {
+				List<ProvidedEntry> entries = new ArrayList<ProvidedEntry>(1);
+				entries.add(new ProvidedEntry(pc.getVersion(), iu));
+				providers = new Providers(entries, false);
+			} else {
+				providers = providers.add(pc.getVersion(), iu);
+			}
+			nameMap.put(name, providers);
+		}
+	}
+
 	private Object getRequirementIDs(IEvaluationContext ctx, IExpression requirement, Object queriedKeys) {
 		switch (requirement.getExpressionType()) {
 			case IExpression.TYPE_AND :
@@ -111,10 +323,10 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		// index usage query
 		//
 		IMatchExpression<IInstallableUnit> rm = ((IRequirement) rhsObj).getMatches();
-		return RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm.getParameters()[0]) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
+		return RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, createKey(rm)) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
 	}
 
-	public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+	public synchronized Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
 		Object queriedKeys = null;
 
 		// booleanExpression must be a collection filter on providedCapabilities
@@ -123,7 +335,11 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		IExpression expr = booleanExpr;
 		int type = booleanExpr.getExpressionType();
 		if (type == 0) {
-			// wrapper
+			// wrapper. If it wraps the expression of a simple requirement, then
+			// we can use the parameters directly.
+			IMatchExpression<IInstallableUnit> me = (IMatchExpression<IInstallableUnit>) booleanExpr;
+			if (variable == ExpressionFactory.THIS && RequiredCapability.isSimpleRequirement(me))
+				return getCandidates(createKey(me)).iterator();
 			expr = ((Unary) booleanExpr).operand;
 			type = expr.getExpressionType();
 		}
@@ -160,7 +376,7 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 				// index usage query
 				//
 				IMatchExpression<IInstallableUnit> rm = ((IRequirement) rhsObj).getMatches();
-				queriedKeys = RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm.getParameters()[0]) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
+				queriedKeys = RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, createKey(rm)) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
 				break;
 
 			default :
@@ -179,26 +395,45 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		} else if (queriedKeys instanceof Collection<?>) {
 			matchingIUs = new HashSet<IInstallableUnit>();
 			for (Object key : (Collection<Object>) queriedKeys)
-				collectMatchingIUs((String) key, matchingIUs);
+				collectMatchingIUs(key, matchingIUs);
+		} else if (queriedKeys instanceof CapabilityKey) {
+			matchingIUs = getCandidates((CapabilityKey) queriedKeys);
 		} else {
-			Object v = capabilityMap.get(queriedKeys);
-			if (v == null)
-				matchingIUs = CollectionUtils.<IInstallableUnit> emptySet();
-			else if (v instanceof IInstallableUnit)
-				matchingIUs = Collections.singleton((IInstallableUnit) v);
-			else
-				matchingIUs = (Collection<IInstallableUnit>) v;
+			matchingIUs = new HashSet<IInstallableUnit>();
+			collectMatchingIUs(queriedKeys, matchingIUs);
 		}
 		return matchingIUs.iterator();
 	}
 
-	private void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
-		Object v = capabilityMap.get(name);
-		if (v == null)
+	private static CapabilityKey createKey(IMatchExpression<IInstallableUnit> requirement) {
+		// A requirement that doesn't have a version parameter will match all
+		// versions and must not be restricted to the empty range.
+		Object[] params = requirement.getParameters();
+		VersionRange range = params.length < 3 ? null : RequiredCapability.extractRange(requirement);
+		return new CapabilityKey((String) params[1], (String) params[0], range);
+	}
+
+	private Collection<IInstallableUnit> getCandidates(CapabilityKey key) {
+		Map<String, Providers> nameMap = capabilityMap.get(key.namespace);
+		Providers providers = nameMap == null ? null : nameMap.get(key.name);
+		return providers == null ? CollectionUtils.<IInstallableUnit> emptySet() : providers.getUnits(key.range);
+	}
+
+	private void collectMatchingIUs(Object key, Collection<IInstallableUnit> collector) {
+		if (key instanceof CapabilityKey) {
+			CapabilityKey capKey = (CapabilityKey) key;
+			Map<String, Providers> nameMap = capabilityMap.get(capKey.namespace);
+			Providers providers = nameMap == null ? null : nameMap.get(capKey.name);
+			if (providers != null)
+				providers.collect(capKey.range, collector);
 			return;
-		if (v instanceof IInstallableUnit)
-			collector.add((IInstallableUnit) v);
-		else
-			collector.addAll((Collection<IInstallableUnit>) v);
+		}
+
+		// Key is a name only so all namespaces must be considered
+		for (Map<String, Providers> nameMap : capabilityMap.values()) {
+			Providers providers = nameMap.get(key);
+			if (providers != null)
+				providers.collect(null, collector);
+		}
 	}
 }
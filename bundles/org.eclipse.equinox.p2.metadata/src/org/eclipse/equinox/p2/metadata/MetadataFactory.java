@@ -34,6 +34,8 @@ public final class MetadataFactory {
 	 */
 	public static class InstallableUnitDescription {
 		InstallableUnit unit;
+		// the properties set so far, given to the unit when it is created
+		private CompactProperties.Builder properties;
 
 		/**
 		 * A property key (value <code>"org.eclipse.equinox.p2.type.patch"</code>) for a 
@@ -221,7 +223,9 @@ public final class MetadataFactory {
 		 * @param value value to be associated with the specified key
 		 */
 		public void setProperty(String key, String value) {
-			unit().setProperty(key, value);
+			if (properties == null)
+				properties = new CompactProperties.Builder(unit().getProperties());
+			properties.put(key, value);
 		}
 
 		/** @deprecated Use setRequirements(requirements) instead */
@@ -288,7 +292,11 @@ public final class MetadataFactory {
 		}
 
 		IInstallableUnit unitCreate() {
-			IInstallableUnit result = unit();
+			InstallableUnit result = unit();
+			if (properties != null) {
+				result.setProperties(properties.build());
+				properties = null;
+			}
 			this.unit = null;
 			return result;
 		}
@@ -51,8 +51,11 @@ public class FeatureManifestParser extends DefaultHandler {
 		if (!createParser)
 			return;
 		try {
-			parserFactory.setNamespaceAware(true);
-			this.parser = parserFactory.newSAXParser();
+			// the factory is shared by the features that are parsed in parallel
+			synchronized (parserFactory) {
+				parserFactory.setNamespaceAware(true);
+				this.parser = parserFactory.newSAXParser();
+			}
 		} catch (ParserConfigurationException e) {
 			System.out.println(e);
 		} catch (SAXException e) {
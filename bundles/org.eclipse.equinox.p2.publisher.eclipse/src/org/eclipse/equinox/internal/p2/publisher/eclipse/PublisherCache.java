@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher.eclipse;
+
+import java.io.*;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactDescriptor;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.io.IUDeserializer;
+import org.eclipse.equinox.p2.metadata.io.IUSerializer;
+import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.pde.internal.publishing.Activator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A cache of what was published for each input location, kept in the {@link #CACHE_FILE}
+ * next to a local metadata repository. An entry records the size, time stamp and content hash
+ * of the input, the IUs that were generated for it and the properties of its artifact descriptor.
+ * When the input is published again with the same size and time stamp, its content is hashed
+ * and the entry is used if the hash is the same, so the manifest is not read and the IUs and
+ * artifact properties are not computed again.
+ * <p>
+ * The cache is used when {@link #PROP_CACHE} is set to <code>true</code>. It is ignored
+ * as a whole when it was written with other artifact options, since the options decide
+ * which artifact properties are computed.
+ * </p>
+ */
+public class PublisherCache {
+	/**
+	 * Whether the publisher keeps a cache of its inputs next to the metadata repository (default: false).
+	 */
+	public static final String PROP_CACHE = "eclipse.p2.publisher.cache"; //$NON-NLS-1$
+
+	public static final String CACHE_FILE = "publisher.cache"; //$NON-NLS-1$
+
+	private static final int FORMAT = 2;
+
+	/**
+	 * What was published for one input location.
+	 */
+	public static class Entry {
+		final long length;
+		final long lastModified;
+		final byte[] hash;
+		final Map<String, String> properties;
+		final Map<String, String> repositoryProperties;
+		final IInstallableUnit[] units;
+
+		Entry(long[] fingerprint, byte[] hash, Map<String, String> properties, Map<String, String> repositoryProperties, IInstallableUnit[] units) {
+			this.length = fingerprint[0];
+			this.lastModified = fingerprint[1];
+			this.hash = hash;
+			this.properties = properties;
+			this.repositoryProperties = repositoryProperties;
+			this.units = units;
+		}
+
+		/**
+		 * Returns the IUs that were generated for the location. The first one is the IU of
+		 * the location itself, the others were generated from its advice.
+		 */
+		public IInstallableUnit[] getInstallableUnits() {
+			return units;
+		}
+
+		/**
+		 * Returns a descriptor for the given artifact of the location, with the properties
+		 * that were computed when it was first published.
+		 */
+		public IArtifactDescriptor createArtifactDescriptor(IPublisherInfo info, IArtifactKey key) {
+			IArtifactRepository repository = info.getArtifactRepository();
+			IArtifactDescriptor result = repository != null ? repository.createArtifactDescriptor(key) : new ArtifactDescriptor(key);
+			if (result instanceof ArtifactDescriptor)
+				((ArtifactDescriptor) result).addProperties(properties);
+			if (result instanceof SimpleArtifactDescriptor)
+				for (Map.Entry<String, String> property : repositoryProperties.entrySet())
+					((SimpleArtifactDescriptor) result).setRepositoryProperty(property.getKey(), property.getValue());
+			return result;
+		}
+	}
+
+	private final File file;
+	private final int artifactOptions;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private PublisherCache(File file, int artifactOptions) {
+		this.file = file;
+		this.artifactOptions = artifactOptions;
+	}
+
+	/**
+	 * Returns the cache of the metadata repository of the given info, or <code>null</code> if
+	 * there is no cache because caching is off or the repository is not local.
+	 */
+	public static PublisherCache open(IPublisherInfo info) {
+		BundleContext context = Activator.getContext();
+		String enabled = context == null ? System.getProperty(PROP_CACHE) : context.getProperty(PROP_CACHE);
+		IMetadataRepository repository = info.getMetadataRepository();
+		if (!Boolean.valueOf(enabled).booleanValue() || repository == null)
+			return null;
+		URI location = repository.getLocation();
+		File folder = location == null ? null : URIUtil.toFile(location);
+		if (folder == null || !folder.isDirectory())
+			return null;
+		PublisherCache cache = new PublisherCache(new File(folder, CACHE_FILE), info.getArtifactOptions());
+		cache.load();
+		return cache;
+	}
+
+	/**
+	 * Returns the size and the time stamp of the given location, without reading it. The size of
+	 * a folder is the total size of its files, and its time stamp is the latest of their time stamps.
+	 */
+	static long[] fingerprint(File location) {
+		long[] result = new long[] {location.length(), location.lastModified()};
+		if (location.isDirectory()) {
+			result[0] = 0;
+			addFingerprint(location, result);
+		}
+		return result;
+	}
+
+	private static void addFingerprint(File folder, long[] result) {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			result[1] = Math.max(result[1], children[i].lastModified());
+			if (children[i].isDirectory())
+				addFingerprint(children[i], result);
+			else
+				result[0] += children[i].length();
+		}
+	}
+
+	/**
+	 * Returns the MD5 hash of the content of the given location, or <code>null</code> if it
+	 * cannot be read. The hash of a folder covers the relative paths and the content of its files.
+	 */
+	static byte[] hash(File location) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			byte[] buffer = new byte[8192];
+			if (location.isDirectory())
+				addHash(location, "", digest, buffer); //$NON-NLS-1$
+			else
+				addHash(location, digest, buffer);
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void addHash(File folder, String path, MessageDigest digest, byte[] buffer) throws IOException {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		// the order of listFiles() is not specified
+		Arrays.sort(children);
+		for (int i = 0; i < children.length; i++) {
+			String childPath = path + '/' + children[i].getName();
+			digest.update(childPath.getBytes("UTF-8")); //$NON-NLS-1$
+			if (children[i].isDirectory()) {
+				addHash(children[i], childPath, digest, buffer);
+			} else {
+				digest.update((byte) 0);
+				addHash(children[i], digest, buffer);
+			}
+		}
+	}
+
+	private static void addHash(File file, MessageDigest digest, byte[] buffer) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = input.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns what was published for the given location, or <code>null</code> if it was not
+	 * published before or has changed since. The content of the location is only hashed when
+	 * its size and time stamp are the ones that were recorded.
+	 */
+	public synchronized Entry get(File location) {
+		Entry entry = entries.get(location.getAbsolutePath());
+		if (entry == null)
+			return null;
+		long[] fingerprint = fingerprint(location);
+		if (fingerprint[0] != entry.length || fingerprint[1] != entry.lastModified || !MessageDigest.isEqual(entry.hash, hash(location))) {
+			entries.remove(location.getAbsolutePath());
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Records what was published for the given location.
+	 */
+	public synchronized void put(File location, IInstallableUnit[] units, IArtifactDescriptor descriptor) {
+		byte[] hash = hash(location);
+		if (hash == null)
+			return;
+		Map<String, String> repositoryProperties = descriptor instanceof SimpleArtifactDescriptor ? ((SimpleArtifactDescriptor) descriptor).getRepositoryProperties() : Collections.<String, String> emptyMap();
+		entries.put(location.getAbsolutePath(), new Entry(fingerprint(location), hash, new HashMap<String, String>(descriptor.getProperties()), new HashMap<String, String>(repositoryProperties), units));
+	}
+
+	private void load() {
+		if (!file.isFile())
+			return;
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+			try {
+				if (input.readInt() != FORMAT || input.readInt() != artifactOptions)
+					return;
+				int count = input.readInt();
+				String[] locations = new String[count];
+				Entry[] loaded = new Entry[count];
+				for (int i = 0; i < count; i++) {
+					locations[i] = input.readUTF();
+					long[] fingerprint = new long[] {input.readLong(), input.readLong()};
+					byte[] hash = new byte[input.readInt()];
+					input.readFully(hash);
+					Map<String, String> properties = readProperties(input);
+					Map<String, String> repositoryProperties = readProperties(input);
+					loaded[i] = new Entry(fingerprint, hash, properties, repositoryProperties, new IInstallableUnit[input.readInt()]);
+				}
+				byte[] units = new byte[input.readInt()];
+				input.readFully(units);
+				Iterator<IInstallableUnit> iterator = new IUDeserializer().read(new ByteArrayInputStream(units)).iterator();
+				for (int i = 0; i < count; i++) {
+					for (int j = 0; j < loaded[i].units.length; j++)
+						loaded[i].units[j] = iterator.next();
+					entries.put(locations[i], loaded[i]);
+				}
+			} finally {
+				input.close();
+			}
+		} catch (Exception e) {
+			// intentionally catch all errors, a broken cache is published again from scratch
+			entries.clear();
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.publisherCache_ignored, file), e));
+		}
+	}
+
+	private static Map<String, String> readProperties(DataInputStream input) throws IOException {
+		int count = input.readInt();
+		Map<String, String> result = new HashMap<String, String>(count);
+		for (int i = 0; i < count; i++)
+			result.put(input.readUTF(), input.readUTF());
+		return result;
+	}
+
+	private static void writeProperties(DataOutputStream output, Map<String, String> properties) throws IOException {
+		output.writeInt(properties.size());
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			output.writeUTF(property.getKey());
+			output.writeUTF(property.getValue());
+		}
+	}
+
+	/**
+	 * Writes the cache, leaving out the locations that no longer exist.
+	 */
+	public synchronized void save() {
+		List<String> locations = new ArrayList<String>(entries.size());
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (new File(entry.getKey()).exists()) {
+				locations.add(entry.getKey());
+				units.addAll(Arrays.asList(entry.getValue().units));
+			}
+		}
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp"); //$NON-NLS-1$
+		try {
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			new IUSerializer(serialized).write(units);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))));
+			try {
+				output.writeInt(FORMAT);
+				output.writeInt(artifactOptions);
+				output.writeInt(locations.size());
+				for (String location : locations) {
+					Entry entry = entries.get(location);
+					output.writeUTF(location);
+					output.writeLong(entry.length);
+					output.writeLong(entry.lastModified);
+					output.writeInt(entry.hash.length);
+					output.write(entry.hash);
+					writeProperties(output, entry.properties);
+					writeProperties(output, entry.repositoryProperties);
+					output.writeInt(entry.units.length);
+				}
+				output.writeInt(serialized.size());
+				serialized.writeTo(output);
+			} finally {
+				output.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to rename " + temp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (IOException e) {
+			temp.delete();
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.publisherCache_notSaved, file), e));
+		}
+	}
+}
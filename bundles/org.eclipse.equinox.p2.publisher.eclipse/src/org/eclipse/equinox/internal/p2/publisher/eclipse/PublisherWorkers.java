@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher.eclipse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.pde.internal.publishing.Activator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Runs the independent steps of a publisher action, such as reading the manifests of a
+ * set of bundles, on up to {@link #PROP_THREADS} threads. Each step is identified by its
+ * index, and writes its outcome to a slot of its own, so that the action can merge the
+ * outcomes in index order, whatever order the steps finish in.
+ * <p>
+ * Publishing is serial unless the property is set to more than one thread, since actions
+ * that extend the publisher actions may not expect to be called from several threads.
+ * </p>
+ */
+public class PublisherWorkers {
+	/**
+	 * The number of threads that publish the bundles and features of an action (default: 1).
+	 */
+	public static final String PROP_THREADS = "eclipse.p2.publisher.threads"; //$NON-NLS-1$
+
+	/**
+	 * One step of the work.
+	 */
+	public interface Step {
+		void run(int index);
+	}
+
+	private PublisherWorkers() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the number of threads to publish with, which is one when publishing is serial.
+	 */
+	public static int getThreadCount() {
+		BundleContext context = Activator.getContext();
+		String threads = context == null ? System.getProperty(PROP_THREADS) : context.getProperty(PROP_THREADS);
+		if (threads != null) {
+			try {
+				return Math.max(1, Integer.parseInt(threads));
+			} catch (Exception e) {
+				// intentionally catch all errors that may occur parsing the value
+				System.err.println("Ignoring user-specified '" + PROP_THREADS + "' value of: " + threads); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Runs the steps with the given indexes, from zero to <code>count - 1</code>. When
+	 * publishing is serial, the steps run in index order in the calling thread. Otherwise
+	 * they run on a bounded pool, and this method returns when all of them are done.
+	 *
+	 * @throws OperationCanceledException if the monitor is canceled before all steps are done
+	 */
+	public static void run(int count, final Step step, final IProgressMonitor monitor) {
+		int threads = Math.min(getThreadCount(), count);
+		if (threads <= 1) {
+			for (int i = 0; i < count; i++) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				step.run(i);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Publisher worker"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(count);
+			for (int i = 0; i < count; i++) {
+				final int index = i;
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						if (monitor.isCanceled())
+							throw new OperationCanceledException();
+						step.run(index);
+					}
+				}));
+			}
+			// report the failure of the lowest index, as the serial loop would
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause.getMessage(), cause);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new OperationCanceledException();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
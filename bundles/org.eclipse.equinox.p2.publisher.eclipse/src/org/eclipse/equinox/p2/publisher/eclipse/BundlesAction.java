@@ -24,6 +24,8 @@ import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.publisher.Messages;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.GeneratorBundleInfo;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherCache;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherWorkers;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
@@ -115,6 +117,7 @@ public class BundlesAction extends AbstractPublisherAction {
 
 	private File[] locations;
 	private BundleDescription[] bundles;
+	private PublisherCache cache;
 
 	public static IArtifactKey createBundleArtifactKey(String bsn, String version) {
 		return new ArtifactKey(OSGI_BUNDLE_CLASSIFIER, bsn, Version.parseVersion(version));
@@ -514,7 +517,8 @@ public class BundlesAction extends AbstractPublisherAction {
 		return (PluginConverter) ServiceHelper.getService(Activator.getContext(), PluginConverter.class.getName());
 	}
 
-	private static Dictionary<String, String> convertPluginManifest(File bundleLocation, boolean logConversionException) {
+	// the converter keeps the state of the conversion in progress, so manifests are converted one at a time
+	private static synchronized Dictionary<String, String> convertPluginManifest(File bundleLocation, boolean logConversionException) {
 		PluginConverter converter;
 		try {
 			converter = acquirePluginConverter();
@@ -665,12 +669,21 @@ public class BundlesAction extends AbstractPublisherAction {
 		setPublisherInfo(publisherInfo);
 
 		try {
-			if (bundles == null)
-				bundles = getBundleDescriptions(expandLocations(locations), monitor);
+			if (bundles == null) {
+				File[] bundleLocations = expandLocations(locations);
+				cache = PublisherCache.open(publisherInfo);
+				if (cache != null)
+					bundleLocations = publishCachedBundles(bundleLocations, publisherInfo, results, monitor);
+				bundles = getBundleDescriptions(bundleLocations, monitor);
+			}
 			generateBundleIUs(bundles, publisherInfo, results, monitor);
 			bundles = null;
+			if (cache != null)
+				cache.save();
 		} catch (OperationCanceledException e) {
 			return Status.CANCEL_STATUS;
+		} finally {
+			cache = null;
 		}
 		return Status.OK_STATUS;
 	}
@@ -709,6 +722,53 @@ public class BundlesAction extends AbstractPublisherAction {
 		}
 	}
 
+	/**
+	 * Publishes the bundles that have not changed since they were recorded in the cache, and
+	 * returns the locations of the other bundles.
+	 */
+	private File[] publishCachedBundles(File[] bundleLocations, IPublisherInfo publisherInfo, IPublisherResult results, IProgressMonitor monitor) {
+		ArrayList<File> changed = new ArrayList<File>(bundleLocations.length);
+		for (int i = 0; i < bundleLocations.length; i++) {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			File location = bundleLocations[i];
+			PublisherCache.Entry entry = isConfigurator(location) ? null : cache.get(location);
+			IInstallableUnit[] units = entry == null ? null : entry.getInstallableUnits();
+			// the IUs are reused only if they would be built the same way again
+			if (units == null || units[0].getArtifacts().isEmpty() || queryForIU(results, units[0].getId(), units[0].getVersion()) != null || hasOtherAdvice(units[0], publisherInfo, false)) {
+				changed.add(location);
+				continue;
+			}
+
+			IArtifactDescriptor ad = entry.createArtifactDescriptor(publisherInfo, units[0].getArtifacts().iterator().next());
+			if (location.isDirectory())
+				publishArtifact(ad, location, location.listFiles(), publisherInfo);
+			else
+				publishArtifact(ad, location, publisherInfo);
+			for (int j = 0; j < units.length; j++)
+				results.addIU(units[j], IPublisherResult.ROOT);
+		}
+		return changed.toArray(new File[changed.size()]);
+	}
+
+	// the configurators are always read, getBundleDescriptions(File[], IProgressMonitor) looks for them
+	private static boolean isConfigurator(File location) {
+		String name = location.toString();
+		return name.indexOf(ORG_ECLIPSE_UPDATE_CONFIGURATOR) > 0 || name.indexOf(ORG_ECLIPSE_EQUINOX_SIMPLECONFIGURATOR) > 0;
+	}
+
+	/**
+	 * Returns whether the given IU is affected by advice other than the advice file of its
+	 * bundle, if the advice files are allowed, or by any advice otherwise.
+	 */
+	private static boolean hasOtherAdvice(IInstallableUnit iu, IPublisherInfo publisherInfo, boolean allowAdviceFiles) {
+		for (IPublisherAdvice advice : publisherInfo.getAdvice(null, false, iu.getId(), iu.getVersion(), IPublisherAdvice.class)) {
+			if (!allowAdviceFiles || !(advice instanceof AdviceFileAdvice))
+				return true;
+		}
+		return !publisherInfo.getAdvice(null, true, iu.getId(), iu.getVersion(), IBundleShapeAdvice.class).isEmpty();
+	}
+
 	private File[] expandLocations(File[] list) {
 		ArrayList<File> result = new ArrayList<File>();
 		expandLocations(list, result);
@@ -740,6 +800,10 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	protected void generateBundleIUs(BundleDescription[] bundleDescriptions, IPublisherInfo info, IPublisherResult result, IProgressMonitor monitor) {
+		if (PublisherWorkers.getThreadCount() > 1) {
+			generateBundleIUsInParallel(bundleDescriptions, info, result, monitor);
+			return;
+		}
 
 		// This assumes that hosts are processed before fragments because for each fragment the host
 		// is queried for the strings that should be translated.
@@ -758,46 +822,127 @@ public class BundlesAction extends AbstractPublisherAction {
 					bundleIU = doCreateBundleIU(bd, key, info);
 				}
 
-				File location = new File(bd.getLocation());
-				IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info, key, location);
-				processArtifactPropertiesAdvice(bundleIU, ad, info);
+				IArtifactDescriptor ad = publishBundleArtifact(bd, key, bundleIU, info);
+				addBundleIU(bd, bundleIU, ad, info, result);
+			}
+		}
+	}
 
-				// Publish according to the shape on disk
-				File bundleLocation = new File(bd.getLocation());
-				if (bundleLocation.isDirectory())
-					publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), info);
-				else
-					publishArtifact(ad, bundleLocation, info);
-
-				IInstallableUnit fragment = null;
-				if (isFragment(bd)) {
-					// TODO: Need a test case for multiple hosts
-					String hostId = bd.getHost().getName();
-					VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
-					IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
-
-					for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
-						IInstallableUnit host = itor.next();
-						String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
-						fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
-						if (fragment == null) {
-							String[] externalizedStrings = getExternalizedStrings(host);
-							fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings);
-						}
-					}
+	/**
+	 * Does the same as the serial loop of {@link #generateBundleIUs(BundleDescription[], IPublisherInfo, IPublisherResult, IProgressMonitor)},
+	 * in phases. The advice files are read in parallel and added to the info in bundle order. Then the
+	 * IUs are created and the artifacts are published in parallel. Last, the IUs and the localization
+	 * fragments are added to the result in bundle order, so that hosts still come before their fragments.
+	 */
+	private void generateBundleIUsInParallel(final BundleDescription[] bundleDescriptions, final IPublisherInfo info, IPublisherResult result, IProgressMonitor monitor) {
+		final int count = bundleDescriptions.length;
+		final IArtifactKey[] keys = new IArtifactKey[count];
+		final IInstallableUnit[] bundleIUs = new IInstallableUnit[count];
+		final IArtifactDescriptor[] ads = new IArtifactDescriptor[count];
+		// only the first bundle of each id and version is published in parallel, the others
+		// find its IU in the result, as they would in the serial loop
+		final boolean[] first = new boolean[count];
+		Set<IArtifactKey> seen = new HashSet<IArtifactKey>();
+		for (int i = 0; i < count; i++) {
+			BundleDescription bd = bundleDescriptions[i];
+			if (bd != null && bd.getSymbolicName() != null && bd.getVersion() != null) {
+				keys[i] = createBundleArtifactKey(bd.getSymbolicName(), bd.getVersion().toString());
+				if (seen.add(keys[i])) {
+					first[i] = true;
+					bundleIUs[i] = queryForIU(result, bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
+				}
+			}
+		}
 
+		final PublisherInfo[] adviceFileAdvice = new PublisherInfo[count];
+		PublisherWorkers.run(count, new PublisherWorkers.Step() {
+			public void run(int index) {
+				if (first[index] && bundleIUs[index] == null) {
+					adviceFileAdvice[index] = new PublisherInfo();
+					createAdviceFileAdvice(bundleDescriptions[index], adviceFileAdvice[index]);
 				}
+			}
+		}, monitor);
+		for (int i = 0; i < count; i++)
+			if (adviceFileAdvice[i] != null)
+				for (IPublisherAdvice advice : adviceFileAdvice[i].getAdvice())
+					info.addAdvice(advice);
+
+		PublisherWorkers.run(count, new PublisherWorkers.Step() {
+			public void run(int index) {
+				if (!first[index])
+					return;
+				BundleDescription bd = bundleDescriptions[index];
+				if (bundleIUs[index] == null)
+					bundleIUs[index] = doCreateBundleIU(bd, keys[index], info);
+				ads[index] = publishBundleArtifact(bd, keys[index], bundleIUs[index], info);
+			}
+		}, monitor);
+
+		for (int i = 0; i < count; i++) {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			BundleDescription bd = bundleDescriptions[i];
+			if (keys[i] == null)
+				continue;
+			if (!first[i]) {
+				IInstallableUnit bundleIU = queryForIU(result, bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
+				IArtifactDescriptor ad = publishBundleArtifact(bd, keys[i], bundleIU, info);
+				addBundleIU(bd, bundleIU, ad, info, result);
+			} else
+				addBundleIU(bd, bundleIUs[i], ads[i], info, result);
+		}
+	}
+
+	private IArtifactDescriptor publishBundleArtifact(BundleDescription bd, IArtifactKey key, IInstallableUnit bundleIU, IPublisherInfo info) {
+		File location = new File(bd.getLocation());
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info, key, location);
+		processArtifactPropertiesAdvice(bundleIU, ad, info);
 
-				result.addIU(bundleIU, IPublisherResult.ROOT);
-				if (fragment != null)
-					result.addIU(fragment, IPublisherResult.NON_ROOT);
+		// Publish according to the shape on disk
+		File bundleLocation = new File(bd.getLocation());
+		if (bundleLocation.isDirectory())
+			publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), info);
+		else
+			publishArtifact(ad, bundleLocation, info);
+		return ad;
+	}
 
-				InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, info);
-				for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
-					result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
+	private void addBundleIU(BundleDescription bd, IInstallableUnit bundleIU, IArtifactDescriptor ad, IPublisherInfo info, IPublisherResult result) {
+		IInstallableUnit fragment = null;
+		if (isFragment(bd)) {
+			// TODO: Need a test case for multiple hosts
+			String hostId = bd.getHost().getName();
+			VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
+			IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
+
+			for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
+				IInstallableUnit host = itor.next();
+				String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
+				fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
+				if (fragment == null) {
+					String[] externalizedStrings = getExternalizedStrings(host);
+					fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings);
 				}
 			}
+
+		}
+
+		result.addIU(bundleIU, IPublisherResult.ROOT);
+		if (fragment != null)
+			result.addIU(fragment, IPublisherResult.NON_ROOT);
+
+		InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, info);
+		IInstallableUnit[] units = new IInstallableUnit[others == null ? 1 : others.length + 1];
+		units[0] = bundleIU;
+		for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
+			units[iuIndex + 1] = MetadataFactory.createInstallableUnit(others[iuIndex]);
+			result.addIU(units[iuIndex + 1], IPublisherResult.ROOT);
 		}
+
+		// fragments are published again each time, their localization comes from their hosts
+		if (cache != null && !isFragment(bd) && !hasOtherAdvice(bundleIU, info, true))
+			cache.put(new File(bd.getLocation()), units, ad);
 	}
 
 	/**
@@ -852,11 +997,13 @@ public class BundlesAction extends AbstractPublisherAction {
 		if (scIn)
 			addSimpleConfigurator = false;
 		BundleDescription[] result = new BundleDescription[bundleLocations.length + (addSimpleConfigurator ? 1 : 0)];
-		for (int i = 0; i < bundleLocations.length; i++) {
-			if (monitor.isCanceled())
-				throw new OperationCanceledException();
-			result[i] = createBundleDescription(bundleLocations[i]);
-		}
+		final File[] locations = bundleLocations;
+		final BundleDescription[] descriptions = result;
+		PublisherWorkers.run(bundleLocations.length, new PublisherWorkers.Step() {
+			public void run(int index) {
+				descriptions[index] = createBundleDescription(locations[index]);
+			}
+		}, monitor);
 		if (addSimpleConfigurator) {
 			// Add simple configurator to the list of bundles
 			try {
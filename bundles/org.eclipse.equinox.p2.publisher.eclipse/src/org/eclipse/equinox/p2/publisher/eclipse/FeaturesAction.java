@@ -23,6 +23,7 @@ import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.publisher.FileSetDescriptor;
 import org.eclipse.equinox.internal.p2.publisher.Messages;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.FeatureParser;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherWorkers;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitPatchDescription;
@@ -399,6 +400,9 @@ public class FeaturesAction extends AbstractPublisherAction {
 	}
 
 	protected void generateFeatureIUs(Feature[] featureList, IPublisherResult result) {
+		// when publishing in parallel, the feature artifacts are published once all the IUs are built
+		Map<IInstallableUnit, Feature> featureArtifacts = PublisherWorkers.getThreadCount() > 1 ? new LinkedHashMap<IInstallableUnit, Feature>() : null;
+
 		// Build Feature IUs, and add them to any corresponding categories
 		for (int i = 0; i < featureList.length; i++) {
 			Feature feature = featureList[i];
@@ -413,7 +417,10 @@ public class FeaturesAction extends AbstractPublisherAction {
 				featureJarIU = generateFeatureJarIU(feature, info);
 
 			if (featureJarIU != null) {
-				publishFeatureArtifacts(feature, featureJarIU, info);
+				if (featureArtifacts == null)
+					publishFeatureArtifacts(feature, featureJarIU, info);
+				else if (!featureArtifacts.containsKey(featureJarIU))
+					featureArtifacts.put(featureJarIU, feature);
 				result.addIU(featureJarIU, IPublisherResult.NON_ROOT);
 				childIUs.add(featureJarIU);
 			}
@@ -432,6 +439,16 @@ public class FeaturesAction extends AbstractPublisherAction {
 			}
 			generateSiteReferences(feature, result, info);
 		}
+
+		if (featureArtifacts != null) {
+			final IInstallableUnit[] featureJarIUs = featureArtifacts.keySet().toArray(new IInstallableUnit[featureArtifacts.size()]);
+			final Feature[] featuresToPublish = featureArtifacts.values().toArray(new Feature[featureArtifacts.size()]);
+			PublisherWorkers.run(featureJarIUs.length, new PublisherWorkers.Step() {
+				public void run(int index) {
+					publishFeatureArtifacts(featuresToPublish[index], featureJarIUs[index], info);
+				}
+			}, new NullProgressMonitor());
+		}
 	}
 
 	protected IInstallableUnit generateFeatureJarIU(Feature feature, IPublisherInfo publisherInfo) {
@@ -512,14 +529,20 @@ public class FeaturesAction extends AbstractPublisherAction {
 			publisherInfo.getMetadataRepository().addReferences(collector);
 	}
 
-	protected Feature[] getFeatures(File[] featureLocations) {
-		ArrayList<Feature> result = new ArrayList<Feature>(featureLocations.length);
-		for (int i = 0; i < featureLocations.length; i++) {
-			Feature feature = new FeatureParser().parse(featureLocations[i]);
-			if (feature != null) {
-				feature.setLocation(featureLocations[i].getAbsolutePath());
-				result.add(feature);
+	protected Feature[] getFeatures(final File[] featureLocations) {
+		final Feature[] parsed = new Feature[featureLocations.length];
+		PublisherWorkers.run(featureLocations.length, new PublisherWorkers.Step() {
+			public void run(int index) {
+				Feature feature = new FeatureParser().parse(featureLocations[index]);
+				if (feature != null)
+					feature.setLocation(featureLocations[index].getAbsolutePath());
+				parsed[index] = feature;
 			}
+		}, new NullProgressMonitor());
+		ArrayList<Feature> result = new ArrayList<Feature>(featureLocations.length);
+		for (int i = 0; i < parsed.length; i++) {
+			if (parsed[i] != null)
+				result.add(parsed[i]);
 		}
 		return result.toArray(new Feature[result.size()]);
 	}
@@ -27,12 +27,17 @@ public class PublisherResult extends IndexProvider<IInstallableUnit> implements
 	final IUMap nonRootIUs = new IUMap();
 
 	private IIndex<IInstallableUnit> idIndex;
+	private CapabilityIndex capabilityIndex;
 
-	public void addIU(IInstallableUnit iu, String type) {
-		if (type == ROOT)
-			rootIUs.add(iu);
-		if (type == NON_ROOT)
-			nonRootIUs.add(iu);
+	public synchronized void addIU(IInstallableUnit iu, String type) {
+		IUMap map = type == ROOT ? rootIUs : type == NON_ROOT ? nonRootIUs : null;
+		// An IU that is already in the map is not added again
+		if (map == null || map.get(iu.getId(), iu.getVersion()) != null)
+			return;
+		map.add(iu);
+		// The capability index is kept up to date once it has been built
+		if (capabilityIndex != null)
+			capabilityIndex.addUnit(iu);
 	}
 
 	public void addIUs(Collection<IInstallableUnit> ius, String type) {
@@ -111,6 +116,11 @@ public class PublisherResult extends IndexProvider<IInstallableUnit> implements
 			}
 			return idIndex;
 		}
+		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
+			if (capabilityIndex == null)
+				capabilityIndex = new CapabilityIndex(everything());
+			return capabilityIndex;
+		}
 		return null;
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -19,12 +19,14 @@ import java.util.zip.ZipFile;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.FeatureParser;
 import org.eclipse.equinox.p2.internal.repository.comparator.java.*;
+import org.eclipse.equinox.p2.internal.repository.tools.Activator;
 import org.eclipse.equinox.p2.publisher.eclipse.Feature;
 import org.eclipse.equinox.p2.publisher.eclipse.FeatureEntry;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.tools.comparator.IArtifactComparator;
 import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
 
 public class JarComparator implements IArtifactComparator {
 
@@ -89,6 +91,91 @@ public class JarComparator implements IArtifactComparator {
 	private static final String RSA_EXT = ".rsa"; //$NON-NLS-1$
 	private static final String SF_EXT = ".sf"; //$NON-NLS-1$
 
+	/**
+	 * The number of threads that compare the entries of a jar (default: the number of processors, at most 4).
+	 */
+	public static final String PROP_THREADS = "eclipse.p2.comparator.threads"; //$NON-NLS-1$
+	private static final int MAX_THREADS = 4;
+	private static final int BUFFER_SIZE = 8192;
+
+	/*
+	 * Compares the entries of two jars on several threads. Each thread takes the next entry
+	 * that was not compared yet, until all entries are compared or a difference is found in
+	 * an entry before it. The result is the difference of the first entry, as it would be
+	 * when comparing the entries in order.
+	 */
+	private class EntryComparison implements Runnable {
+		private final ZipFile firstFile;
+		private final ZipFile secondFile;
+		private final List<ZipEntry> entries;
+		private final int threads;
+		private final Object[] results;
+		private int next = 0;
+		private int firstDifference;
+
+		EntryComparison(ZipFile firstFile, ZipFile secondFile, List<ZipEntry> entries, int threads) {
+			this.firstFile = firstFile;
+			this.secondFile = secondFile;
+			this.entries = entries;
+			this.threads = Math.min(threads, entries.size());
+			this.results = new Object[entries.size()];
+			this.firstDifference = entries.size();
+		}
+
+		IStatus compare() throws IOException {
+			Thread[] workers = new Thread[threads - 1];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new Thread(this, "Jar comparator"); //$NON-NLS-1$
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+			// the calling thread does its share of the work
+			run();
+			try {
+				for (int i = 0; i < workers.length; i++)
+					workers[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			for (int i = 0; i < results.length; i++) {
+				Object result = results[i];
+				if (result instanceof IOException)
+					throw (IOException) result;
+				if (result instanceof RuntimeException)
+					throw (RuntimeException) result;
+				if (result instanceof Error)
+					throw (Error) result;
+				if (result != null && !((IStatus) result).isOK())
+					return (IStatus) result;
+			}
+			return null;
+		}
+
+		public void run() {
+			while (true) {
+				int index;
+				synchronized (this) {
+					if (next >= firstDifference)
+						return;
+					index = next++;
+				}
+				Object result;
+				try {
+					result = compareEntry(firstFile, entries.get(index), secondFile);
+				} catch (Throwable e) {
+					// reported in order by the calling thread
+					result = e;
+				}
+				synchronized (this) {
+					results[index] = result;
+					if (result != null && (!(result instanceof IStatus) || !((IStatus) result).isOK()))
+						firstDifference = Math.min(firstDifference, index);
+				}
+			}
+		}
+	}
+
 	private String sourceLocation, destinationLocation, descriptorString;
 
 	public IStatus compare(IArtifactRepository source, IArtifactDescriptor sourceDescriptor, IArtifactRepository destination, IArtifactDescriptor destinationDescriptor) {
@@ -165,6 +252,10 @@ public class JarComparator implements IArtifactComparator {
 	}
 
 	public IStatus compare(File sourceFile, File destinationFile) {
+		return compare(sourceFile, destinationFile, getThreadCount());
+	}
+
+	private IStatus compare(File sourceFile, File destinationFile, int threads) {
 		ZipFile firstFile = null;
 		ZipFile secondFile = null;
 		try {
@@ -178,51 +269,16 @@ public class JarComparator implements IArtifactComparator {
 				parent.add(newErrorStatus(NLS.bind(Messages.differentNumberOfEntries, new String[] {descriptorString, sourceLocation, Integer.toString(firstFileSize), destinationLocation, Integer.toString(secondFileSize)})));
 				return parent;
 			}
+			List<ZipEntry> entries = new ArrayList<ZipEntry>(firstFileSize);
 			for (Enumeration<? extends ZipEntry> enumeration = firstFile.entries(); enumeration.hasMoreElements();) {
 				ZipEntry entry = enumeration.nextElement();
-				String entryName = entry.getName();
-				final ZipEntry entry2 = secondFile.getEntry(entryName);
-				IStatus result = null;
-				if (!entry.isDirectory() && entry2 != null) {
-					String lowerCase = entryName.toLowerCase();
-					if (isSigningEntry(lowerCase)) {
-						continue;
-					}
-
-					InputStream firstStream = null;
-					InputStream secondStream = null;
-					try {
-						firstStream = new BufferedInputStream(firstFile.getInputStream(entry));
-						secondStream = new BufferedInputStream(secondFile.getInputStream(entry2));
-						if (lowerCase.endsWith(CLASS_EXTENSION)) {
-							result = compareClasses(entryName, firstStream, entry.getSize(), secondStream, entry2.getSize());
-						} else if (lowerCase.endsWith(JAR_EXTENSION)) {
-							result = compareNestedJars(firstStream, entry.getSize(), secondStream, entry2.getSize(), entryName);
-						} else if (lowerCase.endsWith(PROPERTIES_EXTENSION) || lowerCase.endsWith(MAPPINGS_EXTENSION)) {
-							result = compareProperties(entryName, firstStream, secondStream);
-						} else if (entryName.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
-							result = compareManifest(firstStream, secondStream); //MANIFEST.MF file
-						} else {
-							long size1 = entry.getSize();
-							long size2 = entry2.getSize();
-							if (size1 != size2)
-								result = newErrorStatus(NLS.bind(Messages.binaryDifferentLength, new String[] {entryName, String.valueOf(Math.abs(size1 - size2))}));
-							else
-								result = compareBytes(entryName, firstStream, entry.getSize(), secondStream, entry2.getSize());
-						}
-					} finally {
-						Utility.close(firstStream);
-						Utility.close(secondStream);
-					}
-				} else if (!entry.isDirectory()) {
-					// missing entry, entry2 == null
-					result = newErrorStatus(NLS.bind(Messages.missingEntry, new String[] {entryName, descriptorString, sourceLocation}));
-				}
-
-				if (result != null && !result.isOK()) {
-					parent.add(result);
-					return parent;
-				}
+				if (!entry.isDirectory())
+					entries.add(entry);
+			}
+			IStatus result = threads > 1 && entries.size() > 1 ? new EntryComparison(firstFile, secondFile, entries, threads).compare() : compareEntries(firstFile, secondFile, entries);
+			if (result != null && !result.isOK()) {
+				parent.add(result);
+				return parent;
 			}
 		} catch (IOException e) {
 			// missing entry
@@ -234,6 +290,73 @@ public class JarComparator implements IArtifactComparator {
 		return Status.OK_STATUS;
 	}
 
+	/*
+	 * Compares the given entries in order, and returns the first difference, or null if there is none.
+	 */
+	private IStatus compareEntries(ZipFile firstFile, ZipFile secondFile, List<ZipEntry> entries) throws IOException {
+		for (ZipEntry entry : entries) {
+			IStatus result = compareEntry(firstFile, entry, secondFile);
+			if (result != null && !result.isOK())
+				return result;
+		}
+		return null;
+	}
+
+	/*
+	 * Compares one file entry of the first jar with the entry of the same name in the second jar.
+	 * The entries are read at most once, and only as far as needed to find a difference.
+	 */
+	private IStatus compareEntry(ZipFile firstFile, ZipEntry entry, ZipFile secondFile) throws IOException {
+		String entryName = entry.getName();
+		final ZipEntry entry2 = secondFile.getEntry(entryName);
+		if (entry2 == null)
+			return newErrorStatus(NLS.bind(Messages.missingEntry, new String[] {entryName, descriptorString, sourceLocation}));
+		String lowerCase = entryName.toLowerCase();
+		if (isSigningEntry(lowerCase))
+			return null;
+
+		InputStream firstStream = null;
+		InputStream secondStream = null;
+		try {
+			// class files, nested jars and binary files are read in blocks of their own, so they are not buffered
+			firstStream = firstFile.getInputStream(entry);
+			secondStream = secondFile.getInputStream(entry2);
+			if (lowerCase.endsWith(CLASS_EXTENSION))
+				return compareClasses(entryName, firstStream, entry.getSize(), secondStream, entry2.getSize());
+			if (lowerCase.endsWith(JAR_EXTENSION))
+				return compareNestedJars(firstStream, secondStream, entryName);
+			if (lowerCase.endsWith(PROPERTIES_EXTENSION) || lowerCase.endsWith(MAPPINGS_EXTENSION))
+				return compareProperties(entryName, new BufferedInputStream(firstStream), new BufferedInputStream(secondStream));
+			if (entryName.equalsIgnoreCase(JarFile.MANIFEST_NAME))
+				return compareManifest(new BufferedInputStream(firstStream), new BufferedInputStream(secondStream)); //MANIFEST.MF file
+			long size1 = entry.getSize();
+			long size2 = entry2.getSize();
+			if (size1 != size2)
+				return newErrorStatus(NLS.bind(Messages.binaryDifferentLength, new String[] {entryName, String.valueOf(Math.abs(size1 - size2))}));
+			return compareBytes(entryName, firstStream, secondStream);
+		} finally {
+			Utility.close(firstStream);
+			Utility.close(secondStream);
+		}
+	}
+
+	/*
+	 * Returns the number of threads that compare the entries of a jar.
+	 */
+	private static int getThreadCount() {
+		BundleContext context = Activator.getBundleContext();
+		String threads = context == null ? System.getProperty(PROP_THREADS) : context.getProperty(PROP_THREADS);
+		if (threads != null) {
+			try {
+				return Math.max(1, Integer.parseInt(threads));
+			} catch (Exception e) {
+				// intentionally catch all errors that may occur parsing the value
+				System.err.println("Ignoring user-specified '" + PROP_THREADS + "' value of: " + threads); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
 	private IStatus compareManifest(InputStream firstStream, InputStream secondStream) throws IOException {
 		Manifest manifest = new Manifest(firstStream);
 		Manifest manifest2 = new Manifest(secondStream);
@@ -258,36 +381,43 @@ public class JarComparator implements IArtifactComparator {
 	}
 
 	private IStatus compareClasses(String entryName, InputStream stream1, long size1, InputStream stream2, long size2) throws IOException {
-		Disassembler disassembler = new Disassembler();
 		byte[] firstEntryClassFileBytes = Utility.getInputStreamAsByteArray(stream1, (int) size1);
 		byte[] secondEntryClassFileBytes = Utility.getInputStreamAsByteArray(stream2, (int) size2);
+		// identical class files need neither be parsed nor disassembled
+		if (Arrays.equals(firstEntryClassFileBytes, secondEntryClassFileBytes))
+			return Status.OK_STATUS;
+
+		ClassFileReader reader1 = readClassFile(firstEntryClassFileBytes);
+		ClassFileReader reader2 = readClassFile(secondEntryClassFileBytes);
+		if (reader1 == null || reader2 == null) {
+			// one of the two .class file (or both) is corrupted
+			if (reader1 == null && reader2 == null) {
+				// both .class files are corrupted and their bytes differ, in case the .class file is corrupted on purpose
+				return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
+			}
+			return newErrorStatus(NLS.bind(Messages.classesDifferent, entryName));
+		}
+		// class files with different shapes have different disassemblies
+		if (structuralHash(reader1) != structuralHash(reader2))
+			return newErrorStatus(NLS.bind(Messages.classesDifferent, entryName));
 
+		Disassembler disassembler = new Disassembler();
 		String contentsFile1 = null;
 		try {
-			contentsFile1 = disassembler.disassemble(firstEntryClassFileBytes, LINE_SEPARATOR, Disassembler.DETAILED | Disassembler.COMPACT);
+			contentsFile1 = disassembler.disassemble(reader1, LINE_SEPARATOR, Disassembler.DETAILED | Disassembler.COMPACT);
 		} catch (ClassFormatException e) {
 			// ignore
 		}
 		String contentsFile2 = null;
 		try {
-			contentsFile2 = disassembler.disassemble(secondEntryClassFileBytes, LINE_SEPARATOR, Disassembler.DETAILED | Disassembler.COMPACT);
+			contentsFile2 = disassembler.disassemble(reader2, LINE_SEPARATOR, Disassembler.DETAILED | Disassembler.COMPACT);
 		} catch (ClassFormatException e) {
 			// ignore
 		}
 		if (contentsFile1 == null || contentsFile2 == null) {
 			// one of the two .class file (or both) is corrupted
-			if (contentsFile1 == null) {
-				if (contentsFile2 != null) {
-					// first .class file is corrupted and not the second one
-					return newErrorStatus(NLS.bind(Messages.classesDifferent, entryName));
-				}
-				// both .class files are corrupted and we need to do a byte comparison in case the .class file is corrupted on purpose
-				if (!Arrays.equals(firstEntryClassFileBytes, secondEntryClassFileBytes)) {
-					return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
-				}
-				return Status.OK_STATUS;
-			}
-			// first .class file is not corrupted but the second one is
+			if (contentsFile1 == null && contentsFile2 == null)
+				return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
 			return newErrorStatus(NLS.bind(Messages.classesDifferent, entryName));
 		}
 		if (!contentsFile1.equals(contentsFile2)) {
@@ -296,12 +426,73 @@ public class JarComparator implements IArtifactComparator {
 		return Status.OK_STATUS;
 	}
 
-	private IStatus compareNestedJars(InputStream stream1, long size1, InputStream stream2, long size2, String entry) throws IOException {
-		File firstTempFile = getLocalJarFile(stream1, entry, size1);
-		File secondTempFile = getLocalJarFile(stream2, entry, size2);
+	private ClassFileReader readClassFile(byte[] classFileBytes) {
+		try {
+			return new ClassFileReader(classFileBytes, ClassFileReader.ALL);
+		} catch (ClassFormatException e) {
+			return null;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Returns a hash of the parts of a class file that its disassembly shows: its version, its
+	 * name, the simple names of its super types, and the names and descriptors of its members.
+	 * The compact disassembly only shows the simple names of the super types, so a super type
+	 * that moved to another package does not change the hash. The hash does not depend on the
+	 * layout of the constant pool or on the order of the members, since the disassembly does
+	 * not either, so class files with different hashes are different, while class files with
+	 * the same hash still have to be disassembled to tell.
+	 */
+	private long structuralHash(ClassFileReader reader) {
+		long hash = reader.getMajorVersion() * 31 + reader.getMinorVersion();
+		hash = hash(hash, reader.getClassName());
+		int accessFlags = reader.getAccessFlags();
+		if ((accessFlags & IModifierConstants.ACC_ENUM) == 0)
+			hash = hashSimpleName(hash, reader.getSuperclassName());
+		if ((accessFlags & IModifierConstants.ACC_ANNOTATION) == 0) {
+			char[][] interfaceNames = reader.getInterfaceNames();
+			for (int i = 0; i < interfaceNames.length; i++)
+				hash = hashSimpleName(hash, interfaceNames[i]);
+		}
+		// members are summed up, as they are sorted before they are disassembled
+		long members = 0;
+		FieldInfo[] fields = reader.getFieldInfos();
+		for (int i = 0; i < fields.length; i++)
+			members += hash(hash(1, fields[i].getName()), fields[i].getDescriptor());
+		MethodInfo[] methods = reader.getMethodInfos();
+		for (int i = 0; i < methods.length; i++)
+			members += hash(hash(2, methods[i].getName()), methods[i].getDescriptor());
+		return hash * 31 + members;
+	}
+
+	// the disassembler may already have replaced the slashes of the name by dots
+	private static long hashSimpleName(long hash, char[] name) {
+		if (name == null)
+			return hash * 31;
+		int start = Math.max(CharOperation.lastIndexOf('/', name), CharOperation.lastIndexOf('.', name)) + 1;
+		for (int i = start; i < name.length; i++)
+			hash = hash * 31 + name[i];
+		return hash * 31 + name.length - start;
+	}
+
+	private static long hash(long hash, char[] chars) {
+		if (chars == null)
+			return hash * 31;
+		for (int i = 0; i < chars.length; i++)
+			hash = hash * 31 + chars[i];
+		return hash * 31 + chars.length;
+	}
 
+	private IStatus compareNestedJars(InputStream stream1, InputStream stream2, String entry) throws IOException {
+		File firstTempFile = null;
+		File secondTempFile = null;
 		try {
-			return compare(firstTempFile, secondTempFile);
+			firstTempFile = getLocalJarFile(stream1, entry);
+			secondTempFile = getLocalJarFile(stream2, entry);
+			// nested jars are compared by the thread that compares their entry
+			return compare(firstTempFile, secondTempFile, 1);
 		} finally {
 			if (firstTempFile != null)
 				firstTempFile.delete();
@@ -362,14 +553,36 @@ public class JarComparator implements IArtifactComparator {
 		return new String[] {s1, s2};
 	}
 
-	private IStatus compareBytes(String entryName, InputStream firstStream, long size1, InputStream secondStream, long size2) throws IOException {
-		byte[] firstBytes = Utility.getInputStreamAsByteArray(firstStream, (int) size1);
-		byte[] secondBytes = Utility.getInputStreamAsByteArray(secondStream, (int) size2);
-		if (!Arrays.equals(firstBytes, secondBytes))
-			return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
+	private IStatus compareBytes(String entryName, InputStream firstStream, InputStream secondStream) throws IOException {
+		byte[] firstBytes = new byte[BUFFER_SIZE];
+		byte[] secondBytes = new byte[BUFFER_SIZE];
+		int read;
+		do {
+			read = read(firstStream, firstBytes);
+			if (read != read(secondStream, secondBytes))
+				return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
+			for (int i = 0; i < read; i++)
+				if (firstBytes[i] != secondBytes[i])
+					return newErrorStatus(NLS.bind(Messages.binaryFilesDifferent, entryName));
+		} while (read == BUFFER_SIZE);
 		return Status.OK_STATUS;
 	}
 
+	/*
+	 * Fills the buffer from the stream, and returns how many bytes were read. Less than
+	 * the size of the buffer is read only at the end of the stream.
+	 */
+	private static int read(InputStream stream, byte[] buffer) throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			int read = stream.read(buffer, length, buffer.length - length);
+			if (read == -1)
+				break;
+			length += read;
+		}
+		return length;
+	}
+
 	private Properties loadProperties(InputStream input) {
 		Properties result = new Properties();
 		try {
@@ -422,15 +635,16 @@ public class JarComparator implements IArtifactComparator {
 		return file;
 	}
 
-	private File getLocalJarFile(InputStream inputStream, String entry, long size) throws IOException {
-		byte[] firstEntryClassFileBytes = Utility.getInputStreamAsByteArray(inputStream, (int) size);
-
+	private File getLocalJarFile(InputStream inputStream, String entry) throws IOException {
 		File tempFile = null;
 		BufferedOutputStream stream = null;
 		try {
 			tempFile = File.createTempFile(SOURCE_ARTIFACT_PREFIX + normalize(entry), SUFFIX_JAR);
 			stream = new BufferedOutputStream(new FileOutputStream(tempFile));
-			stream.write(firstEntryClassFileBytes);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1)
+				stream.write(buffer, 0, read);
 			stream.flush();
 		} finally {
 			Utility.close(stream);
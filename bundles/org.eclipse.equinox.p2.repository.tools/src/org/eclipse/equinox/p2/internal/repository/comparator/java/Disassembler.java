@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -236,7 +236,21 @@ public class Disassembler {
 	 */
 	public String disassemble(byte[] classFileBytes, String lineSeparator, int mode) throws ClassFormatException {
 		try {
-			return disassemble(new ClassFileReader(classFileBytes, ClassFileReader.ALL), lineSeparator, mode);
+			return disassembleClass(new ClassFileReader(classFileBytes, ClassFileReader.ALL), lineSeparator, mode);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ClassFormatException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Answers back the disassembled string of a class file that was already read with
+	 * {@link ClassFileReader#ALL}, so that callers that inspect the reader first do not
+	 * have to read the bytes again. Note that the names held by the reader are changed
+	 * while it is disassembled.
+	 */
+	public String disassemble(ClassFileReader classFileReader, String lineSeparator, int mode) throws ClassFormatException {
+		try {
+			return disassembleClass(classFileReader, lineSeparator, mode);
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new ClassFormatException(e.getMessage(), e);
 		}
@@ -497,7 +511,7 @@ public class Disassembler {
 	 *
 	 * @return the disassembled string of the ClassFileReader according to the mode
 	 */
-	private String disassemble(ClassFileReader classFileReader, String lineSeparator, int mode) {
+	private String disassembleClass(ClassFileReader classFileReader, String lineSeparator, int mode) {
 		if (classFileReader == null)
 			return Utility.EMPTY_STRING;
 		char[] className = classFileReader.getClassName();
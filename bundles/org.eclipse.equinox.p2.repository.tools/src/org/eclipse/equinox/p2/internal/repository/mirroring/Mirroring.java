@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ package org.eclipse.equinox.p2.internal.repository.mirroring;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.artifact.repository.RawMirrorRequest;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.repository.Transport;
@@ -46,6 +47,7 @@ public class Mirroring {
 	private List<IArtifactKey> keysToMirror;
 	private IArtifactMirrorLog comparatorLog;
 	private Transport transport;
+	private int concurrency = 1;
 
 	private IArtifactComparator getComparator() {
 		if (comparator == null)
@@ -79,6 +81,13 @@ public class Mirroring {
 		this.validate = validate;
 	}
 
+	/**
+	 * Sets the number of artifacts that are mirrored at the same time. The default is 1.
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+	}
+
 	public MultiStatus run(boolean failOnError, boolean verbose) {
 		if (!destination.isModifiable())
 			throw new IllegalStateException(NLS.bind(Messages.exception_destinationNotModifiable, destination.getLocation()));
@@ -98,17 +107,20 @@ public class Mirroring {
 			compareExclusions = exclusions.toUnmodifiableSet();
 		}
 
-		while (keys.hasNext()) {
-			IArtifactKey key = keys.next();
-			IArtifactDescriptor[] descriptors = source.getArtifactDescriptors(key);
-			for (int j = 0; j < descriptors.length; j++) {
-				IStatus result = mirror(descriptors[j], verbose);
-				//Only log INFO and WARNING if we want verbose logging. Always log ERRORs
-				if (!result.isOK() && (verbose || result.getSeverity() == IStatus.ERROR))
-					multiStatus.add(result);
-				//stop mirroring as soon as we have an error
-				if (failOnError && multiStatus.getSeverity() == IStatus.ERROR)
-					return multiStatus;
+		if (concurrency > 1) {
+			if (!mirrorConcurrently(keys, multiStatus, failOnError, verbose))
+				return multiStatus;
+		} else {
+			while (keys.hasNext()) {
+				IArtifactKey key = keys.next();
+				IArtifactDescriptor[] descriptors = source.getArtifactDescriptors(key);
+				for (int j = 0; j < descriptors.length; j++) {
+					if (verbose)
+						printMirroring(descriptors[j]);
+					IStatus result = mirror(descriptors[j], comparator, null);
+					if (!commit(result, multiStatus, failOnError, verbose))
+						return multiStatus;
+				}
 			}
 		}
 		if (validate) {
@@ -120,26 +132,79 @@ public class Mirroring {
 		return multiStatus;
 	}
 
-	private IStatus mirror(IArtifactDescriptor sourceDescriptor, boolean verbose) {
+	/*
+	 * Adds the result of mirroring one descriptor to the overall status. Returns false if mirroring must stop.
+	 */
+	private boolean commit(IStatus result, MultiStatus multiStatus, boolean failOnError, boolean verbose) {
+		//Only log INFO and WARNING if we want verbose logging. Always log ERRORs
+		if (!result.isOK() && (verbose || result.getSeverity() == IStatus.ERROR))
+			multiStatus.add(result);
+		//stop mirroring as soon as we have an error
+		return !(failOnError && multiStatus.getSeverity() == IStatus.ERROR);
+	}
+
+	private void printMirroring(IArtifactDescriptor sourceDescriptor) {
+		System.out.println("Mirroring: " + sourceDescriptor.getArtifactKey() + " (Descriptor: " + sourceDescriptor + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/*
+	 * Mirrors the descriptors of the given keys with several jobs. The descriptors are listed first, then
+	 * fetched and compared by the jobs, and their results are committed in the order of the descriptors
+	 * by the calling thread. This keeps the output, the comparator log and the returned status the same
+	 * as when mirroring one descriptor at a time. Returns false if mirroring stopped because of an error.
+	 */
+	private boolean mirrorConcurrently(Iterator<IArtifactKey> keys, MultiStatus multiStatus, boolean failOnError, boolean verbose) {
+		List<IArtifactDescriptor> descriptors = new ArrayList<IArtifactDescriptor>();
+		while (keys.hasNext())
+			descriptors.addAll(Arrays.asList(source.getArtifactDescriptors(keys.next())));
+		MirrorScheduler scheduler = new MirrorScheduler(descriptors, concurrency * 4);
+		int numberOfJobs = Math.min(descriptors.size(), concurrency);
+		for (int i = 0; i < numberOfJobs; i++)
+			new MirrorJob(scheduler).schedule();
+		try {
+			for (int i = 0; i < descriptors.size(); i++) {
+				MirrorResult result = scheduler.take(i);
+				if (verbose)
+					printMirroring(descriptors.get(i));
+				result.flushComparatorLog();
+				if (result.exception != null)
+					throw result.exception;
+				if (!commit(result.status, multiStatus, failOnError, verbose))
+					return false;
+			}
+			return true;
+		} finally {
+			scheduler.stop();
+			// wait for the jobs to complete so that nothing is written to the destination after we return
+			try {
+				Job.getJobManager().join(scheduler, null);
+			} catch (InterruptedException e) {
+				//ignore
+			}
+		}
+	}
+
+	/*
+	 * Mirrors a descriptor. Comparisons are made with the given comparator, their results are logged to the
+	 * comparator log right away if result is null, or kept in result to be logged later otherwise.
+	 */
+	private IStatus mirror(IArtifactDescriptor sourceDescriptor, IArtifactComparator artifactComparator, MirrorResult result) {
 		IArtifactDescriptor targetDescriptor = raw ? sourceDescriptor : new ArtifactDescriptor(sourceDescriptor);
 		IArtifactDescriptor baselineDescriptor = getBaselineDescriptor(sourceDescriptor);
 
-		if (verbose)
-			System.out.println("Mirroring: " + sourceDescriptor.getArtifactKey() + " (Descriptor: " + sourceDescriptor + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-
 		MultiStatus compareStatus = new MultiStatus(Activator.ID, IStatus.OK, null, null);
 		boolean comparing = compare && !compareExclusions.contains(sourceDescriptor);
 		if (comparing) {
 			if (baselineDescriptor != null) {
 				//compare source & baseline
-				compareStatus.add(compare(baseline, baselineDescriptor, source, sourceDescriptor));
+				compareStatus.add(compare(artifactComparator, baseline, baselineDescriptor, source, sourceDescriptor, result));
 				//compare baseline & destination
 				if (destination.contains(baselineDescriptor)) {
-					compareStatus.add(compareToDestination(baselineDescriptor));
+					compareStatus.add(compareToDestination(artifactComparator, baselineDescriptor, result));
 					return compareStatus;
 				}
 			} else if (destination.contains(targetDescriptor)) {
-				compareStatus.add(compareToDestination(sourceDescriptor));
+				compareStatus.add(compareToDestination(artifactComparator, sourceDescriptor, result));
 				return compareStatus;
 			}
 		}
@@ -172,7 +237,7 @@ public class Mirroring {
 	 * @param descriptor
 	 * @return the status of the compare
 	 */
-	private IStatus compareToDestination(IArtifactDescriptor descriptor) {
+	private IStatus compareToDestination(IArtifactComparator artifactComparator, IArtifactDescriptor descriptor, MirrorResult result) {
 		IArtifactDescriptor[] destDescriptors = destination.getArtifactDescriptors(descriptor.getArtifactKey());
 		IArtifactDescriptor destDescriptor = null;
 		for (int i = 0; destDescriptor == null && i < destDescriptors.length; i++) {
@@ -181,13 +246,17 @@ public class Mirroring {
 		}
 		if (destDescriptor == null)
 			return new Status(IStatus.INFO, Activator.ID, ProvisionException.ARTIFACT_EXISTS, Messages.Mirroring_noMatchingDescriptor, null);
-		return compare(source, descriptor, destination, destDescriptor);
+		return compare(artifactComparator, source, descriptor, destination, destDescriptor, result);
 	}
 
-	private IStatus compare(IArtifactRepository sourceRepository, IArtifactDescriptor sourceDescriptor, IArtifactRepository destRepository, IArtifactDescriptor destDescriptor) {
-		IStatus comparison = getComparator().compare(sourceRepository, sourceDescriptor, destRepository, destDescriptor);
-		if (comparatorLog != null && !comparison.isOK())
-			comparatorLog.log(sourceDescriptor, comparison);
+	private IStatus compare(IArtifactComparator artifactComparator, IArtifactRepository sourceRepository, IArtifactDescriptor sourceDescriptor, IArtifactRepository destRepository, IArtifactDescriptor destDescriptor, MirrorResult result) {
+		IStatus comparison = artifactComparator.compare(sourceRepository, sourceDescriptor, destRepository, destDescriptor);
+		if (comparatorLog != null && !comparison.isOK()) {
+			if (result != null)
+				result.logComparison(sourceDescriptor, comparison);
+			else
+				comparatorLog.log(sourceDescriptor, comparison);
+		}
 		return comparison;
 	}
 
@@ -313,4 +382,140 @@ public class Mirroring {
 	public void setTransport(Transport transport) {
 		this.transport = transport;
 	}
+
+	/**
+	 * The result of mirroring a descriptor, together with the comparator log entries
+	 * that are written once the result is committed.
+	 */
+	private class MirrorResult {
+		IStatus status;
+		RuntimeException exception;
+		private List<IArtifactDescriptor> loggedDescriptors;
+		private List<IStatus> loggedComparisons;
+
+		void logComparison(IArtifactDescriptor descriptor, IStatus comparison) {
+			if (loggedDescriptors == null) {
+				loggedDescriptors = new ArrayList<IArtifactDescriptor>(2);
+				loggedComparisons = new ArrayList<IStatus>(2);
+			}
+			loggedDescriptors.add(descriptor);
+			loggedComparisons.add(comparison);
+		}
+
+		void flushComparatorLog() {
+			if (loggedDescriptors == null)
+				return;
+			for (int i = 0; i < loggedDescriptors.size(); i++)
+				comparatorLog.log(loggedDescriptors.get(i), loggedComparisons.get(i));
+		}
+	}
+
+	/**
+	 * Hands out the descriptors to mirror to the mirroring jobs and collects their results.
+	 * The jobs never get further ahead of the descriptor being committed than the given
+	 * window, which bounds the number of pending results and the work done after a failure.
+	 */
+	private class MirrorScheduler {
+		private final List<IArtifactDescriptor> descriptors;
+		private final MirrorResult[] results;
+		private final int window;
+		private int next = 0;
+		private int committed = 0;
+		private boolean stopped = false;
+
+		MirrorScheduler(List<IArtifactDescriptor> descriptors, int window) {
+			this.descriptors = descriptors;
+			this.results = new MirrorResult[descriptors.size()];
+			this.window = window;
+		}
+
+		/**
+		 * Returns the index of the next descriptor to mirror, or -1 when there is nothing left to do.
+		 */
+		synchronized int next() {
+			while (!stopped && next < descriptors.size() && next >= committed + window) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					stopped = true;
+				}
+			}
+			if (stopped || next == descriptors.size())
+				return -1;
+			return next++;
+		}
+
+		synchronized void mirrored(int index, MirrorResult result) {
+			results[index] = result;
+			notifyAll();
+		}
+
+		/**
+		 * Waits for the result of the descriptor at the given index and moves the window past it.
+		 */
+		synchronized MirrorResult take(int index) {
+			while (results[index] == null) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					//keep waiting, the job mirroring this descriptor always reports a result
+				}
+			}
+			MirrorResult result = results[index];
+			results[index] = null;
+			committed = index + 1;
+			notifyAll();
+			return result;
+		}
+
+		synchronized void stop() {
+			stopped = true;
+			notifyAll();
+		}
+
+		/**
+		 * Mirrors descriptors until there are no more descriptors to mirror.
+		 */
+		void mirror() {
+			IArtifactComparator jobComparator = null;
+			int index;
+			while ((index = next()) != -1) {
+				MirrorResult result = new MirrorResult();
+				try {
+					// comparators keep state while comparing, so each job needs its own
+					if (compare && jobComparator == null)
+						jobComparator = ArtifactComparatorFactory.getArtifactComparator(comparatorID);
+					result.status = Mirroring.this.mirror(descriptors.get(index), jobComparator, result);
+				} catch (RuntimeException e) {
+					result.exception = e;
+				} finally {
+					if (result.status == null && result.exception == null)
+						result.exception = new IllegalStateException();
+					mirrored(index, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A job that mirrors descriptors handed out by a {@link MirrorScheduler}.
+	 */
+	private static class MirrorJob extends Job {
+		private final MirrorScheduler scheduler;
+
+		MirrorJob(MirrorScheduler scheduler) {
+			super(Messages.message_mirroringStatus);
+			this.scheduler = scheduler;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == scheduler;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			scheduler.mirror();
+			return Status.OK_STATUS;
+		}
+	}
 }
@@ -48,6 +48,7 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 	private boolean verbose = false;
 	private boolean validate = false;
 	private boolean mirrorReferences = false;
+	private int concurrency = 1;
 	private String metadataOrArtifacts = null;
 	private String[] rootIUs = null;
 
@@ -151,6 +152,12 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 				mirrorLogLocation = new File(arg);
 			} else if (args[i - 1].equalsIgnoreCase("-roots")) { //$NON-NLS-1$
 				rootIUs = getArrayArgsFromString(arg, ","); //$NON-NLS-1$
+			} else if (args[i - 1].equalsIgnoreCase("-concurrency")) { //$NON-NLS-1$
+				try {
+					concurrency = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(NLS.bind(Messages.exception_invalidConcurrency, arg));
+				}
 			} else {
 				try {
 					if (args[i - 1].equalsIgnoreCase("-source")) { //$NON-NLS-1$
@@ -214,6 +221,7 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 		mirror.setComparatorId(comparatorID);
 		mirror.setBaseline(initializeBaseline());
 		mirror.setValidate(validate);
+		mirror.setConcurrency(concurrency);
 		mirror.setCompareExclusions(compareExclusions);
 		mirror.setTransport((Transport) agent.getService(Transport.SERVICE_NAME));
 
@@ -440,6 +448,13 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 		validate = value;
 	}
 
+	/*
+	 * Set the number of artifacts that are mirrored at the same time
+	 */
+	public void setConcurrency(int value) {
+		concurrency = value;
+	}
+
 	/*
 	 * Set if references should be mirrored
 	 */
@@ -133,4 +133,11 @@ public class MirrorTask extends AbstractRepositoryTask {
 	public void setValidate(boolean value) {
 		((MirrorApplication) application).setValidate(value);
 	}
+
+	/*
+	 * Set the number of artifacts that are mirrored at the same time.
+	 */
+	public void setConcurrency(int value) {
+		((MirrorApplication) application).setConcurrency(value);
+	}
 }
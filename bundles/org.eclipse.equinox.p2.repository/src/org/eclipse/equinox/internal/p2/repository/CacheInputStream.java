@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository;
+
+import java.io.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A stream on a repository index file that is cached by the {@link CacheManager}.
+ * <p>
+ * If the cache is up to date, the stream reads the cache file. Otherwise the file is
+ * downloaded by another thread, which writes it to the cache and to this stream at the same
+ * time, so that the file can be read while it is downloaded. The download waits when
+ * {@link #PIPE_SIZE} bytes have been downloaded and not yet read.
+ * </p><p>
+ * When the stream is closed before all of the file has been read, the rest of the file is
+ * still downloaded to the cache and closing waits for it. A reader that fails should call
+ * {@link #abort()} instead, which stops the download and discards the partial cache file.
+ * </p>
+ */
+public class CacheInputStream extends InputStream {
+	/**
+	 * The maximum number of bytes kept in memory between the download and the reader.
+	 */
+	public static final int PIPE_SIZE = 256 * 1024;
+
+	private final File cacheFile;
+	private final InputStream cached;
+	private final OutputStream tempFile;
+	private final Sink sink = new Sink();
+
+	// the following fields are guarded by this
+	private final byte[] buffer;
+	private int start = 0;
+	private int count = 0;
+	private boolean done;
+	private boolean closed = false;
+	private boolean aborted = false;
+	private IStatus status = Status.OK_STATUS;
+
+	/**
+	 * Creates a stream on an up to date cache file.
+	 */
+	CacheInputStream(File cacheFile) throws FileNotFoundException {
+		this.cacheFile = cacheFile;
+		this.cached = new BufferedInputStream(new FileInputStream(cacheFile));
+		this.tempFile = null;
+		this.buffer = null;
+		this.done = true;
+	}
+
+	/**
+	 * Creates a stream on a file that is being downloaded into the given temporary cache file.
+	 */
+	CacheInputStream(File cacheFile, OutputStream tempFile) {
+		this.cacheFile = cacheFile;
+		this.cached = null;
+		this.tempFile = new BufferedOutputStream(tempFile);
+		this.buffer = new byte[PIPE_SIZE];
+		this.done = false;
+	}
+
+	/**
+	 * Returns the cache file. The file only exists once the download has completed.
+	 */
+	public File getCacheFile() {
+		return cacheFile;
+	}
+
+	/**
+	 * Returns the status of the download. The status is OK while the download is running and
+	 * when the cache was up to date.
+	 */
+	public synchronized IStatus getStatus() {
+		return status;
+	}
+
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (cached != null)
+			return cached.read(b, off, len);
+		if (len == 0)
+			return 0;
+		synchronized (this) {
+			while (count == 0 && !done && !aborted) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					aborted = true;
+					notifyAll();
+					throw new InterruptedIOException();
+				}
+			}
+			if (aborted)
+				throw new IOException(NLS.bind(Messages.CacheManager_DownloadAborted, cacheFile.getName()));
+			if (count == 0) {
+				if (status.isOK())
+					return -1;
+				IOException failure = new IOException(status.getMessage());
+				failure.initCause(new CoreException(status));
+				throw failure;
+			}
+			int n = Math.min(len, count);
+			int first = Math.min(n, buffer.length - start);
+			System.arraycopy(buffer, start, b, off, first);
+			System.arraycopy(buffer, 0, b, off + first, n - first);
+			start = (start + n) % buffer.length;
+			count -= n;
+			notifyAll();
+			return n;
+		}
+	}
+
+	public int available() throws IOException {
+		if (cached != null)
+			return cached.available();
+		synchronized (this) {
+			return count;
+		}
+	}
+
+	/**
+	 * Stops the download, if any. The partially downloaded cache file is discarded.
+	 */
+	public synchronized void abort() {
+		if (!done)
+			aborted = true;
+		notifyAll();
+	}
+
+	/**
+	 * Closes this stream. If the file is still being downloaded, waits until the rest of
+	 * the file has been written to the cache.
+	 */
+	public void close() throws IOException {
+		if (cached != null) {
+			cached.close();
+			return;
+		}
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+			while (!done && !aborted) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					aborted = true;
+					notifyAll();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+
+	synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Returns the stream into which the download writes the file.
+	 */
+	OutputStream getSink() {
+		return sink;
+	}
+
+	/**
+	 * Returns the status that the transport reported on the sink, or <code>null</code>.
+	 */
+	IStatus getSinkStatus() {
+		return sink.getStatus();
+	}
+
+	/**
+	 * Writes downloaded bytes to the cache file and, as long as this stream is open,
+	 * makes them available to the reader.
+	 */
+	void received(byte[] b, int off, int len) throws IOException {
+		tempFile.write(b, off, len);
+		synchronized (this) {
+			while (len > 0) {
+				while (count == buffer.length && !closed && !aborted) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				if (aborted)
+					throw new IOException(NLS.bind(Messages.CacheManager_DownloadAborted, cacheFile.getName()));
+				if (closed)
+					return;
+				int end = (start + count) % buffer.length;
+				int n = Math.min(len, Math.min(buffer.length - count, buffer.length - end));
+				System.arraycopy(b, off, buffer, end, n);
+				count += n;
+				off += n;
+				len -= n;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Closes the cache file once the download has ended.
+	 */
+	void closeTempFile() throws IOException {
+		tempFile.close();
+	}
+
+	/**
+	 * Marks the download as ended with the given status. The reader sees the end of the
+	 * stream once it has read everything that was downloaded.
+	 */
+	synchronized void downloaded(IStatus result) {
+		status = result == null ? new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.CacheManager_DownloadAborted, cacheFile.getName())) : result;
+		done = true;
+		notifyAll();
+	}
+
+	/**
+	 * The stream given to the transport. The transport reports the status of the download
+	 * on it, like it does on the stream used by {@link CacheManager#createCache}.
+	 */
+	private class Sink extends OutputStream implements IStateful {
+		private volatile IStatus sinkStatus;
+
+		public void write(int b) throws IOException {
+			received(new byte[] {(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			received(b, off, len);
+		}
+
+		public IStatus getStatus() {
+			return sinkStatus;
+		}
+
+		public void setStatus(IStatus aStatus) {
+			sinkStatus = aStatus;
+		}
+	}
+}
@@ -17,6 +17,7 @@ import java.net.URI;
 import java.util.EventObject;
 import java.util.HashSet;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
@@ -102,111 +103,161 @@ public class CacheManager {
 	 * @throws OperationCanceledException - if user canceled
 	 */
 	public File createCache(URI repositoryLocation, String prefix, IProgressMonitor monitor) throws IOException, ProvisionException {
-
 		SubMonitor submonitor = SubMonitor.convert(monitor, 1000);
 		try {
-			knownPrefixes.add(prefix);
-			File cacheFile = getCache(repositoryLocation, prefix);
-			URI jarLocation = URIUtil.append(repositoryLocation, prefix + JAR_EXTENSION);
-			URI xmlLocation = URIUtil.append(repositoryLocation, prefix + XML_EXTENSION);
-			int hashCode = computeHash(repositoryLocation);
-
-			// Knowing if cache is stale is complicated by the fact that a jar could have been 
-			// produced after an xml index (and vice versa), and by the need to capture any
-			// errors, as these needs to be reported to the user as something meaningful - instead of
-			// just a general "can't read repository".
-			// (Previous impl of stale checking ignored errors, and caused multiple round-trips)
-			boolean stale = true;
-			long lastModified = 0L;
-			String name = null;
-			String useExtension = JAR_EXTENSION;
-			URI remoteFile = jarLocation;
-
-			if (cacheFile != null) {
-				lastModified = cacheFile.lastModified();
-				name = cacheFile.getName();
+			CacheTarget target = checkCache(repositoryLocation, prefix, submonitor);
+			if (!target.stale)
+				return target.cacheFile;
+			// The cache is stale or missing, so we need to update it from the remote location
+			updateCache(target.cacheFile, target.remoteFile, target.lastModifiedRemote, submonitor);
+			return target.cacheFile;
+		} finally {
+			submonitor.done();
+		}
+	}
+
+	/**
+	 * Returns a stream on the contents of the given remote location. If the local cache is
+	 * up to date, the stream reads the cache file. Otherwise the remote file is downloaded
+	 * by a job that writes it to the cache while it is read from the returned stream.
+	 * <p>
+	 * The caller must close the stream, or abort it if the contents could not be used.
+	 * The name of {@link CacheInputStream#getCacheFile()} tells whether the contents are
+	 * a jar or an xml file.
+	 * </p>
+	 * @param repositoryLocation The remote location to be cached
+	 * @param prefix The prefix to use when creating the cache file
+	 * @param monitor a progress monitor, canceling it also cancels the download
+	 * @return a stream on the contents of the remote location
+	 * @throws FileNotFoundException if neither jar nor xml index file exists at given location 
+	 * @throws IOException on general IO errors
+	 * @throws ProvisionException on any error (e.g. user cancellation, unknown host, malformed address, connection refused, etc.)
+	 * @throws OperationCanceledException - if user canceled
+	 * @see #createCache(URI, String, IProgressMonitor)
+	 */
+	public CacheInputStream streamCache(URI repositoryLocation, String prefix, IProgressMonitor monitor) throws IOException, ProvisionException {
+		final SubMonitor submonitor = SubMonitor.convert(monitor, 1000);
+		try {
+			CacheTarget target = checkCache(repositoryLocation, prefix, submonitor);
+			if (!target.stale)
+				return new CacheInputStream(target.cacheFile);
+			File tempFile = createTempFile(target.cacheFile);
+			CacheInputStream stream;
+			try {
+				stream = new CacheInputStream(target.cacheFile, new FileOutputStream(tempFile));
+			} catch (Exception e) {
+				throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e));
 			}
-			// get last modified on jar
-			long lastModifiedRemote = 0L;
-			// bug 269588 - server may return 0 when file exists, so extra flag is needed
-			boolean useJar = true;
+			new CacheDownloadJob(target, tempFile, stream, submonitor).schedule();
+			return stream;
+		} finally {
+			submonitor.done();
+		}
+	}
+
+	/**
+	 * Determines which remote file holds the contents of the given location and whether
+	 * the local cache of it is stale.
+	 */
+	private CacheTarget checkCache(URI repositoryLocation, String prefix, SubMonitor submonitor) throws IOException, ProvisionException {
+		knownPrefixes.add(prefix);
+		File cacheFile = getCache(repositoryLocation, prefix);
+		URI jarLocation = URIUtil.append(repositoryLocation, prefix + JAR_EXTENSION);
+		URI xmlLocation = URIUtil.append(repositoryLocation, prefix + XML_EXTENSION);
+		int hashCode = computeHash(repositoryLocation);
+
+		// Knowing if cache is stale is complicated by the fact that a jar could have been 
+		// produced after an xml index (and vice versa), and by the need to capture any
+		// errors, as these needs to be reported to the user as something meaningful - instead of
+		// just a general "can't read repository".
+		// (Previous impl of stale checking ignored errors, and caused multiple round-trips)
+		boolean stale = true;
+		long lastModified = 0L;
+		String name = null;
+		String useExtension = JAR_EXTENSION;
+		URI remoteFile = jarLocation;
+
+		if (cacheFile != null) {
+			lastModified = cacheFile.lastModified();
+			name = cacheFile.getName();
+		}
+		// get last modified on jar
+		long lastModifiedRemote = 0L;
+		// bug 269588 - server may return 0 when file exists, so extra flag is needed
+		boolean useJar = true;
+		try {
+			lastModifiedRemote = transport.getLastModified(jarLocation, submonitor.newChild(1));
+			if (lastModifiedRemote <= 0)
+				LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Server returned lastModified <= 0 for " + jarLocation)); //$NON-NLS-1$
+		} catch (AuthenticationFailedException e) {
+			// it is not meaningful to continue - the credentials are for the server
+			// do not pass the exception - it gives no additional meaningful user information
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_AUTHENTICATION, NLS.bind(Messages.CacheManager_AuthenticationFaileFor_0, repositoryLocation), null));
+		} catch (CoreException e) {
+			useJar = false;
+			// give up on a timeout - if we did not get a 404 on the jar, we will just prolong the pain
+			// by (almost certainly) also timing out on the xml.
+			if (e.getStatus() != null && e.getStatus().getException() != null) {
+				Throwable ex = e.getStatus().getException();
+				if (ex.getClass() == java.net.SocketTimeoutException.class)
+					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, NLS.bind(Messages.CacheManager_FailedCommunicationWithRepo_0, repositoryLocation), ex));
+			}
+		} catch (OperationCanceledException e) {
+			// must pass this on
+			throw e;
+		} catch (Exception e) {
+			// not ideal, just skip the jar on error, and try the xml instead - report errors for
+			// the xml.
+			useJar = false;
+		}
+		if (submonitor.isCanceled())
+			throw new OperationCanceledException();
+
+		if (useJar) {
+			// There is a jar, and it should be used - cache is stale if it is xml based or
+			// if older (irrespective of jar or xml).
+			// Bug 269588 - also stale if remote reports 0
+			stale = lastModifiedRemote != lastModified || (name != null && name.endsWith(XML_EXTENSION) || lastModifiedRemote <= 0);
+		} else {
+			// Also need to check remote XML file, and handle cancel, and errors
+			// (Status is reported based on finding the XML file as giving up on certain errors
+			// when checking for the jar may not be correct).
 			try {
-				lastModifiedRemote = transport.getLastModified(jarLocation, submonitor.newChild(1));
+				lastModifiedRemote = transport.getLastModified(xmlLocation, submonitor.newChild(1));
+				// if lastModifiedRemote is 0 - something is wrong in the communication stack, as 
+				// a FileNotFound exception should have been thrown.
+				// bug 269588 - server may return 0 when file exists - site is not correctly configured
 				if (lastModifiedRemote <= 0)
-					LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Server returned lastModified <= 0 for " + jarLocation)); //$NON-NLS-1$
+					LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Server returned lastModified <= 0 for " + xmlLocation)); //$NON-NLS-1$
+
+			} catch (FileNotFoundException e) {
+				throw new FileNotFoundException(NLS.bind(Messages.CacheManager_Neither_0_nor_1_found, jarLocation, xmlLocation));
 			} catch (AuthenticationFailedException e) {
-				// it is not meaningful to continue - the credentials are for the server
-				// do not pass the exception - it gives no additional meaningful user information
+				// do not pass the exception, it provides no additional meaningful user information
 				throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_AUTHENTICATION, NLS.bind(Messages.CacheManager_AuthenticationFaileFor_0, repositoryLocation), null));
 			} catch (CoreException e) {
-				useJar = false;
-				// give up on a timeout - if we did not get a 404 on the jar, we will just prolong the pain
-				// by (almost certainly) also timing out on the xml.
-				if (e.getStatus() != null && e.getStatus().getException() != null) {
-					Throwable ex = e.getStatus().getException();
-					if (ex.getClass() == java.net.SocketTimeoutException.class)
-						throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_READ, NLS.bind(Messages.CacheManager_FailedCommunicationWithRepo_0, repositoryLocation), ex));
-				}
-			} catch (OperationCanceledException e) {
-				// must pass this on
-				throw e;
-			} catch (Exception e) {
-				// not ideal, just skip the jar on error, and try the xml instead - report errors for
-				// the xml.
-				useJar = false;
-			}
-			if (submonitor.isCanceled())
-				throw new OperationCanceledException();
-
-			if (useJar) {
-				// There is a jar, and it should be used - cache is stale if it is xml based or
-				// if older (irrespective of jar or xml).
-				// Bug 269588 - also stale if remote reports 0
-				stale = lastModifiedRemote != lastModified || (name != null && name.endsWith(XML_EXTENSION) || lastModifiedRemote <= 0);
-			} else {
-				// Also need to check remote XML file, and handle cancel, and errors
-				// (Status is reported based on finding the XML file as giving up on certain errors
-				// when checking for the jar may not be correct).
-				try {
-					lastModifiedRemote = transport.getLastModified(xmlLocation, submonitor.newChild(1));
-					// if lastModifiedRemote is 0 - something is wrong in the communication stack, as 
-					// a FileNotFound exception should have been thrown.
-					// bug 269588 - server may return 0 when file exists - site is not correctly configured
-					if (lastModifiedRemote <= 0)
-						LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Server returned lastModified <= 0 for " + xmlLocation)); //$NON-NLS-1$
-
-				} catch (FileNotFoundException e) {
-					throw new FileNotFoundException(NLS.bind(Messages.CacheManager_Neither_0_nor_1_found, jarLocation, xmlLocation));
-				} catch (AuthenticationFailedException e) {
-					// do not pass the exception, it provides no additional meaningful user information
-					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_AUTHENTICATION, NLS.bind(Messages.CacheManager_AuthenticationFaileFor_0, repositoryLocation), null));
-				} catch (CoreException e) {
-					IStatus status = e.getStatus();
-					if (status == null)
-						throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, NLS.bind(Messages.CacheManager_FailedCommunicationWithRepo_0, repositoryLocation), e));
-					else if (status.getException() instanceof FileNotFoundException)
-						throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, status.getMessage(), null));
-					throw new ProvisionException(status);
+				IStatus status = e.getStatus();
+				if (status == null)
+					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, NLS.bind(Messages.CacheManager_FailedCommunicationWithRepo_0, repositoryLocation), e));
+				else if (status.getException() instanceof FileNotFoundException)
+					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, status.getMessage(), null));
+				throw new ProvisionException(status);
 
-				}
-				// There is an xml, and it should be used - cache is stale if it is jar based or
-				// if older (irrespective of jar or xml).
-				// bug 269588 - server may return 0 when file exists - assume it is stale
-				stale = lastModifiedRemote != lastModified || (name != null && name.endsWith(JAR_EXTENSION) || lastModifiedRemote <= 0);
-				useExtension = XML_EXTENSION;
-				remoteFile = xmlLocation;
 			}
+			// There is an xml, and it should be used - cache is stale if it is jar based or
+			// if older (irrespective of jar or xml).
+			// bug 269588 - server may return 0 when file exists - assume it is stale
+			stale = lastModifiedRemote != lastModified || (name != null && name.endsWith(JAR_EXTENSION) || lastModifiedRemote <= 0);
+			useExtension = XML_EXTENSION;
+			remoteFile = xmlLocation;
+		}
 
-			if (!stale)
-				return cacheFile;
+		if (!stale)
+			return new CacheTarget(cacheFile, remoteFile, lastModifiedRemote, false);
 
-			// The cache is stale or missing, so we need to update it from the remote location
-			cacheFile = new File(getCacheDirectory(), prefix + hashCode + useExtension);
-			updateCache(cacheFile, remoteFile, lastModifiedRemote, submonitor);
-			return cacheFile;
-		} finally {
-			submonitor.done();
-		}
+		// The cache is stale or missing, so it needs to be updated from the remote location
+		cacheFile = new File(getCacheDirectory(), prefix + hashCode + useExtension);
+		return new CacheTarget(cacheFile, remoteFile, lastModifiedRemote, true);
 	}
 
 	/**
@@ -310,16 +361,7 @@ public class CacheManager {
 	}
 
 	protected void updateCache(File cacheFile, URI remoteFile, long lastModifiedRemote, SubMonitor submonitor) throws FileNotFoundException, IOException, ProvisionException {
-		cacheFile.getParentFile().mkdirs();
-		File downloadDir = new File(cacheFile.getParentFile(), DOWNLOADING);
-		if (!downloadDir.exists())
-			downloadDir.mkdir();
-		File tempFile = new File(downloadDir, cacheFile.getName());
-		// Ensure that the file from a previous download attempt is removed 
-		if (tempFile.exists())
-			safeDelete(tempFile);
-
-		tempFile.createNewFile();
+		File tempFile = createTempFile(cacheFile);
 
 		StatefulStream stream = null;
 		try {
@@ -342,20 +384,116 @@ public class CacheManager {
 				safeDelete(tempFile);
 		}
 		if (result.isOK()) {
-			if (cacheFile.exists())
-				safeDelete(cacheFile);
-			if (tempFile.renameTo(cacheFile)) {
-				if (lastModifiedRemote != -1 && lastModifiedRemote != 0) {
-					//local cache file should have the same lastModified as the server's file. bug 324200
-					cacheFile.setLastModified(lastModifiedRemote);
-				}
+			result = commitCache(tempFile, cacheFile, remoteFile, lastModifiedRemote);
+			if (result.isOK())
 				return;
-			}
-			result = new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.CacheManage_ErrorRenamingCache, new Object[] {remoteFile.toString(), tempFile.getAbsolutePath(), cacheFile.getAbsolutePath()}));
 		}
 
 		if (result.getSeverity() == IStatus.CANCEL || submonitor.isCanceled())
 			throw new OperationCanceledException();
 		throw new ProvisionException(result);
 	}
+
+	/**
+	 * Returns a new empty file to download the given cache file into.
+	 */
+	private File createTempFile(File cacheFile) throws IOException {
+		cacheFile.getParentFile().mkdirs();
+		File downloadDir = new File(cacheFile.getParentFile(), DOWNLOADING);
+		if (!downloadDir.exists())
+			downloadDir.mkdir();
+		File tempFile = new File(downloadDir, cacheFile.getName());
+		// Ensure that the file from a previous download attempt is removed 
+		if (tempFile.exists())
+			safeDelete(tempFile);
+
+		tempFile.createNewFile();
+		return tempFile;
+	}
+
+	/**
+	 * Replaces the cache file with the completely downloaded temporary file.
+	 */
+	private IStatus commitCache(File tempFile, File cacheFile, URI remoteFile, long lastModifiedRemote) {
+		if (cacheFile.exists())
+			safeDelete(cacheFile);
+		if (tempFile.renameTo(cacheFile)) {
+			if (lastModifiedRemote != -1 && lastModifiedRemote != 0) {
+				//local cache file should have the same lastModified as the server's file. bug 324200
+				cacheFile.setLastModified(lastModifiedRemote);
+			}
+			return Status.OK_STATUS;
+		}
+		return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.CacheManage_ErrorRenamingCache, new Object[] {remoteFile.toString(), tempFile.getAbsolutePath(), cacheFile.getAbsolutePath()}));
+	}
+
+	/**
+	 * The remote file that holds the contents of a repository location, and the local
+	 * file it is cached in.
+	 */
+	private static class CacheTarget {
+		final File cacheFile;
+		final URI remoteFile;
+		final long lastModifiedRemote;
+		final boolean stale;
+
+		CacheTarget(File cacheFile, URI remoteFile, long lastModifiedRemote, boolean stale) {
+			this.cacheFile = cacheFile;
+			this.remoteFile = remoteFile;
+			this.lastModifiedRemote = lastModifiedRemote;
+			this.stale = stale;
+		}
+	}
+
+	/**
+	 * Downloads a remote file into the cache and into the stream that reads it.
+	 */
+	private class CacheDownloadJob extends Job {
+		private final CacheTarget target;
+		private final File tempFile;
+		private final CacheInputStream stream;
+		private final IProgressMonitor callerMonitor;
+
+		CacheDownloadJob(CacheTarget target, File tempFile, CacheInputStream stream, IProgressMonitor callerMonitor) {
+			super(NLS.bind(Messages.CacheManager_DownloadingCache, target.remoteFile));
+			this.target = target;
+			this.tempFile = tempFile;
+			this.stream = stream;
+			this.callerMonitor = callerMonitor;
+			setSystem(true);
+		}
+
+		protected IStatus run(final IProgressMonitor monitor) {
+			// the download stops when the reader aborts or when the load is canceled
+			IProgressMonitor downloadMonitor = new NullProgressMonitor() {
+				public boolean isCanceled() {
+					return stream.isAborted() || callerMonitor.isCanceled() || monitor.isCanceled();
+				}
+			};
+			IStatus result = null;
+			try {
+				result = transport.download(target.remoteFile, stream.getSink(), downloadMonitor);
+			} catch (OperationCanceledException e) {
+				result = stream.getSinkStatus();
+				if (result == null || result.isOK())
+					result = Status.CANCEL_STATUS;
+			} catch (RuntimeException e) {
+				result = new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e);
+			} finally {
+				try {
+					stream.closeTempFile();
+				} catch (IOException e) {
+					if (result == null || result.isOK())
+						result = new Status(IStatus.ERROR, Activator.ID, e.getMessage(), e);
+				}
+				// If there was any problem fetching the file, delete the temp file
+				if (result == null || !result.isOK() || stream.isAborted())
+					safeDelete(tempFile);
+			}
+			if (result.isOK() && !stream.isAborted())
+				result = commitCache(tempFile, target.cacheFile, target.remoteFile, target.lastModifiedRemote);
+			stream.downloaded(result);
+			return Status.OK_STATUS;
+		}
+	}
 }
@@ -21,6 +21,8 @@ public class Messages extends NLS {
 	public static String CacheManager_FailedCommunicationWithRepo_0;
 	public static String CacheManager_Neither_0_nor_1_found;
 	public static String CacheManage_ErrorRenamingCache;
+	public static String CacheManager_DownloadAborted;
+	public static String CacheManager_DownloadingCache;
 
 	public static String artifact_not_found;
 	public static String io_failedRead;
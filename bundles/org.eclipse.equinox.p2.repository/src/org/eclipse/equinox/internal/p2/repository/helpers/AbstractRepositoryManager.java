@@ -87,9 +87,63 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 	protected SoftReference<List<URI>> unavailableRepositories;
 
 	/**
-	 * Set used to manage exclusive load locks on repository locations.
+	 * A load of repositories that is performed by one thread. The jobs that load the
+	 * children of a composite repository perform child loads of the load that started
+	 * them, so that the manager can tell that the parent load is waiting for them.
 	 */
-	private final Map<URI, Thread> loadLocks = new HashMap<URI, Thread>();
+	static final class Load {
+		private static final ThreadLocal<Load> current = new ThreadLocal<Load>();
+		final Load parent;
+
+		Load(Load parent) {
+			this.parent = parent;
+		}
+
+		/**
+		 * Returns the load performed by the current thread.
+		 */
+		static Load getCurrent() {
+			Load load = current.get();
+			if (load == null) {
+				load = new Load(null);
+				current.set(load);
+			}
+			return load;
+		}
+
+		/**
+		 * Sets the load performed by the current thread, and returns the previous one.
+		 */
+		static Load setCurrent(Load load) {
+			Load previous = current.get();
+			current.set(load);
+			return previous;
+		}
+
+		/**
+		 * Returns whether this load is the given load or one of its child loads.
+		 */
+		boolean isPartOf(Load load) {
+			for (Load ancestor = this; ancestor != null; ancestor = ancestor.parent)
+				if (ancestor == load)
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * Map used to manage exclusive load locks on repository locations. The
+	 * two fields below are guarded by this map.
+	 */
+	private final Map<URI, Load> loadLocks = new HashMap<URI, Load>();
+	/**
+	 * The locations whose load lock a load is waiting for.
+	 */
+	private final Map<Load, URI> waitingLoads = new HashMap<Load, URI>();
+	/**
+	 * The locations that are being read by the load that holds their lock.
+	 */
+	private final Set<URI> reading = new HashSet<URI>();
 	private final IAgentLocation agentLocation;
 	protected final IProvisioningEventBus eventBus;
 	protected final IProvisioningAgent agent;
@@ -264,8 +318,9 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		Assert.isNotNull(name);
 		Assert.isNotNull(type);
 		IRepository<T> result = null;
+		boolean locked = false;
 		try {
-			enterLoad(location, new NullProgressMonitor());
+			locked = enterLoad(location, new NullProgressMonitor());
 			boolean loaded = false;
 			try {
 				//repository should not already exist
@@ -289,7 +344,8 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 			clearNotFound(location);
 			addRepository(result, false, null);
 		} finally {
-			exitLoad(location);
+			if (locked)
+				exitLoad(location);
 		}
 		//fire event after releasing load lock
 		broadcastChangeEvent(location, getRepositoryType(), RepositoryEvent.ADDED, true);
@@ -318,33 +374,87 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 
 	/**
 	 * Obtains an exclusive right to load a repository at the given location. Blocks
-	 * if another thread is currently loading at that location. Invocation of this
-	 * method must be followed by a subsequent call to {@link #exitLoad(URI)}.
+	 * if another load currently holds the location. If the current load already holds
+	 * the location this method returns <code>false</code>, otherwise the invocation
+	 * must be followed by a subsequent call to {@link #exitLoad(URI)}.
 	 * 
 	 * To avoid deadlock between the loadLock and repositoryLock, this method
 	 * must not be called when repositoryLock is held.
 	 * 
 	 * @param location The location to lock
+	 * @throws ProvisionException if waiting for the location would never end, because
+	 * the load that holds it is waiting for the current load
 	 */
-	private void enterLoad(URI location, IProgressMonitor monitor) {
-		Thread current = Thread.currentThread();
+	private boolean enterLoad(URI location, IProgressMonitor monitor) throws ProvisionException {
+		Load current = Load.getCurrent();
 		synchronized (loadLocks) {
 			while (true) {
-				Thread owner = loadLocks.get(location);
-				if (owner == null || current.equals(owner))
+				Load owner = loadLocks.get(location);
+				if (owner == null)
 					break;
+				if (owner == current)
+					return false;
+				//the children of a composite repository refer back to it
+				if (waitsFor(owner, current, new HashSet<Load>()))
+					failCyclic(location);
 				if (monitor.isCanceled())
 					throw new OperationCanceledException();
+				waitingLoads.put(current, location);
 				try {
 					loadLocks.wait(1000);
 				} catch (InterruptedException e) {
 					//keep trying
+				} finally {
+					waitingLoads.remove(current);
 				}
 			}
 			loadLocks.put(location, current);
+			return true;
 		}
 	}
 
+	/*
+	 * Returns whether the given load waits for the current load, either because it is a
+	 * parent load of it or because it waits for a location whose owner waits for it. A
+	 * parent load waits for all of its child loads. Must be called while holding loadLocks.
+	 */
+	private boolean waitsFor(Load load, Load current, Set<Load> visited) {
+		if (!visited.add(load))
+			return false;
+		if (current.isPartOf(load))
+			return true;
+		for (Map.Entry<Load, URI> waiting : waitingLoads.entrySet()) {
+			if (!waiting.getKey().isPartOf(load))
+				continue;
+			Load owner = loadLocks.get(waiting.getValue());
+			if (owner != null && waitsFor(owner, current, visited))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Marks the given location, which the current load holds, as being read. Fails
+	 * if it is already being read, because a composite repository is its own child.
+	 */
+	private void startReading(URI location) throws ProvisionException {
+		synchronized (loadLocks) {
+			if (!reading.add(location))
+				failCyclic(location);
+		}
+	}
+
+	private void endReading(URI location) {
+		synchronized (loadLocks) {
+			reading.remove(location);
+		}
+	}
+
+	private void failCyclic(URI location) throws ProvisionException {
+		String msg = NLS.bind(Messages.repoMan_cyclicChild, location);
+		throw new ProvisionException(new Status(IStatus.ERROR, getBundleId(), ProvisionException.REPOSITORY_FAILED_READ, msg, null));
+	}
+
 	/**
 	 * Relinquishes the exclusive right to load a repository at the given location. Unblocks
 	 * other threads waiting to load at that location.
@@ -626,12 +736,16 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 		SubMonitor sub = SubMonitor.convert(monitor, 100);
 		boolean added = false;
 		IRepository<T> result = null;
+		boolean locked = false;
+		boolean read = false;
 
 		try {
-			enterLoad(location, sub.newChild(5));
+			locked = enterLoad(location, sub.newChild(5));
 			result = basicGetRepository(location);
 			if (result != null)
 				return result;
+			startReading(location);
+			read = true;
 			if (checkNotFound(location))
 				fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 			//add the repository first so that it will be enabled, but don't send add event until after the load
@@ -675,7 +789,10 @@ public abstract class AbstractRepositoryManager<T> implements IRepositoryManager
 				fail(location, ProvisionException.REPOSITORY_NOT_FOUND);
 			}
 		} finally {
-			exitLoad(location);
+			if (read)
+				endReading(location);
+			if (locked)
+				exitLoad(location);
 		}
 		//broadcast the add event after releasing lock
 		if (added)
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository.helpers;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.repository.Activator;
+import org.eclipse.equinox.internal.p2.repository.helpers.AbstractRepositoryManager.Load;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.query.*;
+
+/**
+ * Runs a task for each child of a composite repository, using a bounded number of
+ * jobs so that slow children overlap. The results are kept in the order of the children,
+ * whatever the order in which the tasks complete.
+ * <p>
+ * Only the calling thread reports progress to the given monitor. The tasks are given
+ * a monitor that is canceled when the caller is canceled or when the runner stops early.
+ * A runner can only be used once.
+ * </p>
+ */
+public abstract class CompositeChildRunner<T, R> {
+	/**
+	 * The maximum number of children of a composite repository that are processed at the same time.
+	 */
+	public static final String PROP_MAX_CHILD_JOBS = "eclipse.p2.composite.max.jobs"; //$NON-NLS-1$
+	private static final int DEFAULT_MAX_CHILD_JOBS = 4;
+	private static final int CANCEL_POLL_DELAY = 100;
+
+	private final boolean stopOnFailure;
+	private List<T> children;
+	private Object[] results;
+	private boolean[] completed;
+	private int nextChild = 0;
+	private int active = 0;
+	private boolean stopped = false;
+
+	/**
+	 * @param stopOnFailure whether no further children are started once a task has failed
+	 */
+	protected CompositeChildRunner(boolean stopOnFailure) {
+		this.stopOnFailure = stopOnFailure;
+	}
+
+	/**
+	 * Queries the given children and merges the results in the order of the children.
+	 * Queries that are evaluated one element at a time are run on several children at
+	 * the same time, other queries are run on the compound of the children.
+	 */
+	public static <T> IQueryResult<T> query(List<? extends IQueryable<T>> children, final IQuery<T> query, IProgressMonitor monitor) {
+		// only expression match queries are known to be stateless, MatchQuery subclasses are not
+		if (children.size() <= 1 || !(query instanceof ExpressionMatchQuery<?>))
+			return QueryUtil.compoundQueryable(children).query(query, monitor);
+		CompositeChildRunner<IQueryable<T>, IQueryResult<T>> runner = new CompositeChildRunner<IQueryable<T>, IQueryResult<T>>(false) {
+			protected IQueryResult<T> run(IQueryable<T> child, IProgressMonitor childMonitor) {
+				return child.query(query, childMonitor);
+			}
+		};
+		runner.run(new ArrayList<IQueryable<T>>(children), monitor);
+		// merge the results in the order of the children
+		Set<T> result = new LinkedHashSet<T>();
+		for (int i = 0; i < children.size(); i++) {
+			Exception exception = runner.getException(i);
+			if (exception instanceof RuntimeException)
+				throw (RuntimeException) exception;
+			if (runner.isCompleted(i))
+				for (Iterator<T> iterator = runner.getResult(i).iterator(); iterator.hasNext();)
+					result.add(iterator.next());
+		}
+		return new CollectionResult<T>(result);
+	}
+
+	/**
+	 * Performs the task for one child. This method is called from several threads at the same time.
+	 */
+	protected abstract R run(T child, IProgressMonitor monitor) throws ProvisionException;
+
+	/**
+	 * Performs the task for each of the given children and waits for all of them to complete.
+	 * Each child accounts for one unit of work of the given monitor.
+	 */
+	public void run(List<T> children, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, children.size());
+		this.children = children;
+		this.results = new Object[children.size()];
+		this.completed = new boolean[children.size()];
+		int numberOfJobs = Math.min(children.size(), getMaximumJobs());
+		if (numberOfJobs <= 1) {
+			for (int i = 0; i < children.size() && !isStopped(); i++) {
+				results[i] = perform(children.get(i), sub.newChild(1));
+				completed[i] = true;
+				if (stopOnFailure && results[i] instanceof Exception)
+					stopped = true;
+			}
+			sub.done();
+			return;
+		}
+		IProgressMonitor jobMonitor = new NullProgressMonitor() {
+			public boolean isCanceled() {
+				return isStopped();
+			}
+		};
+		Load parent = Load.getCurrent();
+		for (int i = 0; i < numberOfJobs; i++)
+			new ChildJob(jobMonitor, parent).schedule();
+		waitForJobs(sub);
+	}
+
+	private synchronized void waitForJobs(SubMonitor sub) {
+		int reported = 0;
+		while (true) {
+			int done = 0;
+			for (int i = 0; i < completed.length; i++)
+				if (completed[i])
+					done++;
+			sub.worked(done - reported);
+			reported = done;
+			if (active == 0 && (nextChild == children.size() || stopped))
+				break;
+			if (sub.isCanceled())
+				stopped = true;
+			try {
+				wait(CANCEL_POLL_DELAY);
+			} catch (InterruptedException e) {
+				stopped = true;
+			}
+		}
+		sub.done();
+	}
+
+	private Object perform(T child, IProgressMonitor monitor) {
+		try {
+			return run(child, monitor);
+		} catch (ProvisionException e) {
+			return e;
+		} catch (RuntimeException e) {
+			return e;
+		}
+	}
+
+	private synchronized int next() {
+		if (stopped || nextChild == children.size())
+			return -1;
+		active++;
+		return nextChild++;
+	}
+
+	private synchronized void completed(int index, Object result) {
+		active--;
+		results[index] = result;
+		completed[index] = true;
+		if (stopOnFailure && result instanceof Exception)
+			stopped = true;
+		notifyAll();
+	}
+
+	synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns whether the task of the child at the given index has completed. A task
+	 * does not complete if the runner stopped before it was started.
+	 */
+	public synchronized boolean isCompleted(int index) {
+		return completed[index];
+	}
+
+	/**
+	 * Returns the result of the child at the given index, or <code>null</code> if its task
+	 * failed or did not complete.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized R getResult(int index) {
+		Object result = results[index];
+		return result instanceof Exception ? null : (R) result;
+	}
+
+	/**
+	 * Returns the exception thrown by the task of the child at the given index, either a
+	 * {@link ProvisionException} or a {@link RuntimeException}, or <code>null</code>.
+	 */
+	public synchronized Exception getException(int index) {
+		Object result = results[index];
+		return result instanceof Exception ? (Exception) result : null;
+	}
+
+	private static int getMaximumJobs() {
+		String maxJobsString = null;
+		try {
+			maxJobsString = Activator.getContext().getProperty(PROP_MAX_CHILD_JOBS);
+			if (maxJobsString != null)
+				return Math.max(1, Integer.parseInt(maxJobsString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (maxJobsString != null)
+				System.err.println("Ignoring user-specified '" + PROP_MAX_CHILD_JOBS + "' value of: " + maxJobsString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_MAX_CHILD_JOBS;
+	}
+
+	/**
+	 * A job that performs the tasks of the children handed out by the runner. The
+	 * repositories that the tasks load are loaded by a child load of the load of the
+	 * thread that started the runner, so that a child that refers back to one of its
+	 * parents fails instead of waiting for it forever.
+	 */
+	private class ChildJob extends Job {
+		private final IProgressMonitor jobMonitor;
+		private final Load parent;
+
+		ChildJob(IProgressMonitor jobMonitor, Load parent) {
+			super(Messages.repoMan_compositeChildren);
+			this.jobMonitor = jobMonitor;
+			this.parent = parent;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == CompositeChildRunner.this;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			Load previous = Load.setCurrent(new Load(parent));
+			try {
+				int index;
+				while ((index = next()) != -1) {
+					Object result = null;
+					try {
+						result = perform(children.get(index), jobMonitor);
+					} finally {
+						completed(index, result);
+					}
+				}
+			} finally {
+				Load.setCurrent(previous);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+}
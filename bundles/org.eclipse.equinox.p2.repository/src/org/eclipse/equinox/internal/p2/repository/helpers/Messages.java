@@ -26,6 +26,8 @@ class Messages extends NLS {
 	}
 
 	public static String repoMan_adding;
+	public static String repoMan_compositeChildren;
+	public static String repoMan_cyclicChild;
 	public static String repoMan_exists;
 	public static String repoMan_failedRead;
 	public static String repoMan_internalError;
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.provisional.p2.repository;
 
 import java.net.URI;
 import java.util.EventObject;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.ICoalescingEvent;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.repository.IRepository;
 
@@ -22,7 +23,7 @@ import org.eclipse.equinox.p2.repository.IRepository;
  * @see IProvisioningEventBus
  * @noextend This class is not intended to be subclassed by clients.
  */
-public class RepositoryEvent extends EventObject {
+public class RepositoryEvent extends EventObject implements ICoalescingEvent {
 	private static final long serialVersionUID = 3082402920617281765L;
 
 	/**
@@ -149,6 +150,19 @@ public class RepositoryEvent extends EventObject {
 		return isEnabled;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.ICoalescingEvent#replaces(java.util.EventObject)
+	 */
+	public boolean replaces(EventObject queued) {
+		// only the last change and enablement state of a repository matter to a listener
+		if (kind != CHANGED && kind != ENABLEMENT)
+			return false;
+		if (!(queued instanceof RepositoryEvent))
+			return false;
+		RepositoryEvent other = (RepositoryEvent) queued;
+		return other.kind == kind && other.type == type && getSource().equals(other.getSource());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.util.EventObject#toString()
@@ -77,6 +77,11 @@ public abstract class AbstractProvisioningTest extends TestCase {
 	 * will be removed automatically at the end of the test.
 	 */
 	protected List profilesToRemove = new ArrayList();
+	/**
+	 * Tracks the original values of the system properties set by this test instance.
+	 * The values will be restored automatically at the end of the test.
+	 */
+	private Map systemProperties = new HashMap();
 
 	private File testFolder = null;
 	protected Object previousSelfValue = null;
@@ -935,11 +940,33 @@ public abstract class AbstractProvisioningTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Sets the given system property, or clears it if the value is <code>null</code>, for
+	 * the rest of the test. The original value is restored in the tearDown method.
+	 */
+	protected void setSystemProperty(String key, String value) {
+		if (!systemProperties.containsKey(key))
+			systemProperties.put(key, System.getProperty(key));
+		if (value == null)
+			System.getProperties().remove(key);
+		else
+			System.setProperty(key, value);
+	}
+
 	/* (non-Javadoc)
 	 * @see junit.framework.TestCase#tearDown()
 	 */
 	protected void tearDown() throws Exception {
 		super.tearDown();
+		//restore all system properties set by this test
+		for (Iterator it = systemProperties.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if (entry.getValue() == null)
+				System.getProperties().remove(entry.getKey());
+			else
+				System.setProperty((String) entry.getKey(), (String) entry.getValue());
+		}
+		systemProperties.clear();
 		//remove all metadata repositories created by this test
 		IMetadataRepositoryManager repoMan = getMetadataRepositoryManager();
 		if (!metadataRepos.isEmpty()) {
@@ -11,6 +11,7 @@
 package org.eclipse.equinox.p2.tests.artifact.processors;
 
 import java.io.*;
+import java.util.Arrays;
 import junit.framework.TestCase;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -101,4 +102,33 @@ public class ZipVerifierProcessorTest extends TestCase {
 		assertEquals(step.getStatus().getSeverity(), IStatus.ERROR);
 
 	}
+
+	public void testBlockWrites() throws IOException {
+		Bundle bundle = TestActivator.getContext().getBundle();
+		InputStream inputStream = bundle.getEntry("testData/zipValidation/a.zip").openStream();
+		ByteArrayOutputStream source = new ByteArrayOutputStream();
+		FileUtils.copyStream(inputStream, true, source, true);
+		byte[] bytes = source.toByteArray();
+
+		// split the header across a single byte write and two block writes
+		ProcessingStep step = new ZipVerifierStep();
+		ByteArrayOutputStream destination = new ByteArrayOutputStream();
+		step.link(destination, new NullProgressMonitor());
+		step.write(bytes[0]);
+		step.write(bytes, 1, 2);
+		step.write(bytes, 3, bytes.length - 3);
+		step.close();
+
+		assertEquals(step.getStatus().getSeverity(), IStatus.OK);
+		assertTrue(Arrays.equals(bytes, destination.toByteArray()));
+
+		// a bad byte in the middle of a block
+		bytes[2] = 0;
+		step = new ZipVerifierStep();
+		step.link(new ByteArrayOutputStream(), new NullProgressMonitor());
+		step.write(bytes, 0, bytes.length);
+		step.close();
+
+		assertEquals(step.getStatus().getSeverity(), IStatus.ERROR);
+	}
 }
@@ -39,6 +39,8 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 	//artifact repository to remove on tear down
 	private File repositoryFile = null;
 	private URI repositoryURI = null;
+	//tells the reader threads of testConcurrentReadWhileAdding to stop
+	private volatile boolean addingDone = false;
 
 	protected void tearDown() throws Exception {
 		super.tearDown();
@@ -425,6 +427,87 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 		assertEquals(d3.getArtifactKey(), resultDescriptor.getArtifactKey());
 	}
 
+	public void testConcurrentReadWhileAdding() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testConcurrentReadWhileAdding");
+		repositoryURI = folder.toURI();
+
+		final IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final int count = 500;
+		final ArtifactDescriptor[] descriptors = new ArtifactDescriptor[count];
+		for (int i = 0; i < count; i++)
+			descriptors[i] = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a" + i, Version.create("1.0.0")));
+
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				public void run() {
+					try {
+						while (!addingDone) {
+							for (int i = 0; i < count; i++) {
+								// a key that is known must resolve to its descriptor
+								if (repo.contains(descriptors[i].getArtifactKey()))
+									assertEquals(1, repo.getArtifactDescriptors(descriptors[i].getArtifactKey()).length);
+							}
+							queryResultSize(repo.query(ArtifactKeyQuery.ALL_KEYS, null));
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		repo.executeBatch(new IRunnableWithProgress() {
+			public void run(IProgressMonitor monitor) throws OperationCanceledException {
+				for (int i = 0; i < count; i++)
+					repo.addDescriptor(descriptors[i]);
+			}
+		}, new NullProgressMonitor());
+		addingDone = true;
+		for (int t = 0; t < readers.length; t++)
+			readers[t].join();
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(count, queryResultSize(repo.query(ArtifactKeyQuery.ALL_KEYS, null)));
+		for (int i = 0; i < count; i++)
+			assertTrue(repo.contains(descriptors[i]));
+	}
+
+	public void _testConcurrentLookupPerformance() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testConcurrentLookupPerformance");
+		repositoryURI = folder.toURI();
+
+		final IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		final int count = 50000;
+		final ArtifactDescriptor[] descriptors = new ArtifactDescriptor[count];
+		for (int i = 0; i < count; i++)
+			descriptors[i] = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a" + i, Version.create("1.0.0")));
+		repo.addDescriptors(descriptors);
+
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			Thread[] lookups = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				lookups[t] = new Thread() {
+					public void run() {
+						for (int i = 0; i < count; i++) {
+							repo.contains(descriptors[i]);
+							repo.getArtifactDescriptors(descriptors[i].getArtifactKey());
+							((IFileArtifactRepository) repo).getArtifactFile(descriptors[i]);
+						}
+					}
+				};
+			}
+			long start = System.currentTimeMillis();
+			for (int t = 0; t < threads; t++)
+				lookups[t].start();
+			for (int t = 0; t < threads; t++)
+				lookups[t].join();
+			long end = System.currentTimeMillis();
+			System.out.println(threads + " threads, " + threads * count + " lookups: " + (end - start) + "ms");
+		}
+	}
+
 	/*
 	 * Tests the number of threads allowed
 	 */
@@ -171,6 +171,35 @@ public class ProcessingStepHandlerTest extends AbstractProvisioningTest {
 		assertEquals(Multiplier.class, steps[0].getClass());
 	}
 
+	public void testCreateFromCachedFactory() throws IOException {
+		IProcessingStepDescriptor[] descriptors = new IProcessingStepDescriptor[] {new ProcessingStepDescriptor("org.eclipse.equinox.p2.processing.Adder", "1", true)};
+		long count = ProcessingStepHandler.getCreationCount();
+		long failures = ProcessingStepHandler.getFailureCount();
+		ProcessingStep[] first = handler.create(getAgent(), descriptors, null);
+		ProcessingStep[] second = new ProcessingStepHandler().create(getAgent(), descriptors, null);
+		assertEquals(Adder.class, first[0].getClass());
+		assertEquals(Adder.class, second[0].getClass());
+		assertNotSame(first[0], second[0]);
+		assertEquals(count + 2, ProcessingStepHandler.getCreationCount());
+		assertEquals(failures, ProcessingStepHandler.getFailureCount());
+
+		// the cached step is initialized from its descriptor
+		ByteArrayOutputStream result = new ByteArrayOutputStream(10);
+		OutputStream testStream = handler.link(second, result, monitor);
+		testStream.write(new byte[] {1, 2});
+		testStream.close();
+		assertTrue(Arrays.equals(new byte[] {2, 3}, result.toByteArray()));
+
+		IProcessingStepDescriptor[] missing = new IProcessingStepDescriptor[] {new ProcessingStepDescriptor("org.eclipse.equinox.p2.processing.Missing", null, true)};
+		ProcessingStep[] steps = handler.create(getAgent(), missing, null);
+		assertEquals(IStatus.ERROR, steps[0].getStatus().getSeverity());
+		assertEquals(failures + 1, ProcessingStepHandler.getFailureCount());
+
+		ProcessingStepHandler.clearFactories();
+		steps = handler.create(getAgent(), descriptors, null);
+		assertEquals(Adder.class, steps[0].getClass());
+	}
+
 	public void testCreatePack200UnpackerPS() {
 		IProcessingStepDescriptor[] descriptors = new IProcessingStepDescriptor[] {new ProcessingStepDescriptor("org.eclipse.equinox.p2.processing.Pack200Unpacker", null, true)};
 		ProcessingStep[] steps = handler.create(getAgent(), descriptors, null);
@@ -286,6 +286,90 @@ public class BackupTest extends AbstractProvisioningTest {
 		assertNoGarbage(store);
 	}
 
+	public void testRestoreManyFiles() throws IOException {
+		BackupStore store = new BackupStore(null, BUPREFIX);
+		// enough files for the restore to be done by several threads
+		for (int i = 0; i < 300; i++) {
+			File file = new File(bDir, "dir" + i % 7 + "/file" + i + ".txt");
+			writeToFile(file, "file" + i + "\n");
+			store.backup(file);
+			writeToFile(file, "XXXX\n");
+		}
+		store.restore();
+		for (int i = 0; i < 300; i++)
+			assertFileContent("File not restored", new File(bDir, "dir" + i % 7 + "/file" + i + ".txt"), "file" + i);
+		assertNoGarbage(store);
+	}
+
+	/**
+	 * Backs up a.txt and b.txt, overwrites them, and makes the store look like a store
+	 * abandoned by another process, by renaming its backup directory and journal.
+	 */
+	private BackupStore abandonStore(File buParent) throws IOException {
+		BackupStore store = new BackupStore(buParent, BUPREFIX, "label");
+		store.backup(aTxt);
+		store.backupCopy(bTxt);
+		writeToFile(aTxt, "XXXX\n- This file should be restored with A");
+		writeToFile(bTxt, "XXXX\n- This file should be restored with B");
+		// the stores that are in use are not recovered
+		assertEquals(0, BackupStore.findAbandoned(buParent, BUPREFIX).length);
+
+		String name = BUPREFIX + "_1_1";
+		assertTrue(new File(buParent, store.getBackupName()).renameTo(new File(buParent, name)));
+		assertTrue(new File(buParent, store.getBackupName() + ".journal").renameTo(new File(buParent, name + ".journal")));
+		BackupStore[] abandoned = BackupStore.findAbandoned(buParent, BUPREFIX);
+		assertEquals(1, abandoned.length);
+		assertEquals(name, abandoned[0].getBackupName());
+		assertEquals("label", abandoned[0].getLabel());
+		// stores with another prefix are not found
+		assertEquals(0, BackupStore.findAbandoned(buParent, BUPREFIX.substring(1)).length);
+		return abandoned[0];
+	}
+
+	public void testRecoverRestore() throws IOException {
+		File buParent = getTempFolder();
+		BackupStore store = abandonStore(buParent);
+		assertTrue(store.recover(true));
+		assertFileContent("A not restored", aTxt, "A");
+		assertFileContent("B not restored", bTxt, "B");
+		assertEquals(0, buParent.list().length);
+		assertEquals(0, BackupStore.findAbandoned(buParent, BUPREFIX).length);
+	}
+
+	public void testRecoverDiscard() throws IOException {
+		File buParent = getTempFolder();
+		BackupStore store = abandonStore(buParent);
+		assertFalse(store.recover(false));
+		assertFileContent("A restored", aTxt, "XXXX");
+		assertFileContent("B restored", bTxt, "XXXX");
+		assertEquals(0, buParent.list().length);
+	}
+
+	/**
+	 * Tests the recovery of a store abandoned while a file was copied to the backup.
+	 */
+	public void testRecoverPartialCopy() throws IOException {
+		File buParent = getTempFolder();
+		BackupStore store = abandonStore(buParent);
+		// record the copy of c.txt, which was not finished
+		Writer journal = new FileWriter(new File(buParent, store.getBackupName() + ".journal"), true);
+		try {
+			journal.write("copy " + cTxt.getAbsolutePath() + "\n");
+		} finally {
+			journal.close();
+		}
+		store = BackupStore.findAbandoned(buParent, BUPREFIX)[0];
+		File backupDir = new File(buParent, store.getBackupName());
+		// the backup of /x/c.txt is in _/x/c.txt, and the backup of C:\x\c.txt in C\x\c.txt
+		String path = cTxt.getAbsolutePath();
+		File partial = new File(backupDir, path.startsWith(File.separator) ? "_" + path : path.replaceFirst(":", ""));
+		writeToFile(partial, "partial");
+		assertTrue(store.recover(true));
+		assertFileContent("A not restored", aTxt, "A");
+		assertFileContent("C changed", cTxt, "C");
+		assertFalse(backupDir.exists());
+	}
+
 	private void assertNoGarbage(BackupStore store) {
 		File buDir = new File(store.getBackupRoot(), BUPREFIX);
 		if (buDir.exists())
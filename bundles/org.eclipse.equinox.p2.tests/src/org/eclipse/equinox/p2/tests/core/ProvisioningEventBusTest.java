@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.core;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.ProvisioningEventBus;
+import org.eclipse.equinox.internal.p2.engine.ProfileEvent;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
+import org.eclipse.equinox.p2.engine.IProfileEvent;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the delivery of events by the {@link ProvisioningEventBus}.
+ */
+public class ProvisioningEventBusTest extends AbstractProvisioningTest {
+	/**
+	 * Records events, and waits in the first notification until it is released.
+	 */
+	class RecordingListener implements BatchProvisioningListener {
+		final List<EventObject> events = Collections.synchronizedList(new ArrayList<EventObject>());
+		int batches = 0;
+		boolean blocked;
+
+		RecordingListener(boolean blocked) {
+			this.blocked = blocked;
+		}
+
+		public void notify(EventObject o) {
+			events.add(o);
+			waitUntilReleased();
+		}
+
+		public void notify(EventObject[] batch) {
+			events.addAll(Arrays.asList(batch));
+			synchronized (this) {
+				batches++;
+			}
+			waitUntilReleased();
+		}
+
+		synchronized void waitUntilReleased() {
+			while (blocked) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		synchronized void release() {
+			blocked = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * A listener that is notified one event at a time.
+	 */
+	class SingleListener implements ProvisioningListener {
+		final RecordingListener recorder;
+
+		SingleListener(RecordingListener recorder) {
+			this.recorder = recorder;
+		}
+
+		public void notify(EventObject o) {
+			recorder.notify(o);
+		}
+	}
+
+	ProvisioningEventBus bus;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		bus = new ProvisioningEventBus();
+	}
+
+	protected void tearDown() throws Exception {
+		bus.close();
+		super.tearDown();
+	}
+
+	private void waitForEvents(List<EventObject> events, int count) throws InterruptedException {
+		for (int i = 0; i < 500 && events.size() < count; i++)
+			Thread.sleep(10);
+		assertEquals(count, events.size());
+	}
+
+	public void testSlowListener() throws Exception {
+		RecordingListener slow = new RecordingListener(true);
+		RecordingListener fast = new RecordingListener(false);
+		bus.addListener(new SingleListener(slow));
+		bus.addListener(new SingleListener(fast));
+		for (int i = 0; i < 100; i++)
+			bus.publishEvent(new EventObject(new Integer(i)));
+
+		// the fast listener gets all events while the slow one is still busy with the first
+		waitForEvents(fast.events, 100);
+		for (int i = 0; i < 100; i++)
+			assertEquals(new Integer(i), fast.events.get(i).getSource());
+		assertEquals(1, slow.events.size());
+		assertTrue(bus.getMaxQueueDepth() > 0);
+
+		slow.release();
+		waitForEvents(slow.events, 100);
+		for (int i = 0; i < 100; i++)
+			assertEquals(new Integer(i), slow.events.get(i).getSource());
+		assertEquals(0, bus.getQueueDepth());
+		assertEquals(200, bus.getDeliveredCount());
+	}
+
+	public void testSynchronousListener() {
+		final List<EventObject> events = new ArrayList<EventObject>();
+		bus.addListener(new SynchronousProvisioningListener() {
+			public void notify(EventObject o) {
+				events.add(o);
+			}
+		});
+		EventObject event = new EventObject(this);
+		bus.publishEvent(event);
+		assertEquals(1, events.size());
+		assertSame(event, events.get(0));
+	}
+
+	public void testCoalescing() throws Exception {
+		RecordingListener listener = new RecordingListener(true);
+		bus.addListener(new SingleListener(listener));
+		bus.publishEvent(new ProfileEvent("other", IProfileEvent.CHANGED));
+		waitForEvents(listener.events, 1);
+		for (int i = 0; i < 50; i++)
+			bus.publishEvent(new ProfileEvent("profile", IProfileEvent.CHANGED));
+		bus.publishEvent(new ProfileEvent("profile", IProfileEvent.REMOVED));
+		// a change after the removal must not be moved before it
+		bus.publishEvent(new ProfileEvent("profile", IProfileEvent.CHANGED));
+		assertEquals(49, bus.getCoalescedCount());
+
+		listener.release();
+		waitForEvents(listener.events, 4);
+		assertEquals(IProfileEvent.CHANGED, ((ProfileEvent) listener.events.get(1)).getReason());
+		assertEquals(IProfileEvent.REMOVED, ((ProfileEvent) listener.events.get(2)).getReason());
+		assertEquals(IProfileEvent.CHANGED, ((ProfileEvent) listener.events.get(3)).getReason());
+	}
+
+	public void testBatch() throws Exception {
+		RecordingListener listener = new RecordingListener(true);
+		bus.addListener(listener);
+		bus.publishEvent(new EventObject(new Integer(-1)));
+		waitForEvents(listener.events, 1);
+		for (int i = 0; i < 50; i++)
+			bus.publishEvent(new EventObject(new Integer(i)));
+
+		listener.release();
+		waitForEvents(listener.events, 51);
+		for (int i = 0; i < 50; i++)
+			assertEquals(new Integer(i), listener.events.get(i + 1).getSource());
+		synchronized (listener) {
+			assertEquals(2, listener.batches);
+		}
+	}
+
+	public void testRemoveListener() throws Exception {
+		RecordingListener listener = new RecordingListener(true);
+		SingleListener single = new SingleListener(listener);
+		bus.addListener(single);
+		for (int i = 0; i < 10; i++)
+			bus.publishEvent(new EventObject(new Integer(i)));
+		waitForEvents(listener.events, 1);
+		bus.removeListener(single);
+		listener.release();
+		// queued events are discarded
+		Thread.sleep(100);
+		assertEquals(1, listener.events.size());
+		assertEquals(0, bus.getQueueDepth());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,13 +12,21 @@ package org.eclipse.equinox.p2.tests.engine;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.security.cert.Certificate;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.equinox.internal.p2.core.ProvisioningAgent;
 import org.eclipse.equinox.internal.p2.engine.EngineActivator;
 import org.eclipse.equinox.internal.p2.engine.phases.CertificateChecker;
+import org.eclipse.equinox.internal.p2.engine.phases.SignedContentCache;
+import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.UIServices;
 import org.eclipse.equinox.p2.tests.*;
+import org.eclipse.osgi.service.security.TrustEngine;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 
 /**
  * Tests for {@link CertificateChecker}.
@@ -27,6 +35,8 @@ public class CertificateCheckerTest extends AbstractProvisioningTest {
 	class CertificateTestService extends UIServices {
 		public boolean unsignedReturnValue = true;
 		public boolean wasPrompted = false;
+		public String[] unsignedDetail;
+		public Certificate[][] untrustedChain;
 
 		public AuthenticationInfo getUsernamePassword(String location) {
 			return null;
@@ -38,6 +48,8 @@ public class CertificateCheckerTest extends AbstractProvisioningTest {
 
 		public TrustInfo getTrustInfo(Certificate[][] untrustedChain, String[] unsignedDetail) {
 			wasPrompted = true;
+			this.unsignedDetail = unsignedDetail;
+			this.untrustedChain = untrustedChain;
 			return new TrustInfo(null, false, unsignedReturnValue);
 		}
 
@@ -156,4 +168,149 @@ public class CertificateCheckerTest extends AbstractProvisioningTest {
 			System.getProperties().remove(EngineActivator.PROP_UNSIGNED_POLICY);
 		}
 	}
+
+	/**
+	 * Tests that several artifacts are verified, and that the results are cached in the
+	 * data area of the agent.
+	 */
+	public void testVerificationCache() {
+		File dataArea = createDataArea();
+		File[] copies = new File[10];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = new File(dataArea, "unsigned" + i + ".jar");
+			copy("0.1", unsigned, copies[i]);
+		}
+		setSystemProperty(EngineActivator.PROP_UNSIGNED_POLICY, EngineActivator.UNSIGNED_PROMPT);
+		try {
+			checker.add(copies);
+			assertEquals("1.0", IStatus.OK, checker.start().getSeverity());
+			assertEquals("1.1", copies.length, serviceUI.unsignedDetail.length);
+
+			// the copies have the same content, so they share one entry
+			File cacheFile = new File(new File(dataArea, EngineActivator.ID), "signedContent.cache");
+			assertTrue("2.0", cacheFile.exists());
+			SignedContentCache cache = new SignedContentCache(cacheFile);
+			assertEquals("2.1", 1, cache.size());
+			Certificate[][] chains = cache.get(SignedContentCache.getKey(unsigned));
+			assertNotNull("2.2", chains);
+			assertEquals("2.3", 0, chains.length);
+
+			// the second check uses the cache and gives the same result
+			long lastModified = cacheFile.lastModified() - 10000;
+			cacheFile.setLastModified(lastModified);
+			serviceUI.wasPrompted = false;
+			checker = new CertificateChecker(testAgent);
+			checker.add(copies);
+			assertEquals("3.0", IStatus.OK, checker.start().getSeverity());
+			assertTrue("3.1", serviceUI.wasPrompted);
+			assertEquals("3.2", copies.length, serviceUI.unsignedDetail.length);
+			// reading the cache does not write it again
+			assertEquals("3.3", lastModified, cacheFile.lastModified());
+		} catch (IOException e) {
+			fail("4.0", e);
+		}
+	}
+
+	/**
+	 * Tests that a signed artifact whose signers are cached is trusted exactly when its
+	 * signers are trusted, also after the trust changes.
+	 */
+	public void testVerificationCacheOfSignedArtifact() {
+		File dataArea = createDataArea();
+		File signed = new File(dataArea, "signed.jar");
+		copy("0.1", getTestData("0.2", "testData/eclipseTouchpoint/bundles/org.eclipse.osgi_3.4.2.R34x_v20080826-1230.jar"), signed);
+		TestTrustEngine trustEngine = new TestTrustEngine();
+		Dictionary properties = new Hashtable();
+		properties.put(Constants.SERVICE_RANKING, new Integer(Integer.MAX_VALUE));
+		ServiceRegistration registration = TestActivator.getContext().registerService(TrustEngine.class.getName(), trustEngine, properties);
+		setSystemProperty(EngineActivator.PROP_UNSIGNED_POLICY, EngineActivator.UNSIGNED_PROMPT);
+		try {
+			checker.add(signed);
+			IStatus uncached = checker.start();
+			File cacheFile = new File(new File(dataArea, EngineActivator.ID), "signedContent.cache");
+			Certificate[][] chains = new SignedContentCache(cacheFile).get(SignedContentCache.getKey(signed));
+			assertNotNull("1.0", chains);
+			assertTrue("1.1", chains.length > 0);
+			boolean trustedBefore = serviceUI.untrustedChain == null;
+
+			// the cached signers give the same result
+			serviceUI.untrustedChain = null;
+			checker = new CertificateChecker(testAgent);
+			checker.add(signed);
+			assertEquals("2.0", uncached.getSeverity(), checker.start().getSeverity());
+			assertEquals("2.1", trustedBefore, serviceUI.untrustedChain == null);
+
+			// trusting the signer applies to the cached signers
+			trustEngine.trusted = true;
+			serviceUI.untrustedChain = null;
+			checker = new CertificateChecker(testAgent);
+			checker.add(signed);
+			assertEquals("3.0", IStatus.OK, checker.start().getSeverity());
+			assertNull("3.1", serviceUI.untrustedChain);
+
+			// and so does no longer trusting it
+			trustEngine.trusted = false;
+			checker = new CertificateChecker(testAgent);
+			checker.add(signed);
+			assertEquals("4.0", uncached.getSeverity(), checker.start().getSeverity());
+			assertEquals("4.1", trustedBefore, serviceUI.untrustedChain == null);
+		} catch (IOException e) {
+			fail("5.0", e);
+		} finally {
+			registration.unregister();
+		}
+	}
+
+	private File createDataArea() {
+		final File dataArea = getTempFolder();
+		testAgent.registerService(IAgentLocation.SERVICE_NAME, new IAgentLocation() {
+			public URI getDataArea(String namespace) {
+				return new File(dataArea, namespace).toURI();
+			}
+
+			public URI getRootLocation() {
+				return dataArea.toURI();
+			}
+		});
+		return dataArea;
+	}
+
+	/**
+	 * A trust engine that trusts the root of every chain while {@link #trusted} is set.
+	 */
+	static class TestTrustEngine extends TrustEngine {
+		volatile boolean trusted = false;
+
+		public Certificate findTrustAnchor(Certificate[] certChain) {
+			return trusted && certChain.length > 0 ? certChain[certChain.length - 1] : null;
+		}
+
+		protected String doAddTrustAnchor(Certificate anchor, String alias) {
+			throw new UnsupportedOperationException();
+		}
+
+		protected void doRemoveTrustAnchor(Certificate anchor) {
+			throw new UnsupportedOperationException();
+		}
+
+		protected void doRemoveTrustAnchor(String alias) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Certificate getTrustAnchor(String alias) {
+			return null;
+		}
+
+		public String[] getAliases() {
+			return new String[0];
+		}
+
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		public String getName() {
+			return "test";
+		}
+	}
 }
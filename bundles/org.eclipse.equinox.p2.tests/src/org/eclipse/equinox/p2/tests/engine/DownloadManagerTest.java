@@ -12,15 +12,18 @@ package org.eclipse.equinox.p2.tests.engine;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.engine.DownloadManager;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
-import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.*;
 
 /**
  * Simple tests of {@link DownloadManager} API.
@@ -227,6 +230,106 @@ public class DownloadManagerTest extends AbstractProvisioningTest {
 
 	}
 
+	/**
+	 * Tests that a request that fails on one repository is fetched from the
+	 * next repository that contains the artifact.
+	 */
+	public void testFallbackToNextRepository() throws Exception {
+		IArtifactKey key = new ArtifactKey("osgi.bundle", "fallback", Version.create("1.0.0"));
+		URI[] locations = new URI[] {new URI("memory:/fallback/one"), new URI("memory:/fallback/two")};
+		createFetchRepository(locations[0], new IArtifactKey[] {key});
+		createFetchRepository(locations[1], new IArtifactKey[] {key});
+		try {
+			ProvisioningContext context = new ProvisioningContext(getAgent());
+			context.setArtifactRepositories(locations);
+			DownloadManager manager = createDownloadManager(context);
+
+			FetchRequest request = new FetchRequest(key, 1);
+			manager.add(request);
+			IStatus result = manager.start(null);
+			assertTrue("1.0", result.isOK());
+			assertTrue("1.1", request.getResult().isOK());
+			assertEquals("1.2", 2, request.performedOn.size());
+			assertFalse("1.3", request.performedOn.get(0).equals(request.performedOn.get(1)));
+		} finally {
+			getArtifactRepositoryManager().removeRepository(locations[0]);
+			getArtifactRepositoryManager().removeRepository(locations[1]);
+		}
+	}
+
+	/**
+	 * Tests fetching requests that are spread over several repositories.
+	 */
+	public void testFetchFromSeveralRepositories() throws Exception {
+		URI[] locations = new URI[] {new URI("memory:/several/one"), new URI("memory:/several/two"), new URI("memory:/several/three")};
+		FetchRequest[] requests = new FetchRequest[30];
+		for (int i = 0; i < requests.length; i++)
+			requests[i] = new FetchRequest(new ArtifactKey("osgi.bundle", "several" + i, Version.create("1.0.0")), 0);
+		for (int i = 0; i < locations.length; i++) {
+			ArrayList<IArtifactKey> keys = new ArrayList<IArtifactKey>();
+			for (int j = i; j < requests.length; j += locations.length)
+				keys.add(requests[j].getArtifactKey());
+			createFetchRepository(locations[i], keys.toArray(new IArtifactKey[keys.size()]));
+		}
+		try {
+			ProvisioningContext context = new ProvisioningContext(getAgent());
+			context.setArtifactRepositories(locations);
+			DownloadManager manager = createDownloadManager(context);
+			manager.add(requests);
+			IStatus result = manager.start(null);
+			assertTrue("1.0", result.isOK());
+			for (int i = 0; i < requests.length; i++) {
+				assertTrue("1.1." + i, requests[i].getResult().isOK());
+				assertEquals("1.2." + i, Collections.singletonList(locations[i % locations.length]), requests[i].performedOn);
+			}
+		} finally {
+			for (int i = 0; i < locations.length; i++)
+				getArtifactRepositoryManager().removeRepository(locations[i]);
+		}
+	}
+
+	private void createFetchRepository(URI location, IArtifactKey[] keys) {
+		TestArtifactRepository repository = new TestArtifactRepository(getAgent(), location) {
+			public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
+				for (int i = 0; i < requests.length; i++)
+					requests[i].perform(this, monitor);
+				return Status.OK_STATUS;
+			}
+		};
+		for (int i = 0; i < keys.length; i++)
+			repository.addArtifact(keys[i], new byte[0]);
+		assertTrue(repository.addToRepositoryManager());
+	}
+
+	/**
+	 * A request that records the repositories it was performed on and fails
+	 * the given number of times before it succeeds.
+	 */
+	static class FetchRequest implements IArtifactRequest {
+		final List<URI> performedOn = Collections.synchronizedList(new ArrayList<URI>());
+		private final IArtifactKey key;
+		private int failures;
+		private IStatus result;
+
+		FetchRequest(IArtifactKey key, int failures) {
+			this.key = key;
+			this.failures = failures;
+		}
+
+		public IArtifactKey getArtifactKey() {
+			return key;
+		}
+
+		public synchronized void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+			performedOn.add(sourceRepository.getLocation());
+			result = failures-- > 0 ? new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, "Failed to fetch " + key) : Status.OK_STATUS;
+		}
+
+		public synchronized IStatus getResult() {
+			return result;
+		}
+	}
+
 	private DownloadManager createDownloadManager(ProvisioningContext context) {
 		return new DownloadManager(context, getAgent());
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -107,6 +107,40 @@ public class ProfileMetadataRepositoryTest extends AbstractProvisioningTest {
 		assertContains("1.1", repoCollector, profileCollector);
 	}
 
+	public void testLoadProfileDelta() throws ProvisionException {
+		File tempFolder = getTempFolder();
+		tempFolder.mkdirs();
+		SimpleProfileRegistry registry = new SimpleProfileRegistry(getAgent(), tempFolder, null, false);
+		Profile profile = (Profile) registry.addProfile(getName());
+		for (int i = 0; i < 20; i++)
+			profile.addInstallableUnit(createIU("test" + i));
+		saveProfile(registry, profile);
+		profile.addInstallableUnit(createIU("added"));
+		saveProfile(registry, profile);
+
+		File deltaFile = new File(new File(tempFolder, getName() + ".profile"), "" + profile.getTimestamp() + ".delta.gz");
+		assertTrue("0.1", deltaFile.exists());
+
+		ProfileMetadataRepositoryFactory factory = new ProfileMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		ProfileMetadataRepository repo = (ProfileMetadataRepository) factory.load(deltaFile.toURI(), 0, getMonitor());
+		IQueryResult repoCollector = repo.query(QueryUtil.createIUAnyQuery(), getMonitor());
+		assertEquals("1.0", 21, repoCollector.toUnmodifiableSet().size());
+		assertFalse("1.1", repo.query(QueryUtil.createIUQuery("added"), getMonitor()).isEmpty());
+	}
+
+	private static void saveProfile(SimpleProfileRegistry registry, Profile profile) {
+		profile.setChanged(false);
+		registry.lockProfile(profile);
+		try {
+			profile.setChanged(true);
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+			profile.setChanged(false);
+		}
+	}
+
 	public void DISABLED_testDefaultAgentRepoAndBundlePoolFromProfileRepo() throws InterruptedException {
 		File testData = getTestData("0.1", "testData/sdkpatchingtest");
 		// /p2/org.eclipse.equinox.p2.engine/profileRegistry");
@@ -22,6 +22,7 @@ import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 import org.eclipse.equinox.p2.tests.TestActivator;
@@ -654,6 +655,121 @@ public class ProfileRegistryTest extends AbstractProvisioningTest {
 		assertEquals(1, filesFound.length);
 	}
 
+	public void testProfileDeltas() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Profile profile = (Profile) profileRegistry.addProfile(getName());
+		for (int i = 0; i < 20; i++)
+			profile.addInstallableUnit(createIU("test" + i));
+		saveProfile(profileRegistry, profile);
+
+		// small changes are saved as deltas against the previous state
+		List<IProfile> states = new ArrayList<IProfile>();
+		for (int i = 0; i < 4; i++) {
+			profile.addInstallableUnit(createIU("added" + i));
+			profile.removeInstallableUnit(createIU("test" + i));
+			profile.setInstallableUnitProperty(createIU("test" + (i + 10)), "key", "value" + i);
+			profile.setProperty("state", Integer.toString(i));
+			saveProfile(profileRegistry, profile);
+			states.add(profileRegistry.getProfile(getName()));
+		}
+		File profileFolder = new File(folder, getName() + ".profile");
+		File[] deltas = profileFolder.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(".delta.gz");
+			}
+		});
+		assertEquals("1.0", 4, deltas.length);
+		assertEquals("1.1", 6, profileRegistry.listProfileTimestamps(getName()).length);
+
+		// every state can be reconstructed, also after a restart
+		profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		assertProfileState("2.0", states.get(3), profileRegistry.getProfile(getName()));
+		for (IProfile state : states)
+			assertProfileState("2.1", state, profileRegistry.getProfile(getName(), state.getTimestamp()));
+
+		// removing a state that a delta depends on keeps the later states intact
+		profileRegistry.removeProfile(getName(), states.get(1).getTimestamp());
+		assertNull("3.0", profileRegistry.getProfile(getName(), states.get(1).getTimestamp()));
+		assertProfileState("3.1", states.get(2), profileRegistry.getProfile(getName(), states.get(2).getTimestamp()));
+		assertProfileState("3.2", states.get(3), profileRegistry.getProfile(getName(), states.get(3).getTimestamp()));
+
+		// compaction with a checkpoint for every state rewrites all deltas
+		setSystemProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, "1");
+		assertOK("4.0", profileRegistry.compactProfileStates(getName()));
+		assertEquals("4.1", 0, profileFolder.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(".delta.gz");
+			}
+		}).length);
+		assertProfileState("4.2", states.get(0), profileRegistry.getProfile(getName(), states.get(0).getTimestamp()));
+		assertProfileState("4.3", states.get(3), new SimpleProfileRegistry(getAgent(), folder, null, false).getProfile(getName()));
+	}
+
+	public void testProfileDeltaOfChangedUnit() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Profile profile = (Profile) profileRegistry.addProfile(getName());
+		for (int i = 0; i < 20; i++)
+			profile.addInstallableUnit(createIU("test" + i));
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("marker", "before");
+		profile.addInstallableUnit(createIU("changed", DEFAULT_VERSION, NO_REQUIRES, properties, false));
+		saveProfile(profileRegistry, profile);
+		long before = profile.getTimestamp();
+
+		// the same id and version with different metadata is saved in the delta
+		IInstallableUnit changed = createIU("changed");
+		profile.removeInstallableUnit(changed);
+		properties.put("marker", "after");
+		profile.addInstallableUnit(createIU("changed", DEFAULT_VERSION, NO_REQUIRES, properties, false));
+		saveProfile(profileRegistry, profile);
+		File profileFolder = new File(folder, getName() + ".profile");
+		assertTrue("1.0", new File(profileFolder, profile.getTimestamp() + ".delta.gz").exists());
+
+		profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		IQueryResult<IInstallableUnit> result = profileRegistry.getProfile(getName()).query(QueryUtil.createIUQuery(changed), null);
+		assertEquals("2.0", "after", result.iterator().next().getProperty("marker"));
+		result = profileRegistry.getProfile(getName(), before).query(QueryUtil.createIUQuery(changed), null);
+		assertEquals("2.1", "before", result.iterator().next().getProperty("marker"));
+	}
+
+	public void testNoProfileDeltasForOldEngine() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Profile profile = (Profile) profileRegistry.addProfile(getName());
+		for (int i = 0; i < 20; i++)
+			profile.addInstallableUnit(createIU("test" + i));
+		// an engine that only reads the latest full profile file
+		profile.addInstallableUnit(createIU("org.eclipse.equinox.p2.engine", Version.create("2.1.0")));
+		saveProfile(profileRegistry, profile);
+
+		for (int i = 0; i < 4; i++) {
+			profile.addInstallableUnit(createIU("added" + i));
+			saveProfile(profileRegistry, profile);
+		}
+		File profileFolder = new File(folder, getName() + ".profile");
+		assertEquals("1.0", 0, profileFolder.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return pathname.getName().endsWith(".delta.gz");
+			}
+		}).length);
+		assertTrue("1.1", new File(profileFolder, profile.getTimestamp() + ".profile.gz").exists());
+	}
+
+	private void assertProfileState(String message, IProfile expected, IProfile actual) {
+		assertNotNull(message, actual);
+		assertEquals(message, expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(message, expected.getProperties(), actual.getProperties());
+		Set<IInstallableUnit> units = expected.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		assertEquals(message, units, actual.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		for (IInstallableUnit iu : units)
+			assertEquals(message, expected.getInstallableUnitProperties(iu), actual.getInstallableUnitProperties(iu));
+	}
+
 	public void testRemoveProfileTimestamps() throws ProvisionException {
 		assertNull(registry.getProfile(PROFILE_NAME));
 		Map<String, String> properties = new HashMap<String, String>();
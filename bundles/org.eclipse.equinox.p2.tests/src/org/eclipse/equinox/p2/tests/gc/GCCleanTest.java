@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010 IBM Corporation and others.
+ * Copyright (c) 2010, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -53,4 +53,18 @@ public class GCCleanTest extends AbstractProvisioningTest {
 		assertEquals("1.0", 0, repository.query(ArtifactKeyQuery.ALL_KEYS, null).toSet().size());
 
 	}
+
+	public void testRemove() throws ProvisionException {
+		File folder = getTestFolder("GCCleanTest.testRemove");
+		IArtifactRepository repository = createRepository(folder);
+
+		CoreGarbageCollector gc = new CoreGarbageCollector();
+
+		IArtifactKey removed = new ArtifactKey("osgi.bundle", "a", Version.create("2.0.0"));
+		gc.remove(new IArtifactKey[] {removed}, repository);
+
+		assertEquals("1.0", 1, repository.query(ArtifactKeyQuery.ALL_KEYS, null).toSet().size());
+		assertFalse("1.1", repository.contains(removed));
+		assertTrue("1.2", repository.contains(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0"))));
+	}
 }
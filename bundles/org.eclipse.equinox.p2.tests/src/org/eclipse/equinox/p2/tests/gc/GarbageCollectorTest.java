@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.gc;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.internal.p2.engine.phases.Install;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+
+/**
+ * Tests for the garbage collection that runs when the engine commits an uninstall
+ */
+public class GarbageCollectorTest extends AbstractProvisioningTest {
+	/**
+	 * A phase that fails, so that the engine rolls back the operation.
+	 */
+	private static class FailingPhase extends Phase {
+		FailingPhase() {
+			super("fail", 1);
+		}
+
+		protected IStatus completePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
+			return new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, "failed");
+		}
+
+		protected List<ProvisioningAction> getActions(Operand operand) {
+			return null;
+		}
+	}
+
+	private IProvisioningAgent agent;
+	private IEngine engine;
+	private IArtifactRepository pool;
+	private IProfile profile;
+	private IProfile other;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		File folder = getTempFolder();
+		agent = getAgentProvider().createAgent(new File(folder, "p2").toURI());
+		engine = (IEngine) agent.getService(IEngine.SERVICE_NAME);
+
+		// both profiles share one bundle pool
+		File poolFolder = new File(folder, "pool");
+		poolFolder.mkdirs();
+		IArtifactRepositoryManager manager = (IArtifactRepositoryManager) agent.getService(IArtifactRepositoryManager.SERVICE_NAME);
+		pool = manager.createRepository(poolFolder.toURI(), "pool", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap());
+		Map properties = new HashMap();
+		properties.put(IProfile.PROP_CACHE, poolFolder.getAbsolutePath());
+		IProfileRegistry registry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		profile = registry.addProfile("profile", properties);
+		other = registry.addProfile("other", properties);
+	}
+
+	protected void tearDown() throws Exception {
+		agent.stop();
+		super.tearDown();
+	}
+
+	private IInstallableUnit createArtifactIU(String name) {
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId(name);
+		description.setVersion(DEFAULT_VERSION);
+		description.setArtifacts(new IArtifactKey[] {getKey(name)});
+		return createResolvedIU(MetadataFactory.createInstallableUnit(description));
+	}
+
+	private IArtifactKey getKey(String name) {
+		return new ArtifactKey("osgi.bundle", name, DEFAULT_VERSION);
+	}
+
+	private void addArtifacts(String[] names) {
+		for (int i = 0; i < names.length; i++)
+			pool.addDescriptor(new ArtifactDescriptor(getKey(names[i])));
+	}
+
+	private IStatus install(IProfile target, IInstallableUnit[] ius, IPhaseSet phaseSet) {
+		IProvisioningPlan plan = engine.createPlan(target, null);
+		for (int i = 0; i < ius.length; i++)
+			plan.addInstallableUnit(ius[i]);
+		return engine.perform(plan, phaseSet, getMonitor());
+	}
+
+	private void install(IProfile target, IInstallableUnit[] ius) {
+		// the artifacts are already in the pool
+		assertOK("install", install(target, ius, PhaseSetFactory.createDefaultPhaseSetExcluding(new String[] {PhaseSetFactory.PHASE_COLLECT, PhaseSetFactory.PHASE_CHECK_TRUST})));
+	}
+
+	private void uninstall(IProfile target, IInstallableUnit[] ius) {
+		IProvisioningPlan plan = engine.createPlan(target, null);
+		for (int i = 0; i < ius.length; i++)
+			plan.removeInstallableUnit(ius[i]);
+		assertOK("uninstall", engine.perform(plan, getMonitor()));
+	}
+
+	private void assertArtifacts(String message, String[] names) throws ProvisionException {
+		IArtifactRepositoryManager manager = (IArtifactRepositoryManager) agent.getService(IArtifactRepositoryManager.SERVICE_NAME);
+		IArtifactRepository repository = manager.loadRepository(pool.getLocation(), null);
+		Set<IArtifactKey> expected = new HashSet<IArtifactKey>();
+		for (int i = 0; i < names.length; i++)
+			expected.add(getKey(names[i]));
+		assertEquals(message, expected, repository.query(ArtifactKeyQuery.ALL_KEYS, null).toUnmodifiableSet());
+	}
+
+	public void testUninstall() throws ProvisionException {
+		IInstallableUnit a = createArtifactIU("a");
+		IInstallableUnit b = createArtifactIU("b");
+		IInstallableUnit c = createArtifactIU("c");
+		addArtifacts(new String[] {"a", "b", "c", "unused"});
+		install(profile, new IInstallableUnit[] {a, b, c});
+		install(other, new IInstallableUnit[] {b});
+
+		// the first collection starts the counts with a full mark and sweep
+		uninstall(profile, new IInstallableUnit[] {c});
+		assertArtifacts("1.0", new String[] {"a", "b"});
+
+		// afterwards only the artifacts whose count reached zero are removed
+		addArtifacts(new String[] {"leftover"});
+		uninstall(profile, new IInstallableUnit[] {a, b});
+		assertArtifacts("2.0", new String[] {"b", "leftover"});
+
+		uninstall(other, new IInstallableUnit[] {b});
+		assertArtifacts("3.0", new String[] {"leftover"});
+	}
+
+	public void testFullSweepAfterRollback() throws ProvisionException {
+		IInstallableUnit a = createArtifactIU("a");
+		IInstallableUnit b = createArtifactIU("b");
+		IInstallableUnit failed = createArtifactIU("failed");
+		addArtifacts(new String[] {"a", "b"});
+		install(profile, new IInstallableUnit[] {a, b});
+		uninstall(profile, new IInstallableUnit[] {b});
+		assertArtifacts("1.0", new String[] {"a"});
+
+		// the artifact of an install that is rolled back is not used by any profile
+		addArtifacts(new String[] {"failed"});
+		IStatus result = install(profile, new IInstallableUnit[] {failed}, new PhaseSet(new Phase[] {new Install(50), new FailingPhase()}));
+		assertFalse("2.0", result.isOK());
+		assertArtifacts("2.1", new String[] {"a", "failed"});
+
+		// so the next collection is a full mark and sweep
+		addArtifacts(new String[] {"b"});
+		install(profile, new IInstallableUnit[] {b});
+		uninstall(profile, new IInstallableUnit[] {b});
+		assertArtifacts("3.0", new String[] {"a"});
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.gc;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.garbagecollector.ReferenceCounts;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the reference counts of the incremental garbage collection
+ */
+public class ReferenceCountsTest extends AbstractProvisioningTest {
+	private static final URI POOL = URI.create("file:/pool/");
+	private static final String A = "osgi.bundle,a,1.0.0";
+	private static final String B = "osgi.bundle,b,1.0.0";
+	private static final String C = "osgi.bundle,c,1.0.0";
+
+	private Map<URI, Set<String>> keys(String[] keys) {
+		Map<URI, Set<String>> result = new HashMap<URI, Set<String>>();
+		result.put(POOL, new HashSet<String>(Arrays.asList(keys)));
+		return result;
+	}
+
+	private Set<String> unreferenced(Map<URI, Set<String>> result) {
+		Set<String> keys = result.get(POOL);
+		return keys == null ? Collections.<String> emptySet() : keys;
+	}
+
+	public void testSharedArtifacts() {
+		ReferenceCounts counts = new ReferenceCounts(null);
+		assertTrue("1.0", counts.update("p1", 1, keys(new String[] {A, B})).isEmpty());
+		assertTrue("1.1", counts.update("p2", 1, keys(new String[] {B, C})).isEmpty());
+		assertEquals("1.2", 2, counts.getCount(POOL, B));
+
+		// b is still used by the second profile
+		assertEquals("2.0", Collections.<String> emptySet(), unreferenced(counts.update("p1", 2, keys(new String[] {A}))));
+		assertEquals("2.1", 1, counts.getCount(POOL, B));
+
+		assertEquals("3.0", Collections.singleton(B), unreferenced(counts.update("p2", 2, keys(new String[] {C}))));
+		assertEquals("3.1", 0, counts.getCount(POOL, B));
+	}
+
+	public void testCurrentProfiles() {
+		ReferenceCounts counts = new ReferenceCounts(null);
+		counts.update("p1", 1, keys(new String[] {A}));
+		assertTrue("1.0", counts.isCurrent("p1", 1));
+		assertFalse("1.1", counts.isCurrent("p1", 2));
+		assertFalse("1.2", counts.isCurrent("p2", 1));
+		assertEquals("1.3", Collections.singleton("p1"), counts.getProfileIds());
+	}
+
+	public void testRemovedProfile() {
+		ReferenceCounts counts = new ReferenceCounts(null);
+		counts.update("p1", 1, keys(new String[] {A, B}));
+		counts.update("p2", 1, keys(new String[] {B}));
+		assertEquals("1.0", Collections.singleton(A), unreferenced(counts.remove("p1")));
+		assertEquals("1.1", 1, counts.getCount(POOL, B));
+		assertTrue("1.2", counts.remove("p1").isEmpty());
+	}
+
+	public void testSave() {
+		File file = new File(getTempFolder(), ReferenceCounts.FILE);
+		ReferenceCounts counts = new ReferenceCounts(file);
+		assertFalse("1.0", counts.isInitialized());
+		counts.update("p1", 1, keys(new String[] {A, B}));
+		counts.update("p2", 1, keys(new String[] {B}));
+		counts.save();
+		assertTrue("1.1", counts.isInitialized());
+
+		counts = new ReferenceCounts(file);
+		assertTrue("2.0", counts.isInitialized());
+		assertTrue("2.1", counts.isCurrent("p1", 1));
+		assertEquals("2.2", 1, counts.getCount(POOL, A));
+		assertEquals("2.3", 2, counts.getCount(POOL, B));
+		assertTrue("2.4", unreferenced(counts.remove("p2")).isEmpty());
+		assertEquals("2.5", Collections.singleton(B), unreferenced(counts.update("p1", 2, keys(new String[] {A}))));
+	}
+
+	public void testFullSweepDue() {
+		File file = new File(getTempFolder(), ReferenceCounts.FILE);
+		ReferenceCounts counts = new ReferenceCounts(file);
+		assertFalse("1.0", counts.isFullSweepDue(2));
+		counts.swept(false);
+		assertFalse("1.1", counts.isFullSweepDue(2));
+		counts.swept(false);
+		assertTrue("1.2", counts.isFullSweepDue(2));
+		assertFalse("1.3", counts.isFullSweepDue(0));
+		counts.swept(true);
+		assertFalse("1.4", counts.isFullSweepDue(2));
+
+		counts.requestFullSweep();
+		counts.save();
+		counts = new ReferenceCounts(file);
+		assertTrue("2.0", counts.isFullSweepDue(0));
+		counts.swept(true);
+		assertFalse("2.1", counts.isFullSweepDue(0));
+	}
+
+	public void testCorruptFile() throws Exception {
+		File file = new File(getTempFolder(), ReferenceCounts.FILE);
+		writeBuffer(file, new StringBuffer("not counts"));
+		ReferenceCounts counts = new ReferenceCounts(file);
+		assertFalse("1.0", counts.isInitialized());
+		assertTrue("1.1", counts.getProfileIds().isEmpty());
+	}
+}
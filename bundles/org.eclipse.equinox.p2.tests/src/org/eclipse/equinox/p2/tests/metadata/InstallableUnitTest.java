@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,10 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.metadata;
 
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
 /**
@@ -36,4 +39,96 @@ public class InstallableUnitTest extends AbstractProvisioningTest {
 		assertFalse("1.3", iu.satisfies(higherVersionRange));
 		assertTrue("1.4", iu.satisfies(match));
 	}
+
+	/**
+	 * Tests that the properties keep their order and are not modified once handed out.
+	 */
+	public void testProperties() {
+		InstallableUnit iu = new InstallableUnit();
+		assertTrue("1.0", iu.getProperties().isEmpty());
+		assertNull("1.1", iu.setProperty("a", "1"));
+		assertNull("1.2", iu.setProperty("b", "2"));
+		assertNull("1.3", iu.setProperty("c", "3"));
+		Map<String, String> before = iu.getProperties();
+		assertEquals("1.4", "2", iu.setProperty("b", "4"));
+		assertEquals("1.5", "1", iu.setProperty("a", null));
+		assertNull("1.6", iu.setProperty("x", null));
+
+		assertEquals("2.0", Arrays.asList(new String[] {"a", "b", "c"}), new ArrayList<String>(before.keySet()));
+		assertEquals("2.1", "2", before.get("b"));
+		assertEquals("2.2", Arrays.asList(new String[] {"b", "c"}), new ArrayList<String>(iu.getProperties().keySet()));
+		assertEquals("2.3", "4", iu.getProperty("b"));
+		assertNull("2.4", iu.getProperty("a"));
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("b", "4");
+		expected.put("c", "3");
+		assertEquals("2.5", expected, iu.getProperties());
+		assertEquals("2.6", expected.hashCode(), iu.getProperties().hashCode());
+		try {
+			iu.getProperties().put("d", "5");
+			fail("2.7");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests that compacted units share their equal parts and still behave the same.
+	 */
+	public void testCompact() {
+		IInstallableUnit[] ius = new IInstallableUnit[2];
+		for (int i = 0; i < ius.length; i++) {
+			InstallableUnitDescription description = new InstallableUnitDescription();
+			description.setId(new String("iu" + i));
+			description.setVersion(Version.create(new String("1.0.0")));
+			description.setProperty(new String("key"), new String("value"));
+			description.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(new String("testNamespace"), new String("name"), Version.create("1.0.0"))});
+			description.setRequirements(new IRequirement[] {MetadataFactory.createRequirement("testNamespace", "other", new VersionRange("[1.0,2.0)"), null, false, false)});
+			description.setArtifacts(new IArtifactKey[] {new ArtifactKey("osgi.bundle", "name", Version.create("1.0.0"))});
+			ius[i] = MetadataFactory.createInstallableUnit(description);
+		}
+		assertNotSame("1.0", ius[0].getVersion(), ius[1].getVersion());
+
+		MetadataPool pool = new MetadataPool();
+		pool.compact(ius[0]);
+		pool.compact(ius[1]);
+		assertSame("2.0", ius[0].getVersion(), ius[1].getVersion());
+		assertSame("2.1", ius[0].getProperties().keySet().iterator().next(), ius[1].getProperties().keySet().iterator().next());
+		assertSame("2.2", ius[0].getProvidedCapabilities().iterator().next(), ius[1].getProvidedCapabilities().iterator().next());
+		assertSame("2.3", ius[0].getRequirements().get(0), ius[1].getRequirements().get(0));
+		assertSame("2.4", ius[0].getArtifacts().iterator().next(), ius[1].getArtifacts().iterator().next());
+		for (int i = 0; i < ius.length; i++) {
+			assertEquals("3.0", "iu" + i, ius[i].getId());
+			assertEquals("3.1", "value", ius[i].getProperty("key"));
+			assertTrue("3.2", ius[i].satisfies(MetadataFactory.createRequirement("testNamespace", "name", new VersionRange("[1.0,2.0)"), null, false, false)));
+		}
+	}
+
+	/**
+	 * Tests that equal parts that differ in ways outside of their equality are not shared.
+	 */
+	public void testCompactKeepsDifferences() {
+		IRequirement described = MetadataFactory.createRequirement("testNamespace", "name", VersionRange.emptyRange, null, 1, 1, true, "a description");
+		IRequirement undescribed = MetadataFactory.createRequirement("testNamespace", "name", VersionRange.emptyRange, null, 1, 1, true, null);
+		IProvidedCapability osgi = MetadataFactory.createProvidedCapability("testNamespace", "name", Version.create("1.0.0"));
+		IProvidedCapability raw = MetadataFactory.createProvidedCapability("testNamespace", "name", Version.create("raw:1.0.0"));
+		InstallableUnitDescription first = new InstallableUnitDescription();
+		first.setId("first");
+		first.setRequirements(new IRequirement[] {described});
+		first.setCapabilities(new IProvidedCapability[] {osgi});
+		InstallableUnitDescription second = new InstallableUnitDescription();
+		second.setId("second");
+		second.setRequirements(new IRequirement[] {undescribed});
+		second.setCapabilities(new IProvidedCapability[] {raw});
+		IInstallableUnit firstIU = MetadataFactory.createInstallableUnit(first);
+		IInstallableUnit secondIU = MetadataFactory.createInstallableUnit(second);
+
+		MetadataPool pool = new MetadataPool();
+		pool.compact(firstIU);
+		pool.compact(secondIU);
+		assertEquals("1.0", "a description", firstIU.getRequirements().get(0).getDescription());
+		assertNull("1.1", secondIU.getRequirements().get(0).getDescription());
+		assertEquals("1.2", osgi.getVersion().toString(), firstIU.getProvidedCapabilities().iterator().next().getVersion().toString());
+		assertEquals("1.3", raw.getVersion().toString(), secondIU.getProvidedCapabilities().iterator().next().getVersion().toString());
+	}
 }
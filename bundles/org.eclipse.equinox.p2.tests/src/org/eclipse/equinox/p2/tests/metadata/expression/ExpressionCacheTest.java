@@ -0,0 +1,83 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ * 
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.expression;
+
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.ExpressionCache;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+public class ExpressionCacheTest extends TestCase {
+
+	public void testGetAndPut() {
+		ExpressionCache<String, String> cache = new ExpressionCache<String, String>(16);
+		assertEquals(16, cache.getCapacity());
+		assertNull(cache.get("a"));
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("1", cache.get("a"));
+		assertEquals("2", cache.get("b"));
+		cache.put("a", "3");
+		assertEquals("3", cache.get("a"));
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		cache.clear();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testBounded() {
+		ExpressionCache<Integer, Integer> cache = new ExpressionCache<Integer, Integer>(10);
+		assertEquals(16, cache.getCapacity());
+		for (int i = 0; i < 1000; i++)
+			cache.put(new Integer(i), new Integer(i));
+		int found = 0;
+		for (int i = 0; i < 1000; i++) {
+			Integer value = cache.get(new Integer(i));
+			if (value != null) {
+				assertEquals(i, value.intValue());
+				found++;
+			}
+		}
+		assertTrue(found > 0);
+		assertTrue(found <= cache.getCapacity());
+		// the last entry put is always found
+		assertEquals(new Integer(999), cache.get(new Integer(999)));
+	}
+
+	public void testSetsOfTwo() {
+		// keys with the same hash code share a set, the two most recent ones are kept
+		ExpressionCache<Integer, String> cache = new ExpressionCache<Integer, String>(4);
+		Integer a = new Integer(0);
+		Integer b = new Integer(4);
+		Integer c = new Integer(8);
+		cache.put(a, "a");
+		cache.put(b, "b");
+		assertEquals("a", cache.get(a));
+		assertEquals("b", cache.get(b));
+		cache.put(c, "c");
+		assertNull(cache.get(a));
+		assertEquals("b", cache.get(b));
+		assertEquals("c", cache.get(c));
+	}
+
+	public void testParseFilterUsesCache() {
+		String filter = "(&(osgi.os=" + getName() + ")(osgi.ws=gtk))";
+		int hits = InstallableUnit.getFilterCache().getHits();
+		IMatchExpression<IInstallableUnit> first = InstallableUnit.parseFilter(filter);
+		IMatchExpression<IInstallableUnit> second = InstallableUnit.parseFilter(filter);
+		assertSame(first, second);
+		assertTrue(InstallableUnit.getFilterCache().getHits() > hits);
+	}
+}
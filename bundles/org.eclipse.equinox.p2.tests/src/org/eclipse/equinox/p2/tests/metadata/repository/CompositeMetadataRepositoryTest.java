@@ -730,4 +730,71 @@ public class CompositeMetadataRepositoryTest extends AbstractProvisioningTest {
 		assertTrue("Successfully loaded child should be available in repo manager", manager.contains(URIUtil.append(repo.getLocation(), "one")));
 
 	}
+
+	public void testChildrenLoadedAndQueriedInOrder() throws ProvisionException {
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		CompositeMetadataRepository compRepo = createRepo(false);
+		List<URI> childLocations = new ArrayList<URI>();
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < 8; i++) {
+			URI childLocation = new File(repoLocation, "child" + i).toURI();
+			IInstallableUnit iu = createIU("child" + i);
+			createMetadataRepository(childLocation, null).addInstallableUnits(Collections.singletonList(iu));
+			manager.removeRepository(childLocation);
+			childLocations.add(childLocation);
+			ius.add(iu);
+		}
+		for (URI childLocation : childLocations)
+			compRepo.addChild(childLocation);
+
+		//reload the composite so that all of its children are loaded together
+		manager.removeRepository(repoLocation.toURI());
+		for (URI childLocation : childLocations)
+			manager.removeRepository(childLocation);
+		IMetadataRepository repo = manager.loadRepository(repoLocation.toURI(), null);
+		assertEquals("1.0", childLocations, ((CompositeMetadataRepository) repo).getChildren());
+		for (URI childLocation : childLocations)
+			assertTrue("1.1 " + childLocation, manager.contains(childLocation));
+
+		List<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+		for (Iterator<IInstallableUnit> iterator = repo.query(QueryUtil.createIUAnyQuery(), null).iterator(); iterator.hasNext();)
+			result.add(iterator.next());
+		assertEquals("2.0", ius, result);
+	}
+
+	public void testCyclicChildren() throws Exception {
+		final IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		CompositeMetadataRepository compRepo = createRepo(false);
+		URI cyclicLocation = new File(repoLocation, "cyclic").toURI();
+		CompositeMetadataRepository cyclicRepo = (CompositeMetadataRepository) manager.createRepository(cyclicLocation, "cyclic", IMetadataRepositoryManager.TYPE_COMPOSITE_REPOSITORY, new HashMap());
+		URI childLocation = new File(repoLocation, "child").toURI();
+		IInstallableUnit iu = createIU("child");
+		createMetadataRepository(childLocation, null).addInstallableUnits(Collections.singletonList(iu));
+		//the composite and its first child are children of each other
+		cyclicRepo.addChild(repoLocation.toURI());
+		compRepo.addChild(cyclicLocation);
+		compRepo.addChild(childLocation);
+
+		//reload the composite so that its children are loaded by several jobs
+		manager.removeRepository(repoLocation.toURI());
+		manager.removeRepository(cyclicLocation);
+		manager.removeRepository(childLocation);
+		final IMetadataRepository[] repo = new IMetadataRepository[1];
+		Thread loader = new Thread() {
+			public void run() {
+				try {
+					repo[0] = manager.loadRepository(repoLocation.toURI(), null);
+				} catch (ProvisionException e) {
+					//fails below
+				}
+			}
+		};
+		loader.start();
+		loader.join(60000);
+		assertFalse("1.0", loader.isAlive());
+		assertNotNull("1.1", repo[0]);
+		assertEquals("1.2", Arrays.asList(new URI[] {cyclicLocation, childLocation}), ((CompositeMetadataRepository) repo[0]).getChildren());
+		assertTrue("1.3", manager.contains(cyclicLocation));
+		assertEquals("2.0", Collections.singleton(iu), repo[0].query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+	}
 }
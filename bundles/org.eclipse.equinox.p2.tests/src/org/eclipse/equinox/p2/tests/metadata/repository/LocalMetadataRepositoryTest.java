@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,9 +11,12 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.metadata.repository;
 
-import java.io.File;
+import java.io.*;
 import java.net.URI;
 import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepositoryIO;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -81,6 +84,83 @@ public class LocalMetadataRepositoryTest extends AbstractProvisioningTest {
 		}
 	}
 
+	public void testBinaryImage() throws IOException, ProvisionException {
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		IMetadataRepository repo = manager.createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		repo.setProperty(TEST_KEY, TEST_VALUE);
+		InstallableUnitDescription descriptor = new MetadataFactory.InstallableUnitDescription();
+		descriptor.setId("testIuId");
+		descriptor.setVersion(Version.create("3.2.1"));
+		descriptor.setProperty(TEST_KEY, TEST_VALUE);
+		descriptor.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability("testNamespace", "testName", Version.create("1.0.0"))});
+		descriptor.setRequirements(new IRequirement[] {MetadataFactory.createRequirement("testNamespace", "other", new VersionRange("[1.0.0,2.0.0)"), null, false, false)});
+		IInstallableUnit iu = MetadataFactory.createInstallableUnit(descriptor);
+		repo.addInstallableUnits(Arrays.asList(iu, createIU("foo")));
+
+		// saving writes the image, loading does not
+		File contentFile = new File(repoLocation, "content.xml");
+		File binaryFile = new File(repoLocation, "content.p2bin");
+		assertTrue("1.0", binaryFile.exists());
+		assertTrue("1.1", binaryFile.delete());
+		manager.removeRepository(repoLocation.toURI());
+		repo = manager.loadRepository(repoLocation.toURI(), getMonitor());
+		assertFalse("1.2", binaryFile.exists());
+		assertEquals("1.3", 2, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+
+		// an image written for the current content file is read instead of that file
+		LocalMetadataRepository other = new LocalMetadataRepository(getAgent(), getTempFolder().toURI(), "OtherRepo", null);
+		other.setProperty(TEST_KEY, TEST_VALUE);
+		other.addInstallableUnits(Arrays.asList(iu));
+		new BinaryMetadataRepositoryIO(getAgent()).write(other, contentFile);
+		manager.removeRepository(repoLocation.toURI());
+		repo = manager.loadRepository(repoLocation.toURI(), getMonitor());
+		assertEquals("2.0", "OtherRepo", repo.getName());
+		assertEquals("2.1", TEST_VALUE, repo.getProperty(TEST_KEY));
+		assertEquals("2.2", 1, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+		IInstallableUnit loaded = repo.query(QueryUtil.createIUQuery("testIuId"), getMonitor()).iterator().next();
+		assertEquals("2.3", iu, loaded);
+		assertEquals("2.4", TEST_VALUE, loaded.getProperty(TEST_KEY));
+		assertEquals("2.5", new ArrayList(iu.getProvidedCapabilities()), new ArrayList(loaded.getProvidedCapabilities()));
+		assertEquals("2.6", new ArrayList(iu.getRequirements()), new ArrayList(loaded.getRequirements()));
+		IRequirement requirement = MetadataFactory.createRequirement("testNamespace", "testName", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		assertEquals("2.7", 1, queryResultSize(repo.query(QueryUtil.createMatchQuery(requirement.getMatches()), getMonitor())));
+		// units read from the image are compacted and cache translations like other units
+		assertTrue("2.8", loaded instanceof InstallableUnit);
+
+		// the image is ignored once the time stamp of the content file changes, even if its size is the same
+		long lastModified = contentFile.lastModified();
+		byte[] content = readBytes(contentFile);
+		String xml = new String(content, "UTF-8");
+		assertTrue("3.0", xml.indexOf("'TestRepo'") != -1);
+		writeBytes(contentFile, xml.replaceFirst("'TestRepo'", "'TestRepX'").getBytes("UTF-8"));
+		assertTrue("3.1", contentFile.setLastModified(lastModified + 2000));
+		assertEquals("3.2", content.length, contentFile.length());
+		manager.removeRepository(repoLocation.toURI());
+		repo = manager.loadRepository(repoLocation.toURI(), getMonitor());
+		assertEquals("3.3", "TestRepX", repo.getName());
+		assertEquals("3.4", 2, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), getMonitor())));
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return bytes;
+	}
+
+	private static void writeBytes(File file, byte[] bytes) throws IOException {
+		OutputStream output = new FileOutputStream(file);
+		try {
+			output.write(bytes);
+		} finally {
+			output.close();
+		}
+	}
+
 	public void testGetProperties() throws ProvisionException {
 		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
 		IMetadataRepository repo = manager.createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
@@ -25,6 +25,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(MetadataRepositoryCleanupTest.class);
 		suite.addTestSuite(NewMirrorApplicationArtifactTest.class);
 		suite.addTestSuite(NewMirrorApplicationMetadataTest.class);
+		suite.addTestSuite(JarComparatorTest.class);
 		return suite;
 	}
 
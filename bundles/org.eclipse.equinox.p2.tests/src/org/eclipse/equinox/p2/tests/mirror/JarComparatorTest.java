@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.mirror;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.p2.internal.repository.comparator.JarComparator;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the comparison of jars by the {@link JarComparator}, serially and on several threads.
+ */
+public class JarComparatorTest extends AbstractProvisioningTest {
+	private static final String[] THREADS = new String[] {"1", "4"};
+
+	/**
+	 * A class whose class file is changed without changing its shape.
+	 */
+	static class Shape extends Thread {
+		String getValue() {
+			return "first";
+		}
+	}
+
+	private File folder;
+	private byte[] classBytes;
+	private byte[] otherClassBytes;
+	private byte[] shapeBytes;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTempFolder();
+		classBytes = getClassBytes(JarComparatorTest.class);
+		otherClassBytes = getClassBytes(AllTests.class);
+		shapeBytes = getClassBytes(Shape.class);
+	}
+
+	protected void tearDown() throws Exception {
+		delete(folder);
+		super.tearDown();
+	}
+
+	public void testIdenticalJars() throws IOException {
+		Map<String, byte[]> entries = createEntries(20);
+		File first = createJar("first.jar", entries);
+		File second = createJar("second.jar", entries);
+		for (int i = 0; i < THREADS.length; i++)
+			assertTrue(THREADS[i], compare(first, second, THREADS[i]).isOK());
+	}
+
+	public void testDifferentClass() throws IOException {
+		Map<String, byte[]> entries = createEntries(20);
+		File first = createJar("first.jar", entries);
+		entries.put("p/Class10.class", otherClassBytes);
+		File second = createJar("second.jar", entries);
+		for (int i = 0; i < THREADS.length; i++)
+			assertDifferent(THREADS[i], "p/Class10.class", compare(first, second, THREADS[i]));
+	}
+
+	public void testDifferentBinary() throws IOException {
+		Map<String, byte[]> entries = createEntries(20);
+		byte[] data = new byte[100000];
+		new Random(0).nextBytes(data);
+		entries.put("data.bin", data);
+		File first = createJar("first.jar", entries);
+		data = data.clone();
+		data[data.length - 1]++;
+		entries.put("data.bin", data);
+		File second = createJar("second.jar", entries);
+		for (int i = 0; i < THREADS.length; i++)
+			assertDifferent(THREADS[i], "data.bin", compare(first, second, THREADS[i]));
+	}
+
+	public void testFirstDifferenceReported() throws IOException {
+		Map<String, byte[]> entries = createEntries(20);
+		File first = createJar("first.jar", entries);
+		entries.put("p/Class3.class", otherClassBytes);
+		entries.put("p/Class12.class", otherClassBytes);
+		entries.put("p/Class17.class", otherClassBytes);
+		File second = createJar("second.jar", entries);
+		// the difference of the first entry is reported, whichever thread finds it first
+		for (int i = 0; i < THREADS.length; i++)
+			assertDifferent(THREADS[i], "p/Class3.class", compare(first, second, THREADS[i]));
+	}
+
+	public void testNestedJars() throws IOException {
+		Map<String, byte[]> entries = createEntries(5);
+		Map<String, byte[]> nested = new LinkedHashMap<String, byte[]>();
+		nested.put("lib/nested.jar", getBytes(createJar("nested.jar", entries)));
+		File first = createJar("first.jar", nested);
+		entries.put("p/Class2.class", otherClassBytes);
+		nested.put("lib/nested.jar", getBytes(createJar("nested.jar", entries)));
+		File second = createJar("second.jar", nested);
+		for (int i = 0; i < THREADS.length; i++) {
+			IStatus status = compare(first, second, THREADS[i]);
+			assertFalse(THREADS[i], status.isOK());
+			assertDifferent(THREADS[i], "p/Class2.class", status.getChildren()[0]);
+		}
+	}
+
+	public void testMovedSuperclass() throws IOException {
+		Map<String, byte[]> entries = createEntries(5);
+		entries.put("p/Shape.class", shapeBytes);
+		File first = createJar("first.jar", entries);
+		// the disassembly only shows the simple name of the superclass
+		entries.put("p/Shape.class", replace(shapeBytes, "java/lang/Thread", "java/lanh/Thread"));
+		File second = createJar("second.jar", entries);
+		for (int i = 0; i < THREADS.length; i++)
+			assertTrue(THREADS[i], compare(first, second, THREADS[i]).isOK());
+	}
+
+	public void testSameShapeDifferentCode() throws IOException {
+		Map<String, byte[]> entries = createEntries(5);
+		entries.put("p/Shape.class", shapeBytes);
+		File first = createJar("first.jar", entries);
+		// the class files have the same shape, only their disassemblies tell them apart
+		entries.put("p/Shape.class", replace(shapeBytes, "first", "other"));
+		File second = createJar("second.jar", entries);
+		for (int i = 0; i < THREADS.length; i++)
+			assertDifferent(THREADS[i], "p/Shape.class", compare(first, second, THREADS[i]));
+	}
+
+	/*
+	 * Replaces the given text in a class file by a text of the same length.
+	 */
+	private byte[] replace(byte[] bytes, String text, String replacement) {
+		byte[] result = bytes.clone();
+		byte[] search = text.getBytes();
+		int count = 0;
+		for (int i = 0; i <= result.length - search.length; i++) {
+			int j = 0;
+			while (j < search.length && result[i + j] == search[j])
+				j++;
+			if (j == search.length) {
+				System.arraycopy(replacement.getBytes(), 0, result, i, search.length);
+				count++;
+			}
+		}
+		assertTrue(text, count > 0);
+		return result;
+	}
+
+	private void assertDifferent(String message, String entryName, IStatus status) {
+		assertFalse(message, status.isOK());
+		assertEquals(message, 1, status.getChildren().length);
+		assertTrue(message, status.getChildren()[0].getMessage().indexOf(entryName) != -1);
+	}
+
+	private IStatus compare(File first, File second, String threads) {
+		setSystemProperty(JarComparator.PROP_THREADS, threads);
+		return new JarComparator().compare(first, second);
+	}
+
+	private Map<String, byte[]> createEntries(int count) {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for (int i = 0; i < count; i++)
+			entries.put("p/Class" + i + ".class", classBytes);
+		return entries;
+	}
+
+	private File createJar(String name, Map<String, byte[]> entries) throws IOException {
+		File jar = new File(folder, name);
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				output.putNextEntry(new ZipEntry(entry.getKey()));
+				output.write(entry.getValue());
+				output.closeEntry();
+			}
+		} finally {
+			output.close();
+		}
+		return jar;
+	}
+
+	private byte[] getClassBytes(Class<?> clazz) throws IOException {
+		String name = clazz.getName();
+		return getBytes(clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class"));
+	}
+
+	private byte[] getBytes(File file) throws IOException {
+		return getBytes(new FileInputStream(file));
+	}
+
+	private byte[] getBytes(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1)
+				output.write(buffer, 0, read);
+		} finally {
+			input.close();
+		}
+		return output.toByteArray();
+	}
+}
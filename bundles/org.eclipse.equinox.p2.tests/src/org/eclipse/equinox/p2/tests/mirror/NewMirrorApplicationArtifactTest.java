@@ -1454,6 +1454,39 @@ public class NewMirrorApplicationArtifactTest extends AbstractProvisioningTest {
 		}
 	}
 
+	private String runVerboseMirrorApplication(File source, File destination, int concurrency) throws Exception {
+		MirrorApplication app = new MirrorApplication();
+		app.addSource(createRepositoryDescriptor(source.toURI(), null, null, null));
+		app.addDestination(createRepositoryDescriptor(destination.toURI(), null, null, null));
+		app.setVerbose(true);
+		app.setConcurrency(concurrency);
+		StringBuffer buffer = new StringBuffer();
+		PrintStream out = System.out;
+		try {
+			System.setOut(new PrintStream(new StringBufferStream(buffer)));
+			app.run(null);
+		} finally {
+			System.setOut(out);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Tests that mirroring several artifacts at the same time gives the same repository and output as mirroring them one at a time
+	 */
+	public void testArtifactMirrorConcurrently() throws Exception {
+		String serialOutput = runVerboseMirrorApplication(sourceRepo3Location, destRepoLocation, 1);
+		getArtifactRepositoryManager().removeRepository(destRepoLocation.toURI());
+		delete(destRepoLocation);
+
+		String concurrentOutput = runVerboseMirrorApplication(sourceRepo3Location, destRepoLocation, 4);
+		assertContentEquals("1.0", getArtifactRepositoryManager().loadRepository(sourceRepo3Location.toURI(), null), getArtifactRepositoryManager().loadRepository(destRepoLocation.toURI(), null));
+		assertEquals("1.1", serialOutput, concurrentOutput);
+
+		//mirroring again only finds existing artifacts, reported in the same order
+		assertEquals("2.0", runVerboseMirrorApplication(sourceRepo3Location, destRepoLocation, 1), runVerboseMirrorApplication(sourceRepo3Location, destRepoLocation, 4));
+	}
+
 	/**
 	 * Test how the mirror application handles a repository specified as a local path
 	 */
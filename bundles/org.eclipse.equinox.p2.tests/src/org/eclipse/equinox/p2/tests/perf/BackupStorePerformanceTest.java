@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.BackupStore;
+
+/**
+ * Performance tests for backing up the {@link #FILE_COUNT} root files of an install, as
+ * when they are replaced, and then restoring them, as when the operation is rolled back,
+ * or discarding them, as when it is committed.
+ */
+public class BackupStorePerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int FILE_COUNT = 20000;
+	private static final int FOLDER_COUNT = 200;
+
+	private File install;
+	private File backups;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// the backups are on the same volume as the install, as with the profile data directory
+		File folder = getTempFolder();
+		install = new File(folder, "install");
+		backups = new File(folder, "backups");
+	}
+
+	protected void tearDown() throws Exception {
+		delete(install.getParentFile());
+		super.tearDown();
+	}
+
+	private void createFiles() throws IOException {
+		for (int i = 0; i < FILE_COUNT; i++) {
+			File file = new File(install, "folder" + i % FOLDER_COUNT + "/file" + i + ".txt");
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(file.getName().getBytes());
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private void backupAndClose(final boolean restore, String name) {
+		new PerformanceTestRunner() {
+			protected void setUp() {
+				try {
+					createFiles();
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			}
+
+			protected void test() {
+				try {
+					BackupStore store = new BackupStore(backups, "perf", "label");
+					store.backupAll(install);
+					if (restore)
+						store.restore();
+					else
+						store.discard();
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			}
+
+			protected void tearDown() {
+				delete(install);
+			}
+		}.run(this, name + " " + FILE_COUNT + " files", REPEATS, 1);
+	}
+
+	public void testBackupRestore() {
+		backupAndClose(true, "Test backup and restore");
+	}
+
+	public void testBackupRestoreOneThread() {
+		setSystemProperty(BackupStore.PROP_MAX_THREADS, "1");
+		backupAndClose(true, "Test backup and restore one thread");
+	}
+
+	public void testBackupDiscard() {
+		backupAndClose(false, "Test backup and discard");
+	}
+}
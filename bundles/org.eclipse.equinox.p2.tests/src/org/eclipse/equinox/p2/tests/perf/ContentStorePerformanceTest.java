@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.ContentStore;
+
+/**
+ * Performance tests for installing the same files into several profiles, by copying them and
+ * by linking them to a {@link ContentStore}. Each run installs {@link #FILE_COUNT} files of
+ * {@link #FILE_SIZE} bytes into {@link #PROFILE_COUNT} install folders. With the store, the
+ * content takes the disk space of a single install.
+ */
+public class ContentStorePerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int PROFILE_COUNT = 10;
+	private static final int FILE_COUNT = 100;
+	private static final int FILE_SIZE = 256 * 1024;
+
+	private File source;
+	private File installs;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		File folder = getTempFolder();
+		source = new File(folder, "source");
+		installs = new File(folder, "installs");
+		source.mkdirs();
+		byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < FILE_COUNT; i++) {
+			for (int j = 0; j < content.length; j++)
+				content[j] = (byte) (i * 31 + j);
+			OutputStream out = new FileOutputStream(new File(source, "plugin" + i + ".jar"));
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		delete(source.getParentFile());
+		super.tearDown();
+	}
+
+	private void install(final ContentStore store, String name) {
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					for (int p = 0; p < PROFILE_COUNT; p++) {
+						File install = new File(installs, "profile" + p);
+						install.mkdirs();
+						File[] files = source.listFiles();
+						ContentStore.Batch batch = store == null ? null : store.newBatch();
+						for (int i = 0; i < files.length; i++) {
+							File target = new File(install, files[i].getName());
+							if (batch != null)
+								batch.add(files[i], target);
+							else
+								FileUtils.copyStream(new FileInputStream(files[i]), true, new FileOutputStream(target), true);
+						}
+						if (batch != null)
+							batch.materialize();
+					}
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			}
+
+			protected void tearDown() {
+				delete(installs);
+			}
+		}.run(this, name + " " + FILE_COUNT + " files of " + FILE_SIZE / 1024 + " KB into " + PROFILE_COUNT + " profiles", REPEATS, 1);
+	}
+
+	public void testInstallByCopy() {
+		install(null, "Test copy");
+	}
+
+	public void testInstallByLink() {
+		File storeFolder = new File(source.getParentFile(), "store");
+		ContentStore store = new ContentStore(storeFolder);
+		install(store, "Test link");
+		// the store holds a single copy of the content, whatever the number of profiles
+		long stored = 0;
+		File[] folders = storeFolder.listFiles();
+		for (int i = 0; i < folders.length; i++) {
+			File[] files = folders[i].listFiles();
+			for (int j = 0; j < files.length; j++)
+				stored += files[j].length();
+		}
+		assertEquals((long) FILE_COUNT * FILE_SIZE, stored);
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+
+/**
+ * Performance tests for parsing installable unit filters from several threads at the same time,
+ * as done when reading a large content.xml or when publishing in parallel.
+ */
+public class FilterParsePerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int FILTER_COUNT = 500;
+	private static final int PARSES_PER_THREAD = 200000;
+
+	private String[] filters;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String[] os = {"win32", "linux", "macosx", "solaris", "aix", "hpux", "qnx"};
+		String[] ws = {"win32", "gtk", "cocoa", "carbon", "motif", "photon"};
+		String[] arch = {"x86", "x86_64", "ppc", "ppc64", "sparc", "ia64_32", "s390", "s390x", "arm", "PA_RISC"};
+		filters = new String[FILTER_COUNT];
+		for (int i = 0; i < FILTER_COUNT; i++)
+			filters[i] = "(&(osgi.os=" + os[i % os.length] + ")(osgi.ws=" + ws[(i / os.length) % ws.length] + ")(osgi.arch=" + arch[(i / (os.length * ws.length)) % arch.length] + ")(org.eclipse.update.install.features=true)(feature" + i / 420 + "=true))";
+	}
+
+	private void parseInThreads(int threadCount) {
+		final Thread[] threads = new Thread[threadCount];
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int t = 0; t < threads.length; t++) {
+					final int offset = t * 7;
+					threads[t] = new Thread() {
+						public void run() {
+							for (int i = 0; i < PARSES_PER_THREAD; i++)
+								InstallableUnit.parseFilter(filters[(i + offset) % FILTER_COUNT]);
+						}
+					};
+					threads[t].start();
+				}
+				try {
+					for (int t = 0; t < threads.length; t++)
+						threads[t].join();
+				} catch (InterruptedException e) {
+					fail(e.getMessage());
+				}
+			}
+		}.run(this, "Test parse " + FILTER_COUNT + " distinct filters " + PARSES_PER_THREAD + " times in each of " + threadCount + " threads", REPEATS, 1);
+	}
+
+	public void testParseFilterOneThread() {
+		parseInThreads(1);
+	}
+
+	public void testParseFilterFourThreads() {
+		parseInThreads(4);
+	}
+
+	public void testParseFilterEightThreads() {
+		parseInThreads(8);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,7 +14,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.MetadataPool;
+import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
@@ -69,4 +70,55 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			}
 		}.run(this, "Test query local metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	/**
+	 * Reports the heap used by each unit of a large repository before and after the units
+	 * share their equal parts. The strings of each unit are distinct instances, as when
+	 * they are read from a repository file.
+	 */
+	public void testHeapPerInstallableUnit() {
+		final int IU_COUNT = 20000;
+		long empty = usedMemory();
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++)
+			ius.add(generateBundleIU(i));
+		long before = usedMemory() - empty;
+		MetadataPool pool = new MetadataPool();
+		for (IInstallableUnit iu : ius)
+			pool.compact(iu);
+		pool = null;
+		long after = usedMemory() - empty;
+		System.out.println("Heap per IU for " + IU_COUNT + " ius: " + before / IU_COUNT + " bytes before compaction, " + after / IU_COUNT + " bytes after");
+		assertTrue("1.0", after <= before);
+		assertEquals("1.1", IU_COUNT, ius.size());
+	}
+
+	private IInstallableUnit generateBundleIU(int i) {
+		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+		String id = "org.eclipse.someiu" + i;
+		Version version = Version.create(new String("1.1." + i % 10));
+		desc.setId(id);
+		desc.setVersion(version);
+		desc.setProperty(new String("org.eclipse.equinox.p2.name"), new String("Some IU"));
+		desc.setProperty(new String("org.eclipse.equinox.p2.provider"), new String("Eclipse.org"));
+		desc.setProperty(new String("org.eclipse.equinox.p2.bundle.localization"), new String("plugin"));
+		IProvidedCapability[] capabilities = new IProvidedCapability[3];
+		capabilities[0] = MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, version);
+		capabilities[1] = MetadataFactory.createProvidedCapability(new String("osgi.bundle"), id, version);
+		capabilities[2] = MetadataFactory.createProvidedCapability(new String("org.eclipse.equinox.p2.eclipse.type"), new String("bundle"), Version.create(new String("1.0.0")));
+		desc.setCapabilities(capabilities);
+		IRequirement[] requirements = new IRequirement[2];
+		requirements[0] = MetadataFactory.createRequirement(new String("osgi.bundle"), new String("org.eclipse.osgi"), new VersionRange(new String("[3.7.0,4.0.0)")), null, false, false);
+		requirements[1] = MetadataFactory.createRequirement(new String("java.package"), new String("org.osgi.framework"), new VersionRange(new String("1.5.0")), null, false, false);
+		desc.setRequirements(requirements);
+		desc.setTouchpointType(MetadataFactory.createTouchpointType(new String("org.eclipse.equinox.p2.osgi"), Version.create(new String("1.0.0"))));
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.artifact.processors.md5.MD5Verifier;
+import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.ProcessingStep;
+import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.ZipVerifierStep;
+
+/**
+ * Performance tests for writing artifact content through processing steps, one byte
+ * at a time and in blocks. Each run writes {@link #SIZE} bytes, so the throughput in MB/s
+ * is the size divided by the reported time.
+ */
+public class ProcessingStepPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int SIZE = 8 * 1024 * 1024;
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	private static final OutputStream NULL_STREAM = new OutputStream() {
+		public void write(int b) {
+			// discard
+		}
+
+		public void write(byte[] b, int off, int len) {
+			// discard
+		}
+	};
+
+	private byte[] data;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = new byte[SIZE];
+		// look like a zip so that the verifier does not stop checking early
+		data[0] = 0x50;
+		data[1] = 0x4b;
+		data[2] = 0x03;
+		data[3] = 0x04;
+		for (int i = 4; i < data.length; i++)
+			data[i] = (byte) (i * 31);
+	}
+
+	interface StepFactory {
+		ProcessingStep[] create();
+	}
+
+	private void runSteps(final StepFactory factory, final boolean blocks, String name) {
+		new PerformanceTestRunner() {
+			protected void test() {
+				ProcessingStep[] steps = factory.create();
+				OutputStream destination = NULL_STREAM;
+				for (int i = steps.length - 1; i >= 0; i--) {
+					steps[i].link(destination, new NullProgressMonitor());
+					destination = steps[i];
+				}
+				try {
+					if (blocks) {
+						for (int offset = 0; offset < data.length; offset += BLOCK_SIZE)
+							destination.write(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+					} else {
+						for (int i = 0; i < data.length; i++)
+							destination.write(data[i]);
+					}
+					destination.close();
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			}
+		}.run(this, name + (blocks ? " in blocks of " + BLOCK_SIZE + " bytes" : " one byte at a time") + ", " + (SIZE / (1024 * 1024)) + " MB", REPEATS, 1);
+	}
+
+	private static final StepFactory MD5 = new StepFactory() {
+		public ProcessingStep[] create() {
+			return new ProcessingStep[] {new MD5Verifier("00000000000000000000000000000000")};
+		}
+	};
+
+	private static final StepFactory ZIP = new StepFactory() {
+		public ProcessingStep[] create() {
+			return new ProcessingStep[] {new ZipVerifierStep()};
+		}
+	};
+
+	private static final StepFactory CHAIN = new StepFactory() {
+		public ProcessingStep[] create() {
+			return new ProcessingStep[] {new ZipVerifierStep(), new MD5Verifier("00000000000000000000000000000000")};
+		}
+	};
+
+	public void testMD5VerifierBytes() {
+		runSteps(MD5, false, "Test MD5Verifier");
+	}
+
+	public void testMD5VerifierBlocks() {
+		runSteps(MD5, true, "Test MD5Verifier");
+	}
+
+	public void testZipVerifierBytes() {
+		runSteps(ZIP, false, "Test ZipVerifierStep");
+	}
+
+	public void testZipVerifierBlocks() {
+		runSteps(ZIP, true, "Test ZipVerifierStep");
+	}
+
+	public void testChainBytes() {
+		runSteps(CHAIN, false, "Test ZipVerifierStep and MD5Verifier");
+	}
+
+	public void testChainBlocks() {
+		runSteps(CHAIN, true, "Test ZipVerifierStep and MD5Verifier");
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+
+/**
+ * Performance tests for saving and restoring profiles, comparing a full checkpoint
+ * for every state with deltas between periodic checkpoints.
+ */
+public class ProfileRegistryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int IU_COUNT = 3000;
+	private static final int COMMIT_COUNT = 20;
+
+	public void testSaveCheckpoints() {
+		doTestSave("1");
+	}
+
+	public void testSaveDeltas() {
+		doTestSave("16");
+	}
+
+	public void testRestoreCheckpoints() {
+		doTestRestore("1");
+	}
+
+	public void testRestoreDeltas() {
+		doTestRestore("16");
+	}
+
+	private void doTestSave(String checkpointInterval) {
+		setSystemProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, checkpointInterval);
+		new PerformanceTestRunner() {
+			SimpleProfileRegistry registry;
+			Profile profile;
+
+			protected void setUp() {
+				registry = createRegistry(getTempFolder());
+				profile = (Profile) registry.getProfile(getName());
+			}
+
+			protected void test() {
+				commit(registry, profile, COMMIT_COUNT);
+			}
+		}.run(this, "Test saving " + COMMIT_COUNT + " small changes to a profile of " + IU_COUNT + " ius, checkpoint interval " + checkpointInterval, REPEATS, 1);
+	}
+
+	private void doTestRestore(String checkpointInterval) {
+		setSystemProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, checkpointInterval);
+		final File folder = getTempFolder();
+		SimpleProfileRegistry registry = createRegistry(folder);
+		commit(registry, (Profile) registry.getProfile(getName()), COMMIT_COUNT / 2);
+		new PerformanceTestRunner() {
+			protected void test() {
+				new SimpleProfileRegistry(getAgent(), folder, null, false).getProfile(getName());
+			}
+		}.run(this, "Test restoring a profile of " + IU_COUNT + " ius, checkpoint interval " + checkpointInterval, REPEATS, 5);
+	}
+
+	SimpleProfileRegistry createRegistry(File folder) {
+		folder.mkdirs();
+		SimpleProfileRegistry registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		try {
+			Profile profile = (Profile) registry.addProfile(getName());
+			for (int i = 0; i < IU_COUNT; i++)
+				profile.addInstallableUnit(generateIU(i));
+			commit(registry, profile);
+		} catch (ProvisionException e) {
+			fail("0.99", e);
+		}
+		return registry;
+	}
+
+	void commit(SimpleProfileRegistry registry, Profile profile, int count) {
+		for (int i = 0; i < count; i++) {
+			profile.addInstallableUnit(generateIU(IU_COUNT + i));
+			profile.setInstallableUnitProperty(generateIU(i), "org.eclipse.equinox.p2.type.root", "true");
+			commit(registry, profile);
+		}
+	}
+
+	private void commit(SimpleProfileRegistry registry, Profile profile) {
+		profile.setChanged(false);
+		registry.lockProfile(profile);
+		try {
+			profile.setChanged(true);
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+			profile.setChanged(false);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,10 +10,15 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.perf;
 
+import java.io.*;
+import java.util.jar.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherCache;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherWorkers;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.publisher.IPublisherResult;
-import org.eclipse.equinox.p2.publisher.PublisherResult;
+import org.eclipse.equinox.p2.publisher.*;
+import org.eclipse.equinox.p2.publisher.eclipse.BundlesAction;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
 
@@ -76,4 +81,89 @@ public class PublisherPerformanceTest extends ProvisioningPerformanceTest {
 			}
 		}.run(this, "Test query PublisherResult for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	private File createBundles(int count) throws IOException {
+		File folder = getTempFolder();
+		for (int i = 0; i < count; i++) {
+			Manifest manifest = new Manifest();
+			Attributes attributes = manifest.getMainAttributes();
+			attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			attributes.putValue("Bundle-ManifestVersion", "2");
+			attributes.putValue("Bundle-SymbolicName", "bundle" + i);
+			attributes.putValue("Bundle-Version", "1.0.0." + i);
+			attributes.putValue("Bundle-Name", "%bundleName");
+			attributes.putValue("Bundle-Localization", "plugin");
+			attributes.putValue("Export-Package", "bundle" + i + ".api;version=\"1.0.0\"");
+			attributes.putValue("Import-Package", "bundle" + (i / 2) + ".api;version=\"[1.0.0,2.0.0)\"");
+			JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(folder, "bundle" + i + "_1.0.0." + i + ".jar")), manifest);
+			try {
+				out.putNextEntry(new JarEntry("plugin.properties"));
+				out.write(("bundleName=Bundle " + i).getBytes());
+				out.putNextEntry(new JarEntry("plugin_de.properties"));
+				out.write(("bundleName=Buendel " + i).getBytes());
+			} finally {
+				out.close();
+			}
+		}
+		return folder;
+	}
+
+	private void publishBundles(final String threads, String name) throws IOException {
+		final int BUNDLE_COUNT = 2000;
+		final File folder = createBundles(BUNDLE_COUNT);
+		setSystemProperty(PublisherWorkers.PROP_THREADS, threads);
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					publish(folder, new PublisherInfo(), BUNDLE_COUNT);
+				}
+			}.run(this, name + " " + BUNDLE_COUNT + " bundles", REPEATS, 1);
+		} finally {
+			delete(folder);
+		}
+	}
+
+	public void testPublishBundles() throws IOException {
+		publishBundles("1", "Test publish");
+	}
+
+	public void testPublishBundlesInParallel() throws IOException {
+		publishBundles(Integer.toString(Runtime.getRuntime().availableProcessors()), "Test publish in parallel");
+	}
+
+	public void testPublishBundlesWithCache() throws Exception {
+		final int BUNDLE_COUNT = 2000;
+		final File folder = createBundles(BUNDLE_COUNT);
+		File repository = getTempFolder();
+		final File cacheFile = new File(repository, PublisherCache.CACHE_FILE);
+		final PublisherInfo info = new PublisherInfo();
+		info.setMetadataRepository(createMetadataRepository(repository.toURI(), null));
+		setSystemProperty(PublisherCache.PROP_CACHE, "true");
+		try {
+			new PerformanceTestRunner() {
+				protected void setUp() {
+					cacheFile.delete();
+				}
+
+				protected void test() {
+					publish(folder, info, BUNDLE_COUNT);
+				}
+			}.run(this, "Test publish with a cold cache " + BUNDLE_COUNT + " bundles", REPEATS, 1);
+
+			new PerformanceTestRunner() {
+				protected void test() {
+					publish(folder, info, BUNDLE_COUNT);
+				}
+			}.run(this, "Test publish with a warm cache " + BUNDLE_COUNT + " bundles", REPEATS, 1);
+		} finally {
+			delete(folder);
+			delete(repository);
+		}
+	}
+
+	void publish(File folder, IPublisherInfo info, int bundleCount) {
+		PublisherResult result = new PublisherResult();
+		new BundlesAction(new File[] {folder}).perform(info, result, new NullProgressMonitor());
+		assertEquals(bundleCount, result.getIUs(null, null).size());
+	}
 }
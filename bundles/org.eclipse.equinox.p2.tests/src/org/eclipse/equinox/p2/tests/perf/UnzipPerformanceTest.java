@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.Util;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.ZipExtractor;
+
+/**
+ * Performance tests for unzipping a zip file with {@link #ENTRY_COUNT} entries, read as a
+ * stream and extracted by one or several threads.
+ */
+public class UnzipPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ENTRY_COUNT = 50000;
+	private static final int ENTRY_SIZE = 4 * 1024;
+
+	private File zipFile;
+	private File output;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		File folder = getTempFolder();
+		zipFile = new File(folder, "archive.zip");
+		output = new File(folder, "output");
+		byte[] content = new byte[ENTRY_SIZE];
+		ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+		try {
+			for (int i = 0; i < ENTRY_COUNT; i++) {
+				for (int j = 0; j < content.length; j++)
+					content[j] = (byte) ((i + j) % 64 + ' ');
+				out.putNextEntry(new ZipEntry("plugin" + i % 500 + "/folder" + i % 7 + "/file" + i + ".txt"));
+				out.write(content);
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		delete(zipFile.getParentFile());
+		super.tearDown();
+	}
+
+	private void unzip(final boolean stream, String name) {
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					if (stream) {
+						InputStream in = new FileInputStream(zipFile);
+						try {
+							Util.unzipStream(in, zipFile.length(), output, null, zipFile.getName(), null);
+						} finally {
+							in.close();
+						}
+					} else
+						Util.unzipFile(zipFile, output, null, zipFile.getName(), null);
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			}
+
+			protected void tearDown() {
+				delete(output);
+			}
+		}.run(this, name + " " + ENTRY_COUNT + " entries", REPEATS, 1);
+	}
+
+	public void testUnzipStream() {
+		unzip(true, "Test unzip stream");
+	}
+
+	public void testUnzipOneThread() {
+		setSystemProperty(ZipExtractor.PROP_MAX_EXTRACTIONS, "1");
+		unzip(false, "Test unzip one thread");
+	}
+
+	public void testUnzipParallel() {
+		unzip(false, "Test unzip parallel");
+	}
+}
@@ -133,6 +133,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(PatchTestUpdate5.class);
 		suite.addTestSuite(PatchTestUsingNegativeRequirement.class);
 		suite.addTestSuite(PermissiveSlicerTest.class);
+		suite.addTestSuite(PlannerSessionTest.class);
 		suite.addTestSuite(PP2ShouldFailToInstall.class);
 		//		suite.addTestSuite(ProvisioningPlanQueryTest.class); disabled, see bug 313812 
 		suite.addTestSuite(SDKPatchingTest1.class);
@@ -11,11 +11,11 @@
 package org.eclipse.equinox.p2.tests.planner;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.director.PermissiveSlicer;
+import org.eclipse.equinox.internal.p2.director.Slicer;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
@@ -43,6 +43,33 @@ public class PermissiveSlicerTest extends AbstractProvisioningTest {
 		//		assertOK("1.0", slicer.getStatus());
 	}
 
+	public void testParallelSliceIsSameAsSerial() {
+		IQueryResult c = repo.query(QueryUtil.createIUQuery("org.eclipse.rcp.feature.group"), new NullProgressMonitor());
+		IInstallableUnit iu = (IInstallableUnit) c.iterator().next();
+
+		PermissiveSlicer serialSlicer = new PermissiveSlicer(repo, CollectionUtils.<String, String> emptyMap(), true, true, true, false, false);
+		serialSlicer.setParallelism(1);
+		List<IInstallableUnit> expected = sliceToList(serialSlicer, iu);
+
+		PermissiveSlicer parallelSlicer = new PermissiveSlicer(repo, CollectionUtils.<String, String> emptyMap(), true, true, true, false, false);
+		parallelSlicer.setParallelism(4);
+		assertEquals(expected, sliceToList(parallelSlicer, iu));
+		assertEquals(serialSlicer.getStatus().getChildren().length, parallelSlicer.getStatus().getChildren().length);
+
+		Slicer slicer = new Slicer(repo, CollectionUtils.<String, String> emptyMap(), false);
+		slicer.setParallelism(1);
+		expected = sliceToList(slicer, iu);
+		slicer = new Slicer(repo, CollectionUtils.<String, String> emptyMap(), false);
+		slicer.setParallelism(4);
+		assertEquals(expected, sliceToList(slicer, iu));
+	}
+
+	private List<IInstallableUnit> sliceToList(Slicer slicer, IInstallableUnit iu) {
+		IQueryable<IInstallableUnit> result = slicer.slice(new IInstallableUnit[] {iu}, new NullProgressMonitor());
+		assertNotNull(result);
+		return Arrays.asList(result.query(QueryUtil.createIUAnyQuery(), new NullProgressMonitor()).toArray(IInstallableUnit.class));
+	}
+
 	//Test with and without optional pieces
 	public void testSliceRCPWithOptionalPieces() {
 		PermissiveSlicer slicer = new PermissiveSlicer(repo, CollectionUtils.<String, String> emptyMap(), false, false, true, false, false);
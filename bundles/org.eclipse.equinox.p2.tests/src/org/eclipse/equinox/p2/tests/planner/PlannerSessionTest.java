@@ -0,0 +1,106 @@
+/*******************************************************************************
+ *  Copyright (c) 2011 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *      IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.Set;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProvisioningPlan;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class PlannerSessionTest extends AbstractProvisioningTest {
+	IInstallableUnit a1, a2, b1, x, y, z;
+
+	SimplePlanner planner;
+	PlannerSession session;
+	IProfile profile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), true);
+		a2 = createIU("A", Version.create("2.0.0"), true);
+		b1 = createIU("B", Version.create("1.0.0"), true);
+
+		IRequirement anyA = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0, 3.0.0)"), null, false, false);
+		IRequirement optionalB = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 2.0.0)"), null, true, false);
+		x = createIU("X", Version.createOSGi(1, 0, 0), new IRequirement[] {anyA, optionalB});
+
+		IRequirement a2Only = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[2.0.0, 2.0.0]"), null, false, false);
+		y = createIU("Y", Version.createOSGi(1, 0, 0), new IRequirement[] {a2Only});
+
+		IRequirement a1Only = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0, 1.0.0]"), null, false, false);
+		z = createIU("Z", Version.createOSGi(1, 0, 0), new IRequirement[] {a1Only});
+
+		createTestMetdataRepository(new IInstallableUnit[] {a1, a2, b1, x, y, z});
+
+		profile = createProfile("TestProfile." + getName());
+		planner = (SimplePlanner) createPlanner();
+		session = new PlannerSession(planner);
+	}
+
+	private void assertSamePlan(ProfileChangeRequest request) {
+		IProvisioningPlan expected = planner.getProvisioningPlan(request, null, null);
+		IProvisioningPlan actual = session.getProvisioningPlan(request, null, null);
+		assertEquals(expected.getStatus().getSeverity(), actual.getStatus().getSeverity());
+		assertEquals(expected.getStatus().getCode(), actual.getStatus().getCode());
+		if (expected.getStatus().getSeverity() == IStatus.ERROR)
+			return;
+		Set<IInstallableUnit> expectedState = expected.getFutureState().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		Set<IInstallableUnit> actualState = actual.getFutureState().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		assertEquals(expectedState, actualState);
+	}
+
+	public void testSameSolutions() {
+		ProfileChangeRequest installX = new ProfileChangeRequest(profile);
+		installX.addInstallableUnits(new IInstallableUnit[] {x});
+		assertSamePlan(installX);
+		assertSamePlan(installX);
+		assertTrue(session.getReuseCount() > 0);
+
+		ProfileChangeRequest installXY = new ProfileChangeRequest(profile);
+		installXY.addInstallableUnits(new IInstallableUnit[] {x, y});
+		assertSamePlan(installXY);
+
+		ProfileChangeRequest installXZ = new ProfileChangeRequest(profile);
+		installXZ.addInstallableUnits(new IInstallableUnit[] {x, z});
+		assertSamePlan(installXZ);
+
+		assertSamePlan(installX);
+		assertTrue(session.getReuseCount() > 0);
+	}
+
+	public void testUnsatisfiable() {
+		ProfileChangeRequest installYZ = new ProfileChangeRequest(profile);
+		installYZ.addInstallableUnits(new IInstallableUnit[] {y, z});
+		assertSamePlan(installYZ);
+		assertSamePlan(installYZ);
+
+		//The retired entry point must not constrain the following request
+		ProfileChangeRequest installY = new ProfileChangeRequest(profile);
+		installY.addInstallableUnits(new IInstallableUnit[] {y});
+		assertSamePlan(installY);
+	}
+
+	public void testPhaseTimes() {
+		ProfileChangeRequest installX = new ProfileChangeRequest(profile);
+		installX.addInstallableUnits(new IInstallableUnit[] {x});
+		assertOK("Plan", session.getProvisioningPlan(installX, null, null).getStatus());
+		assertTrue(session.getEncodingTime() >= 0);
+		assertTrue(session.getSolvingTime() >= 0);
+		assertTrue(session.getExtractionTime() >= 0);
+		session.clear();
+		assertOK("Plan after clear", session.getProvisioningPlan(installX, null, null).getStatus());
+		assertEquals(0, session.getReuseCount());
+	}
+}
@@ -20,6 +20,8 @@ import org.easymock.EasyMock;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.director.QueryableArray;
 import org.eclipse.equinox.internal.p2.metadata.*;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherCache;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.PublisherWorkers;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.publisher.*;
@@ -406,4 +408,72 @@ public class BundlesActionTest extends ActionTest {
 		IInstallableUnit iu = BundlesAction.createBundleIU(BundlesAction.createBundleDescription(testData), null, new PublisherInfo());
 		assertEquals(0, iu.getRequirements().size());
 	}
+
+	public void testParallelPublishing() {
+		// the fragment comes before and after its host
+		File foo = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo");//$NON-NLS-1$
+		File fooFragment = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo.fragment");//$NON-NLS-1$
+		File[] locations = new File[] {fooFragment, TEST_BASE, foo, fooFragment};
+		List<IInstallableUnit> serial = publishBundles(locations, "1");
+		List<IInstallableUnit> parallel = publishBundles(locations, "4");
+		assertEquals("1.0", serial.size(), parallel.size());
+		for (int i = 0; i < serial.size(); i++) {
+			IInstallableUnit expected = serial.get(i);
+			IInstallableUnit actual = parallel.get(i);
+			assertEquals("2.0", expected, actual);
+			assertEquals("2.1", expected.getProperties(), actual.getProperties());
+			assertEquals("2.2", expected.getRequirements(), actual.getRequirements());
+			assertEquals("2.3", expected.getProvidedCapabilities(), actual.getProvidedCapabilities());
+			assertEquals("2.4", expected.getArtifacts(), actual.getArtifacts());
+			assertEquals("2.5", expected.getTouchpointData(), actual.getTouchpointData());
+			assertEquals("2.6", expected.getFilter(), actual.getFilter());
+		}
+	}
+
+	private List<IInstallableUnit> publishBundles(File[] locations, String threads) {
+		setSystemProperty(PublisherWorkers.PROP_THREADS, threads);
+		PublisherResult result = new PublisherResult();
+		assertEquals(Status.OK_STATUS, new BundlesAction(locations).perform(new PublisherInfo(), result, new NullProgressMonitor()));
+		return new ArrayList<IInstallableUnit>(result.getIUs(null, null));
+	}
+
+	public void testPublisherCache() throws Exception {
+		File folder = getTempFolder();
+		File bundle = new File(folder, "bundles/test2.jar");//$NON-NLS-1$
+		copy("0.1", TEST_FILE2, bundle);
+		PublisherInfo info = new PublisherInfo();
+		info.setMetadataRepository(createMetadataRepository(new File(folder, "repo").toURI(), null));//$NON-NLS-1$
+		List<IInstallableUnit> cold = publishCachedBundle(bundle, info);
+		assertEquals("1.0", 1, cold.size());
+		assertTrue("1.1", new File(folder, "repo/" + PublisherCache.CACHE_FILE).exists());//$NON-NLS-1$
+
+		// an unchanged bundle is not read again
+		assertNotNull("2.0", PublisherCache.open(info).get(bundle));
+		List<IInstallableUnit> warm = publishCachedBundle(bundle, info);
+		assertEquals("2.1", cold, warm);
+		assertEquals("2.2", cold.get(0).getProperties(), warm.get(0).getProperties());
+		assertEquals("2.3", cold.get(0).getRequirements(), warm.get(0).getRequirements());
+		assertEquals("2.4", cold.get(0).getProvidedCapabilities(), warm.get(0).getProvidedCapabilities());
+		assertEquals("2.5", cold.get(0).getTouchpointData(), warm.get(0).getTouchpointData());
+
+		// a bundle whose content changed is read again, even with the same size and time stamp
+		long lastModified = bundle.lastModified();
+		OutputStream output = new FileOutputStream(bundle);
+		try {
+			output.write(new byte[(int) bundle.length()]);
+		} finally {
+			output.close();
+		}
+		bundle.setLastModified(lastModified);
+		assertNull("3.0", PublisherCache.open(info).get(bundle));
+		assertEquals("3.1", 0, publishCachedBundle(bundle, info).size());
+		delete(folder);
+	}
+
+	private List<IInstallableUnit> publishCachedBundle(File bundle, IPublisherInfo info) {
+		setSystemProperty(PublisherCache.PROP_CACHE, "true");//$NON-NLS-1$
+		PublisherResult result = new PublisherResult();
+		assertEquals(Status.OK_STATUS, new BundlesAction(new File[] {bundle}).perform(info, result, new NullProgressMonitor()));
+		return new ArrayList<IInstallableUnit>(result.getIUs(null, null));
+	}
 }
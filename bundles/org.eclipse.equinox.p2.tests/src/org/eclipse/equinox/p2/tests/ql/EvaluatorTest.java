@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -375,4 +375,31 @@ public class EvaluatorTest extends AbstractProvisioningTest {
 
 		assertTrue("Query results are inconsistent.", set.size() == rt2.toSet().size());
 	}
+
+	public void testCompiledMatch() throws Exception {
+		IMetadataRepository repo = getMDR("/testData/galileoM7");
+		IInstallableUnit[] ius = repo.query(QueryUtil.createIUAnyQuery(), null).toArray(IInstallableUnit.class);
+		IRequirement requirement = MetadataFactory.createRequirement("org.eclipse.equinox.p2.eclipse.type", "feature", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		String[] expressions = {"id ~= /org.eclipse.*/ && version >= $0", //
+				"providedCapabilities.exists(x | x.namespace == $1 && x.name == $2)", //
+				"!requirements.all(r | r.min == 0) || properties[$3] == 'true'", //
+				"requirements.exists(r | r.filter != null && $4 ~= r.filter)", //
+				"touchpointType != null && touchpointType.id == 'org.eclipse.equinox.p2.osgi' && artifacts.length > 0", //
+				"this ~= $5"};
+		Object[] parameters = {Version.create("3.5.0"), "org.eclipse.equinox.p2.eclipse.type", "bundle", "org.eclipse.equinox.p2.type.group", InstallableUnit.contextIU("gtk", "linux", "x86"), requirement};
+		for (int i = 0; i < expressions.length; i++) {
+			IMatchExpression<IInstallableUnit> match = factory.<IInstallableUnit> matchExpression(parser.parse(expressions[i]), parameters);
+			int matched = 0;
+			for (int j = 0; j < ius.length; j++) {
+				// evaluate() always uses the interpreter
+				IEvaluationContext context = match.createContext();
+				context.setValue(factory.thisVariable(), ius[j]);
+				boolean interpreted = match.evaluate(context) == Boolean.TRUE;
+				assertEquals(expressions[i] + " " + ius[j], interpreted, match.isMatch(ius[j]));
+				if (interpreted)
+					matched++;
+			}
+			assertTrue(expressions[i], matched > 0);
+		}
+	}
 }
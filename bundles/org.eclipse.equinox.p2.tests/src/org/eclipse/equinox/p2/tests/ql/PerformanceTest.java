@@ -15,11 +15,10 @@ import java.util.*;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.director.*;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
-import org.eclipse.equinox.internal.p2.metadata.expression.MatchIteratorFilter;
+import org.eclipse.equinox.internal.p2.metadata.expression.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository;
 import org.eclipse.equinox.p2.metadata.*;
-import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
-import org.eclipse.equinox.p2.metadata.expression.IExpressionParser;
+import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
@@ -283,6 +282,7 @@ public class PerformanceTest extends AbstractProvisioningTest {
 				"$0.traverse(set(), _, { cache, parent | parent.requirements.unique(cache).select(rc | rc.filter == null || $1 ~= rc.filter).collect(rc | everything.select(iu | iu ~= rc)).flatten()})", roots, envIU);
 
 		long sliceTime = 0;
+		long parallelSliceTime = 0;
 		long traverseTime = 0;
 		IQueryable slice = null;
 		for (int idx = 0; idx < 100; ++idx) {
@@ -293,8 +293,16 @@ public class PerformanceTest extends AbstractProvisioningTest {
 
 			startTime = System.currentTimeMillis();
 			Slicer slicer = new Slicer(new QueryableArray(gatherAvailableInstallableUnits(repo)), env, false);
+			slicer.setParallelism(1);
 			slice = slicer.slice(roots, new NullProgressMonitor());
 			sliceTime += (System.currentTimeMillis() - startTime);
+
+			startTime = System.currentTimeMillis();
+			slicer = new Slicer(new QueryableArray(gatherAvailableInstallableUnits(repo)), env, false);
+			slicer.setParallelism(Runtime.getRuntime().availableProcessors());
+			IQueryable parallelSlice = slicer.slice(roots, new NullProgressMonitor());
+			parallelSliceTime += (System.currentTimeMillis() - startTime);
+			assertEquals(queryResultSize(parallelSlice.query(QueryUtil.createIUAnyQuery(), new NullProgressMonitor())), 411);
 		}
 		// Check the size of the last slice to verify that it's the same as the traverse size
 		r = slice.query(new MatchQuery() {
@@ -306,6 +314,8 @@ public class PerformanceTest extends AbstractProvisioningTest {
 
 		System.out.print("100 * Slicing took: ");
 		System.out.println(sliceTime);
+		System.out.print("100 * Parallel slicing took: ");
+		System.out.println(parallelSliceTime);
 		System.out.print("100 * Indexed Traverse expression took: ");
 		System.out.println(traverseTime);
 		System.out.println();
@@ -356,6 +366,58 @@ public class PerformanceTest extends AbstractProvisioningTest {
 		System.out.println();
 	}
 
+	public void testCompiledVersusInterpretedMatchPerformance() throws Exception {
+		IMetadataRepository repo = getMDR("/testData/galileoM7");
+		IInstallableUnit[] ius = gatherAvailableInstallableUnits(repo);
+		List<IMatchExpression<IInstallableUnit>> matches = new ArrayList<IMatchExpression<IInstallableUnit>>();
+		for (int i = 0; i < ius.length && matches.size() < 300; i++)
+			for (IRequirement requirement : ius[i].getRequirements())
+				matches.add(requirement.getMatches());
+
+		IMatchExpression<IInstallableUnit>[] compiled = copyMatches(matches, ius[0], true);
+		IMatchExpression<IInstallableUnit>[] interpreted = copyMatches(matches, ius[0], false);
+		long compiledMS = 0;
+		long interpretedMS = 0;
+		for (int i = 0; i < 5; ++i) {
+			long start = System.currentTimeMillis();
+			int compiledCount = countMatches(compiled, ius);
+			compiledMS += (System.currentTimeMillis() - start);
+
+			start = System.currentTimeMillis();
+			int interpretedCount = countMatches(interpreted, ius);
+			interpretedMS += (System.currentTimeMillis() - start);
+			assertEquals(interpretedCount, compiledCount);
+		}
+		System.out.println("Compiled match of " + matches.size() + " requirements took: " + compiledMS + " milliseconds");
+		System.out.println("Interpreted match of " + matches.size() + " requirements took: " + interpretedMS + " milliseconds");
+		System.out.println();
+	}
+
+	/**
+	 * Returns new copies of the given match expressions that are compiled, or interpreted.
+	 * An expression is compiled, or not, on its first match.
+	 */
+	private IMatchExpression<IInstallableUnit>[] copyMatches(List<IMatchExpression<IInstallableUnit>> matches, IInstallableUnit iu, boolean compile) {
+		IExpressionFactory factory = ExpressionUtil.getFactory();
+		IMatchExpression<IInstallableUnit>[] copies = new IMatchExpression[matches.size()];
+		setSystemProperty(ExpressionCompiler.PROP_COMPILE, Boolean.toString(compile));
+		for (int i = 0; i < copies.length; i++) {
+			IMatchExpression<IInstallableUnit> match = matches.get(i);
+			copies[i] = factory.<IInstallableUnit> matchExpression(((Unary) match).operand, match.getParameters());
+			copies[i].isMatch(iu);
+		}
+		return copies;
+	}
+
+	private int countMatches(IMatchExpression<IInstallableUnit>[] matches, IInstallableUnit[] ius) {
+		int count = 0;
+		for (int i = 0; i < matches.length; i++)
+			for (int j = 0; j < ius.length; j++)
+				if (matches[i].isMatch(ius[j]))
+					count++;
+		return count;
+	}
+
 	private IMetadataRepository getMDR(String uri) throws Exception {
 		URI metadataRepo = getTestData("1.1", uri).toURI();
 
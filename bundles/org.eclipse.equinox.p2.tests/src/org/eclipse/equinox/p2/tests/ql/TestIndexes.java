@@ -11,8 +11,16 @@
 package org.eclipse.equinox.p2.tests.ql;
 
 import java.net.URI;
+import java.util.Iterator;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.ExpressionFactory;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.publisher.IPublisherResult;
+import org.eclipse.equinox.p2.publisher.PublisherResult;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
@@ -63,6 +71,88 @@ public class TestIndexes extends AbstractProvisioningTest {
 		assertEquals(queryResultSize(result), 487);
 	}
 
+	public void testCapabilityIndexNamespaceAndRange() throws Exception {
+		IInstallableUnit pkg1 = createIU("pkg1", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("1.0.0"))});
+		IInstallableUnit pkg2 = createIU("pkg2", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("2.0.0"))});
+		IInstallableUnit pkg3 = createIU("pkg3", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("3.0.0"))});
+		IInstallableUnit bundle = createIU("bundle", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("osgi.bundle", "org.example", Version.create("2.0.0"))});
+		QueryableArray queryable = new QueryableArray(new IInstallableUnit[] {pkg3, bundle, pkg1, pkg2});
+
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("[1.5.0,3.0.0)"), null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {pkg2});
+
+		requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("2.0.0"), null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {pkg2, pkg3});
+
+		requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("(1.0.0,2.0.0]"), null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {pkg2});
+
+		requirement = MetadataFactory.createRequirement("java.package", "org.example", null, null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {pkg1, pkg2, pkg3});
+
+		requirement = MetadataFactory.createRequirement("osgi.bundle", "org.example", null, null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {bundle});
+
+		requirement = MetadataFactory.createRequirement("osgi.bundle", "org.example", new VersionRange("[3.0.0,4.0.0)"), null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[0]);
+	}
+
+	public void testCapabilityIndexMultipleVersionsFromOneIU() throws Exception {
+		IInstallableUnit iu = createIU("multi", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("1.0.0")), MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("2.0.0"))});
+		QueryableArray queryable = new QueryableArray(new IInstallableUnit[] {iu});
+
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.example", null, null, false, false);
+		assertCandidates(queryable, requirement, new IInstallableUnit[] {iu});
+	}
+
+	public void testCapabilityIndexAddUnit() throws Exception {
+		IInstallableUnit pkg1 = createIU("pkg1", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("1.0.0"))});
+		IInstallableUnit pkg2 = createIU("pkg2", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("2.0.0"))});
+		IInstallableUnit pkg3 = createIU("pkg3", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("3.0.0"))});
+		IInstallableUnit bundle = createIU("bundle", Version.create("1.0.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("osgi.bundle", "org.example", Version.create("2.0.0"))});
+		PublisherResult result = new PublisherResult();
+		result.addIU(pkg3, IPublisherResult.ROOT);
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("[1.5.0,3.0.0)"), null, false, false);
+		assertCandidates(result, requirement, new IInstallableUnit[0]);
+		IIndex<IInstallableUnit> index = result.getIndex(InstallableUnit.MEMBER_PROVIDED_CAPABILITIES);
+
+		// the units added after the index was built are added to it
+		result.addIU(pkg1, IPublisherResult.NON_ROOT);
+		result.addIU(bundle, IPublisherResult.ROOT);
+		result.addIU(pkg2, IPublisherResult.ROOT);
+		result.addIU(pkg2, IPublisherResult.ROOT);
+		assertSame(index, result.getIndex(InstallableUnit.MEMBER_PROVIDED_CAPABILITIES));
+		assertCandidates(result, requirement, new IInstallableUnit[] {pkg2});
+
+		requirement = MetadataFactory.createRequirement("java.package", "org.example", null, null, false, false);
+		assertCandidates(result, requirement, new IInstallableUnit[] {pkg1, pkg2, pkg3});
+
+		requirement = MetadataFactory.createRequirement("osgi.bundle", "org.example", null, null, false, false);
+		assertCandidates(result, requirement, new IInstallableUnit[] {bundle});
+	}
+
+	private void assertCandidates(IndexProvider<IInstallableUnit> queryable, IRequirement requirement, IInstallableUnit[] expected) {
+		IIndex<IInstallableUnit> index = queryable.getIndex(InstallableUnit.MEMBER_PROVIDED_CAPABILITIES);
+		Iterator<IInstallableUnit> candidates = index.getCandidates(requirement.getMatches().createContext(), ExpressionFactory.THIS, requirement.getMatches());
+		assertNotNull(candidates);
+		int count = 0;
+		while (candidates.hasNext()) {
+			assertContains(expected, candidates.next());
+			++count;
+		}
+		assertEquals(expected.length, count);
+
+		IQueryResult<IInstallableUnit> result = queryable.query(QueryUtil.createMatchQuery(requirement.getMatches()), getMonitor());
+		assertEquals(expected.length, queryResultSize(result));
+	}
+
+	private static void assertContains(IInstallableUnit[] expected, IInstallableUnit candidate) {
+		for (int i = 0; i < expected.length; i++)
+			if (expected[i] == candidate)
+				return;
+		fail("Unexpected candidate: " + candidate);
+	}
+
 	private IMetadataRepository getMDR(String uri) throws Exception {
 		URI metadataRepo = getTestData("1.1", uri).toURI();
 
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.util.Arrays;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.repository.*;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+
+/**
+ * Tests reading a repository index file from the {@link CacheManager} while it is downloaded.
+ */
+public class CacheManagerTest extends AbstractProvisioningTest {
+	private static final long LAST_MODIFIED = 1000000000000L;
+
+	/**
+	 * Serves a jar index file in small chunks.
+	 */
+	class ChunkTransport extends Transport {
+		byte[] content;
+		int downloads = 0;
+		boolean fail = false;
+
+		public IStatus download(URI toDownload, OutputStream target, long startPos, IProgressMonitor monitor) {
+			return download(toDownload, target, monitor);
+		}
+
+		public IStatus download(URI toDownload, OutputStream target, IProgressMonitor monitor) {
+			downloads++;
+			try {
+				for (int offset = 0; offset < content.length; offset += 1000) {
+					if (monitor.isCanceled())
+						return Status.CANCEL_STATUS;
+					if (fail && offset > content.length / 2)
+						return new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, "Connection reset");
+					target.write(content, offset, Math.min(1000, content.length - offset));
+				}
+			} catch (IOException e) {
+				return new Status(IStatus.ERROR, TestActivator.PI_PROV_TESTS, e.getMessage(), e);
+			}
+			return Status.OK_STATUS;
+		}
+
+		public InputStream stream(URI toDownload, IProgressMonitor monitor) {
+			return new ByteArrayInputStream(content);
+		}
+
+		public long getLastModified(URI toDownload, IProgressMonitor monitor) throws FileNotFoundException {
+			if (!toDownload.getPath().endsWith(".jar"))
+				throw new FileNotFoundException(toDownload.toString());
+			return LAST_MODIFIED;
+		}
+	}
+
+	ChunkTransport transport;
+	CacheManager cacheManager;
+	URI location;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		final File cacheRoot = getTempFolder();
+		IAgentLocation agentLocation = new IAgentLocation() {
+			public URI getDataArea(String namespace) {
+				return new File(cacheRoot, namespace).toURI();
+			}
+
+			public URI getRootLocation() {
+				return cacheRoot.toURI();
+			}
+		};
+		transport = new ChunkTransport();
+		transport.content = new byte[CacheInputStream.PIPE_SIZE * 3 + 17];
+		for (int i = 0; i < transport.content.length; i++)
+			transport.content[i] = (byte) (i * 7);
+		cacheManager = new CacheManager(agentLocation, transport);
+		location = new URI("http://localhost/" + getName());
+	}
+
+	private byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		FileUtils.copyStream(stream, true, result, true);
+		return result.toByteArray();
+	}
+
+	public void testStreamWhileDownloading() throws Exception {
+		CacheInputStream stream = cacheManager.streamCache(location, "content", new NullProgressMonitor());
+		assertTrue(stream.getCacheFile().getName().endsWith(".jar"));
+		assertTrue(Arrays.equals(transport.content, readAll(stream)));
+		assertOK("Download", stream.getStatus());
+
+		// the cache was written while the stream was read
+		File cacheFile = stream.getCacheFile();
+		assertTrue(cacheFile.exists());
+		assertEquals(LAST_MODIFIED, cacheFile.lastModified());
+		assertTrue(Arrays.equals(transport.content, readAll(new FileInputStream(cacheFile))));
+
+		// the cache is up to date, so it is read without downloading
+		stream = cacheManager.streamCache(location, "content", new NullProgressMonitor());
+		assertTrue(Arrays.equals(transport.content, readAll(stream)));
+		assertEquals(1, transport.downloads);
+		assertEquals(cacheFile, cacheManager.createCache(location, "content", new NullProgressMonitor()));
+		assertEquals(1, transport.downloads);
+	}
+
+	public void testCloseBeforeEnd() throws Exception {
+		CacheInputStream stream = cacheManager.streamCache(location, "content", new NullProgressMonitor());
+		byte[] start = new byte[100];
+		assertTrue(stream.read(start) > 0);
+		// closing completes the cache
+		stream.close();
+		assertOK("Download", stream.getStatus());
+		assertTrue(Arrays.equals(transport.content, readAll(new FileInputStream(stream.getCacheFile()))));
+	}
+
+	public void testAbort() throws Exception {
+		CacheInputStream stream = cacheManager.streamCache(location, "content", new NullProgressMonitor());
+		assertTrue(stream.read(new byte[100]) > 0);
+		stream.abort();
+		stream.close();
+		try {
+			stream.read();
+			fail("Read after abort");
+		} catch (IOException e) {
+			// expected
+		}
+		// the partial cache is discarded
+		for (int i = 0; i < 100 && stream.getStatus().isOK(); i++)
+			Thread.sleep(50);
+		assertFalse(stream.getStatus().isOK());
+		assertFalse(stream.getCacheFile().exists());
+	}
+
+	public void testDownloadFailure() throws Exception {
+		transport.fail = true;
+		CacheInputStream stream = cacheManager.streamCache(location, "content", new NullProgressMonitor());
+		try {
+			readAll(stream);
+			fail("Read of a failed download");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(IStatus.ERROR, stream.getStatus().getSeverity());
+		assertEquals("Connection reset", stream.getStatus().getMessage());
+		assertFalse(stream.getCacheFile().exists());
+	}
+}
@@ -66,6 +66,64 @@ public class FileReaderTest extends AbstractTestServerClientCase {
 		IStatus result = transport.download(toDownload, target, monitor);
 		assertTrue("1.0", result.isOK());
 	}
+	/**
+	 * Tests that a streamed read delivers all bytes, in order, and compares the
+	 * throughput with a read through a PipedInputStream.
+	 */
+	public void testStreamThroughput() throws Exception {
+		final int size = 8 * 1024 * 1024;
+		final URI toDownload = new URI("http://localhost:8080/bulk/" + size);
+		final RepositoryTransport transport = new RepositoryTransport();
+
+		// warm up the connection
+		assertEquals("1.0", size, consume(transport.stream(toDownload, new NullProgressMonitor())));
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++)
+			assertEquals("2.0", size, consume(transport.stream(toDownload, new NullProgressMonitor())));
+		long streamTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			PipedInputStream input = new PipedInputStream();
+			final PipedOutputStream output = new PipedOutputStream(input);
+			Thread writer = new Thread() {
+				public void run() {
+					try {
+						transport.download(toDownload, output, new NullProgressMonitor());
+					} finally {
+						try {
+							output.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			};
+			writer.start();
+			assertEquals("3.0", size, consume(input));
+			writer.join();
+		}
+		long pipeTime = System.currentTimeMillis() - start;
+		System.out.println("5 * " + size + " bytes streamed in " + streamTime + " ms, through a pipe in " + pipeTime + " ms");
+	}
+
+	private static int consume(InputStream stream) throws IOException {
+		try {
+			byte[] buffer = new byte[8192];
+			int total = 0;
+			int count;
+			while ((count = stream.read(buffer)) >= 0) {
+				for (int i = 0; i < count; i++)
+					assertEquals("Unexpected byte at " + (total + i), (byte) (total + i), buffer[i]);
+				total += count;
+			}
+			return total;
+		} finally {
+			stream.close();
+		}
+	}
+
 	// TODO: test
 	// timeout, cancel of timeout (TimeoutTest)
 	// bad date returned, very old, and in the future
@@ -22,6 +22,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(ChmodActionTest.class);
 		suite.addTestSuite(CleanupzipActionTest.class);
 		suite.addTestSuite(CollectActionTest.class);
+		suite.addTestSuite(ContentStoreTest.class);
 		suite.addTestSuite(LinkActionTest.class);
 		suite.addTestSuite(MkdirActionTest.class);
 		suite.addTestSuite(NativeTouchpointTest.class);
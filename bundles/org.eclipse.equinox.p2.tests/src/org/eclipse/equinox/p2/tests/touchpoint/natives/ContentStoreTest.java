@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.touchpoint.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.ContentStore;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.NativeTouchpoint;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
+
+public class ContentStoreTest extends AbstractProvisioningTest {
+	private static final boolean WINDOWS = java.io.File.separatorChar == '\\';
+
+	public ContentStoreTest(String name) {
+		super(name);
+	}
+
+	public ContentStoreTest() {
+		super("");
+	}
+
+	public void testMaterialize() throws Exception {
+		File folder = getTempFolder();
+		File source = new File(folder, "source.txt");
+		writeBuffer(source, new StringBuffer("A"));
+		ContentStore store = new ContentStore(new File(folder, "store"));
+
+		File target1 = new File(folder, "install1/a.txt");
+		File target2 = new File(folder, "install2/a.txt");
+		target1.getParentFile().mkdirs();
+		target2.getParentFile().mkdirs();
+		store.materialize(source, target1);
+		store.materialize(source, target2);
+		assertFileContent("first install", target1, "A");
+		assertFileContent("second install", target2, "A");
+		assertEquals(2, store.getLinkCount() + store.getCopyCount());
+		if (!WINDOWS)
+			assertEquals(2, store.getLinkCount());
+
+		// the content is stored once
+		File stored = store.add(source);
+		assertFileContent("stored content", stored, "A");
+		assertEquals(1, store.getRoot().listFiles().length);
+		assertEquals(1, stored.getParentFile().listFiles().length);
+	}
+
+	public void testSameContent() throws Exception {
+		File folder = getTempFolder();
+		File source1 = new File(folder, "a/source.txt");
+		File source2 = new File(folder, "b/source.txt");
+		writeBuffer(source1, new StringBuffer("A"));
+		writeBuffer(source2, new StringBuffer("A"));
+		ContentStore store = new ContentStore(new File(folder, "store"));
+		assertEquals(store.add(source1), store.add(source2));
+	}
+
+	public void testChangedSource() throws Exception {
+		File folder = getTempFolder();
+		File source = new File(folder, "source.txt");
+		writeBuffer(source, new StringBuffer("A"));
+		ContentStore store = new ContentStore(new File(folder, "store"));
+		File stored = store.add(source);
+
+		writeBuffer(source, new StringBuffer("BB"));
+		File changed = store.add(source);
+		assertFalse(stored.equals(changed));
+		assertFileContent("original content", stored, "A");
+		assertFileContent("changed content", changed, "BB");
+	}
+
+	public void testModifiedStoredFile() throws Exception {
+		File folder = getTempFolder();
+		File source = new File(folder, "source.txt");
+		writeBuffer(source, new StringBuffer("A"));
+		ContentStore store = new ContentStore(new File(folder, "store"));
+		File stored = store.add(source);
+		assertFileContent("1.0", stored, "A");
+
+		// the stored content was changed, the length is the same
+		stored.delete();
+		writeBuffer(stored, new StringBuffer("B"));
+		assertEquals("2.0", stored, store.add(source));
+		assertFileContent("2.1", stored, "A");
+
+		// the stored content was truncated
+		stored.delete();
+		writeBuffer(stored, new StringBuffer(""));
+		File target = new File(folder, "a.txt");
+		store.materialize(source, target);
+		assertFileContent("3.0", stored, "A");
+		assertFileContent("3.1", target, "A");
+	}
+
+	public void testLinkAfterFailure() throws Exception {
+		File folder = getTempFolder();
+		File source = new File(folder, "source.txt");
+		writeBuffer(source, new StringBuffer("A"));
+		ContentStore store = new ContentStore(new File(folder, "store"));
+		try {
+			store.materialize(source, new File(folder, "missing/a.txt"));
+			fail("1.0");
+		} catch (IOException e) {
+			// expected, the parent folder does not exist
+		}
+		// a failure does not prevent later links
+		File target = new File(folder, "a.txt");
+		store.materialize(source, target);
+		assertFileContent("1.1", target, "A");
+		if (!WINDOWS)
+			assertEquals("1.2", 1, store.getLinkCount());
+	}
+
+	public void testChmodUnsharesLinkedFile() throws Exception {
+		File folder = getTempFolder();
+		File source = new File(folder, "source.txt");
+		writeBuffer(source, new StringBuffer("A"));
+		File storeFolder = new File(folder, "store");
+		ContentStore store = new ContentStore(storeFolder);
+		File target1 = new File(folder, "install1/a.txt");
+		File target2 = new File(folder, "install2/a.txt");
+		target1.getParentFile().mkdirs();
+		target2.getParentFile().mkdirs();
+		store.materialize(source, target1);
+		store.materialize(source, target2);
+		File stored = store.add(source);
+		if (WINDOWS)
+			return;
+		assertTrue("1.0", store.isShared(target1));
+		assertTrue("1.1", store.isShared(target2));
+
+		setSystemProperty(ContentStore.PROP_CONTENT_STORE, storeFolder.getAbsolutePath());
+		Map parameters = new HashMap();
+		parameters.put(ActionConstants.PARM_TARGET_DIR, target1.getParent());
+		parameters.put(ActionConstants.PARM_TARGET_FILE, target1.getName());
+		parameters.put(ActionConstants.PARM_PERMISSIONS, "a-w");
+		assertOK("2.0", new ChmodAction().execute(Collections.unmodifiableMap(parameters)));
+		// the stored content and the other install keep their mode
+		assertFalse("2.1", store.isShared(target1));
+		assertTrue("2.2", store.isShared(target2));
+		assertFileContent("2.3", target1, "A");
+
+		// a file that is no longer shared is not copied again
+		long modified = target1.lastModified() - 10000;
+		target1.setLastModified(modified);
+		assertOK("2.4", new ChmodAction().execute(Collections.unmodifiableMap(parameters)));
+		assertEquals("2.5", modified, target1.lastModified());
+
+		// an unshared file can be written without changing the store
+		ContentStore.unshare(target2);
+		writeBuffer(target2, new StringBuffer("B"));
+		assertFileContent("3.0", stored, "A");
+		assertFileContent("3.1", target2, "B");
+	}
+
+	public void testCopyActionWithStore() {
+		File folder = getTempFolder();
+		File storeFolder = new File(folder, "store");
+		setSystemProperty(ContentStore.PROP_CONTENT_STORE, storeFolder.getAbsolutePath());
+		Map parameters = createParameters(new File(folder, "install"));
+		Map safeParameters = Collections.unmodifiableMap(parameters);
+
+		CopyAction action = new CopyAction();
+		assertOK("copy", action.execute(safeParameters));
+		File target = new File((String) parameters.get(ActionConstants.PARM_COPY_TARGET));
+		assertFileContent("copied content A", new File(target, "a.txt"), "A");
+		assertFileContent("copied content B", new File(target, "b.txt"), "B");
+		if (!WINDOWS)
+			assertTrue(storeFolder.isDirectory());
+
+		assertOK("undo", action.undo(safeParameters));
+		assertFalse("Target should be removed after undo", target.exists());
+	}
+
+	private Map createParameters(File installFolder) {
+		Properties profileProperties = new Properties();
+		profileProperties.setProperty(IProfile.PROP_INSTALL_FOLDER, installFolder.toString());
+		IProfile profile = createProfile("test", profileProperties);
+
+		File source = getTestData("1.0", "/testData/nativeTouchpoint/aFolder/");
+		File target = new File(installFolder, "aFolder");
+
+		InstallableUnitDescription iuDesc = new MetadataFactory.InstallableUnitDescription();
+		iuDesc.setId("test");
+		iuDesc.setVersion(DEFAULT_VERSION);
+		IArtifactKey key = PublisherHelper.createBinaryArtifactKey("test", DEFAULT_VERSION);
+		iuDesc.setArtifacts(new IArtifactKey[] {key});
+		iuDesc.setTouchpointType(PublisherHelper.TOUCHPOINT_NATIVE);
+		IInstallableUnit iu = MetadataFactory.createInstallableUnit(iuDesc);
+
+		Map parameters = new HashMap();
+		parameters.put(ActionConstants.PARM_PROFILE, profile);
+		parameters.put("iu", iu);
+
+		NativeTouchpoint touchpoint = new NativeTouchpoint();
+		touchpoint.initializePhase(null, profile, "test", parameters);
+
+		parameters.put(ActionConstants.PARM_COPY_SOURCE, source.getAbsolutePath());
+		parameters.put(ActionConstants.PARM_COPY_TARGET, target.getAbsolutePath());
+		parameters.put(ActionConstants.PARM_COPY_OVERWRITE, Boolean.toString(false));
+		return parameters;
+	}
+}
@@ -10,8 +10,11 @@ package org.eclipse.equinox.p2.tests.touchpoint.natives;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.IBackupStore;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.NativeTouchpoint;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.Util;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.ActionConstants;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.UnzipAction;
 import org.eclipse.equinox.p2.engine.IProfile;
@@ -133,6 +136,52 @@ public class UnzipActionTest extends AbstractProvisioningTest {
 		backup.discard();
 	}
 
+	/**
+	 * Tests unzipping a zip file with many entries, which are written by several threads.
+	 */
+	public void testUnzipManyEntries() throws IOException {
+		File folder = getTempFolder();
+		File zipFile = new File(folder, "many.zip");
+		File installFolder = new File(folder, "install");
+		List<String> names = new ArrayList<String>();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			for (int i = 0; i < 10; i++) {
+				String dir = "dir" + i + "/";
+				out.putNextEntry(new ZipEntry(dir));
+				out.closeEntry();
+				names.add(dir);
+				for (int j = 0; j < 20; j++) {
+					String name = dir + "sub" + (j % 3) + "/file" + j + ".txt";
+					out.putNextEntry(new ZipEntry(name));
+					out.write(name.getBytes());
+					out.closeEntry();
+					names.add(name);
+				}
+			}
+			// a duplicate entry replaces the earlier one
+			out.putNextEntry(new ZipEntry("dir0/sub0/file0.txt"));
+			out.write("last".getBytes());
+			out.closeEntry();
+			names.add("dir0/sub0/file0.txt");
+		} finally {
+			out.close();
+		}
+		File existing = new File(installFolder, "dir1/sub1/file1.txt");
+		writeToFile(existing, "ORIGINAL");
+
+		File[] unzipped = Util.unzipFile(zipFile, installFolder, null, "many.zip", null);
+		assertEquals(names.size(), unzipped.length);
+		for (int i = 0; i < unzipped.length; i++)
+			assertEquals(new File(installFolder, names.get(i)), unzipped[i]);
+		for (int i = 1; i < 10; i++)
+			for (int j = 0; j < 20; j++) {
+				String name = "dir" + i + "/sub" + (j % 3) + "/file" + j + ".txt";
+				assertFileContent(name, new File(installFolder, name), name);
+			}
+		assertFileContent("Should contain the last entry", new File(installFolder, "dir0/sub0/file0.txt"), "last");
+		delete(folder);
+	}
 	/**
 	 * Tests executing and undoing an unzip action when the profile
 	 * id contains characters that are not valid in file names. See bug 274182.
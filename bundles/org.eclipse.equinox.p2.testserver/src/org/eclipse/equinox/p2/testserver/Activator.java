@@ -14,6 +14,7 @@ package org.eclipse.equinox.p2.testserver;
 import java.net.URI;
 import javax.servlet.ServletException;
 import org.eclipse.equinox.p2.testserver.servlets.BasicResourceDelivery;
+import org.eclipse.equinox.p2.testserver.servlets.BulkData;
 import org.eclipse.equinox.p2.testserver.servlets.ChopAndDelay;
 import org.eclipse.equinox.p2.testserver.servlets.ContentLengthLier;
 import org.eclipse.equinox.p2.testserver.servlets.FileMolester;
@@ -77,6 +78,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer {
 			httpService.registerServlet("/timeout", new TimeOut(), null, null); //$NON-NLS-1$
 			httpService.registerServlet("/mirrorrequest", new IntermittentTimeout("/mirrorrequest", URI.create("http://localhost:" + System.getProperty("org.osgi.service.http.port", "8080") + "/public/emptyJarRepo")), null, null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
 			httpService.registerServlet("/redirect", new Redirector(), null, null); //$NON-NLS-1$
+			httpService.registerServlet("/bulk", new BulkData(), null, null); //$NON-NLS-1$
 
 			httpService.registerServlet("/truncated", new Truncator("/truncated", URI.create("/webfiles"), 50), null, null); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
 			httpService.registerServlet("/molested", new FileMolester("/molested", URI.create("/webfiles"), 40), null, null); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
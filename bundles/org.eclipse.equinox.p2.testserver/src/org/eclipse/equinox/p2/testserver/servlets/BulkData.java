@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Cloudsmith Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.p2.testserver.servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Produces a binary response of a size specified in the request URI. Useful when
+ * measuring transfer throughput.
+ * Requires to be registered for "/bulk" path. The request is made on the format
+ * "/bulk/size" where size is the number of bytes to deliver. The path after /size/ can be
+ * anything - it is always ignored.
+ * The content is a repeated sequence of all byte values so that a client can verify what
+ * it received.
+ */
+public class BulkData extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte[] PATTERN = new byte[256];
+	static {
+		for (int i = 0; i < PATTERN.length; i++)
+			PATTERN[i] = (byte) i;
+	}
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		int size = getSize(request, response);
+		if (size < 0)
+			return;
+		OutputStream output = response.getOutputStream();
+		byte[] block = new byte[8192];
+		for (int i = 0; i < block.length; i += PATTERN.length)
+			System.arraycopy(PATTERN, 0, block, i, PATTERN.length);
+		while (size > 0) {
+			int count = Math.min(size, block.length);
+			output.write(block, 0, count);
+			size -= count;
+		}
+		output.flush();
+	}
+
+	protected void doHead(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		getSize(request, response);
+	}
+
+	private int getSize(HttpServletRequest request, HttpServletResponse response) {
+		String requestPath = request.getRequestURI();
+		String[] result = requestPath.split("/"); //$NON-NLS-1$
+		int size = -1;
+		if (result.length >= 3) {
+			try {
+				size = Integer.parseInt(result[2]);
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+		}
+		if (size < 0) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			getServletContext().log("Error Servlet requires being configured to get /bulk/size paths. Example /bulk/1048576, got " + requestPath); //$NON-NLS-1$
+			return -1;
+		}
+		response.setContentType("application/octet-stream"); //$NON-NLS-1$
+		response.setContentLength(size);
+		return size;
+	}
+}
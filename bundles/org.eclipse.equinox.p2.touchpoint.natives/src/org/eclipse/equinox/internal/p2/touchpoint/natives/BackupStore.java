@@ -19,6 +19,7 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
 
 /**
  * Stores files by copying them to a uniquely named temporary directory.
@@ -71,9 +72,22 @@ import org.eclipse.osgi.util.NLS;
  * among the backup stores.
  * 
  * <h3>Restartability</h3>
- * Not implemented - it is possible to obtain the name of the backup directories,
- * so manual restore is possible after a crash. An idea is to add persistence to a file, and
- * be able to read it back in again.
+ * Every backup operation is appended to a journal file next to the backup directory, before the
+ * operation is performed. The journal is removed when the store is restored or discarded, so a
+ * journal that remains belongs to a store that was abandoned, typically because the process ended
+ * abruptly. Such stores are found with {@link #findAbandoned(File, String)}, and {@link #recover(boolean)}
+ * first removes a backup copy that was only partially written, and then restores or discards the store.
+ * Renamed files need no more than the journal record, but copies are synchronized to disk before and
+ * after the copy is made, so that a partial copy can never be mistaken for a complete one.
+ * 
+ * It is still possible to obtain the name of the backup directories, so manual restore is possible
+ * if the recovery fails.
+ * 
+ * <h3>Performance</h3>
+ * Restoring and discarding moves or deletes each file of the backup, which is done by
+ * {@link #PROP_MAX_THREADS} threads when the backup holds many files. Backing up and restoring are
+ * fast when the backup root is on the same volume as the backed up files, since the files are renamed
+ * rather than copied.
  * 
  * <h3>A note about exceptions</h3>
  * In general {@link IllegalArgumentException} is thrown when attempting an operation
@@ -97,6 +111,34 @@ public class BackupStore implements IBackupStore {
 	 */
 	private static final String ROOTCHAR = "_"; //$NON-NLS-1$
 
+	/**
+	 * The maximum number of threads that restore or discard the files of a backup. If this property
+	 * is undefined, the default value is the number of available processors.
+	 */
+	public static final String PROP_MAX_THREADS = "eclipse.p2.backup.maxThreads"; //$NON-NLS-1$
+
+	/**
+	 * The minimum number of files handled by each thread that restores or discards files.
+	 */
+	private static final int FILES_PER_THREAD = 32;
+
+	/**
+	 * The suffix of the journal file, which is named after the backup directory.
+	 */
+	private static final String JOURNAL_SUFFIX = ".journal"; //$NON-NLS-1$
+
+	// the journal records, followed by a space and the absolute path of a file (or the label)
+	private static final String RECORD_LABEL = "label"; //$NON-NLS-1$
+	private static final String RECORD_MOVE = "move"; //$NON-NLS-1$
+	private static final String RECORD_COPY = "copy"; //$NON-NLS-1$
+	private static final String RECORD_DONE = "done"; //$NON-NLS-1$
+	private static final String RECORD_DISCARD = "discard"; //$NON-NLS-1$
+
+	/**
+	 * The journals of the stores of this VM that are in use, and must not be recovered.
+	 */
+	private static final Set<File> openJournals = new HashSet<File>();
+
 	/**
 	 * Map of directory File to backup root (File) - the backup root has 
 	 * a directory named {@link #backupName} where the backup is found.
@@ -137,6 +179,34 @@ public class BackupStore implements IBackupStore {
 	 */
 	private boolean closed;
 
+	/**
+	 * A label that is recorded in the journal, to help deciding how to recover the store.
+	 */
+	private String label;
+
+	/**
+	 * The journal file, and its stream once the first operation has been recorded.
+	 */
+	private final File journal;
+	private FileOutputStream journalStream = null;
+
+	/**
+	 * Flag indicating if this BackupStore was read from the journal of an abandoned store,
+	 * in which case the number of backed up files is unknown.
+	 */
+	private boolean recovered = false;
+
+	/**
+	 * The file of a copy that was recorded in the journal of an abandoned store but was not
+	 * recorded as done, or <code>null</code>.
+	 */
+	private File pendingCopy = null;
+
+	/**
+	 * Flag indicating if the journal of an abandoned store records that it was being discarded.
+	 */
+	private boolean discarding = false;
+
 	/**
 	 * Generates a BackupStore with a default prefix of ".p2bu" for backup directory and
 	 * probe file. 
@@ -157,6 +227,18 @@ public class BackupStore implements IBackupStore {
 	 * @param prefix - prefix used for human identification of backup directories
 	 */
 	public BackupStore(File buParentDirectory, String prefix) {
+		this(buParentDirectory, prefix, null);
+	}
+
+	/**
+	 * Generates a BackupStore with a specified prefix for backup directories and
+	 * probe file, that records the given label in its journal.
+	 * 
+	 * @param buParentDirectory - name of directory where the backup directory should be created - if null, java.io.tmpdir is used
+	 * @param prefix - prefix used for human identification of backup directories
+	 * @param label - a label returned by {@link #getLabel()} if the store is abandoned and found again, or null
+	 */
+	public BackupStore(File buParentDirectory, String prefix, String label) {
 		if (buParentDirectory == null)
 			buParentDirectory = new File(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
 		backupRoot = buParentDirectory;
@@ -165,11 +247,43 @@ public class BackupStore implements IBackupStore {
 		String unique = genUnique();
 		dummyName = prefix + "d_" + unique; //$NON-NLS-1$
 		backupName = prefix + "_" + unique; //$NON-NLS-1$
+		journal = new File(backupRoot, backupName + JOURNAL_SUFFIX);
+		this.label = label;
 		backupCounter = 0;
 		restoreCounter = 0;
 		closed = false;
 	}
 
+	/**
+	 * Reads the journal of an abandoned BackupStore.
+	 */
+	private BackupStore(File buParentDirectory, String prefix, String unique, File journal) throws IOException {
+		backupRoot = buParentDirectory;
+		dummyName = prefix + "d_" + unique; //$NON-NLS-1$
+		backupName = prefix + "_" + unique; //$NON-NLS-1$
+		this.journal = journal;
+		recovered = true;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String record = space == -1 ? line : line.substring(0, space);
+				String argument = space == -1 ? null : line.substring(space + 1);
+				if (RECORD_LABEL.equals(record))
+					label = argument;
+				else if (RECORD_COPY.equals(record))
+					pendingCopy = new File(argument);
+				else if (RECORD_DONE.equals(record))
+					pendingCopy = null;
+				else if (RECORD_DISCARD.equals(record))
+					discarding = true;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
 	/**
 	 * Since a socket port is used to create a unique number, the socket
 	 * must be closed if this instance is garbage collected and the user
@@ -196,6 +310,14 @@ public class BackupStore implements IBackupStore {
 		return backupRoot;
 	}
 
+	/**
+	 * Returns the label recorded in the journal of this store.
+	 * @return the label, or null if the store has no label
+	 */
+	public String getLabel() {
+		return label;
+	}
+
 	/**
 	 * Backup the file by moving it to the backup store (for later (optional) restore).
 	 * Calling this method with a file that represents a directory is equivalent to calling 
@@ -258,6 +380,8 @@ public class BackupStore implements IBackupStore {
 		buFile.getParentFile().mkdirs();
 		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
+		// a rename either happens or not, so it does not need to be on disk before it is done
+		writeJournal(RECORD_MOVE, file.getAbsolutePath(), false);
 		if (file.renameTo(buFile)) {
 			backupCounter++;
 			return;
@@ -266,8 +390,7 @@ public class BackupStore implements IBackupStore {
 		// that source is locked "in use" on a windows machine. The copy will work across volumes,
 		// but the locked file will fail on the subsequent delete.
 		//
-		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
-		backupCounter++;
+		copyToBackup(file, buFile);
 
 		// need to remove the backed up file
 		if (!file.delete())
@@ -377,9 +500,59 @@ public class BackupStore implements IBackupStore {
 		// just make a copy - one has to be made in one direction anyway
 		// A renameTo followed by a copy is preferred as it preserves file permissions on the moved file
 		// but it is easier to just copy and keep original.
+		copyToBackup(file, buFile);
+		return true;
+	}
+
+	/**
+	 * Copies a file to its backup file. The copy is recorded in the journal before and after it is
+	 * made, so that a copy that was interrupted can be removed when the store is recovered.
+	 */
+	private void copyToBackup(File file, File buFile) throws IOException {
+		writeJournal(RECORD_COPY, file.getAbsolutePath(), true);
 		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+		writeJournal(RECORD_DONE, null, true);
 		backupCounter++;
-		return true;
+	}
+
+	/**
+	 * Appends a record to the journal, which is created with the label of this store
+	 * when the first record is written.
+	 * @param sync - whether the record must be on disk when this method returns
+	 */
+	private void writeJournal(String record, String argument, boolean sync) throws IOException {
+		if (journalStream == null) {
+			backupRoot.mkdirs();
+			synchronized (openJournals) {
+				openJournals.add(journal);
+			}
+			journalStream = new FileOutputStream(journal, true);
+			if (label != null)
+				writeJournal(RECORD_LABEL, label, false);
+		}
+		String line = argument == null ? record + '\n' : record + ' ' + argument + '\n';
+		journalStream.write(line.getBytes("UTF-8")); //$NON-NLS-1$
+		if (sync)
+			journalStream.getFD().sync();
+	}
+
+	/**
+	 * Closes the journal, and deletes it unless the backup must be recovered later.
+	 */
+	private void closeJournal(boolean delete) {
+		if (journalStream != null) {
+			try {
+				journalStream.close();
+			} catch (IOException e) {
+				// ignore, the journal is deleted or read again
+			}
+			journalStream = null;
+		}
+		if (delete)
+			journal.delete();
+		synchronized (openJournals) {
+			openJournals.remove(journal);
+		}
 	}
 
 	/**
@@ -438,18 +611,31 @@ public class BackupStore implements IBackupStore {
 			throw new ClosedBackupStoreException(Messages.BackupStore_restore_closed_store);
 		// put back all files 
 		// collect things that could not be restored (so final status can be reported)
-		Set<File> unrestorable = new HashSet<File>();
+		Set<File> unrestorable = Collections.synchronizedSet(new HashSet<File>());
 		boolean restored = true;
+		File buDir = new File(backupRoot, backupName);
 		if (!backupRoot.exists()) {
 			logError(NLS.bind(Messages.BackupStore_missing_backup_directory, backupRoot.getAbsolutePath()));
 			restored = false;
-		} else
-			restoreRoots(new File(backupRoot, backupName), unrestorable);
+		} else if (!recovered || buDir.exists()) {
+			// an abandoned store may have been abandoned before its first file was backed up
+			// the directories are restored first, and then the files in a batch
+			List<File[]> files = new ArrayList<File[]>();
+			restoreRoots(buDir, unrestorable, files);
+			restoreFiles(files, unrestorable);
+		}
 
 		logUnrestorables(unrestorable);
 		if (unrestorable.size() > 0)
 			restored = false;
-		close(restored);
+		try {
+			close(restored);
+		} catch (IOException e) {
+			// the journal is kept so that the restore is tried again when the store is recovered
+			closeJournal(false);
+			throw e;
+		}
+		closeJournal(true);
 		closed = true;
 	}
 
@@ -470,14 +656,101 @@ public class BackupStore implements IBackupStore {
 		if (closed)
 			return;
 		closeSocket();
-		removeBackups();
+		if (journalStream != null || journal.exists()) {
+			try {
+				// if the discard is interrupted, the recovery of the store completes it
+				writeJournal(RECORD_DISCARD, null, true);
+			} catch (IOException e) {
+				// the journal is deleted once the backups are removed
+			}
+		}
+		closeJournal(removeBackups());
 		closed = true;
 	}
 
+	/**
+	 * Finds the stores with the given prefix in the given directory that were neither restored nor
+	 * discarded. The stores of this VM that are still in use are not returned. The stores should
+	 * be recovered with {@link #recover(boolean)}.
+	 * 
+	 * @param buParentDirectory - the directory where the backup directories are created - if null, java.io.tmpdir is used
+	 * @param prefix - the prefix of the stores to find
+	 * @return the abandoned stores
+	 */
+	public static BackupStore[] findAbandoned(File buParentDirectory, String prefix) {
+		if (buParentDirectory == null)
+			buParentDirectory = new File(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+		String[] names = buParentDirectory.list();
+		if (names == null)
+			return new BackupStore[0];
+		List<BackupStore> abandoned = new ArrayList<BackupStore>();
+		for (int i = 0; i < names.length; i++) {
+			if (!names[i].startsWith(prefix + "_") || !names[i].endsWith(JOURNAL_SUFFIX)) //$NON-NLS-1$
+				continue;
+			// the prefix of another store can start with this prefix, but not the unique part
+			String unique = names[i].substring(prefix.length() + 1, names[i].length() - JOURNAL_SUFFIX.length());
+			if (!isUnique(unique))
+				continue;
+			File journal = new File(buParentDirectory, names[i]);
+			synchronized (openJournals) {
+				if (openJournals.contains(journal))
+					continue;
+			}
+			try {
+				abandoned.add(new BackupStore(buParentDirectory, prefix, unique, journal));
+			} catch (IOException e) {
+				logWarning(NLS.bind(Messages.BackupStore_manual_restore_needed, new File(buParentDirectory, prefix + "_" + unique).getAbsolutePath())); //$NON-NLS-1$
+			}
+		}
+		return abandoned.toArray(new BackupStore[abandoned.size()]);
+	}
+
+	/**
+	 * Returns true if the given string has the format of the unique part generated by {@link #genUnique()}.
+	 */
+	private static boolean isUnique(String unique) {
+		int separator = unique.indexOf('_');
+		if (separator < 1 || separator == unique.length() - 1)
+			return false;
+		for (int i = 0; i < unique.length(); i++) {
+			char c = unique.charAt(i);
+			if (i != separator && Character.digit(c, 16) == -1)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Recovers a store found by {@link #findAbandoned(File, String)}. A backup copy that was
+	 * not completely written is removed first. Then the backup is restored or discarded. A store
+	 * that was abandoned while it was being discarded is always discarded.
+	 * 
+	 * @param restore - true to restore the backed up files, false to discard them
+	 * @return true if the backup was restored, false if it was discarded
+	 * @throws IOException if the backup was not fully restored - unrestored items have been logged.
+	 * @throws ClosedBackupStoreException if the backup is already closed.
+	 */
+	public boolean recover(boolean restore) throws IOException {
+		if (pendingCopy != null) {
+			// the original file is only deleted once the copy is done
+			File buFile = getBackupFile(pendingCopy);
+			if (pendingCopy.exists() && buFile.exists())
+				buFile.delete();
+			pendingCopy = null;
+		}
+		if (!restore || discarding) {
+			discard();
+			return false;
+		}
+		restore();
+		return true;
+	}
+
 	private void close(boolean fullyRestored) throws IOException {
 		closeSocket();
 		// check external tampering with backup store
-		if (backupCounter != restoreCounter) {
+		// the number of files backed up by an abandoned store is not known
+		if (!recovered && backupCounter != restoreCounter) {
 			if (!fullyRestored)
 				logError(NLS.bind(Messages.BackupStore_0_of_1_items_restored, new Long(restoreCounter), new Long(backupCounter)));
 			else {
@@ -500,10 +773,36 @@ public class BackupStore implements IBackupStore {
 			}
 	}
 
-	private void removeBackups() {
+	private boolean removeBackups() {
 		File buRoot = new File(backupRoot, backupName);
-		if (!fullyDelete(buRoot))
+		// delete the files in a batch, and then what remains
+		List<File[]> files = new ArrayList<File[]>();
+		listFiles(buRoot, files);
+		new FileBatch(files) {
+			void perform(File[] item) {
+				item[0].delete();
+			}
+		}.performAll();
+		if (!fullyDelete(buRoot)) {
 			logWarning(NLS.bind(Messages.BackupStore_can_not_remove_bu_directory, buRoot.getAbsolutePath()));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the files under the given directory to the given list.
+	 */
+	private static void listFiles(File directory, List<File[]> files) {
+		File[] children = directory.listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			if (children[i].isDirectory())
+				listFiles(children[i], files);
+			else
+				files.add(new File[] {children[i]});
+		}
 	}
 
 	private static void logWarning(String message) {
@@ -541,7 +840,7 @@ public class BackupStore implements IBackupStore {
 		return file.delete();
 	}
 
-	private void restore(File root, File buRoot, Set<File> unrestorable) {
+	private void restore(File root, File buRoot, Set<File> unrestorable, List<File[]> files) {
 		File[] children = buRoot.listFiles();
 		if (children == null) { // error - can't read the backup directory
 			unrestorable.add(buRoot);
@@ -563,7 +862,7 @@ public class BackupStore implements IBackupStore {
 						continue; // give up on branch
 					}
 				}
-				restore(target, bu, unrestorable);
+				restore(target, bu, unrestorable, files);
 			} else {
 				// do not restore the dummies (as they are used to trigger creation of
 				// empty directories and are not wanted in the restored location.
@@ -571,35 +870,125 @@ public class BackupStore implements IBackupStore {
 					restoreCounter++; // count of the restored directory in this case.
 					continue;
 				}
-				// if the original was overwritten by something and this file was not
-				// removed, it needs to be deleted now. If it can't be deleted, the
-				// renameTo will fail, and the bu is reported as not restorable.
-				// fullyDelete will remove a directory completely - we are restoring a file so it can 
-				// not be kept.
-				if (target.exists())
-					fullyDelete(target);
-
-				// rename if possible, but must copy if not possible to just rename
-				if (!bu.renameTo(target)) {
-					// did not work to rename, probably because of volume boundaries. Try to copy instead,
-					try {
-						Util.copyStream(new FileInputStream(bu), true, new FileOutputStream(target), true);
-						restoreCounter++; // consider it restored
-					} catch (FileNotFoundException e) {
-						unrestorable.add(bu);
-						continue;
-					} catch (IOException e) {
-						unrestorable.add(bu);
-						continue;
-					}
-					if (!bu.delete()) { // cleanup
-						// could not remove the backup after copy - log, safe to remove manually
-						logWarning(NLS.bind(Messages.BackupStore_can_not_delete_tmp_file, bu.getAbsolutePath()));
+				files.add(new File[] {bu, target});
+			}
+		}
+	}
+
+	/**
+	 * Restores the given backup files, once their directories have been restored.
+	 * @param files - pairs of backup file and target file
+	 */
+	private void restoreFiles(List<File[]> files, final Set<File> unrestorable) {
+		new FileBatch(files) {
+			void perform(File[] item) {
+				if (restoreFile(item[0], item[1]))
+					restored();
+				else
+					unrestorable.add(item[0]);
+			}
+		}.performAll();
+	}
+
+	private synchronized void restored() {
+		restoreCounter++;
+	}
+
+	private boolean restoreFile(File bu, File target) {
+		// if the original was overwritten by something and this file was not
+		// removed, it needs to be deleted now. If it can't be deleted, the
+		// renameTo will fail, and the bu is reported as not restorable.
+		// fullyDelete will remove a directory completely - we are restoring a file so it can 
+		// not be kept.
+		if (target.exists())
+			fullyDelete(target);
+
+		// rename if possible, but must copy if not possible to just rename
+		if (bu.renameTo(target))
+			return true;
+		// did not work to rename, probably because of volume boundaries. Try to copy instead,
+		try {
+			Util.copyStream(new FileInputStream(bu), true, new FileOutputStream(target), true);
+		} catch (FileNotFoundException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+		if (!bu.delete()) { // cleanup
+			// could not remove the backup after copy - log, safe to remove manually
+			logWarning(NLS.bind(Messages.BackupStore_can_not_delete_tmp_file, bu.getAbsolutePath()));
+		}
+		return true; // consider it restored
+	}
+
+	/**
+	 * Performs an operation on each item of a list of files, with several threads when there are many items.
+	 */
+	private static abstract class FileBatch {
+		private final List<File[]> items;
+		// guarded by this
+		private int next = 0;
+
+		FileBatch(List<File[]> items) {
+			this.items = items;
+		}
+
+		abstract void perform(File[] item);
+
+		private synchronized File[] nextItem() {
+			return next < items.size() ? items.get(next++) : null;
+		}
+
+		void performItems() {
+			File[] item;
+			while ((item = nextItem()) != null)
+				perform(item);
+		}
+
+		void performAll() {
+			int threadCount = Math.min(getMaximumThreads(), items.size() / FILES_PER_THREAD);
+			if (threadCount <= 1) {
+				performItems();
+				return;
+			}
+			Thread[] threads = new Thread[threadCount];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread("Backup Store") { //$NON-NLS-1$
+					public void run() {
+						performItems();
 					}
-				} else
-					restoreCounter++;
+				};
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+			boolean interrupted = false;
+			for (int i = 0; i < threads.length; i++) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					// keep waiting, the threads end once all items are performed
+					interrupted = true;
+					i--;
+				}
 			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int getMaximumThreads() {
+		String maxThreadsString = null;
+		try {
+			BundleContext context = Activator.getContext();
+			maxThreadsString = context == null ? System.getProperty(PROP_MAX_THREADS) : context.getProperty(PROP_MAX_THREADS);
+			if (maxThreadsString != null)
+				return Math.max(1, Integer.parseInt(maxThreadsString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (maxThreadsString != null)
+				System.err.println("Ignoring user-specified '" + PROP_MAX_THREADS + "' value of: " + maxThreadsString); //$NON-NLS-1$ //$NON-NLS-2$
 		}
+		return Runtime.getRuntime().availableProcessors();
 	}
 
 	/**
@@ -607,8 +996,9 @@ public class BackupStore implements IBackupStore {
 	 * target directories (i.e. _/, __/, C/, etc.) into the real system names.
 	 * @param buRoot
 	 * @param unrestorable
+	 * @param files - the list to which the files to restore are added
 	 */
-	private void restoreRoots(File buRoot, Set<File> unrestorable) {
+	private void restoreRoots(File buRoot, Set<File> unrestorable, List<File[]> files) {
 		File[] children = buRoot.listFiles();
 		if (children == null) { // error - can't read the backup directory
 			unrestorable.add(buRoot);
@@ -645,7 +1035,7 @@ public class BackupStore implements IBackupStore {
 				continue; // give up on this branch
 			}
 			// then perform a recursive restore
-			restore(target, bu, unrestorable);
+			restore(target, bu, unrestorable, files);
 		}
 	}
 
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.touchpoint.natives;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A store of file contents keyed by their SHA-256 digest, which can be shared by several
+ * agents and profiles on the same host.
+ * <p>
+ * A file that is materialized through the store is added to the store once, and every
+ * install location gets a hard link to the stored file instead of a copy of its bytes. When
+ * a link can not be created, for example because the target is on another file system,
+ * the file is copied.
+ * </p><p>
+ * A link shares its content and its mode with the stored file, so installed files must be
+ * replaced rather than modified in place, and must be {@link #unshare(File) unshared} before
+ * their mode is changed. Stored files are read-only, and a stored file whose content no
+ * longer matches its digest is stored again before it is linked.
+ * Links are created with the <code>ln</code> command, one shell for each {@link Batch}, so
+ * the store is not used on Windows.
+ * </p>
+ */
+public class ContentStore {
+	/**
+	 * The location of the content store shared by copy actions. When the property is not
+	 * set, files are copied into each install location.
+	 */
+	public static final String PROP_CONTENT_STORE = "eclipse.p2.touchpoint.contentStore"; //$NON-NLS-1$
+
+	private static final boolean WINDOWS = java.io.File.separatorChar == '\\';
+	private static final String ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final int MAX_DIGESTS = 10000;
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private static ContentStore defaultStore;
+
+	private final File root;
+	// maps a file path, length and time stamp to the digest of the file, guarded by this
+	private final Map<String, String> digests = new HashMap<String, String>();
+	private int linkCount = 0;
+	private int copyCount = 0;
+
+	/**
+	 * Returns the store at the location given by the {@link #PROP_CONTENT_STORE} property,
+	 * or <code>null</code> if files should be copied without a store.
+	 */
+	public static synchronized ContentStore getDefault() {
+		if (WINDOWS)
+			return null;
+		BundleContext context = Activator.getContext();
+		String location = context == null ? System.getProperty(PROP_CONTENT_STORE) : context.getProperty(PROP_CONTENT_STORE);
+		if (location == null || location.length() == 0)
+			return null;
+		File root = new File(location).getAbsoluteFile();
+		if (defaultStore == null || !defaultStore.root.equals(root))
+			defaultStore = new ContentStore(root);
+		return defaultStore;
+	}
+
+	public ContentStore(File root) {
+		this.root = root;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the number of files that were materialized as a link to the store.
+	 */
+	public synchronized int getLinkCount() {
+		return linkCount;
+	}
+
+	/**
+	 * Returns the number of files that were materialized as a copy because a link could
+	 * not be created.
+	 */
+	public synchronized int getCopyCount() {
+		return copyCount;
+	}
+
+	/**
+	 * Creates the target file with the content of the source file, by linking it to the
+	 * stored content if possible. The target must not exist.
+	 * @param source the file to install
+	 * @param target the file to create
+	 * @throws IOException if the content could not be stored or materialized
+	 */
+	public void materialize(File source, File target) throws IOException {
+		Batch batch = newBatch();
+		batch.add(source, target);
+		batch.materialize();
+	}
+
+	/**
+	 * Returns a new batch of files to materialize together.
+	 */
+	public Batch newBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * Files that are materialized together, so that all links are created by a single
+	 * process. A file that can not be linked is copied.
+	 */
+	public class Batch {
+		private final List<File> stored = new ArrayList<File>();
+		private final List<File> targets = new ArrayList<File>();
+
+		Batch() {
+			// use newBatch()
+		}
+
+		/**
+		 * Adds the content of the source file to the store and schedules the creation of
+		 * the target file, which must not exist.
+		 * @throws IOException if the content could not be stored
+		 */
+		public void add(File source, File target) throws IOException {
+			stored.add(ContentStore.this.add(source));
+			targets.add(target);
+		}
+
+		/**
+		 * Creates the target files of this batch.
+		 * @throws IOException if a file could neither be linked nor copied
+		 */
+		public void materialize() throws IOException {
+			if (targets.isEmpty())
+				return;
+			BitSet linked = link(stored, targets);
+			int links = linked.cardinality();
+			synchronized (ContentStore.this) {
+				linkCount += links;
+			}
+			for (int i = 0; i < targets.size(); i++) {
+				if (linked.get(i))
+					continue;
+				Util.copyStream(new FileInputStream(stored.get(i)), true, new FileOutputStream(targets.get(i)), true);
+				synchronized (ContentStore.this) {
+					copyCount++;
+				}
+			}
+			stored.clear();
+			targets.clear();
+		}
+	}
+
+	/**
+	 * Returns whether the given installed file may be a link to a stored file. A link has
+	 * the length and the time stamp of the stored file, while a copy or an
+	 * {@link #unshare(File) unshared} file has the time stamp of the time it was written.
+	 * @throws IOException if the file could not be read
+	 */
+	public boolean isShared(File file) throws IOException {
+		File stored = getFile(getDigest(file));
+		return stored.lastModified() == file.lastModified() && stored.length() == file.length();
+	}
+
+	/**
+	 * Replaces the given installed file by a copy of itself, so that it no longer shares
+	 * its content and its mode with the store. This must be done before the mode of an
+	 * installed file is changed. Files that are not links are copied as well.
+	 * @throws IOException if the file could not be replaced
+	 */
+	public static void unshare(File file) throws IOException {
+		File temp = File.createTempFile("unshare", ".tmp", file.getParentFile()); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			Util.copyStream(new FileInputStream(file), true, new FileOutputStream(temp), true);
+			if (!temp.renameTo(file))
+				throw new IOException("File " + file + " could not be replaced"); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Adds the content of the given file to the store, unless it is already there.
+	 * @return the stored file
+	 * @throws IOException if the content could not be stored
+	 */
+	public File add(File source) throws IOException {
+		String digest = getDigest(source);
+		File stored = getFile(digest);
+		// a stored file that was modified in place is replaced
+		if (stored.isFile() && stored.length() == source.length() && digest.equals(getDigest(stored)))
+			return stored;
+
+		File folder = stored.getParentFile();
+		if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory())
+			throw new IOException("Content store folder " + folder + " could not be created"); //$NON-NLS-1$ //$NON-NLS-2$
+		File temp = File.createTempFile(digest, ".tmp", folder); //$NON-NLS-1$
+		try {
+			// the file may have changed since it was digested, so store what is actually read
+			String copiedDigest = digest(source, temp);
+			if (!copiedDigest.equals(digest)) {
+				synchronized (this) {
+					digests.remove(getKey(source));
+				}
+				stored = getFile(copiedDigest);
+				stored.getParentFile().mkdirs();
+			}
+			temp.setReadOnly();
+			// another process may have stored the same content in the meantime
+			if (!temp.renameTo(stored) && !stored.isFile())
+				throw new IOException("Content of " + source + " could not be stored in " + stored); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			temp.delete();
+		}
+		return stored;
+	}
+
+	/**
+	 * Returns the stored file for the given digest. The file may not exist.
+	 */
+	public File getFile(String digest) {
+		return new File(new File(root, digest.substring(0, 2)), digest);
+	}
+
+	/**
+	 * Returns the digest of the given file, which is computed again when the length or the
+	 * time stamp of the file changes.
+	 */
+	private String getDigest(File file) throws IOException {
+		String key = getKey(file);
+		String digest;
+		synchronized (this) {
+			digest = digests.get(key);
+		}
+		if (digest == null) {
+			digest = digest(file, null);
+			synchronized (this) {
+				if (digests.size() >= MAX_DIGESTS)
+					digests.clear();
+				digests.put(key, digest);
+			}
+		}
+		return digest;
+	}
+
+	private static String getKey(File file) {
+		return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+	}
+
+	/**
+	 * Computes the digest of the given file, and copies the file to the given copy if
+	 * it is not <code>null</code>.
+	 */
+	private static String digest(File file, File copy) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			IOException failure = new IOException(e.getMessage());
+			failure.initCause(e);
+			throw failure;
+		}
+		InputStream in = new FileInputStream(file);
+		OutputStream out = null;
+		try {
+			if (copy != null)
+				out = new FileOutputStream(copy);
+			byte[] buffer = new byte[16 * 1024];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				md.update(buffer, 0, len);
+				if (out != null)
+					out.write(buffer, 0, len);
+			}
+		} finally {
+			try {
+				in.close();
+			} finally {
+				if (out != null)
+					out.close();
+			}
+		}
+		byte[] bytes = md.digest();
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Creates hard links to the stored files with a single shell, which reports the index of
+	 * every link that could not be created.
+	 * @return the indices of the links that were created
+	 */
+	private BitSet link(List<File> stored, List<File> targets) throws IOException {
+		BitSet linked = new BitSet(targets.size());
+		File script = File.createTempFile("link", ".sh", root); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(script)));
+			try {
+				for (int i = 0; i < targets.size(); i++)
+					writer.write("ln " + quote(stored.get(i)) + ' ' + quote(targets.get(i)) + " 2>/dev/null || echo " + i + '\n'); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				writer.close();
+			}
+			linked.set(0, targets.size());
+			Process process;
+			try {
+				process = Runtime.getRuntime().exec(new String[] {"sh", script.getAbsolutePath()}); //$NON-NLS-1$
+			} catch (IOException e) {
+				// there is no shell, copy the files of this batch
+				return new BitSet();
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					try {
+						linked.clear(Integer.parseInt(line.trim()));
+					} catch (NumberFormatException e) {
+						// not a failed link
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			Util.readOffStream(process.getErrorStream());
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				// mark thread interrupted and copy the files that were not linked
+				Thread.currentThread().interrupt();
+			}
+			// a shell that stopped early did not create the remaining links
+			for (int i = linked.nextSetBit(0); i >= 0; i = linked.nextSetBit(i + 1)) {
+				if (!targets.get(i).isFile())
+					linked.clear(i);
+			}
+			return linked;
+		} finally {
+			script.delete();
+		}
+	}
+
+	private static String quote(File file) {
+		StringBuffer quoted = new StringBuffer("'"); //$NON-NLS-1$
+		String path = file.getAbsolutePath();
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\'')
+				quoted.append("'\\''"); //$NON-NLS-1$
+			else
+				quoted.append(c);
+		}
+		return quoted.append('\'').toString();
+	}
+}
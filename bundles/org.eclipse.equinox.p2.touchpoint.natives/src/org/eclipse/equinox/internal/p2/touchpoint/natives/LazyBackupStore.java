@@ -21,14 +21,28 @@ import java.io.IOException;
  */
 public class LazyBackupStore implements IBackupStore {
 	private BackupStore delegate;
+	private final File buParentDirectory;
 	private final String prefix;
+	private final String label;
 
 	/**
 	 * Creates a new lazy backup store
 	 * @param prefix The prefix to use in constructing the backup store directory
 	 */
 	public LazyBackupStore(String prefix) {
+		this(null, prefix, null);
+	}
+
+	/**
+	 * Creates a new lazy backup store
+	 * @param buParentDirectory The directory where the backup store directory is created, or <code>null</code>
+	 * @param prefix The prefix to use in constructing the backup store directory
+	 * @param label The label recorded in the journal of the backup store, or <code>null</code>
+	 */
+	public LazyBackupStore(File buParentDirectory, String prefix, String label) {
+		this.buParentDirectory = buParentDirectory;
 		this.prefix = prefix;
+		this.label = label;
 	}
 
 	public boolean backup(File file) throws IOException {
@@ -56,7 +70,7 @@ public class LazyBackupStore implements IBackupStore {
 	private void loadDelegate() {
 		if (delegate != null)
 			return;
-		delegate = new BackupStore(null, prefix);
+		delegate = new BackupStore(buParentDirectory, prefix, label);
 	}
 
 	public String getBackupName() {
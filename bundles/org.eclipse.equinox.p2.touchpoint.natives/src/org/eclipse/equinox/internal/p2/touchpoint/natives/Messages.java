@@ -31,6 +31,7 @@ public class Messages extends NLS {
 	public static String BackupStore_can_not_remove_bu_directory;
 	public static String BackupStore_directory_file_mismatch;
 	public static String BackupStore_directory_not_empty;
+	public static String BackupStore_discarded_committed_backup;
 	public static String BackupStore_errors_while_restoring_see_log;
 	public static String BackupStore_externally_modified_0_of_1_restored;
 	public static String BackupStore_file_directory_mismatch;
@@ -39,6 +40,7 @@ public class Messages extends NLS {
 	public static String BackupStore_missing_backup_directory;
 	public static String BackupStore_not_a_directory;
 	public static String BackupStore_restore_closed_store;
+	public static String BackupStore_restored_incomplete_backup;
 
 	public static String action_0_failed_file_1_doesNotExist;
 	public static String artifact_not_available;
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.WeakHashMap;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.ActionConstants;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -32,6 +33,13 @@ public class NativeTouchpoint extends Touchpoint {
 
 	public static final String PARM_ARTIFACT_LOCATION = "artifact.location"; //$NON-NLS-1$
 
+	/**
+	 * The phase parameter holding the data directory of the profile, where the backups are kept.
+	 */
+	public static final String PARM_PROFILE_DATA_DIRECTORY = "profileDataDirectory"; //$NON-NLS-1$
+
+	private static final String BACKUP_DIRECTORY = "backup"; //$NON-NLS-1$
+
 	private static Map<IProfile, IBackupStore> backups = new WeakHashMap<IProfile, IBackupStore>();
 
 	public IStatus initializeOperand(IProfile profile, Map<String, Object> parameters) {
@@ -51,7 +59,8 @@ public class NativeTouchpoint extends Touchpoint {
 	}
 
 	public IStatus initializePhase(IProgressMonitor monitor, IProfile profile, String phaseId, Map<String, Object> touchpointParameters) {
-		touchpointParameters.put(PARM_BACKUP, getBackupStore(profile));
+		File dataDirectory = (File) touchpointParameters.get(PARM_PROFILE_DATA_DIRECTORY);
+		touchpointParameters.put(PARM_BACKUP, getBackupStore(profile, dataDirectory == null ? null : new File(dataDirectory, BACKUP_DIRECTORY)));
 		return null;
 	}
 
@@ -122,16 +131,41 @@ public class NativeTouchpoint extends Touchpoint {
 		backups.remove(profile);
 	}
 
+	private static IBackupStore getBackupStore(IProfile profile) {
+		return getBackupStore(profile, null);
+	}
+
 	/**
 	 * Gets the transactional state associated with a profile. A transactional state is
-	 * created if it did not exist.
+	 * created if it did not exist, once the backups abandoned by earlier operations on the
+	 * profile have been recovered.
+	 * <p>
+	 * The backup is kept in the given directory, which is usually on the same volume as
+	 * the installed files, so that they are renamed rather than copied, and which is not
+	 * emptied on restart as the temporary directory can be. The journal of the backup records
+	 * the timestamp of the profile. If the profile still has this timestamp when the backup
+	 * is recovered, the operation did not complete and the backup is restored. Otherwise, the
+	 * operation was committed and the backup is discarded.
+	 * </p>
 	 * @param profile
+	 * @param directory the directory of the backup, or <code>null</code> to use the temporary directory
 	 * @return a lazily initialized backup store
 	 */
-	private static synchronized IBackupStore getBackupStore(IProfile profile) {
+	private static synchronized IBackupStore getBackupStore(IProfile profile, File directory) {
 		IBackupStore store = backups.get(profile);
 		if (store == null) {
-			store = new LazyBackupStore(escape(profile.getProfileId()));
+			String prefix = escape(profile.getProfileId());
+			String timestamp = Long.toString(profile.getTimestamp());
+			BackupStore[] abandoned = BackupStore.findAbandoned(directory, prefix);
+			for (int i = 0; i < abandoned.length; i++) {
+				try {
+					boolean restored = abandoned[i].recover(timestamp.equals(abandoned[i].getLabel()));
+					LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(restored ? Messages.BackupStore_restored_incomplete_backup : Messages.BackupStore_discarded_committed_backup, abandoned[i].getBackupName())));
+				} catch (IOException e) {
+					LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.failed_backup_restore, abandoned[i].getBackupName()), e));
+				}
+			}
+			store = new LazyBackupStore(directory, prefix, timestamp);
 			backups.put(profile, store);
 		}
 		return store;
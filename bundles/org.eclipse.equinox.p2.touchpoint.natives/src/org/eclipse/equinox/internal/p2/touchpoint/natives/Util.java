@@ -78,17 +78,15 @@ public class Util {
 
 	/**
 	 * Unzip from a File to an output directory, with progress indication and backup.
-	 * monitor and backup store may be null.
+	 * monitor and backup store may be null. The entries are written concurrently
+	 * by a {@link ZipExtractor}.
 	 */
 	public static File[] unzipFile(File zipFile, File outputDir, IBackupStore store, String taskName, IProgressMonitor monitor) throws IOException {
-		InputStream in = new FileInputStream(zipFile);
 		try {
-			return unzipStream(in, zipFile.length(), outputDir, store, taskName, monitor);
+			return new ZipExtractor(zipFile, outputDir, store).extract();
 		} catch (IOException e) {
 			// add the file name to the message
 			throw new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
-		} finally {
-			in.close();
 		}
 	}
 
@@ -163,4 +161,24 @@ public class Util {
 			}
 		}
 	}
+
+	/**
+	 * Reads a stream of a process to its end and closes it, ignoring errors.
+	 */
+	public static void readOffStream(InputStream inputStream) {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+		try {
+			while (reader.readLine() != null) {
+				// do nothing
+			}
+		} catch (IOException e) {
+			// ignore
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
 }
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.touchpoint.natives;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Extracts a zip file by reading its entries in random order, so that several threads
+ * can inflate entries at the same time.
+ * <p>
+ * The extraction has two passes. The first pass goes through the entries in the order of
+ * the zip file. It creates the folders and backs up or deletes every existing file that
+ * an entry replaces, so all backups are done before any file is written. The second pass
+ * writes the files with {@link #PROP_MAX_EXTRACTIONS} threads. When the zip file has
+ * several entries with the same name, the last one is written, as when the entries
+ * are written in order.
+ * </p>
+ */
+public class ZipExtractor {
+	/**
+	 * The maximum number of entries that are written at the same time. If this property is
+	 * undefined, the default value is the number of available processors.
+	 */
+	public static final String PROP_MAX_EXTRACTIONS = "eclipse.p2.max.extractions"; //$NON-NLS-1$
+
+	private final File zipFile;
+	private final File outputDir;
+	private final IBackupStore store;
+
+	// the files to write and their entries, set up by the first pass
+	private ZipFile zip;
+	private File[] targets;
+	private ZipEntry[] entries;
+	// guarded by this
+	private int next = 0;
+	private IOException failure = null;
+
+	/**
+	 * Creates an extractor of the given zip file into the given folder.
+	 * @param store the store used to back up replaced files, or <code>null</code> to delete them
+	 */
+	public ZipExtractor(File zipFile, File outputDir, IBackupStore store) {
+		this.zipFile = zipFile;
+		this.outputDir = outputDir;
+		this.store = store;
+	}
+
+	/**
+	 * Extracts the zip file.
+	 * @return the extracted files and folders, in the order of the zip file
+	 * @throws IOException if the zip file could not be read or a file could not be written
+	 */
+	public File[] extract() throws IOException {
+		zip = new ZipFile(zipFile);
+		try {
+			ArrayList<File> unzippedFiles = new ArrayList<File>();
+			LinkedHashMap<File, ZipEntry> files = new LinkedHashMap<File, ZipEntry>();
+			Set<File> folders = new HashSet<File>();
+			for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements();) {
+				ZipEntry ze = it.nextElement();
+				File outFile = new File(outputDir, ze.getName());
+				unzippedFiles.add(outFile);
+				if (ze.isDirectory()) {
+					if (folders.add(outFile))
+						outFile.mkdirs();
+				} else if (files.put(outFile, ze) == null) {
+					if (outFile.exists()) {
+						if (store != null)
+							store.backup(outFile);
+						else
+							outFile.delete();
+					} else {
+						File parent = outFile.getParentFile();
+						if (folders.add(parent))
+							parent.mkdirs();
+					}
+				}
+			}
+			// There must be at least one entry in a zip file.
+			if (unzippedFiles.isEmpty())
+				throw new IOException(Messages.Util_Invalid_Zip_File_Format);
+
+			targets = files.keySet().toArray(new File[files.size()]);
+			entries = files.values().toArray(new ZipEntry[files.size()]);
+			int threadCount = Math.min(targets.length, getMaximumExtractions());
+			if (threadCount <= 1)
+				writeFiles();
+			else
+				writeFiles(threadCount);
+			synchronized (this) {
+				if (failure != null)
+					throw failure;
+			}
+			return unzippedFiles.toArray(new File[unzippedFiles.size()]);
+		} finally {
+			zip.close();
+		}
+	}
+
+	private void writeFiles(int threadCount) {
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread("Unzip " + zipFile.getName()) { //$NON-NLS-1$
+				public void run() {
+					writeFiles();
+				}
+			};
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				// keep waiting, the threads end once all files are written
+				interrupted = true;
+				i--;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Writes files until all of them have been written or a file could not be written.
+	 */
+	void writeFiles() {
+		int index;
+		while ((index = nextFile()) != -1) {
+			try {
+				writeFile(entries[index], targets[index]);
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+
+	private synchronized int nextFile() {
+		return failure == null && next < targets.length ? next++ : -1;
+	}
+
+	private synchronized void failed(IOException e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	private void writeFile(ZipEntry ze, File outFile) throws IOException {
+		InputStream in = zip.getInputStream(ze);
+		try {
+			Util.copyStream(in, false, new FileOutputStream(outFile), true);
+		} catch (FileNotFoundException e) {
+			// TEMP: ignore this for now in case we're trying to replace
+			// a running eclipse.exe
+		} finally {
+			in.close();
+		}
+		outFile.setLastModified(ze.getTime());
+	}
+
+	private static int getMaximumExtractions() {
+		String maxExtractionsString = null;
+		try {
+			BundleContext context = Activator.getContext();
+			maxExtractionsString = context == null ? System.getProperty(PROP_MAX_EXTRACTIONS) : context.getProperty(PROP_MAX_EXTRACTIONS);
+			if (maxExtractionsString != null)
+				return Math.max(1, Integer.parseInt(maxExtractionsString));
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			if (maxExtractionsString != null)
+				System.err.println("Ignoring user-specified '" + PROP_MAX_EXTRACTIONS + "' value of: " + maxExtractionsString); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+}
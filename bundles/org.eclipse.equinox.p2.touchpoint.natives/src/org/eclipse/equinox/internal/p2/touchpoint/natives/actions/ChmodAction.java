@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -16,8 +16,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
-import org.eclipse.equinox.internal.p2.touchpoint.natives.Messages;
-import org.eclipse.equinox.internal.p2.touchpoint.natives.Util;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
 import org.eclipse.osgi.util.NLS;
 
@@ -63,10 +62,38 @@ public class ChmodAction extends ProvisioningAction {
 			}
 		}
 
+		// a file linked to the content store shares its mode with every other link
+		ContentStore store = ContentStore.getDefault();
+		if (store != null) {
+			try {
+				unshare(store, probe, options);
+			} catch (IOException e) {
+				return new Status(IStatus.ERROR, Activator.ID, IStatus.OK, NLS.bind(Messages.copy_failed, probe.getPath()), e);
+			}
+		}
 		chmod(targetDir, targetFile, permissions, options);
 		return Status.OK_STATUS;
 	}
 
+	/**
+	 * Replaces the given file, or with a recursive option the files below the given folder,
+	 * by copies that do not share their mode with the content store. Files that are not
+	 * linked to the store are left as they are.
+	 */
+	private static void unshare(ContentStore store, File file, String[] options) throws IOException {
+		if (file.isFile()) {
+			if (store.isShared(file))
+				ContentStore.unshare(file);
+			return;
+		}
+		boolean recursive = false;
+		for (int i = 0; options != null && i < options.length; i++)
+			recursive |= options[i].equals("-R"); //$NON-NLS-1$
+		File[] children = recursive ? file.listFiles() : null;
+		for (int i = 0; children != null && i < children.length; i++)
+			unshare(store, children[i], options);
+	}
+
 	public IStatus undo(Map<String, Object> parameters) {
 		//TODO: implement undo ??
 		return Status.OK_STATUS;
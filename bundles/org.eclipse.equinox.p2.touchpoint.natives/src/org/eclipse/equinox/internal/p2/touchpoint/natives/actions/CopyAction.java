@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2011 Cloudsmith Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -30,6 +30,7 @@ import org.eclipse.osgi.util.NLS;
  * and existing file with the same name is an error. The default is false.
  * If the source is a directory, a merge copy to the target is performed.
  * Copy will copy files and directories (recursively).
+ * When a {@link ContentStore} is configured, files are linked to the store instead of copied.
  *  
  */
 public class CopyAction extends ProvisioningAction {
@@ -101,7 +102,18 @@ public class CopyAction extends ProvisioningAction {
 	 */
 	private static File[] mergeCopy(File source, File target, boolean overwrite, IBackupStore backupStore) throws IOException {
 		ArrayList<File> copiedFiles = new ArrayList<File>();
-		xcopy(copiedFiles, source, target, overwrite, backupStore);
+		ContentStore contentStore = ContentStore.getDefault();
+		ContentStore.Batch batch = contentStore == null ? null : contentStore.newBatch();
+		xcopy(copiedFiles, source, target, overwrite, backupStore, batch);
+		if (batch != null) {
+			try {
+				batch.materialize();
+			} catch (IOException e) {
+				// get the original IOException to the log
+				e.printStackTrace();
+				throw new IOException("Error while copying:" + source.getAbsolutePath()); //$NON-NLS-1$
+			}
+		}
 		return copiedFiles.toArray(new File[copiedFiles.size()]);
 	}
 
@@ -111,9 +123,10 @@ public class CopyAction extends ProvisioningAction {
 	 * @param source
 	 * @param target
 	 * @param overwrite
+	 * @param batch - the batch of the store to link files to, or <code>null</code> to copy them
 	 * @throws IOException
 	 */
-	private static void xcopy(ArrayList<File> copiedFiles, File source, File target, boolean overwrite, IBackupStore backupStore) throws IOException {
+	private static void xcopy(ArrayList<File> copiedFiles, File source, File target, boolean overwrite, IBackupStore backupStore, ContentStore.Batch batch) throws IOException {
 		if (!source.exists())
 			throw new IOException("Source: " + source + "does not exists"); //$NON-NLS-1$//$NON-NLS-2$
 
@@ -133,7 +146,7 @@ public class CopyAction extends ProvisioningAction {
 			if (children == null)
 				throw new IOException("Error while retrieving children of directory: " + source); //$NON-NLS-1$
 			for (int i = 0; i < children.length; i++)
-				xcopy(copiedFiles, children[i], new File(target, children[i].getName()), overwrite, backupStore);
+				xcopy(copiedFiles, children[i], new File(target, children[i].getName()), overwrite, backupStore, batch);
 			return;
 		}
 		if (target.exists() && !overwrite)
@@ -143,7 +156,13 @@ public class CopyAction extends ProvisioningAction {
 			throw new IOException("Target: Path " + target.getParent() + " could not be created"); //$NON-NLS-1$//$NON-NLS-2$
 
 		try {
-			Util.copyStream(new FileInputStream(source), true, new FileOutputStream(target), true);
+			if (batch != null) {
+				// never write through an existing file, it may be linked to the store
+				if (target.exists() && !target.delete())
+					throw new IOException("Target: " + target + " could not be replaced"); //$NON-NLS-1$//$NON-NLS-2$
+				batch.add(source, target);
+			} else
+				Util.copyStream(new FileInputStream(source), true, new FileOutputStream(target), true);
 		} catch (IOException e) {
 			// get the original IOException to the log
 			e.printStackTrace();
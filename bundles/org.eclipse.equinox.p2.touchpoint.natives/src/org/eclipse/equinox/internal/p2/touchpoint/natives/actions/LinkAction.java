@@ -82,8 +82,8 @@ public class LinkAction extends ProvisioningAction {
 		Runtime r = Runtime.getRuntime();
 		try {
 			Process process = r.exec(new String[] {"ln", "-s" + (force ? "f" : ""), linkTarget, targetDir + IPath.SEPARATOR + linkName}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-			readOffStream(process.getErrorStream());
-			readOffStream(process.getInputStream());
+			Util.readOffStream(process.getErrorStream());
+			Util.readOffStream(process.getInputStream());
 			try {
 				process.waitFor();
 			} catch (InterruptedException e) {
@@ -94,21 +94,4 @@ public class LinkAction extends ProvisioningAction {
 			// ignore
 		}
 	}
-
-	private void readOffStream(InputStream inputStream) {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-		try {
-			while (reader.readLine() != null) {
-				// do nothing
-			}
-		} catch (IOException e) {
-			// ignore
-		} finally {
-			try {
-				reader.close();
-			} catch (IOException e) {
-				// ignore
-			}
-		}
-	}
 }
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Cloudsmith Inc. and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ * 	Cloudsmith Inc - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.equinox.internal.p2.transport.ecf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A pipe that hands the bytes written by the transfer thread over to the thread that
+ * reads the stream. In contrast to the {@link PipedInputStream} the bytes are kept in a
+ * bounded ring of buffers that are recycled once they have been consumed. Each side
+ * owns one buffer at a time and only synchronizes when a buffer is handed over, so
+ * there is no locking per byte and no polling.
+ * <p>
+ * The writer blocks when all buffers are filled and not yet consumed (back-pressure)
+ * and the reader blocks until a buffer has been filled or the writer has been closed.
+ * Closing the reader makes any further write fail with an {@link IOException} which in
+ * turn will abort the transfer.
+ * </p>
+ * <p>
+ * Like the {@link PipedInputStream}, a side that waits checks once a second whether the
+ * thread that last used the other side is still alive, and fails with an {@link IOException}
+ * when that thread died without closing its side. The input does not support mark and reset.
+ * </p>
+ */
+final class BufferedPipe {
+	static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	static final int DEFAULT_BUFFER_COUNT = 8;
+	private static final long WAIT_TIMEOUT = 1000;
+
+	private final int bufferSize;
+	private final int bufferCount;
+
+	// Filled buffers, in the order they were written
+	private final ByteBuffer[] filled;
+	private int filledHead;
+	private int filledCount;
+
+	// Buffers that have been consumed and can be reused by the writer
+	private final ByteBuffer[] free;
+	private int freeCount;
+	private int allocatedCount;
+
+	private boolean readerClosed;
+	private boolean writerClosed;
+	private boolean readerWaiting;
+
+	// The threads that last used each side
+	private Thread readSide;
+	private Thread writeSide;
+
+	private final Input input = new Input();
+	private final Output output = new Output();
+
+	BufferedPipe() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+	}
+
+	BufferedPipe(int bufferSize, int bufferCount) {
+		if (bufferSize <= 0 || bufferCount <= 0)
+			throw new IllegalArgumentException();
+		this.bufferSize = bufferSize;
+		this.bufferCount = bufferCount;
+		filled = new ByteBuffer[bufferCount];
+		free = new ByteBuffer[bufferCount];
+	}
+
+	InputStream getInputStream() {
+		return input;
+	}
+
+	OutputStream getOutputStream() {
+		return output;
+	}
+
+	/**
+	 * Called by the writer to obtain an empty buffer. Buffers are allocated lazily so
+	 * that small transfers never allocate the full ring.
+	 */
+	synchronized ByteBuffer acquire() throws IOException {
+		writeSide = Thread.currentThread();
+		for (;;) {
+			if (readerClosed)
+				throw new IOException("Pipe closed"); //$NON-NLS-1$
+			if (readSide != null && !readSide.isAlive())
+				throw new IOException("Read end dead"); //$NON-NLS-1$
+			if (freeCount > 0) {
+				ByteBuffer buffer = free[--freeCount];
+				free[freeCount] = null;
+				buffer.clear();
+				return buffer;
+			}
+			if (allocatedCount < bufferCount) {
+				++allocatedCount;
+				return ByteBuffer.allocate(bufferSize);
+			}
+			waitForPeer();
+		}
+	}
+
+	/**
+	 * Called by the writer to hand a buffer over to the reader.
+	 */
+	synchronized void publish(ByteBuffer buffer) throws IOException {
+		writeSide = Thread.currentThread();
+		if (readerClosed)
+			throw new IOException("Pipe closed"); //$NON-NLS-1$
+		buffer.flip();
+		filled[(filledHead + filledCount) % bufferCount] = buffer;
+		++filledCount;
+		notifyAll();
+	}
+
+	synchronized boolean isReaderWaiting() {
+		return readerWaiting;
+	}
+
+	synchronized void closeWriter() {
+		writerClosed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called by the reader to hand back a consumed buffer and obtain the next filled one.
+	 *
+	 * @return the next buffer or <code>null</code> when the writer has been closed and
+	 * all buffers have been consumed.
+	 */
+	synchronized ByteBuffer next(ByteBuffer consumed) throws IOException {
+		readSide = Thread.currentThread();
+		if (consumed != null) {
+			free[freeCount++] = consumed;
+			notifyAll();
+		}
+		while (filledCount == 0) {
+			if (writerClosed || readerClosed)
+				return null;
+			if (writeSide != null && !writeSide.isAlive())
+				throw new IOException("Write end dead"); //$NON-NLS-1$
+			readerWaiting = true;
+			try {
+				waitForPeer();
+			} finally {
+				readerWaiting = false;
+			}
+		}
+		ByteBuffer buffer = filled[filledHead];
+		filled[filledHead] = null;
+		filledHead = (filledHead + 1) % bufferCount;
+		--filledCount;
+		return buffer;
+	}
+
+	synchronized int filledBytes() {
+		int count = 0;
+		for (int idx = 0; idx < filledCount; ++idx)
+			count += filled[(filledHead + idx) % bufferCount].remaining();
+		return count;
+	}
+
+	synchronized void closeReader() {
+		readerClosed = true;
+		for (int idx = 0; idx < filledCount; ++idx)
+			filled[(filledHead + idx) % bufferCount] = null;
+		filledCount = 0;
+		notifyAll();
+	}
+
+	private void waitForPeer() throws InterruptedIOException {
+		try {
+			wait(WAIT_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private class Input extends InputStream {
+		// Only accessed by the reading thread
+		private ByteBuffer current;
+		private boolean eof;
+
+		private boolean ensureData() throws IOException {
+			if (current != null && current.hasRemaining())
+				return true;
+			if (eof)
+				return false;
+			current = next(current);
+			if (current == null) {
+				eof = true;
+				return false;
+			}
+			return true;
+		}
+
+		public int available() throws IOException {
+			int count = current == null ? 0 : current.remaining();
+			return count + filledBytes();
+		}
+
+		public void close() {
+			eof = true;
+			current = null;
+			closeReader();
+		}
+
+		public int read() throws IOException {
+			return ensureData() ? current.get() & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			if (!ensureData())
+				return -1;
+
+			// Drain what is available without blocking once something has been read
+			int total = 0;
+			do {
+				int count = Math.min(len - total, current.remaining());
+				current.get(b, off + total, count);
+				total += count;
+			} while (total < len && (current.hasRemaining() || filledBytes() > 0) && ensureData());
+			return total;
+		}
+	}
+
+	private class Output extends OutputStream {
+		// Only accessed by the writing thread
+		private ByteBuffer current;
+		private boolean closed;
+
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				flush();
+			} finally {
+				closeWriter();
+			}
+		}
+
+		public void flush() throws IOException {
+			if (current != null && current.position() > 0) {
+				ByteBuffer buffer = current;
+				current = null;
+				publish(buffer);
+			}
+		}
+
+		public void write(int b) throws IOException {
+			if (closed)
+				throw new IOException("Pipe closed"); //$NON-NLS-1$
+			if (current == null)
+				current = acquire();
+			current.put((byte) b);
+			if (!current.hasRemaining())
+				flush();
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (closed)
+				throw new IOException("Pipe closed"); //$NON-NLS-1$
+			while (len > 0) {
+				if (current == null)
+					current = acquire();
+				int count = Math.min(len, current.remaining());
+				current.put(b, off, count);
+				off += count;
+				len -= count;
+				if (!current.hasRemaining())
+					flush();
+			}
+
+			// Don't keep a reader waiting for a buffer to fill up
+			if (isReaderWaiting())
+				flush();
+		}
+	}
+}
@@ -191,26 +191,22 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 			}
 			onData(source);
 		} else if (event instanceof IIncomingFileTransferReceiveDoneEvent) {
-			if (closeStreamWhenFinished)
-				hardClose(theOutputStream);
-
+			// set the exception first, a reader of the stream must not see a clean end of a failed transfer
 			if (exception == null)
 				exception = ((IIncomingFileTransferReceiveDoneEvent) event).getException();
+
+			if (closeStreamWhenFinished)
+				hardClose(theOutputStream);
 			onDone(((IIncomingFileTransferReceiveDoneEvent) event).getSource());
 		}
 	}
 
 	public InputStream read(URI url, final IProgressMonitor monitor) throws CoreException, FileNotFoundException, AuthenticationFailedException, JREHttpClientRequiredException {
-		final PipedInputStream input = new PipedInputStream();
-		PipedOutputStream output;
-		try {
-			output = new PipedOutputStream(input);
-		} catch (IOException e) {
-			throw RepositoryStatusHelper.wrap(e);
-		}
+		BufferedPipe pipe = new BufferedPipe();
+		final InputStream input = pipe.getInputStream();
 		RepositoryTracing.debug("Downloading {0}", url); //$NON-NLS-1$
 
-		sendRetrieveRequest(url, output, null, true, monitor);
+		sendRetrieveRequest(url, pipe.getOutputStream(), null, true, monitor);
 
 		return new InputStream() {
 			public int available() throws IOException {
@@ -233,17 +229,23 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 
 			public int read() throws IOException {
 				checkException();
-				return input.read();
+				int b = input.read();
+				if (b < 0)
+					// the transfer may have ended due to an error
+					checkException();
+				return b;
 			}
 
 			public int read(byte b[]) throws IOException {
-				checkException();
-				return input.read(b);
+				return read(b, 0, b.length);
 			}
 
 			public int read(byte b[], int off, int len) throws IOException {
 				checkException();
-				return input.read(b, off, len);
+				int count = input.read(b, off, len);
+				if (count < 0)
+					checkException();
+				return count;
 			}
 
 			public void reset() throws IOException {